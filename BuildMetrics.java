@@ -0,0 +1,219 @@
+import com.google.gson.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.*;
+
+// Where the time of building and running a program went: wall time and allocation
+// per pipeline phase (translate, compile, load, run), how many statements each rule
+// matched, and the hit rates of the caches on the way. A phase may happen more than
+// once, e.g. a program run twice by batch checks; its figures are summed.
+//
+// Allocation is what the thread doing the phase allocated, so a run counts its main
+// thread only, and a run in a separate JVM has none. Every phase is also committed
+// as a JFR event, nova.Phase, which costs nothing unless a recording is on, e.g.
+// with -XX:StartFlightRecording. Thread-safe.
+final class BuildMetrics {
+    static final String TRANSLATE = "translate", COMPILE = "compile", LOAD = "load", RUN = "run";
+
+    @Name("nova.Phase")
+    @Label("Pipeline Phase")
+    @Category("Nova")
+    @Description("One phase of building or running a pseudo program")
+    static class PhaseEvent extends jdk.jfr.Event {
+        @Label("Program")
+        String program;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Wall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long wall;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    // One phase, summed over the times it happened
+    static final class Phase {
+        int count;
+        long nanos;
+        long bytes; // -1 if any occurrence could not be measured
+
+        void add(long nanos, long bytes) {
+            count++;
+            this.nanos += nanos;
+            this.bytes = bytes < 0 || this.bytes < 0 ? -1 : this.bytes + bytes;
+        }
+    }
+
+    // A phase in progress on the thread that began it
+    final class Span {
+        private final String phase;
+        private final long start, startBytes, thread;
+        private final PhaseEvent event = new PhaseEvent();
+
+        private Span(String phase) {
+            this.phase = phase;
+            thread = Thread.currentThread().getId();
+            startBytes = threadAllocatedBytes();
+            event.begin();
+            start = System.nanoTime();
+        }
+
+        void end() {
+            long nanos = System.nanoTime() - start;
+            long bytes = Thread.currentThread().getId() == thread && startBytes >= 0
+                    ? threadAllocatedBytes() - startBytes : -1;
+            event.end();
+            commit(event, phase, nanos, bytes);
+            phase(phase, nanos, bytes, false);
+        }
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION = THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+
+    // What the current thread has allocated so far, -1 if the JVM cannot tell
+    static long threadAllocatedBytes() {
+        return ALLOCATION ? ((com.sun.management.ThreadMXBean) THREADS)
+                .getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    final String program; // null if not known, e.g. for an editor's translation
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private final Map<String, Long> rules = new TreeMap<>(); // rule keyword -> statements
+    private final Map<String, long[]> caches = new TreeMap<>(); // name -> {hits, misses}
+
+    BuildMetrics(String program) {
+        this.program = program;
+    }
+
+    // Starts timing a phase on the current thread; end() it on the same thread
+    Span begin(String phase) {
+        return new Span(phase);
+    }
+
+    // A phase timed elsewhere; bytes -1 if its allocation is unknown
+    void phase(String phase, long nanos, long bytes) {
+        phase(phase, nanos, bytes, true);
+    }
+
+    private void phase(String phase, long nanos, long bytes, boolean event) {
+        if (event) {
+            PhaseEvent e = new PhaseEvent();
+            commit(e, phase, nanos, bytes);
+        }
+        synchronized (this) {
+            phases.computeIfAbsent(phase, p -> new Phase()).add(nanos, bytes);
+        }
+    }
+
+    private void commit(PhaseEvent e, String phase, long nanos, long bytes) {
+        if (!e.shouldCommit())
+            return;
+        e.program = program;
+        e.phase = phase;
+        e.wall = nanos;
+        e.allocated = bytes;
+        e.commit();
+    }
+
+    synchronized void rule(String keyword, long statements) {
+        rules.merge(keyword, statements, Long::sum);
+    }
+
+    synchronized void cache(String name, long hits, long misses) {
+        long[] counts = caches.computeIfAbsent(name, n -> new long[2]);
+        counts[0] += hits;
+        counts[1] += misses;
+    }
+
+    // Adds everything other measured to this
+    void add(BuildMetrics other) {
+        Map<String, Phase> otherPhases;
+        Map<String, Long> otherRules;
+        Map<String, long[]> otherCaches = new TreeMap<>();
+        synchronized (other) {
+            otherPhases = new LinkedHashMap<>();
+            for (Map.Entry<String, Phase> e : other.phases.entrySet()) {
+                Phase copy = new Phase();
+                copy.count = e.getValue().count;
+                copy.nanos = e.getValue().nanos;
+                copy.bytes = e.getValue().bytes;
+                otherPhases.put(e.getKey(), copy);
+            }
+            otherRules = new TreeMap<>(other.rules);
+            other.caches.forEach((name, counts) -> otherCaches.put(name, counts.clone()));
+        }
+        synchronized (this) {
+            otherPhases.forEach((name, p) -> {
+                Phase mine = phases.computeIfAbsent(name, n -> new Phase());
+                mine.count += p.count;
+                mine.nanos += p.nanos;
+                mine.bytes = mine.bytes < 0 || p.bytes < 0 ? -1 : mine.bytes + p.bytes;
+            });
+            otherRules.forEach((keyword, n) -> rules.merge(keyword, n, Long::sum));
+            otherCaches.forEach((name, counts) -> cache(name, counts[0], counts[1]));
+        }
+    }
+
+    // Phases in the order they first happened, then rules and caches, as a table
+    synchronized String summary() {
+        StringBuilder sb = new StringBuilder();
+        if (program != null)
+            sb.append(program).append('\n');
+        sb.append(String.format("%-12s %6s %12s %14s%n", "phase", "count", "wall ms", "allocated KB"));
+        for (Map.Entry<String, Phase> e : phases.entrySet()) {
+            Phase p = e.getValue();
+            sb.append(String.format("%-12s %6d %12.2f %14s%n", e.getKey(), p.count, p.nanos / 1e6,
+                    p.bytes < 0 ? "-" : String.format("%,d", p.bytes / 1024)));
+        }
+        if (!rules.isEmpty()) {
+            sb.append(String.format("%n%-24s %10s%n", "rule", "statements"));
+            rules.forEach((keyword, n) -> sb.append(String.format("%-24s %10d%n", keyword, n)));
+        }
+        if (!caches.isEmpty()) {
+            sb.append(String.format("%n%-24s %10s %10s %8s%n", "cache", "hits", "misses", "rate"));
+            caches.forEach((name, c) -> sb.append(String.format("%-24s %10d %10d %7.1f%%%n", name, c[0], c[1],
+                    c[0] + c[1] == 0 ? 0 : 100.0 * c[0] / (c[0] + c[1]))));
+        }
+        return sb.toString();
+    }
+
+    // {"program": ..., "phases": {"translate": {"count", "millis", "allocatedBytes"}, ...},
+    //  "rules": {keyword: statements}, "caches": {name: {"hits", "misses", "hitRate"}}};
+    // allocatedBytes is -1 where it is unknown
+    synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        if (program != null)
+            json.addProperty("program", program);
+        JsonObject phaseJson = new JsonObject();
+        phases.forEach((name, p) -> {
+            JsonObject o = new JsonObject();
+            o.addProperty("count", p.count);
+            o.addProperty("millis", TimeUnit.NANOSECONDS.toMicros(p.nanos) / 1000.0);
+            o.addProperty("allocatedBytes", p.bytes);
+            phaseJson.add(name, o);
+        });
+        json.add("phases", phaseJson);
+        JsonObject ruleJson = new JsonObject();
+        rules.forEach(ruleJson::addProperty);
+        json.add("rules", ruleJson);
+        JsonObject cacheJson = new JsonObject();
+        caches.forEach((name, c) -> {
+            JsonObject o = new JsonObject();
+            o.addProperty("hits", c[0]);
+            o.addProperty("misses", c[1]);
+            o.addProperty("hitRate", c[0] + c[1] == 0 ? 0 : (double) c[0] / (c[0] + c[1]));
+            cacheJson.add(name, o);
+        });
+        json.add("caches", cacheJson);
+        return json;
+    }
+}
@@ -0,0 +1,151 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// The builds and runs of one editor tab. Every tab has its own console and running
+// program, so tabs translate and run side by side without touching each other's
+// state. All tabs compile in one warm javac session, where every compile gets its
+// own in-memory file manager. Work that takes time happens on a pool of build
+// threads shared by all sessions, or on the javac session's thread; the EDT only
+// starts it and shows the outcome.
+//
+// A session has one build at a time. Starting the next one, or stop(), cancels it:
+// its program is stopped, and the steps it still had coming find their Build
+// cancelled and do nothing, so a slow old build cannot overwrite a newer one.
+final class BuildSession {
+
+    // Translating afresh, interpreting, writing class files and starting JVMs
+    private static final ExecutorService BUILDS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "nova-build");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // One build, from translation to the end of its program; the cancellation token
+    // its steps check
+    static final class Build {
+        private volatile boolean cancelled;
+        private Process process; // EDT only
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            if (process != null)
+                process.destroy();
+        }
+    }
+
+    // Loaded and warmed up in the background when the first tab opens
+    private static final NovaCompiler COMPILER = new NovaCompiler();
+
+    static {
+        COMPILER.warmUp();
+    }
+
+    final NovaCompiler compiler = COMPILER; // shared by all sessions
+    final JTextArea outputArea = new JTextArea();
+    final ConsoleSink console;
+    final JPanel panel = new JPanel(new BorderLayout()); // the console and its dropped-lines label
+    volatile BuildMetrics lastMetrics; // of the last Compile & Run, shown by View > Build Metrics
+    private Build current = new Build(); // EDT only
+    private BufferedWriter processWriter; // EDT only: standard input of the current build's program
+
+    BuildSession(int consoleMaxLines, int consoleMaxChars) {
+        outputArea.setFont(new Font("Consolas", Font.PLAIN, 14));
+        outputArea.setBackground(new Color(20, 20, 20));
+        outputArea.setForeground(new Color(255, 200, 50));
+        outputArea.setLineWrap(true);
+        outputArea.setWrapStyleWord(true);
+        JLabel droppedLabel = new JLabel(" ");
+        droppedLabel.setForeground(Color.GRAY);
+        console = new ConsoleSink(outputArea, droppedLabel, consoleMaxLines, consoleMaxChars);
+        panel.add(new JScrollPane(outputArea), BorderLayout.CENTER);
+        panel.add(droppedLabel, BorderLayout.SOUTH);
+
+        outputArea.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER && processWriter != null) {
+                    e.consume(); // the console adds the line break itself
+                    try {
+                        processWriter.write(console.takeInput() + "\n");
+                        processWriter.flush();
+                    } catch (IOException ex) {
+                        outputArea.append("\n[Error sending input: " + ex.getMessage() + "]");
+                    }
+                }
+            }
+        });
+    }
+
+    // EDT only: cancels the current build and starts the next
+    Build begin() {
+        current.cancel();
+        processWriter = null;
+        current = new Build();
+        return current;
+    }
+
+    // EDT only: stops the current build and its program
+    void stop() {
+        current.cancel();
+    }
+
+    // EDT only: stops everything, for a tab that is closed. Its compiles still queued
+    // in the shared javac session find their Build cancelled.
+    void close() {
+        stop();
+    }
+
+    // Runs work on a build thread
+    static <T> CompletableFuture<T> background(Callable<T> work) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return work.call();
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, BUILDS);
+    }
+
+    // Hands the outcome of a step of build to then on the EDT, with the exception
+    // unwrapped, unless the build has been cancelled by then
+    static <T> void then(Build build, CompletionStage<T> step, BiConsumer<T, Throwable> then) {
+        step.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+            if (!build.isCancelled())
+                then.accept(value, error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+        }));
+    }
+
+    // EDT only: the program of build, whose output goes to the console and which gets
+    // what is typed there. A program that comes too late is stopped.
+    void attach(Build build, Process process) {
+        if (build.isCancelled() || build != current) {
+            process.destroy();
+            return;
+        }
+        build.process = process;
+        processWriter = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+        console.attach(process);
+    }
+
+    // The same for a program still being started elsewhere; failed gets, on the EDT,
+    // why it could not start unless the build is cancelled by then
+    void attach(Build build, CompletionStage<? extends Process> starting, Consumer<Throwable> failed) {
+        starting.whenComplete((process, error) -> SwingUtilities.invokeLater(() -> {
+            if (process != null)
+                attach(build, process);
+            else if (!build.isCancelled())
+                failed.accept(error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                        : error);
+        }));
+    }
+}
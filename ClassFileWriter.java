@@ -0,0 +1,546 @@
+import java.io.*;
+import java.util.*;
+
+// Writes one class file: fields, methods and their bytecode, assembled with labels.
+// It covers what NovaInterpreter needs to compile a program without javac and no
+// more. Classes are written as version 49 (Java 5), the last one the JVM verifies by
+// inferring the types itself, so no stack map frames are needed; the stack depth and
+// the locals a method uses are worked out while its instructions are added.
+//
+// Mistakes in the instructions are not checked for beyond the stack depth; the JVM's
+// verifier rejects the class when it is loaded.
+final class ClassFileWriter implements Opcodes {
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolSize = 1;
+
+    private final int access;
+    private final int thisClass, superClass;
+    private final int sourceFile;
+    private final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+    private int fieldCount;
+    private final List<Code> methods = new ArrayList<>();
+
+    // name and superName are internal names, like "java/lang/Object"; sourceFile is
+    // what stack traces show, or null
+    ClassFileWriter(int access, String name, String superName, String sourceFile) {
+        this.access = access;
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.sourceFile = sourceFile == null ? 0 : utf8(sourceFile);
+    }
+
+    void field(int access, String name, String descriptor) {
+        DataOutputStream out = new DataOutputStream(fields);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // not for a ByteArrayOutputStream
+        }
+        fieldCount++;
+    }
+
+    // A method whose instructions are then added to the Code returned
+    Code method(int access, String name, String descriptor) {
+        Code code = new Code(access, utf8(name), utf8(descriptor),
+                words(descriptor, 1) + ((access & ACC_STATIC) != 0 ? 0 : 1));
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        for (Code m : methods)
+            m.finish();
+        int code = utf8("Code"), lines = utf8("LineNumberTable"), source = utf8("SourceFile");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(poolBytes.size() + 4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            if (poolSize > 0xFFFF)
+                throw new IllegalStateException("too many constants");
+            out.writeShort(poolSize);
+            poolBytes.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(fieldCount);
+            fields.writeTo(out);
+            out.writeShort(methods.size());
+            for (Code m : methods)
+                m.writeTo(out, code, lines);
+            if (sourceFile == 0) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(source);
+                out.writeInt(2);
+                out.writeShort(sourceFile);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    // ---- the constant pool ----
+
+    private int constant(String key, int tag, int size, PoolEntry entry) {
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(tag);
+            entry.write(pool);
+        } catch (UTFDataFormatException ex) {
+            throw new IllegalStateException("a string constant is too long");
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        constants.put(key, poolSize);
+        poolSize += size;
+        return poolSize - size;
+    }
+
+    private interface PoolEntry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int utf8(String s) {
+        return constant("U" + s, 1, 1, out -> out.writeUTF(s));
+    }
+
+    private int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, 7, 1, out -> out.writeShort(name));
+    }
+
+    private int string(String s) {
+        int utf = utf8(s);
+        return constant("S" + s, 8, 1, out -> out.writeShort(utf));
+    }
+
+    private int integer(int v) {
+        return constant("I" + v, 3, 1, out -> out.writeInt(v));
+    }
+
+    private int longConstant(long v) {
+        return constant("J" + v, 5, 2, out -> out.writeLong(v));
+    }
+
+    private int doubleConstant(double v) {
+        long bits = Double.doubleToRawLongBits(v);
+        return constant("D" + bits, 6, 2, out -> out.writeLong(bits));
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int cls = classRef(owner), n = utf8(name), d = utf8(descriptor);
+        int nameAndType = constant("N" + name + " " + descriptor, 12, 1, out -> {
+            out.writeShort(n);
+            out.writeShort(d);
+        });
+        return constant(tag + owner + "." + name + " " + descriptor, tag, 1, out -> {
+            out.writeShort(cls);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    // Stack or local variable words of the parameters of a method descriptor, or of
+    // its result when params is 0
+    private static int words(String descriptor, int params) {
+        int close = descriptor.indexOf(')');
+        if (params == 0) {
+            char r = descriptor.charAt(close + 1);
+            return r == 'V' ? 0 : r == 'J' || r == 'D' ? 2 : 1;
+        }
+        int n = 0;
+        for (int i = 1; i < close; i++) {
+            char c = descriptor.charAt(i);
+            boolean array = c == '[';
+            while (c == '[')
+                c = descriptor.charAt(++i);
+            if (c == 'L')
+                i = descriptor.indexOf(';', i);
+            n += !array && (c == 'J' || c == 'D') ? 2 : 1;
+        }
+        return n;
+    }
+
+    private static int words(String fieldDescriptor) {
+        char c = fieldDescriptor.charAt(0);
+        return c == 'J' || c == 'D' ? 2 : 1;
+    }
+
+    // ---- methods ----
+
+    // A position in a method's code that jumps go to; placed once
+    static final class Label {
+        private int offset = -1;
+        private int stack = -1; // depth on arrival; -1 until something jumps here
+        private final List<Integer> jumps = new ArrayList<>(2); // offsets of the jump instructions
+    }
+
+    // The instructions of one method. After a return, throw or goto the code is
+    // unreachable until a label that is jumped to is placed, and instructions added
+    // meanwhile are left out. A label placed there must have been jumped to already.
+    final class Code {
+        private final int access, name, descriptor;
+        private byte[] code = new byte[64];
+        private int length;
+        private int stack, maxStack, maxLocals;
+        private final List<int[]> handlers = new ArrayList<>(); // start, end, handler, type
+        private final List<Label[]> handlerLabels = new ArrayList<>();
+        private final List<int[]> lines = new ArrayList<>(); // start pc, line
+        private int lastLine = -1;
+
+        private Code(int access, int name, int descriptor, int params) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = params;
+        }
+
+        boolean reachable() {
+            return stack >= 0;
+        }
+
+        // The source line of the instructions added from here on
+        void line(int line) {
+            if (line == lastLine || !reachable())
+                return;
+            if (!lines.isEmpty() && lines.get(lines.size() - 1)[0] == length)
+                lines.remove(lines.size() - 1);
+            lines.add(new int[] { length, line });
+            lastLine = line;
+        }
+
+        // An instruction without operands
+        void op(int opcode) {
+            if (!reachable())
+                return;
+            byte1(opcode);
+            adjust(delta(opcode));
+            if (opcode >= IRETURN && opcode <= RETURN || opcode == ATHROW)
+                stack = -1;
+        }
+
+        void iconst(int v) {
+            if (!reachable())
+                return;
+            if (v >= -1 && v <= 5) {
+                byte1(ICONST_0 + v);
+            } else if (v == (byte) v) {
+                byte1(BIPUSH);
+                byte1(v);
+            } else if (v == (short) v) {
+                byte1(SIPUSH);
+                byte2(v);
+            } else {
+                ldc(integer(v));
+            }
+            adjust(1);
+        }
+
+        void lconst(long v) {
+            if (!reachable())
+                return;
+            if (v == 0 || v == 1) {
+                byte1(LCONST_0 + (int) v);
+            } else {
+                byte1(LDC2_W);
+                byte2(longConstant(v));
+            }
+            adjust(2);
+        }
+
+        void dconst(double v) {
+            if (!reachable())
+                return;
+            if (Double.doubleToRawLongBits(v) == 0L || v == 1.0) {
+                byte1(DCONST_0 + (int) v);
+            } else {
+                byte1(LDC2_W);
+                byte2(doubleConstant(v));
+            }
+            adjust(2);
+        }
+
+        void sconst(String s) {
+            if (!reachable())
+                return;
+            ldc(string(s));
+            adjust(1);
+        }
+
+        private void ldc(int index) {
+            if (index < 256) {
+                byte1(LDC);
+                byte1(index);
+            } else {
+                byte1(LDC_W);
+                byte2(index);
+            }
+        }
+
+        // ILOAD, LLOAD, DLOAD or ALOAD, and the matching stores
+        void local(int opcode, int index) {
+            if (!reachable())
+                return;
+            if (index > 255)
+                throw new IllegalStateException("too many local variables");
+            byte1(opcode);
+            byte1(index);
+            boolean wide = opcode == LLOAD || opcode == DLOAD || opcode == LSTORE || opcode == DSTORE;
+            adjust((opcode >= ISTORE ? -1 : 1) * (wide ? 2 : 1));
+            maxLocals = Math.max(maxLocals, index + (wide ? 2 : 1));
+        }
+
+        void iinc(int index, int delta) {
+            if (!reachable())
+                return;
+            if (index > 255 || delta != (byte) delta)
+                throw new IllegalArgumentException("iinc " + index + " " + delta);
+            byte1(IINC);
+            byte1(index);
+            byte1(delta);
+            maxLocals = Math.max(maxLocals, index + 1);
+        }
+
+        // GETSTATIC, GETFIELD or PUTFIELD
+        void field(int opcode, String owner, String name, String descriptor) {
+            if (!reachable())
+                return;
+            byte1(opcode);
+            byte2(member(9, owner, name, descriptor));
+            int w = words(descriptor);
+            adjust(opcode == GETSTATIC ? w : opcode == GETFIELD ? w - 1 : -w - 1);
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            if (!reachable())
+                return;
+            byte1(opcode);
+            byte2(member(10, owner, name, descriptor));
+            adjust(words(descriptor, 0) - words(descriptor, 1) - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        // NEW, ANEWARRAY, CHECKCAST or INSTANCEOF
+        void type(int opcode, String internalName) {
+            if (!reachable())
+                return;
+            byte1(opcode);
+            byte2(classRef(internalName));
+            adjust(opcode == NEW ? 1 : 0);
+        }
+
+        void newarray(int elementType) {
+            if (!reachable())
+                return;
+            byte1(NEWARRAY);
+            byte1(elementType);
+        }
+
+        void multianewarray(String descriptor, int dimensions) {
+            if (!reachable())
+                return;
+            byte1(MULTIANEWARRAY);
+            byte2(classRef(descriptor));
+            byte1(dimensions);
+            adjust(1 - dimensions);
+        }
+
+        // A conditional jump or GOTO
+        void jump(int opcode, Label target) {
+            if (!reachable())
+                return;
+            int at = length;
+            byte1(opcode);
+            byte2(0);
+            adjust(opcode == GOTO ? 0 : opcode >= IF_ICMPEQ && opcode <= IF_ACMPNE ? -2 : -1);
+            arrive(target, stack);
+            if (target.offset >= 0)
+                patch(at, target.offset);
+            else
+                target.jumps.add(at);
+            if (opcode == GOTO)
+                stack = -1;
+        }
+
+        void place(Label label) {
+            if (label.offset >= 0)
+                throw new IllegalStateException("label placed twice");
+            label.offset = length;
+            if (reachable())
+                arrive(label, stack);
+            stack = label.stack;
+            for (int at : label.jumps)
+                patch(at, label.offset);
+            label.jumps.clear();
+            lastLine = -1;
+        }
+
+        // Exceptions of type (an internal name) thrown between start and end go to
+        // handler, with the exception on the stack. Handlers are tried in the order
+        // they are added.
+        void tryCatch(Label start, Label end, Label handler, String type) {
+            arrive(handler, 1);
+            handlerLabels.add(new Label[] { start, end, handler });
+            handlers.add(new int[] { 0, 0, 0, classRef(type) });
+        }
+
+        private void arrive(Label label, int depth) {
+            if (label.stack >= 0 && label.stack != depth)
+                throw new IllegalStateException("stack depth " + depth + " at a label reached with " + label.stack);
+            label.stack = depth;
+        }
+
+        private void patch(int at, int target) {
+            int offset = target - at;
+            if (offset != (short) offset)
+                throw new IllegalStateException("method too large");
+            code[at + 1] = (byte) (offset >> 8);
+            code[at + 2] = (byte) offset;
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack < 0)
+                throw new IllegalStateException("stack underflow");
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void byte1(int b) {
+            if (length == code.length)
+                code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) b;
+        }
+
+        private void byte2(int b) {
+            byte1(b >> 8);
+            byte1(b);
+        }
+
+        private void finish() {
+            if (length > 0xFFFF)
+                throw new IllegalStateException("method too large");
+            for (int i = 0; i < handlers.size(); i++) {
+                Label[] l = handlerLabels.get(i);
+                if (l[0].offset < 0 || l[1].offset < 0 || l[2].offset < 0)
+                    throw new IllegalStateException("a handler label was never placed");
+                int[] h = handlers.get(i);
+                h[0] = l[0].offset;
+                h[1] = l[1].offset;
+                h[2] = l[2].offset;
+            }
+            handlers.removeIf(h -> h[0] == h[1]); // nothing is tried
+        }
+
+        private void writeTo(DataOutputStream out, int codeName, int linesName) throws IOException {
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            int linesSize = lines.isEmpty() ? 0 : 8 + 4 * lines.size();
+            out.writeInt(12 + length + 8 * handlers.size() + linesSize);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(handlers.size());
+            for (int[] h : handlers)
+                for (int v : h)
+                    out.writeShort(v);
+            if (lines.isEmpty()) {
+                out.writeShort(0);
+                return;
+            }
+            out.writeShort(1);
+            out.writeShort(linesName);
+            out.writeInt(2 + 4 * lines.size());
+            out.writeShort(lines.size());
+            for (int[] l : lines) {
+                out.writeShort(l[0]);
+                out.writeShort(l[1]);
+            }
+        }
+    }
+
+    // Stack effect of an instruction without operands
+    private static int delta(int opcode) {
+        switch (opcode) {
+            case ACONST_NULL:
+            case DUP:
+            case DUP_X1:
+            case DUP_X2:
+            case I2L:
+            case I2D:
+                return 1;
+            case DUP2:
+            case DUP2_X1:
+            case DUP2_X2:
+                return 2;
+            case IALOAD:
+            case AALOAD:
+            case BALOAD:
+            case CALOAD:
+            case POP:
+            case IADD:
+            case ISUB:
+            case IMUL:
+            case IDIV:
+            case IREM:
+            case ISHL:
+            case ISHR:
+            case IUSHR:
+            case IAND:
+            case IOR:
+            case IXOR:
+            case LSHL:
+            case LSHR:
+            case LUSHR:
+            case L2I:
+            case D2I:
+            case IRETURN:
+            case ARETURN:
+            case ATHROW:
+                return -1;
+            case POP2:
+            case LADD:
+            case LSUB:
+            case LMUL:
+            case LDIV:
+            case LREM:
+            case LAND:
+            case LOR:
+            case LXOR:
+            case DADD:
+            case DSUB:
+            case DMUL:
+            case DDIV:
+            case DREM:
+            case LRETURN:
+            case DRETURN:
+                return -2;
+            case IASTORE:
+            case AASTORE:
+            case BASTORE:
+            case CASTORE:
+            case DCMPL:
+            case DCMPG:
+            case LCMP:
+                return -3;
+            case LASTORE:
+            case DASTORE:
+                return -4;
+            default: // LALOAD, DALOAD, SWAP, negations, L2D, D2L, I2C, ARRAYLENGTH, RETURN
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import org.fife.ui.autocomplete.*;
+import javax.swing.text.JTextComponent;
+import java.util.*;
+
+// The completions the editor offers, one index shared by all tabs: the words that
+// start the rules in rules.json, Java keywords, and the classes, fields, methods and
+// constructors that the open programs declare. Entries live in a trie by their
+// lower-cased text, so a lookup walks down the typed prefix and collects the entries
+// below it in order, without looking at any others. A symbol that several tabs
+// declare is stored once and counted; update() replaces what one tab declares by
+// the difference to last time, and a branch of the trie goes away with its last
+// entry. EDT only.
+final class CompletionIndex {
+    static final String KEYWORD = "keyword", RULE = "rule", CLASS = "class", FIELD = "field", METHOD = "method",
+            CONSTRUCTOR = "constructor";
+
+    private static final int MAX_COMPLETIONS = 200;
+
+    private static final String[] JAVA_KEYWORDS = { "public", "private", "protected", "class", "static", "void",
+            "int", "double", "boolean", "if", "else", "for", "while", "return", "new", "import", "String" };
+
+    // Something to complete: the text inserted, what it is, and a line about it
+    static final class Symbol {
+        final String name;
+        final String kind;
+        final String detail;
+
+        Symbol(String name, String kind, String detail) {
+            this.name = name;
+            this.kind = kind;
+            this.detail = detail;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Symbol))
+                return false;
+            Symbol s = (Symbol) o;
+            return name.equals(s.name) && kind.equals(s.kind) && detail.equals(s.detail);
+        }
+
+        @Override
+        public int hashCode() {
+            return (name.hashCode() * 31 + kind.hashCode()) * 31 + detail.hashCode();
+        }
+    }
+
+    // A symbol in the trie and how many tabs declare it; keywords and rules count once
+    private static final class Entry {
+        final Symbol symbol;
+        final Completion completion;
+        int count;
+
+        Entry(Symbol symbol, Completion completion) {
+            this.symbol = symbol;
+            this.completion = completion;
+        }
+    }
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    // Children are sorted by their character, so a walk visits entries in text order
+    private static final class Node {
+        char[] keys = NO_KEYS;
+        Node[] children = NO_NODES;
+        int size;
+        List<Entry> entries; // whose text ends here; null if none
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, 0, size, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node addChild(char c) {
+            int i = Arrays.binarySearch(keys, 0, size, c);
+            if (i >= 0)
+                return children[i];
+            i = -i - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(2, size * 2));
+                children = Arrays.copyOf(children, keys.length);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(children, i, children, i + 1, size - i);
+            keys[i] = c;
+            children[i] = new Node();
+            size++;
+            return children[i];
+        }
+
+        void removeChild(char c) {
+            int i = Arrays.binarySearch(keys, 0, size, c);
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(children, i + 1, children, i, size - i - 1);
+            children[--size] = null;
+        }
+
+        boolean isEmpty() {
+            return size == 0 && entries == null;
+        }
+    }
+
+    private final Node root = new Node();
+    private final Map<Object, Set<Symbol>> declared = new HashMap<>(); // tab -> its symbols
+    private final DefaultCompletionProvider provider = new DefaultCompletionProvider() {
+        @Override
+        protected List<Completion> getCompletionsImpl(JTextComponent comp) {
+            return lookup(getAlreadyEnteredText(comp));
+        }
+    };
+    private int entries;
+
+    // Seeded with the rules' leading words, each rule's keyword where it is what a line
+    // starts with (e.g. "parallel for"), and Java keywords; a word is there once, with
+    // the first rule that has it
+    CompletionIndex(NovaTranslator translator) {
+        for (NovaTranslator.Rule r : translator.getRules()) {
+            String about = r.keyword + ": " + r.template;
+            for (String pattern : r.patterns) {
+                List<String> words = NovaTranslator.RuleIndex.leadingWords(pattern);
+                if (words != null)
+                    for (String w : words)
+                        add(new Symbol(w, RULE, about));
+                if (r.keyword.indexOf(' ') > 0 && startsWithPhrase(pattern, r.keyword))
+                    add(new Symbol(r.keyword, RULE, about));
+            }
+        }
+        for (String kw : JAVA_KEYWORDS)
+            add(new Symbol(kw, KEYWORD, "Java keyword"));
+    }
+
+    // Whether a pattern matches lines that start with the words of phrase, e.g.
+    // "^input\s+int\s+(\w+)$" and "input int"
+    private static boolean startsWithPhrase(String pattern, String phrase) {
+        String literal = pattern.replaceFirst("^\\^", "").replaceAll("\\\\s[+*]", " ");
+        return literal.regionMatches(true, 0, phrase, 0, phrase.length()) && (literal.length() == phrase.length()
+                || !NovaLexer.isWordChar(literal.charAt(phrase.length())));
+    }
+
+    // The provider for the text areas' AutoCompletion; one for all of them
+    CompletionProvider provider() {
+        return provider;
+    }
+
+    // What tab declares from now on, e.g. after its code was translated again
+    void update(Object tab, Set<Symbol> symbols) {
+        Set<Symbol> old = declared.getOrDefault(tab, Collections.emptySet());
+        if (old.equals(symbols))
+            return;
+        for (Symbol s : old)
+            if (!symbols.contains(s))
+                remove(s);
+        for (Symbol s : symbols)
+            if (!old.contains(s))
+                add(s);
+        if (symbols.isEmpty())
+            declared.remove(tab);
+        else
+            declared.put(tab, new HashSet<>(symbols));
+    }
+
+    // For a tab that is closed
+    void remove(Object tab) {
+        update(tab, Collections.emptySet());
+    }
+
+    int size() {
+        return entries;
+    }
+
+    // The completions whose text starts with prefix, ignoring case, in text order; at
+    // most MAX_COMPLETIONS
+    List<Completion> lookup(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++)
+            node = node.child(Character.toLowerCase(prefix.charAt(i)));
+        List<Completion> found = new ArrayList<>();
+        if (node != null)
+            collect(node, found);
+        return found;
+    }
+
+    private static void collect(Node node, List<Completion> found) {
+        if (node.entries != null)
+            for (Entry e : node.entries) {
+                if (found.size() == MAX_COMPLETIONS)
+                    return;
+                found.add(e.completion);
+            }
+        for (int i = 0; i < node.size && found.size() < MAX_COMPLETIONS; i++)
+            collect(node.children[i], found);
+    }
+
+    private void add(Symbol s) {
+        Node node = root;
+        for (int i = 0; i < s.name.length(); i++)
+            node = node.addChild(Character.toLowerCase(s.name.charAt(i)));
+        if (node.entries == null)
+            node.entries = new ArrayList<>(1);
+        boolean fixed = s.kind.equals(RULE) || s.kind.equals(KEYWORD);
+        for (Entry e : node.entries) {
+            boolean eFixed = e.symbol.kind.equals(RULE) || e.symbol.kind.equals(KEYWORD);
+            if (fixed && eFixed && e.symbol.name.equals(s.name))
+                return;
+            if (e.symbol.equals(s)) {
+                e.count++;
+                return;
+            }
+        }
+        Entry e = new Entry(s, new BasicCompletion(provider, s.name, s.detail));
+        e.count = 1;
+        node.entries.add(e);
+        entries++;
+    }
+
+    private void remove(Symbol s) {
+        remove(root, s, 0);
+    }
+
+    // Whether node is left empty
+    private boolean remove(Node node, Symbol s, int depth) {
+        if (depth == s.name.length()) {
+            if (node.entries == null)
+                return false;
+            for (Iterator<Entry> it = node.entries.iterator(); it.hasNext();) {
+                Entry e = it.next();
+                if (e.symbol.equals(s) && --e.count == 0) {
+                    it.remove();
+                    entries--;
+                }
+            }
+            if (node.entries.isEmpty())
+                node.entries = null;
+            return node.isEmpty();
+        }
+        char c = Character.toLowerCase(s.name.charAt(depth));
+        Node child = node.child(c);
+        if (child != null && remove(child, s, depth + 1))
+            node.removeChild(c);
+        return node.isEmpty();
+    }
+
+    // What the nodes parsed from one line declare; activeClass is the class the line is in
+    static List<Symbol> symbols(NovaAst.Node[] nodes, String activeClass) {
+        List<Symbol> found = new ArrayList<>(0);
+        for (NovaAst.Node node : nodes) {
+            if (node instanceof NovaAst.ClassDecl) {
+                NovaAst.ClassDecl c = (NovaAst.ClassDecl) node;
+                if (!c.implicit)
+                    found.add(new Symbol(c.name, CLASS, c.parent != null ? "class " + c.name + " extends " + c.parent
+                            : "class " + c.name));
+                activeClass = c.name;
+            } else if (node instanceof NovaAst.MethodDecl && ((NovaAst.MethodDecl) node).name != null) {
+                NovaAst.MethodDecl m = (NovaAst.MethodDecl) node;
+                boolean constructor = m.name.equals(activeClass);
+                found.add(new Symbol(m.name, constructor ? CONSTRUCTOR : METHOD,
+                        constructor ? m.signature : m.signature + " in " + activeClass));
+            } else if (node instanceof NovaAst.FieldDecl) {
+                String declaration = ((NovaAst.FieldDecl) node).declaration;
+                String[] words = NovaLexer.words(declaration.endsWith(";")
+                        ? declaration.substring(0, declaration.length() - 1) : declaration);
+                if (!declaration.startsWith("//") && words.length >= 2)
+                    found.add(new Symbol(words[words.length - 1], FIELD,
+                            words[words.length - 2] + " " + words[words.length - 1] + " in " + activeClass));
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,187 @@
+import javax.swing.*;
+import javax.swing.text.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Program output on its way to the console text area. Any thread may append; text
+// is queued lock-free and written to the document in one batch at most every
+// FLUSH_MILLIS on the EDT. The document is capped at maxLines/maxChars by trimming
+// its head, and output arriving faster than the EDT can take it is dropped from
+// the head of the queue; both are counted in droppedLines.
+//
+// Whatever the user types after the last output is the program's next input line.
+// The sink knows where that input starts, so reading it on Enter costs the length of
+// the line, not of the document; output that arrives meanwhile goes in front of it.
+class ConsoleSink {
+    private static final int FLUSH_MILLIS = 16;
+
+    private final JTextArea area;
+    private final JLabel status; // shows the dropped-lines counter; may be null
+    private final int maxLines, maxChars;
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingChars = new AtomicLong();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Timer timer;
+    private int inputStart; // EDT only: document offset where the typed input begins
+
+    private static final ThreadFactory READER_THREADS = r -> {
+        Thread t = new Thread(r, "nova-console-reader");
+        t.setDaemon(true);
+        return t;
+    };
+
+    ConsoleSink(JTextArea area, JLabel status, int maxLines, int maxChars) {
+        this.area = area;
+        this.status = status;
+        this.maxLines = maxLines;
+        this.maxChars = maxChars;
+        timer = new Timer(FLUSH_MILLIS, e -> flush());
+        timer.setRepeats(false);
+    }
+
+    // Thread-safe; the text shows up with the next batch
+    void append(String text) {
+        if (text.isEmpty())
+            return;
+        pending.add(text);
+        long queued = pendingChars.addAndGet(text.length());
+        // the EDT is falling behind: the oldest output would be trimmed anyway
+        while (queued > maxChars) {
+            String old = pending.poll();
+            if (old == null)
+                break;
+            queued = pendingChars.addAndGet(-old.length());
+            droppedLines.addAndGet(countLines(old));
+        }
+        if (flushScheduled.compareAndSet(false, true))
+            SwingUtilities.invokeLater(timer::restart);
+    }
+
+    // EDT only: drops queued output and the document, then shows text
+    void setText(String text) {
+        pending.clear();
+        pendingChars.set(0);
+        droppedLines.set(0);
+        area.setText(text);
+        inputStart = area.getDocument().getLength();
+        updateStatus();
+    }
+
+    // EDT only: the line typed since the last output or Enter, which moves on to the
+    // next line of the console
+    String takeInput() {
+        Document doc = area.getDocument();
+        int start = Math.min(inputStart, doc.getLength());
+        String line;
+        try {
+            line = doc.getText(start, doc.getLength() - start);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex); // start lies within the document
+        }
+        area.append("\n");
+        inputStart = doc.getLength();
+        area.setCaretPosition(inputStart);
+        return line;
+    }
+
+    long droppedLines() {
+        return droppedLines.get();
+    }
+
+    // Pumps the process's stdout and stderr into this sink on two reader threads
+    // that go away once both streams end; a process that exits while something
+    // else still holds its pipes open has them closed after a short grace period.
+    void attach(Process process) {
+        ExecutorService readers = Executors.newFixedThreadPool(2, READER_THREADS);
+        readers.submit(() -> pump(process.getInputStream()));
+        readers.submit(() -> pump(process.getErrorStream()));
+        readers.shutdown();
+        process.onExit().thenRun(() -> {
+            try {
+                if (!readers.awaitTermination(1, TimeUnit.SECONDS)) {
+                    process.getInputStream().close();
+                    process.getErrorStream().close();
+                }
+            } catch (InterruptedException | IOException ignored) {
+            }
+        });
+    }
+
+    private void pump(InputStream stream) {
+        try (Reader reader = new InputStreamReader(stream)) {
+            char[] buf = new char[8192];
+            int n;
+            while ((n = reader.read(buf)) > 0)
+                append(new String(buf, 0, n));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        StringBuilder batch = new StringBuilder();
+        String s;
+        while ((s = pending.poll()) != null) {
+            batch.append(s);
+            pendingChars.addAndGet(-s.length());
+        }
+        if (batch.length() == 0)
+            return;
+        Document doc = area.getDocument();
+        int at = Math.min(inputStart, doc.getLength());
+        try {
+            doc.insertString(at, batch.toString(), null);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex); // at lies within the document
+        }
+        inputStart = at + batch.length();
+        trim();
+        area.setCaretPosition(area.getDocument().getLength());
+        updateStatus();
+    }
+
+    private void trim() {
+        Document doc = area.getDocument();
+        Element root = doc.getDefaultRootElement();
+        int cut = 0, lines = 0;
+        if (root.getElementCount() > maxLines) {
+            lines = root.getElementCount() - maxLines;
+            cut = root.getElement(lines).getStartOffset();
+        }
+        if (doc.getLength() - cut > maxChars) {
+            // keep whole lines unless the last line alone is over the cap
+            int from = doc.getLength() - maxChars;
+            lines = root.getElementIndex(from);
+            cut = root.getElement(lines).getStartOffset();
+            if (cut < from && lines + 1 < root.getElementCount())
+                cut = root.getElement(++lines).getStartOffset();
+            else if (cut < from)
+                cut = from;
+        }
+        if (cut == 0)
+            return;
+        try {
+            doc.remove(0, cut);
+            inputStart = Math.max(0, inputStart - cut);
+            droppedLines.addAndGet(lines);
+        } catch (BadLocationException ignored) {
+        }
+    }
+
+    private void updateStatus() {
+        if (status == null)
+            return;
+        long n = droppedLines.get();
+        status.setText(n == 0 ? " " : "dropped " + n + (n == 1 ? " line" : " lines"));
+    }
+
+    private static int countLines(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) == '\n')
+                n++;
+        return n;
+    }
+}
@@ -0,0 +1,184 @@
+import org.fife.ui.rsyntaxtextarea.*;
+import org.fife.ui.rsyntaxtextarea.parser.*;
+import javax.swing.*;
+import javax.swing.text.*;
+import javax.tools.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+// Compile-as-you-type checking of one editor tab: an RSyntaxTextArea Parser that
+// puts squiggles under the pseudo lines with problems. The text area calls parse()
+// on the EDT once typing has paused for DELAY_MILLIS; parse() only copies the text
+// to start a check and shows what the last finished check found, so a keystroke
+// costs the EDT nothing and a pause one copy of the document.
+//
+// A check translates the copy afresh, with line marks (NovaTranslator.lineMarked),
+// on a build thread, and has javac analyze the Java on the javac session's thread,
+// which parses and attributes it without generating code. The problems are the
+// translator's ERROR comments and javac's errors and warnings, each traced back to
+// its pseudo line. Starting a check cancels the one in flight.
+class DiagnosticsParser extends AbstractParser {
+    private static final int DELAY_MILLIS = 400;
+    private static final int MAX_PROBLEMS = 200;
+
+    // A problem on a pseudo line
+    static final class Problem {
+        final int line; // 1-based
+        final boolean error; // else a warning
+        final String message;
+
+        Problem(int line, boolean error, String message) {
+            this.line = line;
+            this.error = error;
+            this.message = message;
+        }
+    }
+
+    private final RSyntaxTextArea area;
+    private final Supplier<NovaTranslator> translator; // the tab's, for its I/O mode and passes
+    private final NovaCompiler compiler;
+    private List<Problem> problems = Collections.emptyList(); // EDT only: of the last check that finished
+    private AtomicBoolean cancelled = new AtomicBoolean(); // EDT only: of the check in flight
+    private boolean showing; // EDT only: parse() is to show a finished check, not start one
+
+    DiagnosticsParser(RSyntaxTextArea area, Supplier<NovaTranslator> translator, NovaCompiler compiler) {
+        this.area = area;
+        this.translator = translator;
+        this.compiler = compiler;
+        area.setParserDelay(DELAY_MILLIS);
+        area.addParser(this);
+    }
+
+    // Cancels the check in flight and takes the squiggles away, for a tab that is closed
+    void close() {
+        cancelled.set(true);
+        area.removeParser(this);
+    }
+
+    @Override
+    public ParseResult parse(RSyntaxDocument doc, String style) {
+        if (showing)
+            showing = false;
+        else
+            check(doc);
+        Element root = doc.getDefaultRootElement();
+        DefaultParseResult result = new DefaultParseResult(this);
+        result.setParsedLines(0, root.getElementCount() - 1);
+        for (Problem p : problems) {
+            if (p.line > root.getElementCount())
+                continue;
+            Element line = root.getElement(p.line - 1);
+            int start = line.getStartOffset(), end = Math.min(line.getEndOffset() - 1, doc.getLength());
+            DefaultParserNotice notice = new DefaultParserNotice(this, p.message, p.line - 1, start, end - start);
+            notice.setLevel(p.error ? ParserNotice.Level.ERROR : ParserNotice.Level.WARNING);
+            result.addNotice(notice);
+        }
+        return result;
+    }
+
+    private void check(RSyntaxDocument doc) {
+        String text;
+        try {
+            text = doc.getText(0, doc.getLength());
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex); // the whole document
+        }
+        cancelled.set(true);
+        AtomicBoolean mine = new AtomicBoolean();
+        cancelled = mine;
+        NovaTranslator marked = translator.get().lineMarked(true);
+        BuildSession.background(() -> {
+            try (PseudoSource in = PseudoSource.of(new StringReader(text))) {
+                return marked.translate(in);
+            }
+        }).thenCompose(t -> {
+            if (mine.get())
+                throw new CancellationException();
+            return compiler.check(t.sources, mine::get).thenApply(diagnostics -> problems(t, diagnostics));
+        }).thenAccept(found -> SwingUtilities.invokeLater(() -> show(mine, found)));
+    }
+
+    private void show(AtomicBoolean check, List<Problem> found) {
+        if (check.get())
+            return; // text has changed since
+        problems = found;
+        showing = true;
+        area.forceReparsing(this);
+    }
+
+    // The problems of a lineMarked() translation and of javac's diagnostics on it, by
+    // pseudo line; at most MAX_PROBLEMS
+    static List<Problem> problems(NovaTranslator.Translation t, List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        List<Problem> found = new ArrayList<>();
+        Map<String, int[]> pseudoLines = new HashMap<>(); // class name -> pseudo line of each Java line
+        for (Map.Entry<String, String> e : t.sources.entrySet()) {
+            String[] lines = e.getValue().split("\n", -1);
+            int[] pseudo = pseudoLines(lines);
+            if (pseudo == null)
+                continue; // a bundled class
+            pseudoLines.put(e.getKey(), pseudo);
+            for (int i = 0; i < lines.length; i++) {
+                String message = translationError(lines[i]);
+                if (message != null)
+                    found.add(new Problem(pseudo[i], !message.startsWith(NovaParallel.IN_SEQUENCE), message));
+            }
+        }
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+            if (d.getKind() == Diagnostic.Kind.NOTE || d.getKind() == Diagnostic.Kind.OTHER
+                    || !(d.getSource() instanceof NovaCompiler.SourceFile))
+                continue;
+            int[] pseudo = pseudoLines.get(((NovaCompiler.SourceFile) d.getSource()).className);
+            if (pseudo == null || d.getLineNumber() < 1 || d.getLineNumber() > pseudo.length)
+                continue;
+            found.add(new Problem(pseudo[(int) d.getLineNumber() - 1], d.getKind() == Diagnostic.Kind.ERROR,
+                    message(d)));
+        }
+        found.sort(Comparator.comparingInt(p -> p.line));
+        return found.size() > MAX_PROBLEMS ? new ArrayList<>(found.subList(0, MAX_PROBLEMS)) : found;
+    }
+
+    // A Java line without a mark belongs to the marked line above it, or below it at
+    // the top of a class. Null if no line has a mark.
+    private static int[] pseudoLines(String[] lines) {
+        int[] pseudo = new int[lines.length];
+        int last = -1;
+        for (int i = 0; i < lines.length; i++) {
+            int line = NovaTranslator.markedLine(lines[i]);
+            pseudo[i] = line >= 0 ? line : last;
+            if (line >= 0)
+                last = line;
+        }
+        if (last < 0)
+            return null;
+        for (int i = lines.length - 1; i >= 0; i--)
+            if (pseudo[i] < 0)
+                pseudo[i] = last;
+            else
+                last = pseudo[i];
+        return pseudo;
+    }
+
+    // The message of an ERROR comment on a line of generated Java, or null
+    private static String translationError(String java) {
+        int at = java.indexOf("// ERROR");
+        if (at < 0)
+            at = java.indexOf("/* ERROR");
+        if (at < 0)
+            return null;
+        int end = java.startsWith("/*", at) ? java.indexOf("*/", at) : java.lastIndexOf(NovaTranslator.LINE_MARK);
+        String message = java.substring(at + "// ERROR".length(), end > at ? end : java.length()).trim();
+        return message.startsWith(":") ? message.substring(1).trim() : message;
+    }
+
+    // javac's message on one line, e.g. "cannot find symbol, symbol: variable x, location: class Main"
+    private static String message(Diagnostic<? extends JavaFileObject> d) {
+        StringJoiner joined = new StringJoiner(", ");
+        for (String line : d.getMessage(null).split("\\r?\\n"))
+            if (!line.isBlank())
+                joined.add(line.trim().replaceAll("\\s+", " "));
+        return joined.toString();
+    }
+}
@@ -0,0 +1,426 @@
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+
+// A compiled program run inside the IDE's JVM instead of a new "java" process.
+// Its classes are defined by a throwaway class loader, main runs on its own thread,
+// and System.in/out/err are routed per run, so the console code that talks to a
+// real Process works unchanged. Programs that call System.exit must still run
+// out of process, and so must those with parallel streams (usesParallelStreams).
+// Any other entry point, like an interpreted program, can be run the same way.
+class InProcessProgram extends Process {
+
+    // What a run executes on its thread. An exception of the program itself is
+    // wrapped in an InvocationTargetException, as reflection would.
+    interface Entry {
+        void run() throws ReflectiveOperationException;
+    }
+
+    // Thrown into the program's threads when they touch stdin/stdout after a stop
+    static class Cancelled extends Error {
+        Cancelled() {
+            super("Program stopped", null, false, false);
+        }
+    }
+
+    // Bounded in-memory byte pipe between the program and the console
+    static class Pipe {
+        private final byte[] buf = new byte[8192];
+        private int head, count;
+        private boolean writeClosed, readClosed;
+
+        final InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return 0;
+                synchronized (Pipe.this) {
+                    while (count == 0 && !writeClosed && !readClosed)
+                        await();
+                    if (count == 0)
+                        return -1;
+                    int n = Math.min(len, Math.min(count, buf.length - head));
+                    System.arraycopy(buf, head, b, off, n);
+                    head = (head + n) % buf.length;
+                    count -= n;
+                    Pipe.this.notifyAll();
+                    return n;
+                }
+            }
+
+            @Override
+            public int available() {
+                synchronized (Pipe.this) {
+                    return count;
+                }
+            }
+
+            @Override
+            public void close() {
+                closeRead();
+            }
+        };
+
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (Pipe.this) {
+                    while (len > 0) {
+                        while (count == buf.length && !readClosed && !writeClosed)
+                            await();
+                        if (readClosed || writeClosed)
+                            throw new IOException("Pipe closed");
+                        int tail = (head + count) % buf.length;
+                        int n = Math.min(len, Math.min(buf.length - count, buf.length - tail));
+                        System.arraycopy(b, off, buf, tail, n);
+                        count += n;
+                        off += n;
+                        len -= n;
+                        Pipe.this.notifyAll();
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+                closeWrite();
+            }
+        };
+
+        synchronized void closeRead() {
+            readClosed = true;
+            notifyAll();
+        }
+
+        synchronized void closeWrite() {
+            writeClosed = true;
+            notifyAll();
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    // System.in/out/err are replaced once by streams that forward to the run the
+    // calling thread belongs to, or to the IDE's own streams outside of any run.
+    private static final InheritableThreadLocal<InProcessProgram> CURRENT = new InheritableThreadLocal<>();
+    private static PrintStream systemOut, systemErr;
+    private static InputStream systemIn;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "nova-run-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // How long a stopped program gets to notice before its thread is killed
+    private static final long STOP_GRACE_MILLIS = 2000;
+
+    private static synchronized void installRouting() {
+        if (systemOut != null)
+            return;
+        systemOut = System.out;
+        systemErr = System.err;
+        systemIn = System.in;
+        System.setOut(new PrintStream(new RoutedOutput(false), true));
+        System.setErr(new PrintStream(new RoutedOutput(true), true));
+        System.setIn(new RoutedInput());
+    }
+
+    // The run whose program is executing on this thread, if it is still attached
+    private static InProcessProgram route() {
+        InProcessProgram run = CURRENT.get();
+        if (run == null)
+            return null;
+        if (run.cancelled && run.ownsCurrentThread())
+            throw new Cancelled();
+        return run.exit.isDone() ? null : run;
+    }
+
+    private static class RoutedOutput extends OutputStream {
+        private final boolean err;
+
+        RoutedOutput(boolean err) {
+            this.err = err;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            InProcessProgram run = route();
+            if (run != null)
+                (err ? run.stderr : run.stdout).out.write(b, off, len);
+            else
+                (err ? systemErr : systemOut).write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            if (CURRENT.get() == null)
+                (err ? systemErr : systemOut).flush();
+        }
+    }
+
+    private static class RoutedInput extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            InProcessProgram run = route();
+            int n = run != null ? run.stdin.in.read(b, off, len) : systemIn.read(b, off, len);
+            if (run != null && run.cancelled)
+                throw new Cancelled();
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            InProcessProgram run = route();
+            return run != null ? run.stdin.in.available() : systemIn.available();
+        }
+    }
+
+    private final Pipe stdin = new Pipe(), stdout = new Pipe(), stderr = new Pipe();
+    private final CompletableFuture<Process> exit = new CompletableFuture<>();
+    private final ThreadGroup group;
+    private final Thread thread;
+    private volatile ClassLoader loader; // the program's classes, for a run started from class files
+    private volatile boolean cancelled;
+    private volatile int exitCode;
+
+    private InProcessProgram(String name, Entry entry) {
+        group = new ThreadGroup("nova-" + name);
+        thread = new Thread(group, () -> runMain(name, entry), "main");
+        thread.setDaemon(true);
+    }
+
+    // Starts mainClass.main(); timeoutMillis <= 0 means no wall-clock limit
+    static InProcessProgram start(Map<String, byte[]> classes, String mainClass, long timeoutMillis) {
+        return start(classes, mainClass, timeoutMillis, null);
+    }
+
+    // The same, timing the load and run phases into metrics unless it is null
+    static InProcessProgram start(Map<String, byte[]> classes, String mainClass, long timeoutMillis,
+            BuildMetrics metrics) {
+        ClassLoader loader = new NovaCompiler.MemoryClassLoader(classes, ClassLoader.getPlatformClassLoader());
+        InProcessProgram run = start(mainClass, () -> {
+            BuildMetrics.Span load = metrics == null ? null : metrics.begin(BuildMetrics.LOAD);
+            Method main = Class.forName(mainClass, true, loader).getMethod("main", String[].class);
+            if (load != null)
+                load.end();
+            BuildMetrics.Span running = metrics == null ? null : metrics.begin(BuildMetrics.RUN);
+            try {
+                main.invoke(null, (Object) new String[0]);
+            } finally {
+                if (running != null)
+                    running.end();
+            }
+        }, timeoutMillis);
+        run.loader = loader;
+        return run;
+    }
+
+    // Whether compiled classes use parallel streams, e.g. a lowered parallel for. Their
+    // work runs on the common ForkJoinPool, whose threads are not the run's: what they
+    // print bypasses its routing, and destroy() cannot stop them.
+    static boolean usesParallelStreams(Map<String, byte[]> classes) {
+        for (byte[] b : classes.values())
+            if (contains(b, "java/util/stream/") && contains(b, "parallel"))
+                return true;
+        return false;
+    }
+
+    // Whether a class file has text in its constant pool, or anywhere else
+    private static boolean contains(byte[] b, String text) {
+        byte[] t = text.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        search: for (int i = 0; i + t.length <= b.length; i++) {
+            for (int j = 0; j < t.length; j++)
+                if (b[i + j] != t[j])
+                    continue search;
+            return true;
+        }
+        return false;
+    }
+
+    // One of the program's classes, e.g. to read what it left in its static fields;
+    // null if there is no such class or the run did not start from class files
+    Class<?> programClass(String name) {
+        if (loader == null)
+            return null;
+        try {
+            return Class.forName(name, true, loader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // Starts entry on a thread of its own, named after the program
+    static InProcessProgram start(String name, Entry entry, long timeoutMillis) {
+        installRouting();
+        InProcessProgram run = new InProcessProgram(name, entry);
+        run.thread.start();
+        if (timeoutMillis > 0) {
+            ScheduledFuture<?> timeout = TIMER.schedule(() -> {
+                run.message("\n[Run timed out after " + timeoutMillis / 1000.0 + " s]\n");
+                run.destroy();
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            run.exit.thenRun(() -> timeout.cancel(false));
+        }
+        return run;
+    }
+
+    private void runMain(String name, Entry entry) {
+        CURRENT.set(this);
+        int code = 0;
+        try {
+            entry.run();
+        } catch (InvocationTargetException e) {
+            Throwable t = e.getCause();
+            if (!(t instanceof Cancelled) && !cancelled) {
+                trimReflectionFrames(t);
+                PrintStream err = new PrintStream(stderr.out, true);
+                err.print("Exception in thread \"main\" ");
+                t.printStackTrace(err);
+            }
+            code = 1;
+        } catch (Cancelled e) {
+            code = 1;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            message("Error: could not run " + name + ": " + e + "\n");
+            code = 1;
+        } finally {
+            CURRENT.remove();
+        }
+        finish(cancelled ? 143 : code);
+    }
+
+    // Drops the frames of this runner below the program's main
+    private static void trimReflectionFrames(Throwable t) {
+        StackTraceElement[] frames = t.getStackTrace();
+        for (int i = 0; i < frames.length; i++) {
+            String cls = frames[i].getClassName();
+            if (cls.startsWith("jdk.internal.reflect.") || cls.equals("java.lang.reflect.Method")) {
+                t.setStackTrace(Arrays.copyOf(frames, i));
+                return;
+            }
+        }
+    }
+
+    private void message(String text) {
+        try {
+            stderr.out.write(text.getBytes());
+        } catch (IOException ignored) {
+        }
+    }
+
+    private synchronized void finish(int code) {
+        if (exit.isDone())
+            return;
+        exitCode = code;
+        stdout.closeWrite();
+        stderr.closeWrite();
+        stdin.closeRead();
+        exit.complete(this);
+    }
+
+    private boolean ownsCurrentThread() {
+        ThreadGroup g = Thread.currentThread().getThreadGroup();
+        return g != null && (g == group || group.parentOf(g));
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return stdin.out;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return stdout.in;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return stderr.in;
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        try {
+            exit.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        return exitCode;
+    }
+
+    @Override
+    public int exitValue() {
+        if (!exit.isDone())
+            throw new IllegalThreadStateException("Program is still running");
+        return exitCode;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return !exit.isDone();
+    }
+
+    @Override
+    public CompletableFuture<Process> onExit() {
+        return exit.thenApply(p -> p);
+    }
+
+    // Stops the program: blocked reads/writes and further I/O throw Cancelled, and
+    // a program still spinning after the grace period has its thread killed.
+    @Override
+    @SuppressWarnings({ "deprecation", "removal" })
+    public void destroy() {
+        if (exit.isDone())
+            return;
+        cancelled = true;
+        group.interrupt();
+        stdin.closeWrite();
+        TIMER.schedule(() -> {
+            if (!thread.isAlive())
+                return;
+            try {
+                thread.stop();
+            } catch (UnsupportedOperationException e) {
+                message("\n[Program did not stop; its thread was abandoned]\n");
+            }
+            finish(143);
+        }, STOP_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Process destroyForcibly() {
+        destroy();
+        return this;
+    }
+}
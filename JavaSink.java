@@ -0,0 +1,90 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+// Where the translator writes generated classes. Each class is written exactly
+// once, through the Writer returned by open(), which the translator closes when
+// the class is complete.
+interface JavaSink {
+
+    Writer open(String className) throws IOException;
+
+    // Discards every class written so far
+    void reset() throws IOException;
+
+    // Keeps the sources as strings, in the order they were written
+    class Memory implements JavaSink {
+        private final Map<String, String> sources = new LinkedHashMap<>();
+
+        @Override
+        public Writer open(String className) {
+            // a StringWriter would lock its StringBuffer on every write
+            StringBuilder text = new StringBuilder();
+            return new Writer() {
+                @Override
+                public void write(char[] buf, int off, int len) {
+                    text.append(buf, off, len);
+                }
+
+                @Override
+                public void write(String s, int off, int len) {
+                    text.append(s, off, off + len);
+                }
+
+                @Override
+                public Writer append(CharSequence s) {
+                    text.append(s);
+                    return this;
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                    sources.put(className, text.toString());
+                }
+            };
+        }
+
+        @Override
+        public void reset() {
+            sources.clear();
+        }
+
+        Map<String, String> sources() {
+            return sources;
+        }
+    }
+
+    // Writes <ClassName>.java files into a directory
+    class Directory implements JavaSink {
+        private final Path dir;
+        private final List<Path> files = new ArrayList<>();
+
+        Directory(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public Writer open(String className) throws IOException {
+            Path file = dir.resolve(className + ".java");
+            files.add(file);
+            // like String.getBytes(): unmappable characters become '?' rather than an error
+            return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), Charset.defaultCharset()));
+        }
+
+        @Override
+        public void reset() throws IOException {
+            for (Path f : files)
+                Files.deleteIfExists(f);
+            files.clear();
+        }
+
+        List<Path> files() {
+            return files;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import com.google.gson.*;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// What a profiled program (NovaTranslator.profiled) counted per pseudo line: how
+// often the line started and how much of the run's time the sampler charged to it.
+// Read from the program's NovaProfile after an in-process run, or from the file a
+// separate JVM wrote with -Dnova.profile; written as JSON by batch mode.
+class LineProfile {
+
+    static class Line {
+        int line; // 1-based, as in the pseudo file
+        long hits;
+        double millis;
+    }
+
+    String program; // set by whoever reads the profile
+    double totalMillis;
+    List<Line> lines = new ArrayList<>();
+
+    static LineProfile parse(String json) {
+        try {
+            LineProfile p = new Gson().fromJson(json, LineProfile.class);
+            if (p == null || p.lines == null)
+                throw new IOException("not a profile");
+            return p;
+        } catch (JsonParseException | IOException ex) {
+            throw new IllegalArgumentException("Bad profile: " + ex.getMessage(), ex);
+        }
+    }
+
+    static LineProfile read(Path file) throws IOException {
+        return parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    // The profile of a run that has ended; null if its program was not profiled
+    static LineProfile of(InProcessProgram run) {
+        Class<?> profile = run.programClass("NovaProfile");
+        if (profile == null)
+            return null;
+        try {
+            Method json = profile.getMethod("json");
+            return parse((String) json.invoke(null));
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    String toJson() {
+        return new GsonBuilder().setPrettyPrinting().create().toJson(this);
+    }
+
+    // The lines that took the most time, or ran the most often when too short to sample
+    List<Line> hottest(int n) {
+        List<Line> sorted = new ArrayList<>(lines);
+        sorted.sort(Comparator.comparingDouble((Line l) -> l.millis).thenComparingLong(l -> l.hits).reversed());
+        return sorted.subList(0, Math.min(n, sorted.size()));
+    }
+
+    // From 0 for an idle line to 1 for the hottest: share of the most sampled
+    // time, or of the most hits if nothing was sampled
+    double heat(Line l) {
+        double maxMillis = 0;
+        long maxHits = 0;
+        for (Line other : lines) {
+            maxMillis = Math.max(maxMillis, other.millis);
+            maxHits = Math.max(maxHits, other.hits);
+        }
+        if (maxMillis > 0)
+            return l.millis / maxMillis;
+        return maxHits == 0 ? 0 : (double) l.hits / maxHits;
+    }
+}
@@ -0,0 +1,268 @@
+import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Keeps the translation of one editor document up to date while it is edited. Each
+// line of the document has an entry with its text and the nodes it was parsed into,
+// together with the block context it was parsed in: for an object-oriented program
+// the class it belongs to and whether it is inside a method. Document events drop
+// the entries of the lines an edit touched; a refresh on a background thread then
+// parses only lines without nodes, or whose context changed because the edit opened
+// or closed a class or method above them, and generates the Java from the nodes.
+//
+// A refresh starts shortly after typing stops, or right away when translation() is
+// asked for the current text. Listeners are told about every new translation on the
+// EDT. Reused nodes keep the line number they were first parsed at, so they are for
+// code generation only; positions come from NovaTranslator.parse().
+//
+// Each translation carries the BuildMetrics of the refresh that made it: the time
+// and allocation of parsing and generating, the statements per rule, and how many
+// lines were reused as the "parsed lines" cache. Along with it comes what the program
+// declares, for completion: each line's classes, fields, methods and constructors
+// are found when the line is parsed and kept with its nodes.
+class LiveTranslation implements DocumentListener {
+    private static final int DELAY_MILLIS = 150;
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "nova-live-translation");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // One document line. The text is set on the EDT; everything else belongs to the
+    // worker thread.
+    private static final class Line {
+        final String text;
+        byte marker = -1; // NovaParser.isOOPMarker(text) once known, 0 or 1
+        NovaAst.Node[] nodes; // null until parsed
+        List<CompletionIndex.Symbol> symbols; // what the nodes declare
+        boolean objectOriented; // mode the nodes were parsed in
+        String activeClass, nextClass; // parser state before and after the line
+        boolean inMethod, nextInMethod;
+
+        Line(String text) {
+            this.text = text;
+        }
+    }
+
+    private NovaTranslator translator; // set on the EDT, passed to each refresh
+    private final Document doc;
+    private final List<Line> lines = new ArrayList<>(); // one per document line, null once edited
+    private final Timer timer;
+    private final List<Consumer<NovaTranslator.Translation>> listeners = new ArrayList<>();
+    private boolean stale; // edited since the last refresh started
+    private CompletableFuture<NovaTranslator.Translation> latest; // the last refresh started
+    private NovaTranslator.Translation current;
+    private Set<CompletionIndex.Symbol> symbols = Collections.emptySet(); // of current
+    private long started, published; // refresh generations
+
+    LiveTranslation(NovaTranslator translator, Document doc) {
+        this.translator = translator;
+        this.doc = doc;
+        lines.addAll(Collections.nCopies(doc.getDefaultRootElement().getElementCount(), null));
+        timer = new Timer(DELAY_MILLIS, e -> refresh());
+        timer.setRepeats(false);
+        doc.addDocumentListener(this);
+        refresh();
+    }
+
+    // The translation of the document as it is now. It is complete already unless the
+    // text changed since the last refresh.
+    CompletableFuture<NovaTranslator.Translation> translation() {
+        return stale ? refresh() : latest;
+    }
+
+    // The newest finished translation, possibly of an older text; null before the first
+    NovaTranslator.Translation current() {
+        return current;
+    }
+
+    // What the program of current() declares
+    Set<CompletionIndex.Symbol> symbols() {
+        return symbols;
+    }
+
+    // Generates code with another translator from now on, e.g. the fast I/O one. The
+    // rules must be the same, since parsed lines are kept.
+    void setTranslator(NovaTranslator translator) {
+        this.translator = translator;
+        refresh();
+    }
+
+    NovaTranslator translator() {
+        return translator;
+    }
+
+    void addListener(Consumer<NovaTranslator.Translation> listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Consumer<NovaTranslator.Translation> listener) {
+        listeners.remove(listener);
+    }
+
+    void close() {
+        timer.stop();
+        doc.removeDocumentListener(this);
+        listeners.clear();
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        // the line the text went into is split, the lines after it are new
+        Element root = doc.getDefaultRootElement();
+        int first = root.getElementIndex(e.getOffset());
+        int added = root.getElementCount() - lines.size();
+        lines.set(first, null);
+        if (added > 0)
+            lines.addAll(first + 1, Collections.nCopies(added, null));
+        edited();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        // the lines the removed text spanned are joined into the first of them
+        Element root = doc.getDefaultRootElement();
+        int first = root.getElementIndex(e.getOffset());
+        int removed = lines.size() - root.getElementCount();
+        if (removed > 0)
+            lines.subList(first + 1, first + 1 + removed).clear();
+        lines.set(first, null);
+        edited();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // attributes only
+    }
+
+    private void edited() {
+        stale = true;
+        timer.restart();
+    }
+
+    private CompletableFuture<NovaTranslator.Translation> refresh() {
+        timer.stop();
+        stale = false;
+        Line[] snapshot = snapshot();
+        boolean empty = doc.getLength() == 0;
+        NovaTranslator translator = this.translator;
+        long generation = ++started;
+        Set<CompletionIndex.Symbol> declared = new LinkedHashSet<>();
+        latest = CompletableFuture.supplyAsync(() -> {
+            try {
+                return translate(translator, snapshot, empty, declared);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex); // only a spill file can fail
+            }
+        }, WORKER);
+        latest.thenAccept(t -> SwingUtilities.invokeLater(() -> publish(generation, t, declared)));
+        return latest;
+    }
+
+    // The entries of all lines, reading the text of edited ones from the document
+    private Line[] snapshot() {
+        Element root = doc.getDefaultRootElement();
+        if (lines.size() != root.getElementCount()) { // an edit was missed; start over
+            lines.clear();
+            lines.addAll(Collections.nCopies(root.getElementCount(), null));
+        }
+        Line[] snapshot = new Line[lines.size()];
+        for (int i = 0; i < snapshot.length; i++) {
+            Line line = lines.get(i);
+            if (line == null) {
+                line = new Line(text(root.getElement(i)));
+                lines.set(i, line);
+            }
+            snapshot[i] = line;
+        }
+        return snapshot;
+    }
+
+    // A line of the document as PseudoSource would read it: without its '\n' and one
+    // '\r' before that. The last line's end is past the end of the document.
+    private String text(Element line) {
+        int start = line.getStartOffset(), end = Math.min(line.getEndOffset(), doc.getLength());
+        String s;
+        try {
+            s = doc.getText(start, end - start);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex); // elements always lie within the document
+        }
+        int n = s.length();
+        if (n > 0 && s.charAt(n - 1) == '\n')
+            n--;
+        if (n > 0 && s.charAt(n - 1) == '\r')
+            n--;
+        return s.substring(0, n);
+    }
+
+    // Runs on the worker thread; what the program declares is added to declared
+    private static NovaTranslator.Translation translate(NovaTranslator translator, Line[] snapshot, boolean empty,
+            Set<CompletionIndex.Symbol> declared) throws IOException {
+        // the lines text.split("\\r?\\n") gives: none of the empty ones at the end,
+        // unless the text is empty
+        int n = snapshot.length;
+        while (n > 0 && snapshot[n - 1].text.isEmpty())
+            n--;
+        if (empty)
+            n = 1;
+
+        boolean objectOriented = false;
+        for (int i = 0; i < n && !objectOriented; i++) {
+            Line line = snapshot[i];
+            if (line.marker < 0)
+                line.marker = (byte) (NovaParser.isOOPMarker(line.text) ? 1 : 0);
+            objectOriented = line.marker == 1;
+        }
+
+        BuildMetrics metrics = new BuildMetrics(null);
+        BuildMetrics.Span span = metrics.begin(BuildMetrics.TRANSLATE);
+        long reused = 0;
+        NovaParser parser = translator.lineParser(objectOriented);
+        List<NovaAst.Node> nodes = new ArrayList<>(n + 16);
+        List<NovaAst.Node> parsed = new ArrayList<>(2);
+        for (int i = 0; i < n; i++) {
+            Line line = snapshot[i];
+            if (line.nodes != null && line.objectOriented == objectOriented && (!objectOriented
+                    || Objects.equals(line.activeClass, parser.activeClass()) && line.inMethod == parser.inMethod())) {
+                parser.resume(line.nextClass, line.nextInMethod);
+                reused++;
+            } else {
+                line.objectOriented = objectOriented;
+                line.activeClass = parser.activeClass();
+                line.inMethod = parser.inMethod();
+                parsed.clear();
+                parser.line(line.text, i + 1, parsed);
+                line.nodes = parsed.toArray(new NovaAst.Node[0]);
+                line.symbols = objectOriented ? CompletionIndex.symbols(line.nodes, line.activeClass)
+                        : Collections.emptyList();
+                line.nextClass = parser.activeClass();
+                line.nextInMethod = parser.inMethod();
+            }
+            Collections.addAll(nodes, line.nodes);
+            declared.addAll(line.symbols);
+        }
+        Iterator<NovaAst.Node> it = nodes.iterator();
+        NovaTranslator.Translation t = translator.measured(metrics).generate(objectOriented,
+                () -> it.hasNext() ? it.next() : null);
+        span.end();
+        metrics.cache("parsed lines", reused, n - reused);
+        return t;
+    }
+
+    private void publish(long generation, NovaTranslator.Translation t, Set<CompletionIndex.Symbol> declared) {
+        if (generation < published)
+            return; // a later refresh got there first
+        published = generation;
+        current = t;
+        symbols = declared;
+        for (Consumer<NovaTranslator.Translation> l : new ArrayList<>(listeners))
+            l.accept(t);
+    }
+}
@@ -0,0 +1,344 @@
+import java.util.*;
+
+// Syntax tree of a pseudo program, as produced by NovaParser. Every node knows where
+// it starts in the source: the 1-based line, and the 1-based column of its first
+// character in that line.
+final class NovaAst {
+    private NovaAst() {
+    }
+
+    abstract static class Node {
+        final int line, column;
+
+        Node(int line, int column) {
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    // A whole program: procedural statements, or classes when it is object oriented
+    static class Program {
+        final boolean objectOriented;
+        final List<Statement> main; // procedural only
+        final List<ClassDecl> classes; // object oriented only, in order of first declaration
+
+        Program(List<Statement> main) {
+            this.objectOriented = false;
+            this.main = main;
+            this.classes = Collections.emptyList();
+        }
+
+        Program(Collection<ClassDecl> classes) {
+            this.objectOriented = true;
+            this.main = Collections.emptyList();
+            this.classes = new ArrayList<>(classes);
+        }
+    }
+
+    // Returned by NovaParser.next() when a program read as procedural turns out to be
+    // object oriented: the nodes returned so far are void, and the program is read
+    // again from its first line.
+    static final class Restart extends Node {
+        Restart(int line, int column) {
+            super(line, column);
+        }
+    }
+
+    // One line of code. RULE lines matched a rules.json pattern; INPUT and PRINT lines
+    // start with those words but matched no rule; anything else is RAW, taken to be
+    // Java already.
+    static final class Statement extends Node {
+        static final int RULE = 0, INPUT = 1, PRINT = 2, RAW = 3;
+
+        final int kind;
+        final String text; // the line, trimmed
+        final NovaTranslator.Rule rule; // RULE only
+        final int groupCount;
+        final boolean opens, closes; // starts and/or ends a block, like "} else {"
+        private final int[] groups; // start and end of each group in text, -1 if it did not take part
+        private Expr[] exprs;
+
+        // Filled in by NovaParser.parse() for a statement that opens a block
+        List<Statement> body;
+        Statement end; // what closed the block; null if nothing did
+
+        Statement(int kind, String text, NovaTranslator.Rule rule, int[] groups, int groupCount, boolean opens,
+                boolean closes, int line, int column) {
+            super(line, column);
+            this.kind = kind;
+            this.text = text;
+            this.rule = rule;
+            this.groups = groups;
+            this.groupCount = groupCount;
+            this.opens = opens;
+            this.closes = closes;
+        }
+
+        // Group 0 is the whole line. PRINT lines have their argument as group 1.
+        int start(int group) {
+            return groups[2 * group];
+        }
+
+        int end(int group) {
+            return groups[2 * group + 1];
+        }
+
+        String group(int group) {
+            return start(group) < 0 ? null : text.substring(start(group), end(group));
+        }
+
+        // The group parsed as a Java expression, on first use; null if the group did not
+        // take part. Syntax errors come back as an Invalid node where they were found.
+        // Group 0 of a RAW line is parsed as a statement: it may be a Declaration, and may
+        // end in a ';'.
+        Expr expr(int group) {
+            if (exprs == null)
+                exprs = new Expr[groupCount + 1];
+            if (exprs[group] == null && start(group) >= 0)
+                exprs[group] = NovaParser.expression(text, start(group), end(group), line, column,
+                        kind == RAW && group == 0);
+            return exprs[group];
+        }
+    }
+
+    // "class Name" or "class Name, Parent". Code before the first class line belongs
+    // to an implicit class Main. parse() merges a class that is opened again into its
+    // first declaration, so the lists describe the whole class.
+    static final class ClassDecl extends Node {
+        final String name;
+        String parent; // nullable
+        final boolean implicit;
+        final List<FieldDecl> fields = new ArrayList<>();
+        final List<MethodDecl> methods = new ArrayList<>();
+        final List<Statement> main = new ArrayList<>(); // statements outside methods
+
+        ClassDecl(String name, String parent, boolean implicit, int line, int column) {
+            super(line, column);
+            this.name = name;
+            this.parent = parent;
+            this.implicit = implicit;
+        }
+    }
+
+    // A method header, with or without the "function" keyword
+    static final class MethodDecl extends Node {
+        final String name; // null if the signature could not be parsed
+        final String signature; // the Java declaration without its body, or an error stub
+        final List<Statement> body = new ArrayList<>(); // filled in by parse()
+        EndMethod end; // null for a method that was never closed, which is not generated
+
+        MethodDecl(String name, String signature, int line, int column) {
+            super(line, column);
+            this.name = name;
+            this.signature = signature;
+        }
+    }
+
+    static final class EndMethod extends Node {
+        EndMethod(int line, int column) {
+            super(line, column);
+        }
+    }
+
+    static final class FieldDecl extends Node {
+        final String declaration; // as written into the class, e.g. "private int count;"
+
+        FieldDecl(String declaration, int line, int column) {
+            super(line, column);
+            this.declaration = declaration;
+        }
+    }
+
+    // Expressions, as far as the pseudo language passes Java expressions through
+
+    abstract static class Expr extends Node {
+        Expr(int line, int column) {
+            super(line, column);
+        }
+    }
+
+    static final class Literal extends Expr {
+        static final int INT = 0, LONG = 1, DOUBLE = 2, FLOAT = 3, BOOLEAN = 4, CHAR = 5, STRING = 6, NULL = 7;
+
+        final int type;
+        final String text; // as written, quotes and suffixes included
+
+        Literal(int type, String text, int line, int column) {
+            super(line, column);
+            this.type = type;
+            this.text = text;
+        }
+
+        // The value of an INT or LONG literal by Java's rules: 0x, 0b and 0 (octal)
+        // prefixes, underscores between digits, an l or L suffix. Hex, octal and binary
+        // literals may use all 32 or 64 bits. A decimal one may be one past the largest
+        // int or long, which Java allows only right after a minus, and comes back as the
+        // smallest. Throws NumberFormatException if the literal is malformed and
+        // ArithmeticException if it is too large.
+        static long integer(String text, boolean isLong) {
+            String s = isLong ? text.substring(0, text.length() - 1) : text;
+            int radix = 10, from = 0;
+            if (s.length() > 1 && s.charAt(0) == '0') {
+                char prefix = Character.toLowerCase(s.charAt(1));
+                radix = prefix == 'x' ? 16 : prefix == 'b' ? 2 : 8;
+                from = radix == 8 ? 1 : 2;
+                while (radix == 8 && from < s.length() && s.charAt(from) == '_') // 0_7 is octal 7
+                    from++;
+            }
+            int end = s.length();
+            if (from == end || s.charAt(from) == '_' || s.charAt(end - 1) == '_')
+                throw new NumberFormatException(text);
+            for (int i = from; i < end; i++)
+                if (s.charAt(i) != '_' && Character.digit(s.charAt(i), radix) < 0)
+                    throw new NumberFormatException(text);
+            long v;
+            try {
+                v = Long.parseUnsignedLong(s.substring(from).replace("_", ""), radix);
+            } catch (NumberFormatException ex) { // the digits are fine, so more than 64 bits
+                throw new ArithmeticException("integer number too large: " + text);
+            }
+            long max = radix == 10 ? (isLong ? Long.MIN_VALUE : 1L << 31) : isLong ? -1 : 0xFFFFFFFFL;
+            if (Long.compareUnsigned(v, max) > 0)
+                throw new ArithmeticException("integer number too large: " + text);
+            return isLong ? v : (int) v;
+        }
+    }
+
+    static final class Name extends Expr {
+        final String name;
+
+        Name(String name, int line, int column) {
+            super(line, column);
+            this.name = name;
+        }
+    }
+
+    static final class Unary extends Expr {
+        final String op;
+        final Expr operand;
+        final boolean postfix; // x++ rather than ++x
+
+        Unary(String op, Expr operand, boolean postfix, int line, int column) {
+            super(line, column);
+            this.op = op;
+            this.operand = operand;
+            this.postfix = postfix;
+        }
+    }
+
+    static final class Binary extends Expr {
+        final String op; // Java operator, or "instanceof"
+        final Expr left, right;
+
+        Binary(String op, Expr left, Expr right, int line, int column) {
+            super(line, column);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    static final class Conditional extends Expr {
+        final Expr condition, ifTrue, ifFalse;
+
+        Conditional(Expr condition, Expr ifTrue, Expr ifFalse, int line, int column) {
+            super(line, column);
+            this.condition = condition;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+    }
+
+    static final class Assign extends Expr {
+        final String op; // "=", "+=", ...
+        final Expr target, value;
+
+        Assign(String op, Expr target, Expr value, int line, int column) {
+            super(line, column);
+            this.op = op;
+            this.target = target;
+            this.value = value;
+        }
+    }
+
+    static final class Call extends Expr {
+        final Expr target; // null for a call by plain name
+        final String name;
+        final List<Expr> args;
+
+        Call(Expr target, String name, List<Expr> args, int line, int column) {
+            super(line, column);
+            this.target = target;
+            this.name = name;
+            this.args = args;
+        }
+    }
+
+    static final class Member extends Expr {
+        final Expr target;
+        final String name;
+
+        Member(Expr target, String name, int line, int column) {
+            super(line, column);
+            this.target = target;
+            this.name = name;
+        }
+    }
+
+    static final class Index extends Expr {
+        final Expr array, index;
+
+        Index(Expr array, Expr index, int line, int column) {
+            super(line, column);
+            this.array = array;
+            this.index = index;
+        }
+    }
+
+    // new Type(args), or new Type[size]... when dimensions is not empty
+    static final class New extends Expr {
+        final String type;
+        final List<Expr> args, dimensions;
+
+        New(String type, List<Expr> args, List<Expr> dimensions, int line, int column) {
+            super(line, column);
+            this.type = type;
+            this.args = args;
+            this.dimensions = dimensions;
+        }
+    }
+
+    static final class Cast extends Expr {
+        final String type;
+        final Expr operand;
+
+        Cast(String type, Expr operand, int line, int column) {
+            super(line, column);
+            this.type = type;
+            this.operand = operand;
+        }
+    }
+
+    // "Type name" or "Type name = value" on a line of its own, a local variable
+    static final class Declaration extends Expr {
+        final String type, name;
+        final Expr value; // null without an initializer
+
+        Declaration(String type, String name, Expr value, int line, int column) {
+            super(line, column);
+            this.type = type;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    // Text that is not a valid expression; the position is where parsing failed
+    static final class Invalid extends Expr {
+        final String message;
+
+        Invalid(String message, int line, int column) {
+            super(line, column);
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,755 @@
+import com.google.gson.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+// Headless batch mode: translates, and unless told otherwise compiles, every .txt
+// pseudo program below a directory, spread over all cores.
+//
+//   java NovaSwingIDECompiler --batch <dir> [--out <dir>] [--rules <file>]
+//                             [--threads <n>] [--no-compile] [--check-interpreter]
+//                             [--check-bytecode] [--fast-io] [--optimize <passes>]
+//                             [--check-optimized] [--profile] [--metrics]
+//                             [--tests <dir>] [--project] [--check-matchers]
+//                             [--check-live]
+//
+// Each program gets its own output directory, <out>/<path without .txt>/, holding
+// the generated .java files, the .class files, and compile-errors.txt on failure.
+//
+// --check-interpreter also runs every compiled program, and then NovaInterpreter on
+// the same program, both with <name>.in next to the program as standard input if it
+// exists. A program whose interpreted output or exit status differs from the
+// compiled one fails; one the interpreter does not support is reported as such.
+// --check-bytecode does the same with the class files NovaInterpreter generates in
+// place of javac's.
+//
+// --check-matchers matches every line of each program, and random mutations of it,
+// with every rules.json pattern both by its RuleMatcher and by java.util.regex, and
+// fails the program if they disagree on a match or a group. The mutations are seeded
+// by the program's path, so a failure repeats.
+//
+// --check-live loads each program into a document with a LiveTranslation, makes
+// random seeded edits to it, and after each compares the live translation with a
+// full translation of the edited text. A difference fails the program, and the
+// two are written to live.java and full.java in its output directory.
+//
+// --fast-io generates the programs in fast I/O mode (see NovaTranslator); the checks
+// still run NovaInterpreter's standard I/O against them.
+//
+// --optimize applies NovaOptimizer passes: "all", or a comma-separated list of fold,
+// dead-branches, string-builders and hoist. --check-optimized also compiles and runs
+// each program as translated without them and fails it if the outputs differ.
+//
+// --profile translates each program once more with per-line counters (see
+// NovaTranslator.profiled), runs it with its .in file, and writes the hits and
+// sampled time per pseudo line to profile.json in its output directory.
+//
+// --metrics measures each program's pipeline phases, rule hits and cache hit rates
+// (see BuildMetrics); load and run are there when a check runs the program. The
+// totals are printed as a "metrics {...}" JSON line after the report, and written
+// with the figures per program to metrics.json in the output directory.
+//
+// --tests runs every compiled program against the test cases in a directory, each
+// <case>.in with <case>.out as its expected output (see TestRunner), and fails a
+// program that does not pass them all; the verdicts go to tests.txt.
+//
+// --project builds the directory as one program instead (see ProjectBuild): the
+// classes of all files go to <out>/ with the build graph, and the next build there
+// translates and compiles only what changed. It takes --fast-io and --optimize, and
+// none of the checks.
+class NovaBatch {
+
+    static class FileResult {
+        final String name;
+        final boolean ok;
+        final String detail;
+        final int lines;
+
+        FileResult(String name, boolean ok, String detail, int lines) {
+            this.name = name;
+            this.ok = ok;
+            this.detail = detail;
+            this.lines = lines;
+        }
+    }
+
+    private final NovaTranslator translator;
+    private NovaTranslator generator; // translator in the fast I/O and optimization modes asked for
+    private final Path root, out;
+    private final boolean compile;
+    private boolean checkInterpreter, checkBytecode, checkOptimized, profile, checkLive;
+    private List<Map.Entry<java.util.regex.Pattern, RuleMatcher>> matchers; // with --check-matchers
+    private BuildMetrics totals; // with --metrics: the sum over all programs
+    private List<Path> testCases; // with --tests
+    private int testWorkers = 1; // per program
+    private final Map<String, BuildMetrics> metrics = new ConcurrentSkipListMap<>(); // per program
+    // javac sessions are not thread-safe; each worker thread keeps its own
+    private final ThreadLocal<NovaCompiler> compilers = ThreadLocal.withInitial(NovaCompiler::new);
+
+    NovaBatch(NovaTranslator translator, Path root, Path out, boolean compile) {
+        this.translator = translator;
+        this.generator = translator;
+        this.root = root;
+        this.out = out;
+        this.compile = compile;
+    }
+
+    static int run(String[] args) {
+        Path dir = null, out = Paths.get("nova-out");
+        String rules = "rules.json";
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean compile = true, checkInterpreter = false, checkBytecode = false, fastIO = false,
+                checkOptimized = false, profile = false, measure = false, project = false, checkMatchers = false,
+                checkLive = false;
+        int optimizations = 0;
+        Path tests = null;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--out":
+                        out = Paths.get(args[++i]);
+                        break;
+                    case "--rules":
+                        rules = args[++i];
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--no-compile":
+                        compile = false;
+                        break;
+                    case "--check-interpreter":
+                        checkInterpreter = true;
+                        break;
+                    case "--check-bytecode":
+                        checkBytecode = true;
+                        break;
+                    case "--fast-io":
+                        fastIO = true;
+                        break;
+                    case "--optimize":
+                        optimizations = NovaOptimizer.passes(args[++i]);
+                        break;
+                    case "--check-optimized":
+                        checkOptimized = true;
+                        break;
+                    case "--profile":
+                        profile = true;
+                        break;
+                    case "--metrics":
+                        measure = true;
+                        break;
+                    case "--tests":
+                        tests = Paths.get(args[++i]);
+                        break;
+                    case "--project":
+                        project = true;
+                        break;
+                    case "--check-matchers":
+                        checkMatchers = true;
+                        break;
+                    case "--check-live":
+                        checkLive = true;
+                        break;
+                    default:
+                        if (dir != null || args[i].startsWith("--"))
+                            return usage("unexpected argument " + args[i]);
+                        dir = Paths.get(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            return usage("bad option value");
+        } catch (IllegalArgumentException ex) {
+            return usage(ex.getMessage());
+        }
+        if (dir == null || !Files.isDirectory(dir))
+            return usage("missing or unreadable pseudo directory");
+        if ((checkInterpreter || checkBytecode) && !compile)
+            return usage((checkInterpreter ? "--check-interpreter" : "--check-bytecode")
+                    + " needs the compiled programs");
+        if (checkOptimized && (!compile || optimizations == 0))
+            return usage("--check-optimized needs --optimize and the compiled programs");
+        if (profile && !compile)
+            return usage("--profile needs the compiled programs");
+        if (tests != null && (!compile || !Files.isDirectory(tests)))
+            return usage(compile ? "unreadable test case directory " + tests : "--tests needs the compiled programs");
+        if (project && (!compile || checkInterpreter || checkBytecode || checkOptimized || profile || measure
+                || tests != null || checkMatchers || checkLive))
+            return usage("--project only builds; it takes --out, --rules, --threads, --fast-io and --optimize");
+
+        try {
+            NovaBatch batch = new NovaBatch(NovaTranslator.load(rules), dir, out, compile);
+            batch.checkInterpreter = checkInterpreter;
+            batch.checkBytecode = checkBytecode;
+            batch.checkOptimized = checkOptimized;
+            batch.profile = profile;
+            batch.checkLive = checkLive;
+            if (checkMatchers)
+                batch.matchers = matchers(batch.translator);
+            if (measure)
+                batch.totals = new BuildMetrics(null);
+            if (tests != null) {
+                batch.testCases = TestRunner.cases(tests);
+                // the programs already run side by side
+                batch.testWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / threads);
+            }
+            batch.generator = batch.translator.fastIO(fastIO).optimized(optimizations);
+            if (project)
+                return batch.buildProject(threads, System.out) ? 0 : 1;
+            return batch.runAll(threads, System.out) ? 0 : 1;
+        } catch (IOException ex) {
+            System.err.println("Error: " + ex.getMessage());
+            return 2;
+        }
+    }
+
+    private static int usage(String problem) {
+        System.err.println("Error: " + problem);
+        System.err.println("Usage: java NovaSwingIDECompiler --batch <dir> [--out <dir>] [--rules <file>]"
+                + " [--threads <n>] [--no-compile] [--check-interpreter] [--check-bytecode] [--fast-io]"
+                + " [--optimize <passes>] [--check-optimized] [--profile] [--metrics] [--tests <dir>] [--project]"
+                + " [--check-matchers] [--check-live]");
+        return 2;
+    }
+
+    // Processes every program, prints one status line per file in path order and
+    // the aggregate throughput; true if all of them succeeded
+    boolean runAll(int threads, PrintStream report) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".txt"))
+                    .sorted().collect(Collectors.toList());
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<ForkJoinTask<FileResult>> tasks = new ArrayList<>();
+        try {
+            for (Path f : files)
+                tasks.add(pool.submit(() -> process(f)));
+            int ok = 0;
+            long lines = 0;
+            for (ForkJoinTask<FileResult> task : tasks) {
+                FileResult r = task.join();
+                report.printf("%-6s %s  %s%n", r.ok ? "OK" : "FAILED", r.name, r.detail);
+                if (r.ok)
+                    ok++;
+                lines += r.lines;
+            }
+            double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            report.printf("%d files (%d ok, %d failed), %d lines in %.2f s: %.1f files/s, %.0f lines/s%n",
+                    files.size(), ok, files.size() - ok, lines, secs, files.size() / secs, lines / secs);
+            if (totals != null)
+                writeMetrics(report);
+            return ok == files.size();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Builds root as one project into out, where the last build left its graph and
+    // classes; prints the classes compiled and a summary. True if every class compiled.
+    boolean buildProject(int threads, PrintStream report) throws IOException {
+        ProjectBuild.Report r;
+        try (ProjectBuild project = new ProjectBuild(generator, root, out, threads)) {
+            r = project.build(Collections.emptyMap());
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        }
+        Path errors = out.resolve("compile-errors.txt");
+        Files.deleteIfExists(errors);
+        for (String problem : r.problems)
+            report.println("FAILED " + problem);
+        if (!r.result.success) {
+            Files.write(errors, r.result.formatDiagnostics().getBytes(StandardCharsets.UTF_8));
+            report.println("FAILED compile errors, see " + errors);
+        }
+        report.println("compiled " + (r.compiled.isEmpty() ? "nothing" : String.join(", ", r.compiled)));
+        report.println(r.summary());
+        return r.success();
+    }
+
+    private FileResult process(Path file) {
+        String name = root.relativize(file).toString();
+        BuildMetrics measured = totals == null ? null : new BuildMetrics(name);
+        try {
+            return process(file, name, measured);
+        } finally {
+            if (measured != null) {
+                metrics.put(name, measured);
+                totals.add(measured);
+            }
+        }
+    }
+
+    private FileResult process(Path file, String name, BuildMetrics measured) {
+        long start = System.nanoTime();
+        int lineCount = 0;
+        try {
+            Path dir = out.resolve(name.substring(0, name.length() - ".txt".length()));
+            Files.createDirectories(dir);
+            Files.deleteIfExists(dir.resolve("compile-errors.txt"));
+            Files.deleteIfExists(dir.resolve("profile.json"));
+            Files.deleteIfExists(dir.resolve("tests.txt"));
+            // the pseudo file is mapped, not read into memory, and classes go straight to disk
+            JavaSink.Directory sink = new JavaSink.Directory(dir);
+            String mainClass;
+            BuildMetrics.Span translating = measured == null ? null : measured.begin(BuildMetrics.TRANSLATE);
+            try (PseudoSource in = PseudoSource.of(file)) {
+                mainClass = generator.measured(measured).translate(in, sink);
+                lineCount = in.lineCount();
+            }
+            if (translating != null)
+                translating.end();
+
+            int classes = sink.files().size();
+            String what = classes + (classes == 1 ? " class" : " classes");
+            if (compile) {
+                NovaCompiler.Result result = compilers.get().compileFiles(sink.files());
+                if (measured != null)
+                    measured.phase(BuildMetrics.COMPILE, result.millis * 1_000_000, result.allocatedBytes);
+                if (!result.success) {
+                    String errors = result.formatDiagnostics();
+                    Files.write(dir.resolve("compile-errors.txt"), errors.getBytes());
+                    long count = result.diagnostics.stream()
+                            .filter(d -> d.getKind() == javax.tools.Diagnostic.Kind.ERROR).count();
+                    return new FileResult(name, false, count + " compile error(s), see "
+                            + dir.resolve("compile-errors.txt"), lineCount);
+                }
+                result.writeTo(dir.toFile());
+                what += " compiled";
+                if (checkInterpreter) {
+                    Comparison c = compareWithInterpreter(file, result, mainClass, false, measured);
+                    if (!c.same)
+                        return new FileResult(name, false, c.detail, lineCount);
+                    what += ", " + c.detail;
+                }
+                if (checkBytecode) {
+                    Comparison c = compareWithInterpreter(file, result, mainClass, true, measured);
+                    if (!c.same)
+                        return new FileResult(name, false, c.detail, lineCount);
+                    what += ", " + c.detail;
+                }
+                if (checkOptimized) {
+                    Comparison c = compareWithUnoptimized(file, result, mainClass);
+                    if (!c.same)
+                        return new FileResult(name, false, c.detail, lineCount);
+                    what += ", " + c.detail;
+                }
+                if (profile) {
+                    Comparison c = profile(file, name, dir);
+                    if (!c.same)
+                        return new FileResult(name, false, c.detail, lineCount);
+                    what += ", " + c.detail;
+                }
+                if (testCases != null) {
+                    Comparison c = test(result, mainClass, dir);
+                    if (!c.same)
+                        return new FileResult(name, false, c.detail, lineCount);
+                    what += ", " + c.detail;
+                }
+            }
+            if (matchers != null) {
+                Comparison c = compareMatchers(file, name);
+                if (!c.same)
+                    return new FileResult(name, false, c.detail, lineCount);
+                what += ", " + c.detail;
+            }
+            if (checkLive) {
+                Comparison c = compareLive(file, name, dir);
+                if (!c.same)
+                    return new FileResult(name, false, c.detail, lineCount);
+                what += ", " + c.detail;
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            return new FileResult(name, true, what + ", " + lineCount + " lines, " + millis + " ms", lineCount);
+        } catch (IOException | RuntimeException ex) {
+            return new FileResult(name, false, ex.toString(), lineCount);
+        }
+    }
+
+    private static final long CHECK_TIMEOUT_MILLIS = 10_000;
+    private static final int MUTATIONS_PER_LINE = 20;
+    private static final String MUTATION_CHARS = "aZx09 _.,;:=+-*/<>()[]\"'\t";
+
+    private static final int LIVE_EDITS = 25;
+
+    // Edits the program in a document with a LiveTranslation, LIVE_EDITS random times,
+    // and checks the live translation against a full one of the text after each edit
+    private Comparison compareLive(Path file, String name, Path dir) throws IOException {
+        String text = String.join("\n", Files.readAllLines(file));
+        Random random = new Random(name.hashCode());
+        javax.swing.text.PlainDocument doc = new javax.swing.text.PlainDocument();
+        LiveTranslation live = onEdt(() -> {
+            doc.insertString(0, text, null);
+            return new LiveTranslation(generator, doc);
+        });
+        try {
+            for (int edit = 0; edit <= LIVE_EDITS; edit++) {
+                if (edit > 0)
+                    onEdt(() -> edit(doc, random));
+                CompletableFuture<NovaTranslator.Translation> pending = onEdt(live::translation);
+                String now = onEdt(() -> doc.getText(0, doc.getLength()));
+                String got, expected;
+                try {
+                    NovaTranslator.Translation t = pending.join();
+                    got = t.mainClassName + "\n" + t.javaCode();
+                } catch (CompletionException ex) {
+                    got = "failed: " + ex.getCause();
+                }
+                try {
+                    NovaTranslator.Translation t = generator.translate(Arrays.asList(now.split("\\r?\\n")));
+                    expected = t.mainClassName + "\n" + t.javaCode();
+                } catch (RuntimeException ex) {
+                    expected = "failed: " + ex;
+                }
+                if (!got.equals(expected)) {
+                    Files.write(dir.resolve("live.java"), got.getBytes(StandardCharsets.UTF_8));
+                    Files.write(dir.resolve("full.java"), expected.getBytes(StandardCharsets.UTF_8));
+                    return new Comparison(false, "live translation differs from a full one after edit " + edit
+                            + ", see " + dir.resolve("live.java"));
+                }
+            }
+        } finally {
+            onEdt(() -> {
+                live.close();
+                return null;
+            });
+        }
+        return new Comparison(true, "live translation agrees after " + LIVE_EDITS + " edits");
+    }
+
+    // Replaces, deletes or duplicates a random line, or inserts or deletes a character
+    private static Void edit(javax.swing.text.Document doc, Random random) throws Exception {
+        javax.swing.text.Element root = doc.getDefaultRootElement();
+        javax.swing.text.Element line = root.getElement(random.nextInt(root.getElementCount()));
+        // the line's text ends before its '\n'; with it, it ends at next
+        int start = line.getStartOffset(), end = line.getEndOffset() - 1, next = Math.min(end + 1, doc.getLength());
+        switch (random.nextInt(5)) {
+            case 0:
+                javax.swing.text.Element other = root.getElement(random.nextInt(root.getElementCount()));
+                String replacement = doc.getText(other.getStartOffset(),
+                        other.getEndOffset() - 1 - other.getStartOffset());
+                doc.remove(start, end - start);
+                doc.insertString(start, replacement, null);
+                break;
+            case 1:
+                doc.remove(start, next - start);
+                break;
+            case 2:
+                doc.insertString(start, doc.getText(start, end - start) + "\n", null);
+                break;
+            case 3:
+                int at = start + random.nextInt(end - start + 1);
+                doc.insertString(at, String.valueOf((MUTATION_CHARS + "\n").charAt(
+                        random.nextInt(MUTATION_CHARS.length() + 1))), null);
+                break;
+            default:
+                if (doc.getLength() > 0)
+                    doc.remove(random.nextInt(doc.getLength()), 1);
+        }
+        return null;
+    }
+
+    // Runs work on the Swing thread, as documents and LiveTranslation need
+    private static <T> T onEdt(Callable<T> work) throws IOException {
+        Object[] result = new Object[1];
+        try {
+            javax.swing.SwingUtilities.invokeAndWait(() -> {
+                try {
+                    result[0] = work.call();
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (java.lang.reflect.InvocationTargetException ex) {
+            throw new IOException(ex.getCause());
+        }
+        @SuppressWarnings("unchecked")
+        T t = (T) result[0];
+        return t;
+    }
+
+    // Every rule pattern that has a RuleMatcher, with it
+    private static List<Map.Entry<java.util.regex.Pattern, RuleMatcher>> matchers(NovaTranslator translator) {
+        List<Map.Entry<java.util.regex.Pattern, RuleMatcher>> found = new ArrayList<>();
+        for (NovaTranslator.Rule r : translator.getRules())
+            for (java.util.regex.Pattern p : r.compiledPatterns) {
+                RuleMatcher m = RuleMatcher.compile(p);
+                if (m != null)
+                    found.add(Map.entry(p, m));
+            }
+        return found;
+    }
+
+    // Matches each line of the program and MUTATIONS_PER_LINE random variants of it
+    // with every RuleMatcher and its Pattern; they must agree on the match and groups
+    private Comparison compareMatchers(Path file, String name) throws IOException {
+        Random random = new Random(name.hashCode());
+        long lines = 0;
+        for (String line : Files.readAllLines(file)) {
+            String trimmed = line.trim();
+            for (int i = 0; i <= MUTATIONS_PER_LINE; i++, lines++) {
+                String text = i == 0 ? trimmed : mutate(trimmed, random);
+                String problem = compareMatchers(text);
+                if (problem != null)
+                    return new Comparison(false, problem);
+            }
+        }
+        return new Comparison(true, String.format("rule matchers agree on %,d lines", lines));
+    }
+
+    // Why the matchers disagree on text; null if they do not
+    private String compareMatchers(String text) {
+        int[] bounds = new int[32];
+        for (Map.Entry<java.util.regex.Pattern, RuleMatcher> e : matchers) {
+            java.util.regex.Matcher regex = e.getKey().matcher(text);
+            boolean expected = regex.matches(), got = e.getValue().matches(text, bounds);
+            if (expected != got)
+                return "RuleMatcher " + (got ? "matches" : "does not match") + " \"" + text + "\" against "
+                        + e.getKey().pattern() + ", java.util.regex " + (expected ? "does" : "does not");
+            for (int g = 1; expected && g <= regex.groupCount(); g++)
+                if (regex.start(g) != bounds[2 * g] || regex.end(g) != bounds[2 * g + 1])
+                    return "RuleMatcher's group " + g + " of \"" + text + "\" against " + e.getKey().pattern()
+                            + " differs from java.util.regex's";
+        }
+        return null;
+    }
+
+    // text with a character inserted, deleted or changed in case, or a word doubled
+    private static String mutate(String text, Random random) {
+        int at = text.isEmpty() ? 0 : random.nextInt(text.length() + 1);
+        switch (random.nextInt(4)) {
+            case 0:
+                return text.substring(0, at) + MUTATION_CHARS.charAt(random.nextInt(MUTATION_CHARS.length()))
+                        + text.substring(at);
+            case 1:
+                return at < text.length() ? text.substring(0, at) + text.substring(at + 1) : text;
+            case 2:
+                return at < text.length() ? text.substring(0, at) + Character.toUpperCase(text.charAt(at))
+                        + text.substring(at + 1) : text.toUpperCase(Locale.ROOT);
+            default:
+                String[] words = text.split(" ");
+                int w = random.nextInt(words.length);
+                words[w] = words[w] + " " + words[w];
+                return String.join(" ", words);
+        }
+    }
+
+    private static class Comparison {
+        final boolean same;
+        final String detail;
+
+        Comparison(boolean same, String detail) {
+            this.same = same;
+            this.detail = detail;
+        }
+    }
+
+    // Runs the compiled program, then the interpreted one, or with bytecode the one
+    // compiled from NovaInterpreter's class files, and compares what they print on
+    // standard output and how they exit. The compiled program's load and run phases
+    // go to metrics unless it is null.
+    private Comparison compareWithInterpreter(Path file, NovaCompiler.Result compiled, String mainClass,
+            boolean bytecode, BuildMetrics metrics) throws IOException {
+        String fileName = file.getFileName().toString();
+        Path inFile = file.resolveSibling(fileName.substring(0, fileName.length() - ".txt".length()) + ".in");
+        byte[] input = Files.exists(inFile) ? Files.readAllBytes(inFile) : new byte[0];
+        String what = bytecode ? "generated bytecode" : "interpreter";
+        NovaInterpreter.Program program;
+        Map<String, byte[]> classes = null;
+        try (PseudoSource in = PseudoSource.of(file)) {
+            program = NovaInterpreter.compile(translator, in, fileName);
+            if (bytecode)
+                classes = program.classFiles();
+        } catch (NovaInterpreter.Unsupported ex) {
+            return new Comparison(true, (bytecode ? "no bytecode" : "not interpreted") + " (line " + ex.line + ": "
+                    + ex.getMessage() + ")");
+        }
+        long start = System.nanoTime();
+        Output javac = Output.of(start(compiled.classes, mainClass, metrics, null), input);
+        long middle = System.nanoTime();
+        Output other = Output.of(bytecode ? InProcessProgram.start(classes, program.mainClass, CHECK_TIMEOUT_MILLIS)
+                : InProcessProgram.start(program.mainClass, program.entry(), CHECK_TIMEOUT_MILLIS), input);
+        long end = System.nanoTime();
+        String times = String.format("%s in %.1f ms, compiled program ran in %.1f ms",
+                bytecode ? "generated bytecode ran" : "interpreted", (end - middle) / 1e6, (middle - start) / 1e6);
+        if (javac.exitCode != other.exitCode)
+            return new Comparison(false, what + " exit status " + other.exitCode + ", compiled program's "
+                    + javac.exitCode);
+        if (!Arrays.equals(javac.stdout, other.stdout))
+            return new Comparison(false, what + " output differs from the compiled program's, "
+                    + other.stdout.length + " bytes against " + javac.stdout.length);
+        return new Comparison(true, "same output " + times);
+    }
+
+    // Runs the optimized program, then the same program translated without the
+    // optimizations, and compares what they print on standard output and how they exit
+    private Comparison compareWithUnoptimized(Path file, NovaCompiler.Result optimized, String mainClass)
+            throws IOException {
+        String fileName = file.getFileName().toString();
+        Path inFile = file.resolveSibling(fileName.substring(0, fileName.length() - ".txt".length()) + ".in");
+        byte[] input = Files.exists(inFile) ? Files.readAllBytes(inFile) : new byte[0];
+        NovaTranslator.Translation plain;
+        try (PseudoSource in = PseudoSource.of(file)) {
+            plain = generator.optimized(0).translate(in);
+        }
+        NovaCompiler.Result compiled = compilers.get().compile(plain.sources);
+        if (!compiled.success)
+            return new Comparison(true, "unoptimized program does not compile");
+        long start = System.nanoTime();
+        Output fast = Output.of(start(optimized.classes, mainClass, null, null), input);
+        long middle = System.nanoTime();
+        Output slow = Output.of(start(compiled.classes, plain.mainClassName, null, null), input);
+        long end = System.nanoTime();
+        if (fast.exitCode != slow.exitCode)
+            return new Comparison(false, "optimized exit status " + fast.exitCode + ", unoptimized " + slow.exitCode);
+        if (!Arrays.equals(fast.stdout, slow.stdout))
+            return new Comparison(false, "optimized output differs from the unoptimized program's, "
+                    + fast.stdout.length + " bytes against " + slow.stdout.length);
+        return new Comparison(true, String.format("same output optimized in %.1f ms, unoptimized in %.1f ms",
+                (middle - start) / 1e6, (end - middle) / 1e6));
+    }
+
+    // Runs the program as translated with per-line counters and writes their counts
+    // to profile.json in dir. Fails when the counters break the program.
+    private Comparison profile(Path file, String name, Path dir) throws IOException {
+        String fileName = file.getFileName().toString();
+        Path inFile = file.resolveSibling(fileName.substring(0, fileName.length() - ".txt".length()) + ".in");
+        byte[] input = Files.exists(inFile) ? Files.readAllBytes(inFile) : new byte[0];
+        NovaTranslator.Translation profiled;
+        try (PseudoSource in = PseudoSource.of(file)) {
+            profiled = generator.profiled(true).translate(in);
+        }
+        NovaCompiler.Result compiled = compilers.get().compile(profiled.sources);
+        if (!compiled.success)
+            return new Comparison(false, "profiled program does not compile: " + compiled.formatDiagnostics());
+        Path profileFile = Files.createTempFile("nova-profile", ".json");
+        Process run = start(compiled.classes, profiled.mainClassName, null, profileFile);
+        Output.of(run, input);
+        LineProfile lines;
+        try {
+            lines = run instanceof InProcessProgram ? LineProfile.of((InProcessProgram) run)
+                    : Files.size(profileFile) == 0 ? null : LineProfile.read(profileFile);
+        } catch (IllegalArgumentException ex) {
+            lines = null;
+        } finally {
+            Files.deleteIfExists(profileFile);
+        }
+        if (lines == null)
+            return new Comparison(false, "profiled program left no profile");
+        lines.program = name;
+        Files.write(dir.resolve("profile.json"), lines.toJson().getBytes(StandardCharsets.UTF_8));
+        List<LineProfile.Line> hottest = lines.hottest(1);
+        return new Comparison(true, String.format("profiled in %.1f ms%s", lines.totalMillis,
+                hottest.isEmpty() ? "" : ", hottest line " + hottest.get(0).line));
+    }
+
+    // Runs the program against the test cases and writes the verdicts to tests.txt
+    // in dir. Passes unless a case fails; one without expected output only has to run.
+    private Comparison test(NovaCompiler.Result compiled, String mainClass, Path dir) throws IOException {
+        List<TestRunner.CaseResult> results;
+        try {
+            results = new TestRunner(CHECK_TIMEOUT_MILLIS, TEST_HEAP_MB, testWorkers).run(compiled, mainClass,
+                    testCases, null);
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        }
+        Files.write(dir.resolve("tests.txt"), TestRunner.table(results).getBytes(StandardCharsets.UTF_8));
+        long passed = results.stream().filter(r -> r.verdict.equals(TestRunner.PASS)).count();
+        long failed = results.stream()
+                .filter(r -> !r.verdict.equals(TestRunner.PASS) && !r.verdict.equals(TestRunner.RAN)).count();
+        String detail = passed + " of " + results.size() + " tests passed";
+        return new Comparison(failed == 0, failed == 0 ? detail : detail + ", see " + dir.resolve("tests.txt"));
+    }
+
+    private static final int TEST_HEAP_MB = 256;
+
+    // Starts a compiled program in process, or in a JVM of its own if it uses parallel
+    // streams (see InProcessProgram.usesParallelStreams); either way it is stopped after
+    // CHECK_TIMEOUT_MILLIS. metrics, unless null, gets the in-process load and run
+    // phases; profileFile, unless null, is where a profiled program in its own JVM
+    // writes its profile.
+    private static Process start(Map<String, byte[]> classes, String mainClass, BuildMetrics metrics,
+            Path profileFile) throws IOException {
+        if (!InProcessProgram.usesParallelStreams(classes))
+            return InProcessProgram.start(classes, mainClass, CHECK_TIMEOUT_MILLIS, metrics);
+        Path classDir = Files.createTempDirectory("nova-check");
+        new NovaCompiler.Result(true, Collections.emptyList(), classes, 0).writeTo(classDir.toFile());
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-cp", classDir.toString()));
+        if (profileFile != null)
+            command.add("-Dnova.profile=" + profileFile);
+        command.add(mainClass);
+        Process p = new ProcessBuilder(command).start();
+        CompletableFuture.delayedExecutor(CHECK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).execute(p::destroyForcibly);
+        p.onExit().thenRun(() -> {
+            try (Stream<Path> walk = Files.walk(classDir)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            } catch (IOException ignored) {
+            }
+        });
+        return p;
+    }
+
+    // Prints the totals as one JSON line and writes them with every program's to
+    // metrics.json
+    private void writeMetrics(PrintStream report) throws IOException {
+        JsonObject json = new JsonObject();
+        json.add("total", totals.toJson());
+        JsonArray programs = new JsonArray();
+        for (BuildMetrics m : metrics.values())
+            programs.add(m.toJson());
+        json.add("programs", programs);
+        Files.createDirectories(out);
+        Files.write(out.resolve("metrics.json"),
+                new GsonBuilder().setPrettyPrinting().create().toJson(json).getBytes(StandardCharsets.UTF_8));
+        report.println("metrics " + totals.toJson());
+    }
+
+    // What a run printed on standard output, and its exit status
+    private static class Output {
+        final byte[] stdout;
+        final int exitCode;
+
+        private Output(byte[] stdout, int exitCode) {
+            this.stdout = stdout;
+            this.exitCode = exitCode;
+        }
+
+        // Feeds input to the process and drains stderr on threads of their own, so
+        // neither side blocks on a full pipe
+        static Output of(Process p, byte[] input) throws IOException {
+            Thread feeder = new Thread(() -> {
+                try (OutputStream in = p.getOutputStream()) {
+                    in.write(input);
+                } catch (IOException ignored) {
+                    // the program ended without reading all of it
+                }
+            }, "nova-check-input");
+            Thread drain = new Thread(() -> {
+                try (InputStream err = p.getErrorStream()) {
+                    err.transferTo(OutputStream.nullOutputStream());
+                } catch (IOException ignored) {
+                }
+            }, "nova-check-stderr");
+            feeder.setDaemon(true);
+            drain.setDaemon(true);
+            feeder.start();
+            drain.start();
+            try (InputStream out = p.getInputStream()) {
+                byte[] stdout = out.readAllBytes();
+                return new Output(stdout, p.waitFor());
+            } catch (InterruptedException ex) {
+                p.destroy();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
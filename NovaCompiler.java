@@ -0,0 +1,357 @@
+import javax.tools.*;
+import java.io.*;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import com.sun.source.util.*;
+
+// In-memory javac pipeline: sources are handed over as strings, class bytes are
+// captured in a map and diagnostics come back through a DiagnosticCollector.
+// Nothing is read from or written to the working directory.
+//
+// One instance is a long-lived compile session: the JavaCompiler and its
+// StandardJavaFileManager (which caches the platform classes and package listings)
+// are created once and shared by every compile, and submit() queues compiles on
+// the session's own thread so callers never block the EDT.
+class NovaCompiler {
+
+    // Small program touching what generated code uses, compiled once to load and JIT javac
+    private static final String WARM_UP_SOURCE = "import java.util.*;\n"
+            + "public class NovaWarmUp extends Object {\n"
+            + "    private int count;\n"
+            + "    public int add(int a, int b) { return a + b; }\n"
+            + "    public static void main(String[] args) {\n"
+            + "        Scanner sc = new Scanner(System.in);\n"
+            + "        int n = sc.nextInt();\n"
+            + "        String s = \"n=\" + n;\n"
+            + "        for (int i = 1; i <= n; i++) {\n"
+            + "            if (i % 2 == 0) { System.out.println(s + i); } else { continue; }\n"
+            + "        }\n"
+            + "        try { int[] a = new int[n]; a[0] = n / 2; } catch (Exception e) { System.out.println(e); }\n"
+            + "    }\n"
+            + "}\n";
+
+    private final ExecutorService queue = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "nova-javac");
+        t.setDaemon(true);
+        return t;
+    });
+    private JavaCompiler compiler;
+    private StandardJavaFileManager fileManager;
+
+    // latency bookkeeping, guarded by this
+    private long warmUpMillis = -1, firstMillis = -1, lastMillis = -1, steadyTotalMillis;
+    private int steadyCount;
+
+    static class Result {
+        final boolean success;
+        final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        final Map<String, byte[]> classes; // binary class name -> class file bytes
+        final long millis; // wall time spent in javac
+        final long allocatedBytes; // by javac's thread meanwhile, -1 if unknown
+
+        Result(boolean success, List<Diagnostic<? extends JavaFileObject>> diagnostics, Map<String, byte[]> classes,
+                long millis) {
+            this(success, diagnostics, classes, millis, -1);
+        }
+
+        Result(boolean success, List<Diagnostic<? extends JavaFileObject>> diagnostics, Map<String, byte[]> classes,
+                long millis, long allocatedBytes) {
+            this.success = success;
+            this.diagnostics = diagnostics;
+            this.classes = classes;
+            this.millis = millis;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        // javac-style "Main.java:3: error: ..." listing of the diagnostics
+        String formatDiagnostics() {
+            StringBuilder sb = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+                if (d.getSource() != null) {
+                    String name = d.getSource().getName();
+                    sb.append(d.getSource() instanceof SourceFile ? name.substring(1) : name)
+                            .append(':').append(d.getLineNumber()).append(": ");
+                }
+                String kind = d.getKind() == Diagnostic.Kind.ERROR ? "error"
+                        : d.getKind() == Diagnostic.Kind.NOTE ? "note" : "warning";
+                sb.append(kind).append(": ").append(d.getMessage(null)).append("\n");
+            }
+            return sb.toString();
+        }
+
+        // Writes every class file below dir, e.g. for running the program in a new JVM
+        void writeTo(File dir) throws IOException {
+            for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                File out = new File(dir, e.getKey().replace('.', File.separatorChar) + ".class");
+                out.getParentFile().mkdirs();
+                try (OutputStream os = new FileOutputStream(out)) {
+                    os.write(e.getValue());
+                }
+            }
+        }
+    }
+
+    // Source text held in memory, named after its public class
+    static class SourceFile extends SimpleJavaFileObject {
+        final String className;
+        private final String code;
+
+        SourceFile(String className, String code) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.className = className;
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    // Class file output captured into a byte array
+    static class ClassFile extends SimpleJavaFileObject {
+        final String className;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile(String className) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.className = className;
+        }
+
+        // An earlier compile's output, for javac to read from the class path
+        ClassFile(String className, byte[] compiled) {
+            this(className);
+            bytes.writeBytes(compiled);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes.toByteArray());
+        }
+
+        byte[] getBytes() {
+            return bytes.toByteArray();
+        }
+    }
+
+    static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        final Map<String, ClassFile> outputs = new LinkedHashMap<>();
+        private final Map<String, byte[]> classPath; // binary name -> bytes of classes in the unnamed package
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            this(fileManager, Collections.emptyMap());
+        }
+
+        MemoryFileManager(StandardJavaFileManager fileManager, Map<String, byte[]> classPath) {
+            super(fileManager);
+            this.classPath = classPath;
+        }
+
+        // The wrapped file manager belongs to the session and outlives this compile
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                FileObject sibling) {
+            ClassFile file = new ClassFile(className);
+            outputs.put(className, file);
+            return file;
+        }
+
+        // The classes handed over as bytes are on the class path next to the real one
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                boolean recurse) throws IOException {
+            Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+            if (classPath.isEmpty() || location != StandardLocation.CLASS_PATH || !packageName.isEmpty()
+                    || !kinds.contains(JavaFileObject.Kind.CLASS))
+                return listed;
+            List<JavaFileObject> all = new ArrayList<>();
+            for (Map.Entry<String, byte[]> e : classPath.entrySet())
+                all.add(new ClassFile(e.getKey(), e.getValue()));
+            listed.forEach(all::add);
+            return all;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            return file instanceof ClassFile ? ((ClassFile) file).className : super.inferBinaryName(location, file);
+        }
+    }
+
+    // Defines classes straight from compiled bytes
+    static class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        MemoryClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] b = classes.get(name);
+            if (b == null)
+                throw new ClassNotFoundException(name);
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    // Loads javac and compiles a throwaway program on the session thread
+    CompletableFuture<Void> warmUp() {
+        return CompletableFuture.runAsync(() -> {
+            Result result = compileNow(fm -> sourceFiles(Collections.singletonMap("NovaWarmUp", WARM_UP_SOURCE)),
+                    Collections.emptyMap());
+            synchronized (this) {
+                warmUpMillis = result.millis;
+            }
+        }, queue);
+    }
+
+    // Queues a compile of className -> source pairs behind any compile already running
+    CompletableFuture<Result> submit(Map<String, String> sources) {
+        Map<String, String> copy = new LinkedHashMap<>(sources);
+        return CompletableFuture.supplyAsync(() -> compile(copy), queue);
+    }
+
+    // Type-checks className -> source pairs together without generating code, behind
+    // any compile already queued. Once cancelled is true the check stops at javac's
+    // next step and completes with a CancellationException.
+    CompletableFuture<List<Diagnostic<? extends JavaFileObject>>> check(Map<String, String> sources,
+            BooleanSupplier cancelled) {
+        Map<String, String> copy = new LinkedHashMap<>(sources);
+        return CompletableFuture.supplyAsync(() -> analyze(copy, cancelled), queue);
+    }
+
+    // Compiles className -> source pairs together
+    Result compile(Map<String, String> sources) {
+        return compile(sources, Collections.emptyMap());
+    }
+
+    // The same against classes compiled earlier, binary name -> bytes, which the
+    // sources can use as if they were on the class path; only they come back
+    Result compile(Map<String, String> sources, Map<String, byte[]> classPath) {
+        return record(compileNow(fm -> sourceFiles(sources), classPath));
+    }
+
+    // Compiles .java files on disk together; the text is read by javac itself
+    Result compileFiles(List<Path> files) {
+        return record(compileNow(fm -> fm.getJavaFileObjectsFromPaths(files), Collections.emptyMap()));
+    }
+
+    // Ends the session once the queued compiles are done; submit() fails after this
+    void close() {
+        queue.execute(() -> {
+            synchronized (this) {
+                if (fileManager != null)
+                    try {
+                        fileManager.close();
+                    } catch (IOException ignored) {
+                    }
+            }
+        });
+        queue.shutdown();
+    }
+
+    private Result record(Result result) {
+        synchronized (this) {
+            lastMillis = result.millis;
+            if (firstMillis < 0) {
+                firstMillis = result.millis;
+            } else {
+                steadyTotalMillis += result.millis;
+                steadyCount++;
+            }
+        }
+        return result;
+    }
+
+    synchronized long lastCompileMillis() {
+        return lastMillis;
+    }
+
+    // e.g. "warm-up 910 ms, first compile 48 ms, steady state 21 ms avg over 6 compiles"
+    synchronized String latencySummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("warm-up ").append(warmUpMillis < 0 ? "not run" : warmUpMillis + " ms");
+        sb.append(", first compile ").append(firstMillis < 0 ? "none yet" : firstMillis + " ms");
+        if (steadyCount > 0)
+            sb.append(", steady state ").append(steadyTotalMillis / steadyCount).append(" ms avg over ")
+                    .append(steadyCount).append(steadyCount == 1 ? " compile" : " compiles");
+        return sb.toString();
+    }
+
+    private static List<JavaFileObject> sourceFiles(Map<String, String> sources) {
+        List<JavaFileObject> units = new ArrayList<>();
+        for (Map.Entry<String, String> e : sources.entrySet())
+            units.add(new SourceFile(e.getKey(), e.getValue()));
+        return units;
+    }
+
+    private synchronized Result compileNow(
+            Function<StandardJavaFileManager, Iterable<? extends JavaFileObject>> compilationUnits,
+            Map<String, byte[]> classPath) {
+        long start = System.nanoTime();
+        long startBytes = BuildMetrics.threadAllocatedBytes();
+        open();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Iterable<? extends JavaFileObject> units = compilationUnits.apply(fileManager);
+
+        MemoryFileManager fm = new MemoryFileManager(fileManager, classPath);
+        boolean ok = compiler.getTask(null, fm, diagnostics, Arrays.asList("-proc:none"), null, units).call();
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (Map.Entry<String, ClassFile> e : fm.outputs.entrySet())
+            classes.put(e.getKey(), e.getValue().getBytes());
+        long bytes = startBytes < 0 ? -1 : BuildMetrics.threadAllocatedBytes() - startBytes;
+        return new Result(ok, diagnostics.getDiagnostics(), classes, (System.nanoTime() - start) / 1_000_000, bytes);
+    }
+
+    // Parses and attributes, which is all javac does before writing classes
+    private synchronized List<Diagnostic<? extends JavaFileObject>> analyze(Map<String, String> sources,
+            BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean())
+            throw new CancellationException();
+        open();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavacTask task = (JavacTask) compiler.getTask(null, new MemoryFileManager(fileManager), diagnostics,
+                Arrays.asList("-proc:none"), null, sourceFiles(sources));
+        task.addTaskListener(new TaskListener() {
+            @Override
+            public void started(TaskEvent e) {
+                if (cancelled.getAsBoolean())
+                    throw new CancellationException();
+            }
+        });
+        try {
+            task.analyze();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            // javac wraps what the listener throws
+            if (cancelled.getAsBoolean())
+                throw new CancellationException();
+            throw ex;
+        }
+        return diagnostics.getDiagnostics();
+    }
+
+    private void open() {
+        if (compiler == null) {
+            compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null)
+                throw new IllegalStateException("No Java compiler available; run the IDE on a JDK");
+            fileManager = compiler.getStandardFileManager(null, null, null);
+        }
+    }
+}
@@ -0,0 +1,3022 @@
+import java.io.*;
+import java.util.*;
+import javax.lang.model.SourceVersion;
+
+// Runs pseudo programs without javac, for Quick Run. A program is read with the
+// translator's parser and rules, every statement is turned into the Java line the
+// translator writes for it, and those lines are compiled into a tree of closures
+// that runs directly on the current thread.
+//
+// The Java understood is a subset: primitive int/long/double/boolean/char, String,
+// arrays and the program's own classes; if/while/for/try-catch blocks, the usual
+// operators, System.out.print(ln), the main method's Scanner, and a few Math,
+// String and parse methods. compile() checks the lines the way javac would (types,
+// scopes, overloads, unreachable statements, missing returns) and throws Unsupported
+// for anything outside the subset or anything javac would reject, so a program that
+// runs here prints what its compiled translation prints. Callers fall back to javac.
+//
+// A checked program can also be written as class files (Program.classFiles()) with
+// the bytecode javac would give its translation, near enough, so that Compile & Run
+// can skip javac as well. Each expression and statement is compiled into a closure
+// that runs it and one that writes its bytecode.
+final class NovaInterpreter implements Opcodes {
+    private NovaInterpreter() {
+    }
+
+    // Why a program cannot be run here; line is the pseudo source line
+    static final class Unsupported extends Exception {
+        final int line;
+
+        Unsupported(String message, int line) {
+            super(message, null, false, false);
+            this.line = line;
+        }
+    }
+
+    // A checked and compiled program; run() may be called any number of times
+    static final class Program {
+        final String mainClass;
+        private final Method main;
+        private final Collection<ClassInfo> classes;
+        private final String sourceName;
+
+        private Program(String mainClass, Method main, Collection<ClassInfo> classes, String sourceName) {
+            this.mainClass = mainClass;
+            this.main = main;
+            this.classes = classes;
+            this.sourceName = sourceName;
+        }
+
+        // Runs main like "java Main" would, with in as System.in and out as System.out.
+        // An exception the program does not catch is rethrown with a stack trace of
+        // pseudo lines.
+        void run(InputStream in, PrintStream out) {
+            Run run = new Run(out, sourceName);
+            Frame f = new Frame(main.frameSize, null, run);
+            f.locals[0] = new Object[0]; // args
+            f.locals[1] = new Scanner(in); // sc
+            try {
+                main.body.exec(f);
+            } catch (RuntimeException | Error ex) {
+                if (!(ex instanceof InProcessProgram.Cancelled)) {
+                    run.unwound(ex, main, f.line);
+                    ex.setStackTrace(run.trace.toArray(new StackTraceElement[0]));
+                }
+                throw ex;
+            } finally {
+                out.flush();
+            }
+        }
+
+        // Runs on System.in and System.out, which InProcessProgram routes to the run
+        InProcessProgram.Entry entry() {
+            return () -> {
+                try {
+                    run(System.in, System.out);
+                } catch (RuntimeException | Error ex) {
+                    throw new java.lang.reflect.InvocationTargetException(ex);
+                }
+            };
+        }
+
+        // The classes as javac would compile the translation, binary name -> class
+        // file, for InProcessProgram or a "java" process to run. Line numbers are
+        // pseudo lines. Throws Unsupported for a method too large for a class file.
+        Map<String, byte[]> classFiles() throws Unsupported {
+            Map<String, byte[]> files = new LinkedHashMap<>();
+            for (ClassInfo c : classes) {
+                try {
+                    files.put(c.name, classFile(c, sourceName));
+                } catch (IllegalStateException ex) {
+                    throw new Unsupported("class " + c.name + ": " + ex.getMessage(), c.line);
+                }
+            }
+            return files;
+        }
+    }
+
+    // Reads and checks a program; sourceName is only used in stack traces
+    static Program compile(NovaTranslator translator, PseudoSource in, String sourceName)
+            throws IOException, Unsupported {
+        Map<String, ClassSource> classes = read(translator, in);
+        String mainClass = classes.containsKey("Main") || classes.isEmpty() ? "Main"
+                : classes.keySet().iterator().next();
+        return new Compiler(classes, sourceName).program(mainClass);
+    }
+
+    // ---- reading: the classes as NovaTranslator generates them, as Java lines ----
+
+    private static final class Line {
+        final String java;
+        final int line;
+
+        Line(String java, int line) {
+            this.java = java;
+            this.line = line;
+        }
+    }
+
+    private static final class ClassSource {
+        final String name;
+        String parent;
+        final int line;
+        final Map<String, Integer> fields = new LinkedHashMap<>(); // declaration -> line
+        final List<MethodSource> methods = new ArrayList<>();
+        final List<Line> main = new ArrayList<>();
+        boolean hasMain;
+
+        ClassSource(String name, String parent, int line) {
+            this.name = name;
+            this.parent = parent;
+            this.line = line;
+        }
+    }
+
+    private static final class MethodSource {
+        final String signature;
+        final int line;
+        final List<Line> body = new ArrayList<>();
+
+        MethodSource(String signature, int line) {
+            this.signature = signature;
+            this.line = line;
+        }
+    }
+
+    // Mirrors NovaTranslator: reopened classes are merged, a method only exists once
+    // its end is seen, and statements outside methods go into the class's main
+    private static Map<String, ClassSource> read(NovaTranslator translator, PseudoSource in)
+            throws IOException, Unsupported {
+        NovaParser parser = translator.parser(in);
+        Map<String, ClassSource> classes = new LinkedHashMap<>();
+        NovaAst.Node node;
+        if (!parser.objectOriented()) {
+            ClassSource main = new ClassSource("Main", null, 1);
+            main.hasMain = true;
+            boolean restarted = false;
+            while ((node = parser.next()) != null) {
+                if (node instanceof NovaAst.Restart) {
+                    restarted = true;
+                    break;
+                }
+                main.main.add(line(translator, (NovaAst.Statement) node));
+            }
+            if (!restarted) {
+                classes.put("Main", main);
+                return classes;
+            }
+        }
+        ClassSource active = null;
+        MethodSource method = null;
+        while ((node = parser.next()) != null) {
+            if (node instanceof NovaAst.ClassDecl) {
+                NovaAst.ClassDecl c = (NovaAst.ClassDecl) node;
+                active = classes.get(c.name);
+                if (active == null) {
+                    active = new ClassSource(c.name, c.parent, c.line);
+                    classes.put(c.name, active);
+                } else if ((active.parent == null || active.parent.isEmpty()) && c.parent != null) {
+                    active.parent = c.parent;
+                }
+                method = null;
+            } else if (node instanceof NovaAst.MethodDecl) {
+                method = new MethodSource(((NovaAst.MethodDecl) node).signature, node.line);
+            } else if (node instanceof NovaAst.EndMethod) {
+                if (method == null)
+                    throw new Unsupported("end of a method that was not started", node.line);
+                active.methods.add(method);
+                method = null;
+            } else if (node instanceof NovaAst.FieldDecl) {
+                active.fields.putIfAbsent(((NovaAst.FieldDecl) node).declaration, node.line);
+            } else if (method != null) {
+                method.body.add(line(translator, (NovaAst.Statement) node));
+            } else {
+                Line l = line(translator, (NovaAst.Statement) node);
+                active.hasMain = true;
+                if (!l.java.trim().isEmpty())
+                    active.main.add(l);
+            }
+        }
+        return classes;
+    }
+
+    private static Line line(NovaTranslator translator, NovaAst.Statement s) {
+        StringBuilder java = new StringBuilder();
+        translator.emit(s, java);
+        return new Line(java.toString(), s.line);
+    }
+
+    // ---- types and run-time values ----
+
+    private static final class Type {
+        static final Type INT = new Type("int"), LONG = new Type("long"), DOUBLE = new Type("double"),
+                BOOLEAN = new Type("boolean"), CHAR = new Type("char"), STRING = new Type("String"),
+                VOID = new Type("void"), NULL = new Type("null"), SCANNER = new Type("Scanner"),
+                PRINT_STREAM = new Type("PrintStream"), EXCEPTION = new Type("Exception");
+
+        final String name;
+        final Type element; // arrays only
+        final ClassInfo cls; // the program's classes only
+        private Type array;
+
+        Type(String name) {
+            this(name, null, null);
+        }
+
+        Type(String name, Type element, ClassInfo cls) {
+            this.name = name;
+            this.element = element;
+            this.cls = cls;
+        }
+
+        synchronized Type arrayOf() {
+            if (array == null)
+                array = new Type(name + "[]", this, null);
+            return array;
+        }
+
+        boolean numeric() {
+            return this == INT || this == LONG || this == DOUBLE || this == CHAR;
+        }
+
+        boolean primitive() {
+            return numeric() || this == BOOLEAN;
+        }
+
+        boolean reference() {
+            return !primitive() && this != VOID;
+        }
+
+        // Instances of the program's classes, arrays of anything
+        boolean object() {
+            return cls != null || element != null;
+        }
+
+        boolean wide() {
+            return this == LONG || this == DOUBLE;
+        }
+
+        // The type in a class file, like "I", "Ljava/lang/String;" or "[LDog;"
+        String descriptor() {
+            if (element != null)
+                return "[" + element.descriptor();
+            if (cls != null)
+                return "L" + name + ";";
+            switch (name) {
+                case "int":
+                    return "I";
+                case "long":
+                    return "J";
+                case "double":
+                    return "D";
+                case "boolean":
+                    return "Z";
+                case "char":
+                    return "C";
+                case "void":
+                    return "V";
+                case "String":
+                    return "Ljava/lang/String;";
+                case "Scanner":
+                    return "Ljava/util/Scanner;";
+                default:
+                    return "Ljava/lang/Object;";
+            }
+        }
+
+        // The class NEW, ANEWARRAY and CHECKCAST name for the type
+        String internalName() {
+            return element != null ? descriptor() : cls != null ? name
+                    : this == STRING ? "java/lang/String" : "java/lang/Object";
+        }
+
+        // ILOAD, LLOAD, DLOAD or ALOAD; the stores, returns and array instructions for
+        // the four kinds are in the same order
+        int load() {
+            return this == LONG ? LLOAD : this == DOUBLE ? DLOAD : primitive() ? ILOAD : ALOAD;
+        }
+
+        int store() {
+            return load() - ILOAD + ISTORE;
+        }
+
+        int returns() {
+            return load() - ILOAD + IRETURN;
+        }
+
+        // Loads an element of an array of this type
+        int arrayLoad() {
+            return this == BOOLEAN ? BALOAD : this == CHAR ? CALOAD : load() - ILOAD + IALOAD;
+        }
+
+        int arrayStore() {
+            return arrayLoad() - IALOAD + IASTORE;
+        }
+
+        int pop() {
+            return wide() ? POP2 : POP;
+        }
+    }
+
+    // An instance of one of the program's classes
+    private static final class Obj {
+        final ClassInfo cls;
+        final Object[] fields;
+
+        Obj(ClassInfo cls) {
+            this.cls = cls;
+            this.fields = cls.defaults.clone();
+        }
+    }
+
+    private static final class Run {
+        final PrintStream out;
+        final String sourceName;
+        // frames of the exception being thrown, innermost first
+        private Throwable unwinding;
+        final List<StackTraceElement> trace = new ArrayList<>();
+
+        Run(PrintStream out, String sourceName) {
+            this.out = out;
+            this.sourceName = sourceName;
+        }
+
+        void unwound(Throwable ex, Method m, int line) {
+            if (ex != unwinding) {
+                unwinding = ex;
+                trace.clear();
+            }
+            if (trace.size() < 1024)
+                trace.add(new StackTraceElement(m.owner.name, m.name, sourceName, line));
+        }
+    }
+
+    // Locals of one method invocation
+    private static final class Frame {
+        final Object[] locals;
+        final Obj self; // null in main
+        final Run run;
+        Object result;
+        int line; // pseudo line of the statement being run
+
+        Frame(int size, Obj self, Run run) {
+            this.locals = new Object[size];
+            this.self = self;
+            this.run = run;
+        }
+    }
+
+    private interface Eval {
+        Object eval(Frame f);
+    }
+
+    // Completion of a statement
+    private static final int NORMAL = 0, BREAK = 1, CONTINUE = 2, RETURNED = 3;
+
+    private interface Exec {
+        int exec(Frame f);
+    }
+
+    // The code of the method being written, and where break and continue go in the
+    // loops around the code being added
+    private static final class Gen {
+        final ClassFileWriter.Code c;
+        final Deque<ClassFileWriter.Label[]> loops = new ArrayDeque<>(); // break, continue
+
+        Gen(ClassFileWriter.Code c) {
+            this.c = c;
+        }
+    }
+
+    // Writes the bytecode of an expression, which leaves its value on the stack, or
+    // of a statement
+    private interface Emit {
+        void emit(Gen g);
+    }
+
+    private static final class Stmt {
+        final Exec exec;
+        final Emit code;
+
+        Stmt(Exec exec, Emit code) {
+            this.exec = exec;
+            this.code = code;
+        }
+    }
+
+    // ---- the program's classes ----
+
+    private static final class ClassInfo {
+        final String name;
+        final int line;
+        final boolean imports; // java.util.* is only imported by the main class
+        ClassInfo parent;
+        Type type;
+        final Map<String, Field> fields = new HashMap<>(); // declared here
+        final List<Method> methods = new ArrayList<>(); // declared here
+        final List<Method> constructors = new ArrayList<>();
+        final Map<String, Method> vtable = new LinkedHashMap<>(); // key -> most derived
+        Object[] defaults; // initial field values, inherited ones first
+        Method main;
+
+        ClassInfo(String name, int line, boolean imports) {
+            this.name = name;
+            this.line = line;
+            this.imports = imports;
+        }
+
+        boolean extendsOrIs(ClassInfo c) {
+            for (ClassInfo k = this; k != null; k = k.parent)
+                if (k == c)
+                    return true;
+            return false;
+        }
+
+        Field field(String name) {
+            for (ClassInfo k = this; k != null; k = k.parent) {
+                Field f = k.fields.get(name);
+                if (f != null)
+                    return f;
+            }
+            return null;
+        }
+    }
+
+    private static final class Field {
+        final String name;
+        final Type type;
+        final int slot;
+        final boolean isPrivate;
+        final ClassInfo owner;
+
+        Field(String name, Type type, int slot, boolean isPrivate, ClassInfo owner) {
+            this.name = name;
+            this.type = type;
+            this.slot = slot;
+            this.isPrivate = isPrivate;
+            this.owner = owner;
+        }
+    }
+
+    private static final class Method {
+        final ClassInfo owner;
+        final String name; // "<init>" for constructors
+        final Type result; // VOID for void methods and constructors
+        final List<Type> params;
+        final List<String> names;
+        final String key; // name(param types), what overriding matches on
+        final int line;
+        final List<Line> lines;
+        final boolean isStatic;
+        Exec body;
+        Emit code;
+        int frameSize;
+
+        Method(ClassInfo owner, String name, Type result, List<Type> params, List<String> names, int line,
+                List<Line> lines, boolean isStatic) {
+            this.owner = owner;
+            this.name = name;
+            this.result = result;
+            this.params = params;
+            this.names = names;
+            StringBuilder k = new StringBuilder(name).append('(');
+            for (int i = 0; i < params.size(); i++)
+                k.append(i > 0 ? "," : "").append(params.get(i).name);
+            this.key = k.append(')').toString();
+            this.line = line;
+            this.lines = lines;
+            this.isStatic = isStatic;
+        }
+
+        String descriptor() {
+            StringBuilder d = new StringBuilder("(");
+            for (Type t : params)
+                d.append(t.descriptor());
+            return d.append(')').append(result.descriptor()).toString();
+        }
+    }
+
+    private static Object invoke(Method m, Obj self, Object[] args, Frame caller) {
+        Frame f = new Frame(m.frameSize, self, caller.run);
+        System.arraycopy(args, 0, f.locals, 0, args.length);
+        f.line = m.line;
+        try {
+            m.body.exec(f);
+        } catch (RuntimeException | Error ex) {
+            caller.run.unwound(ex, m, f.line);
+            throw ex;
+        }
+        return f.result;
+    }
+
+    // new C(...): the constructors of the superclasses first, each with no arguments
+    private static void construct(ClassInfo c, Method ctor, Obj o, Object[] args, Frame caller) {
+        if (c.parent != null)
+            construct(c.parent, c.parent.constructors.isEmpty() ? null : noArgs(c.parent), o, new Object[0],
+                    caller);
+        if (ctor != null)
+            invoke(ctor, o, args, caller);
+    }
+
+    private static Method noArgs(ClassInfo c) {
+        for (Method m : c.constructors)
+            if (m.params.isEmpty())
+                return m;
+        return null;
+    }
+
+    // ---- class files ----
+
+    private static byte[] classFile(ClassInfo c, String sourceName) {
+        String parent = c.parent == null ? "java/lang/Object" : c.parent.name;
+        ClassFileWriter w = new ClassFileWriter(ACC_PUBLIC | ACC_SUPER, c.name, parent, sourceName);
+        List<Field> fields = new ArrayList<>(c.fields.values());
+        fields.sort(Comparator.comparingInt(f -> f.slot));
+        for (Field f : fields)
+            w.field(f.isPrivate ? ACC_PRIVATE : 0, f.name, f.type.descriptor());
+        if (c.constructors.isEmpty()) {
+            ClassFileWriter.Code code = w.method(ACC_PUBLIC, "<init>", "()V");
+            code.line(c.line);
+            code.local(ALOAD, 0);
+            code.invoke(INVOKESPECIAL, parent, "<init>", "()V");
+            code.op(RETURN);
+        }
+        for (Method m : c.constructors)
+            method(w, m, parent);
+        for (Method m : c.methods)
+            method(w, m, parent);
+        if (c.main != null)
+            method(w, c.main, parent);
+        return w.toByteArray();
+    }
+
+    private static void method(ClassFileWriter w, Method m, String parent) {
+        Gen g = new Gen(w.method(m.isStatic ? ACC_PUBLIC | ACC_STATIC : ACC_PUBLIC, m.name, m.descriptor()));
+        g.c.line(m.line);
+        if (m.name.equals("<init>")) {
+            g.c.local(ALOAD, 0);
+            g.c.invoke(INVOKESPECIAL, parent, "<init>", "()V");
+        }
+        if (m.isStatic) { // Scanner sc = new Scanner(System.in); sc is the local after args
+            g.c.type(NEW, "java/util/Scanner");
+            g.c.op(DUP);
+            g.c.field(GETSTATIC, "java/lang/System", "in", "Ljava/io/InputStream;");
+            g.c.invoke(INVOKESPECIAL, "java/util/Scanner", "<init>", "(Ljava/io/InputStream;)V");
+            g.c.local(ASTORE, 1);
+        }
+        m.code.emit(g);
+        if (g.c.reachable()) {
+            if (m.result != Type.VOID)
+                throw new IllegalStateException("the end of " + m.name + " is reachable");
+            g.c.op(RETURN);
+        }
+    }
+
+    private static String toString(Object o, Frame f) {
+        if (o instanceof Obj) {
+            Obj obj = (Obj) o;
+            return (String) invoke(obj.cls.vtable.get("toString()"), obj, new Object[0], f);
+        }
+        return String.valueOf(o);
+    }
+
+    // ---- checking and compiling ----
+
+    // Exceptions a catch may name: unchecked ones, whose messages come from the same
+    // code whether interpreted or compiled
+    private static final Map<String, Class<?>> CATCHABLE = new HashMap<>();
+    static {
+        for (Class<?> c : Arrays.asList(Exception.class, RuntimeException.class, ArithmeticException.class,
+                ArrayIndexOutOfBoundsException.class, IndexOutOfBoundsException.class,
+                StringIndexOutOfBoundsException.class, NegativeArraySizeException.class,
+                NullPointerException.class, ClassCastException.class, NumberFormatException.class,
+                IllegalArgumentException.class, IllegalStateException.class, InputMismatchException.class,
+                NoSuchElementException.class))
+            CATCHABLE.put(c.getSimpleName(), c);
+    }
+
+    // Simple names the generated code refers to; a class of the program must not hide them
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList("String", "Object", "Math", "System",
+            "Integer", "Long", "Double", "Character", "Boolean", "Scanner"));
+
+    // A typed expression. Constant expressions in the sense of the JLS are only
+    // tracked as far as loop conditions need them.
+    private static final class X {
+        final Type type;
+        final Eval eval;
+        final Emit code;
+        final boolean constant;
+        Emit effect; // code for when the value is not used, if there is better than popping it
+
+        X(Type type, Eval eval, Emit code, boolean constant) {
+            this.type = type;
+            this.eval = eval;
+            this.code = code;
+            this.constant = constant;
+        }
+
+        // The code of an expression statement
+        void discard(Gen g) {
+            if (effect != null) {
+                effect.emit(g);
+                return;
+            }
+            code.emit(g);
+            if (type != Type.VOID)
+                g.c.op(type.pop());
+        }
+    }
+
+    private static final class Local {
+        final Type type;
+        final int slot;
+        final int index; // in the JVM's local variables
+        final Class<?> caught; // the type a catch parameter catches; null for other variables
+
+        Local(Type type, int slot, int index, Class<?> caught) {
+            this.type = type;
+            this.slot = slot;
+            this.index = index;
+            this.caught = caught;
+        }
+    }
+
+    private static final class Loop {
+        boolean breaks;
+    }
+
+    // What is being compiled: a method, a constructor or a main
+    private static final class Context {
+        final ClassInfo cls;
+        final boolean isStatic;
+        final Type result;
+        int slots;
+        int words; // of JVM local variables; long and double take two
+        final Deque<Loop> loops = new ArrayDeque<>();
+
+        Context(ClassInfo cls, boolean isStatic, Type result) {
+            this.cls = cls;
+            this.isStatic = isStatic;
+            this.result = result;
+            this.words = isStatic ? 0 : 1; // this
+        }
+    }
+
+    private static final class Scope {
+        final Scope parent;
+        final Context context;
+        private final Map<String, Local> locals = new HashMap<>();
+
+        Scope(Scope parent, Context context) {
+            this.parent = parent;
+            this.context = context;
+        }
+
+        Scope nested() {
+            return new Scope(this, context);
+        }
+
+        Local find(String name) {
+            for (Scope s = this; s != null; s = s.parent) {
+                Local l = s.locals.get(name);
+                if (l != null)
+                    return l;
+            }
+            return null;
+        }
+
+        Local declare(String name, Type type, Class<?> caught) {
+            Local l = new Local(type, context.slots++, context.words, caught);
+            context.words += type.wide() ? 2 : 1;
+            locals.put(name, l);
+            return l;
+        }
+    }
+
+    private static final class Compiler {
+        private final Map<String, ClassSource> sources;
+        private final String sourceName;
+        private final Map<String, ClassInfo> classes = new LinkedHashMap<>();
+        private final NovaLexer lex = new NovaLexer();
+        private List<Line> lines;
+        private int pos;
+        private boolean completes; // the statement just compiled can complete normally
+        private int line; // of the statement being compiled
+
+        Compiler(Map<String, ClassSource> sources, String sourceName) {
+            this.sources = sources;
+            this.sourceName = sourceName;
+        }
+
+        Program program(String mainClass) throws Unsupported {
+            for (ClassSource s : sources.values()) {
+                if (!SourceVersion.isName(s.name) || RESERVED.contains(s.name) || CATCHABLE.containsKey(s.name))
+                    throw new Unsupported("class name " + s.name + " is not supported", s.line);
+                classes.put(s.name, new ClassInfo(s.name, s.line, s.name.equals(mainClass)));
+            }
+            for (ClassInfo c : classes.values())
+                c.type = new Type(c.name, null, c);
+            for (ClassSource s : sources.values()) {
+                if (s.parent == null || s.parent.isEmpty())
+                    continue;
+                ClassInfo c = classes.get(s.name), p = classes.get(s.parent);
+                if (p == null)
+                    throw new Unsupported("class " + s.name + " extends " + s.parent
+                            + ", which is not a class of this program", s.line);
+                for (ClassInfo k = p; k != null; k = k.parent)
+                    if (k == c)
+                        throw new Unsupported("class " + s.name + " extends itself", s.line);
+                c.parent = p;
+            }
+            Set<ClassInfo> done = new HashSet<>();
+            for (ClassInfo c : classes.values())
+                declare(c, done);
+            for (ClassInfo c : classes.values()) {
+                ClassSource s = sources.get(c.name);
+                for (Method m : c.methods)
+                    compile(m);
+                for (Method m : c.constructors)
+                    compile(m);
+                if (c.parent != null && !c.parent.constructors.isEmpty() && noArgs(c.parent) == null)
+                    throw new Unsupported("class " + c.parent.name + " has no constructor without parameters for "
+                            + c.name + " to call", c.line);
+                if (s.hasMain) {
+                    if (!c.imports)
+                        throw new Unsupported("class " + c.name + " has main code but only " + mainClass
+                                + " imports java.util.Scanner", c.line);
+                    c.main = new Method(c, "main", Type.VOID, Collections.singletonList(Type.STRING.arrayOf()),
+                            Collections.singletonList("args"), s.main.isEmpty() ? c.line : s.main.get(0).line,
+                            s.main, true);
+                    if (c.vtable.containsKey(c.main.key))
+                        throw new Unsupported("class " + c.name + " already has a main method", c.line);
+                    compile(c.main);
+                }
+            }
+            ClassInfo main = classes.get(mainClass);
+            if (main == null || main.main == null)
+                throw new Unsupported("class " + mainClass + " has no main code to run",
+                        main == null ? 1 : main.line);
+            return new Program(mainClass, main.main, classes.values(), sourceName);
+        }
+
+        // Fields, method signatures and the method table; superclasses first
+        private void declare(ClassInfo c, Set<ClassInfo> done) throws Unsupported {
+            if (!done.add(c))
+                return;
+            if (c.parent != null)
+                declare(c.parent, done);
+            ClassSource s = sources.get(c.name);
+            List<Object> defaults = new ArrayList<>(c.parent != null ? Arrays.asList(c.parent.defaults)
+                    : Collections.emptyList());
+            for (Map.Entry<String, Integer> e : s.fields.entrySet()) {
+                String decl = e.getKey();
+                line = e.getValue();
+                if (decl.startsWith("//"))
+                    continue; // an invalid field declaration, written as a comment
+                lex.scan(decl, 0, decl.length(), Integer.MAX_VALUE);
+                int n = lex.count;
+                if (n < 4 || !lex.is(n - 1, ";") || lex.kind[n - 2] != NovaLexer.WORD)
+                    throw unsupported("field " + decl);
+                String name = lex.text(n - 2);
+                Type type = type(decl.substring(lex.start[1], lex.start[n - 2]).replaceAll("\\s+", ""), c);
+                checkName(name);
+                if (c.fields.containsKey(name))
+                    throw unsupported("field " + name + " is declared twice");
+                c.fields.put(name, new Field(name, type, defaults.size(), lex.is(0, "private"), c));
+                defaults.add(defaultValue(type));
+            }
+            c.defaults = defaults.toArray();
+
+            if (c.parent != null)
+                c.vtable.putAll(c.parent.vtable);
+            Set<String> own = new HashSet<>();
+            for (MethodSource m : s.methods) {
+                line = m.line;
+                Method method = signature(c, m);
+                if (!own.add(method.key))
+                    throw unsupported("method " + method.key + " is declared twice");
+                if (method.name.equals("<init>")) {
+                    c.constructors.add(method);
+                    continue;
+                }
+                checkObjectMethod(method);
+                Method inherited = c.vtable.get(method.key);
+                if (inherited != null && inherited.result != method.result)
+                    throw unsupported(method.key + " overrides a method with another return type");
+                c.methods.add(method);
+                c.vtable.put(method.key, method);
+            }
+        }
+
+        // "public [type] name(type name, ...)", as NovaParser writes it
+        private Method signature(ClassInfo c, MethodSource m) throws Unsupported {
+            String sig = m.signature;
+            lex.scan(sig, 0, sig.length(), Integer.MAX_VALUE);
+            int n = lex.count, open = -1;
+            for (int i = 0; i < n && open < 0; i++)
+                if (lex.is(i, "("))
+                    open = i;
+            if (open < 2 || !lex.is(0, "public") || !lex.is(n - 1, ")") || sig.contains("unknownMethod"))
+                throw unsupported("method " + sig);
+            String name = lex.text(open - 1);
+            String resultType = sig.substring(lex.start[1], lex.start[open - 1]).replaceAll("\\s+", "");
+            Type result = open == 2 ? null : resultType.equals("void") ? Type.VOID : type(resultType, c);
+            if (result == null && !name.equals(c.name))
+                throw unsupported("method " + sig);
+            checkName(name);
+            List<Type> params = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            int from = lex.end[open], end = lex.start[n - 1];
+            if (!sig.substring(from, end).trim().isEmpty()) {
+                for (String p : sig.substring(from, end).split(",", -1)) {
+                    p = p.trim();
+                    int space = Math.max(p.lastIndexOf(' '), p.lastIndexOf(']'));
+                    if (space < 0)
+                        throw unsupported("parameter " + p);
+                    String pn = p.substring(space + 1).trim();
+                    checkName(pn);
+                    if (names.contains(pn))
+                        throw unsupported("parameter " + pn + " is declared twice");
+                    params.add(type(p.substring(0, space + 1).replaceAll("\\s+", ""), c));
+                    names.add(pn);
+                }
+            }
+            return new Method(c, result == null ? "<init>" : name, result == null ? Type.VOID : result, params,
+                    names, m.line, m.body, false);
+        }
+
+        // Methods of java.lang.Object a class may not redeclare, or only with its result
+        private void checkObjectMethod(Method m) throws Unsupported {
+            switch (m.key) {
+                case "toString()":
+                    if (m.result != Type.STRING)
+                        throw unsupported("toString() must return String");
+                    break;
+                case "hashCode()":
+                    if (m.result != Type.INT)
+                        throw unsupported("hashCode() must return int");
+                    break;
+                case "getClass()":
+                case "notify()":
+                case "notifyAll()":
+                case "wait()":
+                case "clone()":
+                case "finalize()":
+                    throw unsupported(m.key + " cannot be redeclared");
+                default:
+            }
+        }
+
+        private void compile(Method m) throws Unsupported {
+            Context ctx = new Context(m.owner, m.isStatic, m.result);
+            Scope scope = new Scope(null, ctx);
+            for (int i = 0; i < m.params.size(); i++)
+                scope.declare(m.names.get(i), m.params.get(i), null);
+            if (m.isStatic)
+                scope.declare("sc", Type.SCANNER, null);
+            lines = m.lines;
+            pos = 0;
+            Stmt body = statements(scope, false);
+            m.body = body.exec;
+            m.code = body.code;
+            line = m.lines.isEmpty() ? m.line : m.lines.get(m.lines.size() - 1).line;
+            if (completes && m.result != Type.VOID)
+                throw unsupported("missing return statement in " + m.name);
+            m.frameSize = ctx.slots;
+        }
+
+        // ---- statements, one Java line at a time ----
+
+        // Scans a line into lex; false for a blank or comment line
+        private boolean scan(Line l) throws Unsupported {
+            line = l.line;
+            String java = l.java.trim();
+            if (java.indexOf('\n') >= 0 || java.indexOf('\r') >= 0)
+                throw unsupported("a statement translated to several lines");
+            if (java.startsWith("//"))
+                return false;
+            if (java.contains("\\u") || java.contains("/*"))
+                throw unsupported("unicode escapes and comments are not supported");
+            lex.scan(java, 0, java.length(), Integer.MAX_VALUE);
+            if (lex.unterminated)
+                throw unsupported("unterminated literal");
+            return lex.count > 0;
+        }
+
+        // Compiles lines up to a line that starts with '}', which is left for the caller,
+        // or the end
+        private Stmt statements(Scope scope, boolean nested) throws Unsupported {
+            List<Stmt> list = new ArrayList<>();
+            boolean reachable = true;
+            while (pos < lines.size()) {
+                Line l = lines.get(pos);
+                if (!scan(l)) {
+                    pos++;
+                    continue;
+                }
+                if (lex.is(0, "}")) {
+                    if (!nested)
+                        throw unsupported("'}' closes nothing");
+                    break;
+                }
+                if (!reachable)
+                    throw unsupported("unreachable statement");
+                Stmt s = statement(scope, l);
+                if (s != null)
+                    list.add(s);
+                reachable = completes;
+            }
+            completes = reachable;
+            return sequence(list);
+        }
+
+        private static Stmt sequence(List<Stmt> list) {
+            if (list.size() == 1)
+                return list.get(0);
+            Exec[] all = new Exec[list.size()];
+            Emit[] code = new Emit[list.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = list.get(i).exec;
+                code[i] = list.get(i).code;
+            }
+            return new Stmt(f -> {
+                for (Exec e : all) {
+                    int r = e.exec(f);
+                    if (r != NORMAL)
+                        return r;
+                }
+                return NORMAL;
+            }, g -> {
+                for (Emit e : code)
+                    e.emit(g);
+            });
+        }
+
+        // One statement starting at the line in lex
+        private Stmt statement(Scope scope, Line l) throws Unsupported {
+            int n = lex.count;
+            if (lex.is(0, "if"))
+                return ifStatement(scope, l, 0);
+            if (lex.is(0, "while"))
+                return whileStatement(scope, l);
+            if (lex.is(0, "for"))
+                return forStatement(scope, l);
+            if (lex.is(0, "try") && n == 2 && lex.is(1, "{"))
+                return tryStatement(scope, l);
+            String text = lex.text;
+            if (!lex.is(n - 1, ";"))
+                throw unsupported("statement " + text);
+            pos++;
+            completes = true;
+            if (n == 1)
+                return null; // ;
+            if (lex.is(0, "break") || lex.is(0, "continue")) {
+                if (n != 2)
+                    throw unsupported("statement " + text);
+                Loop loop = scope.context.loops.peek();
+                if (loop == null)
+                    throw unsupported(lex.text(0) + " outside a loop");
+                completes = false;
+                int at = line;
+                if (lex.is(0, "break")) {
+                    loop.breaks = true;
+                    return new Stmt(f -> BREAK, g -> {
+                        g.c.line(at);
+                        g.c.jump(GOTO, g.loops.peek()[0]);
+                    });
+                }
+                return new Stmt(f -> CONTINUE, g -> {
+                    g.c.line(at);
+                    g.c.jump(GOTO, g.loops.peek()[1]);
+                });
+            }
+            if (lex.is(0, "return"))
+                return returnStatement(scope, text, lex.end[0], lex.start[n - 1]);
+            return simple(scope, text, 0, lex.start[n - 1]);
+        }
+
+        // A local variable declaration or an expression statement, without the ';'
+        private Stmt simple(Scope scope, String text, int from, int to) throws Unsupported {
+            int at = line;
+            NovaAst.Expr e = parse(text, from, to, true);
+            if (e instanceof NovaAst.Declaration) {
+                NovaAst.Declaration d = (NovaAst.Declaration) e;
+                Type type = type(d.type, scope.context.cls);
+                if (d.value == null)
+                    throw unsupported("variable " + d.name + " is declared without a value");
+                // the variable is not in scope in its own initializer
+                X value = convert(expr(scope, d.value), type, "variable " + d.name);
+                checkName(d.name);
+                if (scope.find(d.name) != null)
+                    throw unsupported("variable " + d.name + " is already defined");
+                Local local = scope.declare(d.name, type, null);
+                int slot = local.slot, index = local.index;
+                Eval v = value.eval;
+                return new Stmt(f -> {
+                    f.line = at;
+                    f.locals[slot] = v.eval(f);
+                    return NORMAL;
+                }, g -> {
+                    g.c.line(at);
+                    value.code.emit(g);
+                    g.c.local(type.store(), index);
+                });
+            }
+            X x = statementExpression(scope, e);
+            Eval v = x.eval;
+            return new Stmt(f -> {
+                f.line = at;
+                v.eval(f);
+                return NORMAL;
+            }, g -> {
+                g.c.line(at);
+                x.discard(g);
+            });
+        }
+
+        private X statementExpression(Scope scope, NovaAst.Expr e) throws Unsupported {
+            boolean increment = e instanceof NovaAst.Unary
+                    && (((NovaAst.Unary) e).op.equals("++") || ((NovaAst.Unary) e).op.equals("--"));
+            boolean creation = e instanceof NovaAst.New && ((NovaAst.New) e).dimensions.isEmpty();
+            if (!(increment || creation || e instanceof NovaAst.Assign || e instanceof NovaAst.Call))
+                throw unsupported("not a statement");
+            return any(scope, e);
+        }
+
+        // "if (c) {", or "} else if (c) {" from token k on, up to the end of the chain
+        private Stmt ifStatement(Scope scope, Line l, int k) throws Unsupported {
+            int n = lex.count, at = line;
+            if (n < k + 5 || !lex.is(k + 1, "(") || !lex.is(n - 2, ")") || !lex.is(n - 1, "{"))
+                throw unsupported("statement " + lex.text);
+            X cond = condition(scope, lex.text, lex.end[k + 1], lex.start[n - 2]);
+            pos++;
+            Stmt then = statements(scope.nested(), true);
+            boolean thenCompletes = completes;
+            Line closer = closer(l);
+            Stmt otherwise = null;
+            boolean elseCompletes = true;
+            if (lex.count == 1) {
+                pos++;
+            } else if (lex.count >= 3 && lex.is(1, "else") && lex.is(2, "if")) {
+                otherwise = ifStatement(scope, closer, 2);
+                elseCompletes = completes;
+            } else if (lex.count == 3 && lex.is(1, "else") && lex.is(2, "{")) {
+                pos++;
+                otherwise = statements(scope.nested(), true);
+                elseCompletes = completes;
+                close(closer);
+            } else {
+                throw unsupported("statement " + lex.text);
+            }
+            completes = thenCompletes || elseCompletes;
+            Eval c = cond.eval;
+            Exec t = then.exec;
+            Stmt o = otherwise;
+            Emit code = g -> {
+                g.c.line(at);
+                ClassFileWriter.Label no = new ClassFileWriter.Label(), end = new ClassFileWriter.Label();
+                cond.code.emit(g);
+                g.c.jump(IFEQ, no);
+                then.code.emit(g);
+                if (o != null)
+                    g.c.jump(GOTO, end);
+                g.c.place(no);
+                if (o != null) {
+                    o.code.emit(g);
+                    g.c.place(end);
+                }
+            };
+            if (o == null)
+                return new Stmt(f -> {
+                    f.line = at;
+                    return (Boolean) c.eval(f) ? t.exec(f) : NORMAL;
+                }, code);
+            Exec e = o.exec;
+            return new Stmt(f -> {
+                f.line = at;
+                return (Boolean) c.eval(f) ? t.exec(f) : e.exec(f);
+            }, code);
+        }
+
+        private Stmt whileStatement(Scope scope, Line l) throws Unsupported {
+            int n = lex.count, at = line;
+            if (n < 5 || !lex.is(1, "(") || !lex.is(n - 2, ")") || !lex.is(n - 1, "{"))
+                throw unsupported("statement " + lex.text);
+            X cond = condition(scope, lex.text, lex.end[1], lex.start[n - 2]);
+            if (Boolean.FALSE.equals(constant(cond)))
+                throw unsupported("the body of the loop is unreachable");
+            Loop loop = new Loop();
+            scope.context.loops.push(loop);
+            pos++;
+            Stmt body = statements(scope.nested(), true);
+            scope.context.loops.pop();
+            close(l);
+            completes = !Boolean.TRUE.equals(constant(cond)) || loop.breaks;
+            return loop(at, null, cond, null, body);
+        }
+
+        // for (init; condition; update) {
+        private Stmt forStatement(Scope scope, Line l) throws Unsupported {
+            int n = lex.count, at = line;
+            if (n < 6 || !lex.is(1, "(") || !lex.is(n - 2, ")") || !lex.is(n - 1, "{"))
+                throw unsupported("statement " + lex.text);
+            int[] semicolons = new int[2];
+            int found = 0, depth = 0;
+            for (int i = 2; i < n - 2; i++) {
+                if (lex.is(i, "(") || lex.is(i, "["))
+                    depth++;
+                else if (lex.is(i, ")") || lex.is(i, "]"))
+                    depth--;
+                else if (lex.is(i, ";") && depth == 0 && found++ < 2)
+                    semicolons[found - 1] = i;
+            }
+            if (found != 2)
+                throw unsupported("statement " + lex.text);
+            String text = lex.text;
+            int from = lex.end[1], first = lex.start[semicolons[0]], afterFirst = lex.end[semicolons[0]];
+            int second = lex.start[semicolons[1]], afterSecond = lex.end[semicolons[1]], to = lex.start[n - 2];
+
+            Scope outer = scope.nested();
+            Stmt init = blank(text, from, first) ? null : simple(outer, text, from, first);
+            X cond = blank(text, afterFirst, second) ? null : condition(outer, text, afterFirst, second);
+            X update = blank(text, afterSecond, to) ? null
+                    : statementExpression(outer, parse(text, afterSecond, to, false));
+            if (cond != null && Boolean.FALSE.equals(constant(cond)))
+                throw unsupported("the body of the loop is unreachable");
+            Loop loop = new Loop();
+            scope.context.loops.push(loop);
+            pos++;
+            Stmt body = statements(outer.nested(), true);
+            scope.context.loops.pop();
+            close(l);
+            completes = cond != null && !Boolean.TRUE.equals(constant(cond)) || loop.breaks;
+            return loop(at, init, cond, update, body);
+        }
+
+        private static Stmt loop(int at, Stmt init, X cond, X update, Stmt body) {
+            Exec i = init == null ? null : init.exec, b = body.exec;
+            Eval c = cond == null ? null : cond.eval, u = update == null ? null : update.eval;
+            boolean test = cond != null && !Boolean.TRUE.equals(constant(cond));
+            return new Stmt(f -> {
+                f.line = at;
+                if (i != null)
+                    i.exec(f);
+                while (true) {
+                    f.line = at;
+                    if (c != null && !(Boolean) c.eval(f))
+                        return NORMAL;
+                    int r = b.exec(f);
+                    if (r == BREAK)
+                        return NORMAL;
+                    if (r == RETURNED)
+                        return RETURNED;
+                    if (u != null) {
+                        f.line = at;
+                        u.eval(f);
+                    }
+                    if (Thread.currentThread().isInterrupted())
+                        throw new InProcessProgram.Cancelled();
+                }
+            }, g -> {
+                ClassFileWriter.Label top = new ClassFileWriter.Label(), next = new ClassFileWriter.Label(),
+                        end = new ClassFileWriter.Label();
+                g.c.line(at);
+                if (init != null)
+                    init.code.emit(g);
+                g.c.place(top);
+                g.c.line(at);
+                if (test) {
+                    cond.code.emit(g);
+                    g.c.jump(IFEQ, end);
+                }
+                g.loops.push(new ClassFileWriter.Label[] { end, next });
+                body.code.emit(g);
+                g.loops.pop();
+                g.c.place(next);
+                if (update != null) {
+                    g.c.line(at);
+                    update.discard(g);
+                }
+                g.c.jump(GOTO, top);
+                g.c.place(end);
+            });
+        }
+
+        // try { ... } catch (Type name) { ... } ... }
+        private Stmt tryStatement(Scope scope, Line l) throws Unsupported {
+            int at = line;
+            pos++;
+            Stmt body = statements(scope.nested(), true);
+            boolean any = completes;
+            List<Class<?>> types = new ArrayList<>();
+            List<Local> locals = new ArrayList<>();
+            List<Stmt> handlers = new ArrayList<>();
+            while (true) {
+                closer(l);
+                if (lex.count == 1) {
+                    if (types.isEmpty())
+                        throw unsupported("try without catch");
+                    pos++;
+                    break;
+                }
+                if (lex.count != 7 || !lex.is(1, "catch") || !lex.is(2, "(") || lex.kind[3] != NovaLexer.WORD
+                        || lex.kind[4] != NovaLexer.WORD || !lex.is(5, ")") || !lex.is(6, "{"))
+                    throw unsupported("statement " + lex.text);
+                String typeName = lex.text(3), name = lex.text(4);
+                Class<?> type = CATCHABLE.get(typeName);
+                if (type == null || !scope.context.cls.imports && type.getPackage() != Exception.class.getPackage())
+                    throw unsupported("catch (" + typeName + ")");
+                for (Class<?> earlier : types)
+                    if (earlier.isAssignableFrom(type))
+                        throw unsupported(typeName + " has already been caught");
+                checkName(name);
+                if (scope.find(name) != null)
+                    throw unsupported("variable " + name + " is already defined");
+                Scope handler = scope.nested();
+                locals.add(handler.declare(name, Type.EXCEPTION, type));
+                types.add(type);
+                pos++;
+                handlers.add(statements(handler, true));
+                any |= completes;
+            }
+            completes = any;
+            Class<?>[] catches = types.toArray(new Class<?>[0]);
+            Exec b = body.exec;
+            Exec[] run = new Exec[handlers.size()];
+            int[] slot = new int[run.length];
+            for (int i = 0; i < run.length; i++) {
+                run[i] = handlers.get(i).exec;
+                slot[i] = locals.get(i).slot;
+            }
+            return new Stmt(f -> {
+                f.line = at;
+                try {
+                    return b.exec(f);
+                } catch (RuntimeException ex) {
+                    for (int i = 0; i < catches.length; i++)
+                        if (catches[i].isInstance(ex)) {
+                            f.locals[slot[i]] = ex;
+                            return run[i].exec(f);
+                        }
+                    throw ex;
+                }
+            }, g -> {
+                ClassFileWriter.Label start = new ClassFileWriter.Label(), end = new ClassFileWriter.Label(),
+                        after = new ClassFileWriter.Label();
+                g.c.line(at);
+                g.c.place(start);
+                body.code.emit(g);
+                g.c.place(end);
+                g.c.jump(GOTO, after);
+                ClassFileWriter.Label[] targets = new ClassFileWriter.Label[catches.length];
+                for (int i = 0; i < catches.length; i++) {
+                    targets[i] = new ClassFileWriter.Label();
+                    g.c.tryCatch(start, end, targets[i], catches[i].getName().replace('.', '/'));
+                }
+                for (int i = 0; i < catches.length; i++) {
+                    g.c.place(targets[i]);
+                    g.c.local(ASTORE, locals.get(i).index);
+                    handlers.get(i).code.emit(g);
+                    g.c.jump(GOTO, after);
+                }
+                g.c.place(after);
+            });
+        }
+
+        private Stmt returnStatement(Scope scope, String text, int from, int to) throws Unsupported {
+            int at = line;
+            Type result = scope.context.result;
+            completes = false;
+            if (blank(text, from, to)) {
+                if (result != Type.VOID)
+                    throw unsupported("return without a value");
+                return new Stmt(f -> RETURNED, g -> {
+                    g.c.line(at);
+                    g.c.op(RETURN);
+                });
+            }
+            if (result == Type.VOID)
+                throw unsupported("return with a value from a void method");
+            X value = convert(expr(scope, parse(text, from, to, false)), result, "the return value");
+            Eval v = value.eval;
+            return new Stmt(f -> {
+                f.line = at;
+                f.result = v.eval(f);
+                return RETURNED;
+            }, g -> {
+                g.c.line(at);
+                value.code.emit(g);
+                g.c.op(result.returns());
+            });
+        }
+
+        // The '}' line that ends the block the line opener started; lex holds its tokens
+        private Line closer(Line opener) throws Unsupported {
+            if (pos >= lines.size())
+                throw new Unsupported("the block is never closed", opener.line);
+            Line closer = lines.get(pos);
+            scan(closer);
+            return closer;
+        }
+
+        private void close(Line opener) throws Unsupported {
+            closer(opener);
+            if (lex.count != 1)
+                throw unsupported("statement " + lex.text);
+            pos++;
+        }
+
+        private X condition(Scope scope, String text, int from, int to) throws Unsupported {
+            X c = expr(scope, parse(text, from, to, false));
+            if (c.type != Type.BOOLEAN)
+                throw unsupported("a condition must be boolean, not " + c.type.name);
+            return c;
+        }
+
+        private static boolean blank(String text, int from, int to) {
+            for (int i = from; i < to; i++)
+                if (!NovaLexer.isSpace(text.charAt(i)))
+                    return false;
+            return true;
+        }
+
+        private NovaAst.Expr parse(String text, int from, int to, boolean statement) throws Unsupported {
+            NovaAst.Expr e = NovaParser.expression(text, from, to, line, 1, statement);
+            if (e instanceof NovaAst.Invalid)
+                throw unsupported(((NovaAst.Invalid) e).message);
+            return e;
+        }
+
+        // ---- expressions ----
+
+        // An expression that has a value
+        private X expr(Scope scope, NovaAst.Expr e) throws Unsupported {
+            X x = any(scope, e);
+            if (x.type == Type.VOID)
+                throw unsupported("a void method has no value");
+            Object v = constant(x);
+            if (v != null) // javac folds constant expressions too
+                return new X(x.type, x.eval, push(x.type, v), true);
+            return x;
+        }
+
+        private X any(Scope scope, NovaAst.Expr e) throws Unsupported {
+            if (e instanceof NovaAst.Literal)
+                return literal((NovaAst.Literal) e);
+            if (e instanceof NovaAst.Name)
+                return name(scope, ((NovaAst.Name) e).name);
+            if (e instanceof NovaAst.Unary)
+                return unary(scope, (NovaAst.Unary) e);
+            if (e instanceof NovaAst.Binary)
+                return binary(scope, (NovaAst.Binary) e);
+            if (e instanceof NovaAst.Conditional)
+                return conditional(scope, (NovaAst.Conditional) e);
+            if (e instanceof NovaAst.Assign)
+                return assign(scope, (NovaAst.Assign) e);
+            if (e instanceof NovaAst.Call)
+                return call(scope, (NovaAst.Call) e);
+            if (e instanceof NovaAst.Member)
+                return member(scope, (NovaAst.Member) e);
+            if (e instanceof NovaAst.Index) {
+                NovaAst.Index i = (NovaAst.Index) e;
+                X array = expr(scope, i.array);
+                if (array.type.element == null)
+                    throw unsupported("an index into " + array.type.name);
+                X index = index(scope, i.index);
+                Eval a = array.eval, ie = index.eval;
+                Type t = array.type.element;
+                return new X(t, f -> ((Object[]) a.eval(f))[(Integer) ie.eval(f)], g -> {
+                    array.code.emit(g);
+                    index.code.emit(g);
+                    g.c.op(t.arrayLoad());
+                }, false);
+            }
+            if (e instanceof NovaAst.New)
+                return creation(scope, (NovaAst.New) e);
+            if (e instanceof NovaAst.Cast)
+                return cast(scope, (NovaAst.Cast) e);
+            throw unsupported("a declaration inside an expression");
+        }
+
+        private X literal(NovaAst.Literal l) throws Unsupported {
+            String s = l.text.replace("_", "");
+            Object v;
+            Type t;
+            try {
+                switch (l.type) {
+                    case NovaAst.Literal.INT:
+                    case NovaAst.Literal.LONG: {
+                        // the parser lets a decimal one past the largest through only after a minus
+                        boolean isLong = l.type == NovaAst.Literal.LONG;
+                        long n = NovaAst.Literal.integer(l.text, isLong);
+                        v = isLong ? (Object) n : (Object) (int) n;
+                        t = isLong ? Type.LONG : Type.INT;
+                        break;
+                    }
+                    case NovaAst.Literal.DOUBLE:
+                        v = Double.parseDouble(s);
+                        if (((Double) v).isInfinite())
+                            throw unsupported("floating-point number too large: " + l.text);
+                        t = Type.DOUBLE;
+                        break;
+                    case NovaAst.Literal.BOOLEAN:
+                        v = Boolean.valueOf(s);
+                        t = Type.BOOLEAN;
+                        break;
+                    case NovaAst.Literal.CHAR: {
+                        String c = unescape(l.text);
+                        if (c.length() != 1)
+                            throw unsupported("character literal " + l.text);
+                        v = c.charAt(0);
+                        t = Type.CHAR;
+                        break;
+                    }
+                    case NovaAst.Literal.STRING:
+                        v = unescape(l.text);
+                        t = Type.STRING;
+                        break;
+                    case NovaAst.Literal.NULL:
+                        v = null;
+                        t = Type.NULL;
+                        break;
+                    default:
+                        throw unsupported("float literal " + l.text);
+                }
+            } catch (NumberFormatException | ArithmeticException ex) {
+                throw unsupported("number " + l.text);
+            }
+            Object value = v;
+            return new X(t, f -> value, push(t, value), t != Type.NULL);
+        }
+
+        // Pushes a constant of type t
+        private static Emit push(Type t, Object v) {
+            if (t == Type.INT)
+                return g -> g.c.iconst((Integer) v);
+            if (t == Type.CHAR)
+                return g -> g.c.iconst((Character) v);
+            if (t == Type.BOOLEAN)
+                return g -> g.c.iconst((Boolean) v ? 1 : 0);
+            if (t == Type.LONG)
+                return g -> g.c.lconst((Long) v);
+            if (t == Type.DOUBLE)
+                return g -> g.c.dconst((Double) v);
+            if (t == Type.STRING)
+                return g -> g.c.sconst((String) v);
+            return g -> g.c.op(ACONST_NULL);
+        }
+
+        // The text between the quotes of a literal, escapes resolved
+        private String unescape(String quoted) throws Unsupported {
+            StringBuilder s = new StringBuilder();
+            for (int i = 1; i < quoted.length() - 1; i++) {
+                char c = quoted.charAt(i);
+                if (c != '\\') {
+                    s.append(c);
+                    continue;
+                }
+                c = quoted.charAt(++i);
+                int k = "btnfrs\"'\\".indexOf(c);
+                if (k >= 0) {
+                    s.append("\b\t\n\f\r \"'\\".charAt(k));
+                } else if (c >= '0' && c <= '7') {
+                    int max = c <= '3' ? 3 : 2, n = 0, j = 0;
+                    while (j < max && i < quoted.length() - 1 && quoted.charAt(i) >= '0' && quoted.charAt(i) <= '7') {
+                        n = n * 8 + quoted.charAt(i++) - '0';
+                        j++;
+                    }
+                    i--;
+                    s.append((char) n);
+                } else {
+                    throw unsupported("escape sequence \\" + c);
+                }
+            }
+            return s.toString();
+        }
+
+        private X name(Scope scope, String name) throws Unsupported {
+            Local local = scope.find(name);
+            if (local != null) {
+                if (local.caught != null)
+                    throw unsupported("the caught exception " + name + " is only supported in " + name
+                            + ".getMessage()");
+                int slot = local.slot, index = local.index, load = local.type.load();
+                return new X(local.type, f -> f.locals[slot], g -> g.c.local(load, index), false);
+            }
+            Context ctx = scope.context;
+            if (name.equals("this")) {
+                if (ctx.isStatic)
+                    throw unsupported("this in main");
+                return new X(ctx.cls.type, f -> f.self, g -> g.c.local(ALOAD, 0), false);
+            }
+            Field field = field(ctx, ctx.cls, name);
+            if (field == null)
+                throw unsupported("unknown name " + name);
+            if (ctx.isStatic)
+                throw unsupported("field " + name + " in main, which is static");
+            int slot = field.slot;
+            return new X(field.type, f -> f.self.fields[slot], g -> {
+                g.c.local(ALOAD, 0);
+                getField(g, field);
+            }, false);
+        }
+
+        private static void getField(Gen g, Field field) {
+            g.c.field(GETFIELD, field.owner.name, field.name, field.type.descriptor());
+        }
+
+        // A field of cls as seen from code in ctx; null if there is none
+        private Field field(Context ctx, ClassInfo cls, String name) throws Unsupported {
+            Field field = cls.field(name);
+            if (field != null && field.isPrivate && field.owner != ctx.cls)
+                throw unsupported("field " + name + " is private to " + field.owner.name);
+            return field;
+        }
+
+        private X member(Scope scope, NovaAst.Member m) throws Unsupported {
+            if (m.target instanceof NovaAst.Name && isStaticTarget(scope, ((NovaAst.Name) m.target).name)) {
+                switch (((NovaAst.Name) m.target).name + "." + m.name) {
+                    case "Math.PI":
+                        return constant(Type.DOUBLE, Math.PI);
+                    case "Math.E":
+                        return constant(Type.DOUBLE, Math.E);
+                    case "Integer.MAX_VALUE":
+                        return constant(Type.INT, Integer.MAX_VALUE);
+                    case "Integer.MIN_VALUE":
+                        return constant(Type.INT, Integer.MIN_VALUE);
+                    case "Long.MAX_VALUE":
+                        return constant(Type.LONG, Long.MAX_VALUE);
+                    case "Long.MIN_VALUE":
+                        return constant(Type.LONG, Long.MIN_VALUE);
+                    default:
+                        throw unsupported(((NovaAst.Name) m.target).name + "." + m.name);
+                }
+            }
+            X target = expr(scope, m.target);
+            Eval t = target.eval;
+            if (target.type.element != null && m.name.equals("length"))
+                return new X(Type.INT, f -> ((Object[]) t.eval(f)).length, g -> {
+                    target.code.emit(g);
+                    g.c.op(ARRAYLENGTH);
+                }, false);
+            Field field = target.type.cls == null ? null : field(scope.context, target.type.cls, m.name);
+            if (field == null)
+                throw unsupported(target.type.name + "." + m.name);
+            int slot = field.slot;
+            return new X(field.type, f -> ((Obj) t.eval(f)).fields[slot], g -> {
+                target.code.emit(g);
+                getField(g, field);
+            }, false);
+        }
+
+        // A name that stands for a class of the library rather than a variable
+        private boolean isStaticTarget(Scope scope, String name) {
+            return scope.find(name) == null && scope.context.cls.field(name) == null && RESERVED.contains(name);
+        }
+
+        private static X constant(Type type, Object value) {
+            return new X(type, f -> value, push(type, value), true);
+        }
+
+        // The value of a constant expression; null if it is not one
+        private static Object constant(X x) {
+            if (!x.constant)
+                return null;
+            try {
+                return x.eval.eval(null);
+            } catch (RuntimeException ex) {
+                return null; // like 1 / 0, which javac does not take for a constant
+            }
+        }
+
+        private X unary(Scope scope, NovaAst.Unary u) throws Unsupported {
+            if (u.op.equals("++") || u.op.equals("--")) {
+                Place p = place(scope, u.operand);
+                if (!p.type.numeric())
+                    throw unsupported(u.op + " on " + p.type.name);
+                int delta = u.op.equals("++") ? 1 : -1;
+                Type t = p.type;
+                Update step = (f, old) -> castTo(t, t == Type.DOUBLE ? (Object) ((Double) old + delta)
+                        : t == Type.LONG ? (Object) ((Long) old + delta) : (Object) (toInt(old) + delta));
+                boolean old = u.postfix;
+                Emit add = g -> {
+                    if (t == Type.DOUBLE) {
+                        g.c.dconst(delta);
+                        g.c.op(DADD);
+                    } else if (t == Type.LONG) {
+                        g.c.lconst(delta);
+                        g.c.op(LADD);
+                    } else {
+                        g.c.iconst(delta);
+                        g.c.op(IADD);
+                        numericCast(g, Type.INT, t);
+                    }
+                };
+                X x = new X(t, f -> p.update(f, step, old), g -> p.emitUpdate(g, add, true, old), false);
+                x.effect = g -> p.emitUpdate(g, add, false, old);
+                if (p instanceof LocalPlace && t == Type.INT) {
+                    int index = ((LocalPlace) p).index;
+                    x = new X(t, x.eval, g -> {
+                        if (old)
+                            g.c.local(ILOAD, index);
+                        g.c.iinc(index, delta);
+                        if (!old)
+                            g.c.local(ILOAD, index);
+                    }, false);
+                    x.effect = g -> g.c.iinc(index, delta);
+                }
+                return x;
+            }
+            if (u.op.equals("-") && u.operand instanceof NovaAst.Literal
+                    && ((NovaAst.Literal) u.operand).type == NovaAst.Literal.INT) {
+                int v = (Integer) constant(literal((NovaAst.Literal) u.operand));
+                return constant(Type.INT, -v);
+            }
+            X x = expr(scope, u.operand);
+            Eval e = x.eval;
+            switch (u.op) {
+                case "!":
+                    if (x.type != Type.BOOLEAN)
+                        break;
+                    return new X(Type.BOOLEAN, f -> !(Boolean) e.eval(f), g -> {
+                        x.code.emit(g);
+                        g.c.iconst(1);
+                        g.c.op(IXOR);
+                    }, x.constant);
+                case "-":
+                case "+": {
+                    if (!x.type.numeric())
+                        break;
+                    Type t = promote(x.type, Type.INT);
+                    if (u.op.equals("+"))
+                        return new X(t, t == Type.INT ? f -> toInt(e.eval(f)) : e, x.code, x.constant);
+                    Emit neg = then(x.code, t == Type.DOUBLE ? DNEG : t == Type.LONG ? LNEG : INEG);
+                    if (t == Type.DOUBLE)
+                        return new X(t, f -> -(Double) e.eval(f), neg, x.constant);
+                    if (t == Type.LONG)
+                        return new X(t, f -> -(Long) e.eval(f), neg, x.constant);
+                    return new X(t, f -> -toInt(e.eval(f)), neg, x.constant);
+                }
+                case "~": {
+                    if (!x.type.numeric())
+                        break;
+                    Type t = promote(x.type, Type.INT);
+                    if (t == Type.LONG)
+                        return new X(t, f -> ~(Long) e.eval(f), g -> {
+                            x.code.emit(g);
+                            g.c.lconst(-1);
+                            g.c.op(LXOR);
+                        }, x.constant);
+                    if (t == Type.INT)
+                        return new X(t, f -> ~toInt(e.eval(f)), g -> {
+                            x.code.emit(g);
+                            g.c.iconst(-1);
+                            g.c.op(IXOR);
+                        }, x.constant);
+                    break;
+                }
+                default:
+            }
+            throw unsupported(u.op + " on " + x.type.name);
+        }
+
+        private X binary(Scope scope, NovaAst.Binary b) throws Unsupported {
+            if (b.op.equals("instanceof"))
+                return instanceOf(scope, b);
+            X l = expr(scope, b.left), r = expr(scope, b.right);
+            Eval le = l.eval, re = r.eval;
+            boolean constant = l.constant && r.constant;
+            if (b.op.equals("&&") || b.op.equals("||")) {
+                if (l.type != Type.BOOLEAN || r.type != Type.BOOLEAN)
+                    throw unsupported(b.op + " on " + l.type.name + " and " + r.type.name);
+                boolean and = b.op.equals("&&");
+                Emit code = g -> {
+                    ClassFileWriter.Label shortCut = new ClassFileWriter.Label(), end = new ClassFileWriter.Label();
+                    l.code.emit(g);
+                    g.c.jump(and ? IFEQ : IFNE, shortCut);
+                    r.code.emit(g);
+                    g.c.jump(GOTO, end);
+                    g.c.place(shortCut);
+                    g.c.iconst(and ? 0 : 1);
+                    g.c.place(end);
+                };
+                if (and)
+                    return new X(Type.BOOLEAN, f -> (Boolean) le.eval(f) && (Boolean) re.eval(f), code, constant);
+                return new X(Type.BOOLEAN, f -> (Boolean) le.eval(f) || (Boolean) re.eval(f), code, constant);
+            }
+            Operator op = operator(b.op, l.type, r.type);
+            if (op == null)
+                throw unsupported(b.op + " on " + l.type.name + " and " + r.type.name);
+            Op2 o = op.op;
+            // constant only as far as javac would fold it: primitives and strings
+            return new X(op.type, f -> o.apply(f, le.eval(f), re.eval(f)), op.emit(l, r.type, r.code),
+                    constant && l.type != Type.NULL && r.type != Type.NULL);
+        }
+
+        private X instanceOf(Scope scope, NovaAst.Binary b) throws Unsupported {
+            X l = expr(scope, b.left);
+            String name = ((NovaAst.Name) b.right).name;
+            ClassInfo c = classes.get(name);
+            if (c == null || !(l.type == Type.NULL || l.type.cls != null
+                    && (l.type.cls.extendsOrIs(c) || c.extendsOrIs(l.type.cls))))
+                throw unsupported(l.type.name + " instanceof " + name);
+            Eval e = l.eval;
+            return new X(Type.BOOLEAN, f -> {
+                Object o = e.eval(f);
+                return o instanceof Obj && ((Obj) o).cls.extendsOrIs(c);
+            }, g -> {
+                l.code.emit(g);
+                g.c.type(INSTANCEOF, c.name);
+            }, false);
+        }
+
+        private X conditional(Scope scope, NovaAst.Conditional c) throws Unsupported {
+            X cond = condition(scope, c);
+            X a = expr(scope, c.ifTrue), b = expr(scope, c.ifFalse);
+            Type t;
+            if (a.type == b.type)
+                t = a.type;
+            else if (a.type.numeric() && b.type.numeric() && a.type != Type.CHAR && b.type != Type.CHAR)
+                t = promote(a.type, b.type);
+            else if (a.type == Type.NULL && b.type.reference())
+                t = b.type;
+            else if (b.type == Type.NULL && a.type.reference())
+                t = a.type;
+            else if (a.type.cls != null && b.type.cls != null && a.type.cls.extendsOrIs(b.type.cls))
+                t = b.type;
+            else if (a.type.cls != null && b.type.cls != null && b.type.cls.extendsOrIs(a.type.cls))
+                t = a.type;
+            else
+                throw unsupported("? : with " + a.type.name + " and " + b.type.name);
+            X ca = convert(a, t, "?:"), cb = convert(b, t, "?:");
+            Eval ce = cond.eval, ae = ca.eval, be = cb.eval;
+            return new X(t, f -> (Boolean) ce.eval(f) ? ae.eval(f) : be.eval(f), g -> {
+                ClassFileWriter.Label no = new ClassFileWriter.Label(), end = new ClassFileWriter.Label();
+                cond.code.emit(g);
+                g.c.jump(IFEQ, no);
+                ca.code.emit(g);
+                g.c.jump(GOTO, end);
+                g.c.place(no);
+                cb.code.emit(g);
+                g.c.place(end);
+            }, cond.constant && a.constant && b.constant && t != Type.NULL);
+        }
+
+        private X condition(Scope scope, NovaAst.Conditional c) throws Unsupported {
+            X cond = expr(scope, c.condition);
+            if (cond.type != Type.BOOLEAN)
+                throw unsupported("a condition must be boolean, not " + cond.type.name);
+            return cond;
+        }
+
+        private X assign(Scope scope, NovaAst.Assign a) throws Unsupported {
+            Place p = place(scope, a.target);
+            X value = expr(scope, a.value);
+            if (a.op.equals("=")) {
+                X v = convert(value, p.type, "the assignment");
+                Eval ve = v.eval;
+                X x = new X(p.type, f -> p.set(f, ve), g -> p.emitSet(g, v.code, true), false);
+                x.effect = g -> p.emitSet(g, v.code, false);
+                return x;
+            }
+            String bop = a.op.substring(0, a.op.length() - 1);
+            Operator op = operator(bop, p.type, value.type);
+            if (op == null || !(op.type == p.type || op.type.numeric() && p.type.numeric()))
+                throw unsupported(a.op + " on " + p.type.name + " and " + value.type.name);
+            Op2 o = op.op;
+            Eval v = value.eval;
+            Type t = p.type;
+            Update step = t.numeric() ? (f, old) -> castTo(t, o.apply(f, old, v.eval(f)))
+                    : (f, old) -> o.apply(f, old, v.eval(f));
+            // with the old value on the stack
+            Emit apply = t == Type.STRING ? g -> {
+                newBuilder(g);
+                g.c.op(SWAP);
+                append(g, t);
+                value.code.emit(g);
+                append(g, value.type);
+                builderToString(g);
+            } : then(op.emit(new X(t, null, g -> {
+            }, false), value.type, value.code), g -> numericCast(g, op.type, t));
+            X x = new X(t, f -> p.update(f, step, false), g -> p.emitUpdate(g, apply, true, false), false);
+            x.effect = g -> p.emitUpdate(g, apply, false, false);
+            return x;
+        }
+
+        // ---- places a value can be stored in ----
+
+        private Place place(Scope scope, NovaAst.Expr e) throws Unsupported {
+            if (e instanceof NovaAst.Name) {
+                String name = ((NovaAst.Name) e).name;
+                Local local = scope.find(name);
+                if (local != null && local.caught == null)
+                    return new LocalPlace(local.type, local.slot, local.index);
+                if (local == null && !name.equals("this")) {
+                    Field field = field(scope.context, scope.context.cls, name);
+                    if (field != null && !scope.context.isStatic)
+                        return new FieldPlace(field, new X(scope.context.cls.type, f -> f.self,
+                                g -> g.c.local(ALOAD, 0), false));
+                }
+            } else if (e instanceof NovaAst.Member) {
+                NovaAst.Member m = (NovaAst.Member) e;
+                X target = expr(scope, m.target);
+                Field field = target.type.cls == null ? null : field(scope.context, target.type.cls, m.name);
+                if (field != null)
+                    return new FieldPlace(field, target);
+            } else if (e instanceof NovaAst.Index) {
+                NovaAst.Index i = (NovaAst.Index) e;
+                X array = expr(scope, i.array);
+                if (array.type.element != null)
+                    return new IndexPlace(array.type.element, array, index(scope, i.index));
+            }
+            throw unsupported("cannot assign to this expression");
+        }
+
+        private X index(Scope scope, NovaAst.Expr e) throws Unsupported {
+            X i = expr(scope, e);
+            if (i.type != Type.INT && i.type != Type.CHAR)
+                throw unsupported("an index must be an int, not " + i.type.name);
+            return convert(i, Type.INT, "the index");
+        }
+
+        // ---- calls ----
+
+        private X call(Scope scope, NovaAst.Call c) throws Unsupported {
+            Context ctx = scope.context;
+            if (c.target == null) {
+                if (ctx.isStatic)
+                    throw unsupported("method " + c.name + " called from main, which is static");
+                return virtual(scope, null, ctx.cls, c);
+            }
+            if (c.target instanceof NovaAst.Member && ((NovaAst.Member) c.target).target instanceof NovaAst.Name
+                    && ((NovaAst.Member) c.target).name.equals("out")
+                    && isStaticTarget(scope, ((NovaAst.Name) ((NovaAst.Member) c.target).target).name)
+                    && ((NovaAst.Name) ((NovaAst.Member) c.target).target).name.equals("System"))
+                return print(scope, c);
+            if (c.target instanceof NovaAst.Name) {
+                String name = ((NovaAst.Name) c.target).name;
+                Local local = scope.find(name);
+                if (local != null && local.caught != null) {
+                    if (!c.name.equals("getMessage") || !c.args.isEmpty()
+                            || local.caught.isAssignableFrom(NullPointerException.class)
+                            || local.caught.isAssignableFrom(ClassCastException.class))
+                        throw unsupported(name + "." + c.name + "()");
+                    int slot = local.slot, index = local.index;
+                    return new X(Type.STRING, f -> ((Throwable) f.locals[slot]).getMessage(), g -> {
+                        g.c.local(ALOAD, index);
+                        g.c.invoke(INVOKEVIRTUAL, "java/lang/Throwable", "getMessage", "()Ljava/lang/String;");
+                    }, false);
+                }
+                if (isStaticTarget(scope, name))
+                    return library(scope, name, c);
+            }
+            X target = expr(scope, c.target);
+            if (target.type == Type.STRING)
+                return string(scope, target, c);
+            if (target.type == Type.SCANNER)
+                return scanner(target, c);
+            if (target.type.cls != null)
+                return virtual(scope, target, target.type.cls, c);
+            throw unsupported(target.type.name + "." + c.name + "()");
+        }
+
+        // A method of the program, chosen by its arguments and then by the object's class
+        private X virtual(Scope scope, X target, ClassInfo cls, NovaAst.Call c) throws Unsupported {
+            List<X> args = arguments(scope, c.args);
+            List<Method> candidates = new ArrayList<>();
+            for (Method m : cls.vtable.values())
+                if (m.name.equals(c.name))
+                    candidates.add(m);
+            Method m = resolve(candidates, args, cls.name + "." + c.name);
+            X[] converted = converted(args, m);
+            Eval[] a = evals(converted);
+            Eval t = target == null ? null : target.eval;
+            String key = m.key;
+            return new X(m.result, f -> {
+                Obj o = t == null ? f.self : (Obj) t.eval(f);
+                Object[] values = new Object[a.length];
+                for (int i = 0; i < a.length; i++)
+                    values[i] = a[i].eval(f);
+                return invoke(o.cls.vtable.get(key), o, values, f);
+            }, g -> {
+                if (target == null)
+                    g.c.local(ALOAD, 0);
+                else
+                    target.code.emit(g);
+                for (X x : converted)
+                    x.code.emit(g);
+                g.c.invoke(INVOKEVIRTUAL, cls.name, m.name, m.descriptor());
+            }, false);
+        }
+
+        private List<X> arguments(Scope scope, List<NovaAst.Expr> exprs) throws Unsupported {
+            List<X> args = new ArrayList<>(exprs.size());
+            for (NovaAst.Expr e : exprs)
+                args.add(expr(scope, e));
+            return args;
+        }
+
+        private X[] converted(List<X> args, Method m) throws Unsupported {
+            X[] a = new X[args.size()];
+            for (int i = 0; i < a.length; i++)
+                a[i] = convert(args.get(i), m.params.get(i), "an argument");
+            return a;
+        }
+
+        private static Eval[] evals(X[] xs) {
+            Eval[] e = new Eval[xs.length];
+            for (int i = 0; i < xs.length; i++)
+                e[i] = xs[i].eval;
+            return e;
+        }
+
+        // The most specific of the methods the arguments fit, as javac picks overloads
+        // without boxing or varargs
+        private Method resolve(List<Method> candidates, List<X> args, String what) throws Unsupported {
+            List<Method> applicable = new ArrayList<>();
+            for (Method m : candidates)
+                if (applicable(m.params, args))
+                    applicable.add(m);
+            if (applicable.isEmpty())
+                throw unsupported("no method " + what + " for these arguments");
+            for (Method m : applicable) {
+                boolean mostSpecific = true;
+                for (Method other : applicable)
+                    for (int i = 0; i < m.params.size() && mostSpecific; i++)
+                        mostSpecific = assignable(m.params.get(i), other.params.get(i));
+                if (mostSpecific)
+                    return m;
+            }
+            throw unsupported("the call to " + what + " is ambiguous");
+        }
+
+        private static boolean applicable(List<Type> params, List<X> args) {
+            if (params.size() != args.size())
+                return false;
+            for (int i = 0; i < params.size(); i++)
+                if (!assignable(args.get(i).type, params.get(i)))
+                    return false;
+            return true;
+        }
+
+        private X creation(Scope scope, NovaAst.New n) throws Unsupported {
+            if (!n.dimensions.isEmpty()) {
+                Type element = type(n.type, scope.context.cls), t = element;
+                X[] dimensions = new X[n.dimensions.size()];
+                for (int i = 0; i < dimensions.length; i++) {
+                    dimensions[i] = index(scope, n.dimensions.get(i));
+                    t = t.arrayOf();
+                }
+                Eval[] sizes = evals(dimensions);
+                Object initial = defaultValue(element);
+                Type array = t;
+                return new X(t, f -> {
+                    int[] lengths = new int[sizes.length];
+                    for (int i = 0; i < lengths.length; i++)
+                        lengths[i] = (Integer) sizes[i].eval(f);
+                    return array(lengths, 0, initial);
+                }, g -> {
+                    for (X x : dimensions)
+                        x.code.emit(g);
+                    if (dimensions.length > 1)
+                        g.c.multianewarray(array.descriptor(), dimensions.length);
+                    else if (element == Type.INT)
+                        g.c.newarray(T_INT);
+                    else if (element == Type.LONG)
+                        g.c.newarray(T_LONG);
+                    else if (element == Type.DOUBLE)
+                        g.c.newarray(T_DOUBLE);
+                    else if (element == Type.BOOLEAN)
+                        g.c.newarray(T_BOOLEAN);
+                    else if (element == Type.CHAR)
+                        g.c.newarray(T_CHAR);
+                    else
+                        g.c.type(ANEWARRAY, element.internalName());
+                }, false);
+            }
+            ClassInfo c = classes.get(n.type);
+            if (c == null)
+                throw unsupported("new " + n.type);
+            List<X> args = arguments(scope, n.args);
+            Method ctor = null;
+            if (!c.constructors.isEmpty())
+                ctor = resolve(c.constructors, args, "new " + c.name);
+            else if (!args.isEmpty())
+                throw unsupported("class " + c.name + " has no constructor with parameters");
+            Method m = ctor;
+            X[] converted = ctor == null ? new X[0] : converted(args, ctor);
+            Eval[] a = evals(converted);
+            return new X(c.type, f -> {
+                Object[] values = new Object[a.length];
+                for (int i = 0; i < a.length; i++)
+                    values[i] = a[i].eval(f);
+                Obj o = new Obj(c);
+                construct(c, m, o, values, f);
+                return o;
+            }, g -> {
+                g.c.type(NEW, c.name);
+                g.c.op(DUP);
+                for (X x : converted)
+                    x.code.emit(g);
+                g.c.invoke(INVOKESPECIAL, c.name, "<init>", m == null ? "()V" : m.descriptor());
+            }, false);
+        }
+
+        private X cast(Scope scope, NovaAst.Cast c) throws Unsupported {
+            Type t = type(c.type, scope.context.cls);
+            X x = expr(scope, c.operand);
+            Eval e = x.eval;
+            if (t.numeric() && x.type.numeric())
+                return new X(t, f -> castTo(t, e.eval(f)), then(x.code, g -> numericCast(g, x.type, t)), x.constant);
+            if (t == x.type && (t == Type.BOOLEAN || t == Type.STRING))
+                return new X(t, e, x.code, x.constant);
+            if (t.cls != null && (x.type == Type.NULL || x.type.cls != null && x.type.cls.extendsOrIs(t.cls)))
+                return new X(t, e, x.code, false);
+            if (t.cls != null && x.type.cls != null && t.cls.extendsOrIs(x.type.cls)) {
+                ClassInfo k = t.cls;
+                return new X(t, f -> {
+                    Object o = e.eval(f);
+                    if (o != null && !((Obj) o).cls.extendsOrIs(k))
+                        throw new ClassCastException(((Obj) o).cls.name + " cannot be cast to " + k.name);
+                    return o;
+                }, then(x.code, g -> g.c.type(CHECKCAST, k.name)), false);
+            }
+            throw unsupported("a cast from " + x.type.name + " to " + t.name);
+        }
+
+        // ---- the library ----
+
+        private X print(Scope scope, NovaAst.Call c) throws Unsupported {
+            boolean newline = c.name.equals("println");
+            if (!newline && !c.name.equals("print") || c.args.size() > 1 || !newline && c.args.isEmpty())
+                throw unsupported("System.out." + c.name);
+            X out = new X(Type.PRINT_STREAM, null,
+                    g -> g.c.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;"), false);
+            if (c.args.isEmpty())
+                return new X(Type.VOID, f -> {
+                    f.run.out.println();
+                    return null;
+                }, call(out, INVOKEVIRTUAL, "java/io/PrintStream", "println", "()V"), false);
+            X x = expr(scope, c.args.get(0));
+            if (x.type == Type.NULL || !printable(x.type))
+                throw unsupported("printing " + x.type.name);
+            Eval e = x.eval;
+            Emit code = call(out, INVOKEVIRTUAL, "java/io/PrintStream", c.name, "(" + printed(x.type) + ")V", x);
+            if (newline)
+                return new X(Type.VOID, f -> {
+                    f.run.out.println(NovaInterpreter.toString(e.eval(f), f));
+                    return null;
+                }, code, false);
+            return new X(Type.VOID, f -> {
+                f.run.out.print(NovaInterpreter.toString(e.eval(f), f));
+                return null;
+            }, code, false);
+        }
+
+        // Turned into a string by print and + the way a compiled program would
+        private static boolean printable(Type t) {
+            return t.primitive() || t == Type.STRING || t == Type.NULL
+                    || t.cls != null && t.cls.vtable.containsKey("toString()");
+        }
+
+        // The bytecode of a call of a library method: the target, if any, the
+        // arguments and the invoke instruction
+        private static Emit call(X target, int opcode, String owner, String name, String descriptor, X... args) {
+            return g -> {
+                if (target != null)
+                    target.code.emit(g);
+                for (X a : args)
+                    a.code.emit(g);
+                g.c.invoke(opcode, owner, name, descriptor);
+            };
+        }
+
+        private X scanner(X target, NovaAst.Call c) throws Unsupported {
+            if (!c.args.isEmpty())
+                throw unsupported("sc." + c.name);
+            Eval sc = target.eval;
+            switch (c.name) {
+                case "nextInt":
+                    return new X(Type.INT, f -> ((Scanner) sc.eval(f)).nextInt(), scannerCall(target, c, "I"), false);
+                case "nextLong":
+                    return new X(Type.LONG, f -> ((Scanner) sc.eval(f)).nextLong(), scannerCall(target, c, "J"),
+                            false);
+                case "nextDouble":
+                    return new X(Type.DOUBLE, f -> ((Scanner) sc.eval(f)).nextDouble(), scannerCall(target, c, "D"),
+                            false);
+                case "nextBoolean":
+                    return new X(Type.BOOLEAN, f -> ((Scanner) sc.eval(f)).nextBoolean(),
+                            scannerCall(target, c, "Z"), false);
+                case "next":
+                    return new X(Type.STRING, f -> ((Scanner) sc.eval(f)).next(),
+                            scannerCall(target, c, "Ljava/lang/String;"), false);
+                case "nextLine":
+                    return new X(Type.STRING, f -> ((Scanner) sc.eval(f)).nextLine(),
+                            scannerCall(target, c, "Ljava/lang/String;"), false);
+                case "hasNext":
+                    return new X(Type.BOOLEAN, f -> ((Scanner) sc.eval(f)).hasNext(), scannerCall(target, c, "Z"),
+                            false);
+                case "hasNextInt":
+                    return new X(Type.BOOLEAN, f -> ((Scanner) sc.eval(f)).hasNextInt(), scannerCall(target, c, "Z"),
+                            false);
+                case "hasNextLong":
+                    return new X(Type.BOOLEAN, f -> ((Scanner) sc.eval(f)).hasNextLong(),
+                            scannerCall(target, c, "Z"), false);
+                case "hasNextDouble":
+                    return new X(Type.BOOLEAN, f -> ((Scanner) sc.eval(f)).hasNextDouble(),
+                            scannerCall(target, c, "Z"), false);
+                case "hasNextLine":
+                    return new X(Type.BOOLEAN, f -> ((Scanner) sc.eval(f)).hasNextLine(),
+                            scannerCall(target, c, "Z"), false);
+                default:
+                    throw unsupported("sc." + c.name + "()");
+            }
+        }
+
+        private static Emit scannerCall(X target, NovaAst.Call c, String result) {
+            return call(target, INVOKEVIRTUAL, "java/util/Scanner", c.name, "()" + result);
+        }
+
+        private X string(Scope scope, X target, NovaAst.Call c) throws Unsupported {
+            List<X> args = arguments(scope, c.args);
+            X[] a = args.toArray(new X[0]);
+            Eval s = target.eval;
+            String sig = c.name + signature(args);
+            switch (sig) {
+                case "length()":
+                    return new X(Type.INT, f -> ((String) s.eval(f)).length(), stringCall(target, c, "()I"), false);
+                case "isEmpty()":
+                    return new X(Type.BOOLEAN, f -> ((String) s.eval(f)).isEmpty(), stringCall(target, c, "()Z"),
+                            false);
+                case "trim()":
+                    return new X(Type.STRING, f -> ((String) s.eval(f)).trim(),
+                            stringCall(target, c, "()Ljava/lang/String;"), false);
+                case "strip()":
+                    return new X(Type.STRING, f -> ((String) s.eval(f)).strip(),
+                            stringCall(target, c, "()Ljava/lang/String;"), false);
+                case "toUpperCase()":
+                    return new X(Type.STRING, f -> ((String) s.eval(f)).toUpperCase(),
+                            stringCall(target, c, "()Ljava/lang/String;"), false);
+                case "toLowerCase()":
+                    return new X(Type.STRING, f -> ((String) s.eval(f)).toLowerCase(),
+                            stringCall(target, c, "()Ljava/lang/String;"), false);
+                case "hashCode()":
+                    return new X(Type.INT, f -> ((String) s.eval(f)).hashCode(), stringCall(target, c, "()I"), false);
+                case "charAt(int)": {
+                    Eval i = a[0].eval;
+                    return new X(Type.CHAR, f -> ((String) s.eval(f)).charAt((Integer) i.eval(f)),
+                            stringCall(target, c, "(I)C", a), false);
+                }
+                case "substring(int)": {
+                    Eval i = a[0].eval;
+                    return new X(Type.STRING, f -> ((String) s.eval(f)).substring((Integer) i.eval(f)),
+                            stringCall(target, c, "(I)Ljava/lang/String;", a), false);
+                }
+                case "substring(int,int)": {
+                    Eval i = a[0].eval, j = a[1].eval;
+                    return new X(Type.STRING,
+                            f -> ((String) s.eval(f)).substring((Integer) i.eval(f), (Integer) j.eval(f)),
+                            stringCall(target, c, "(II)Ljava/lang/String;", a), false);
+                }
+                case "repeat(int)": {
+                    Eval i = a[0].eval;
+                    return new X(Type.STRING, f -> ((String) s.eval(f)).repeat((Integer) i.eval(f)),
+                            stringCall(target, c, "(I)Ljava/lang/String;", a), false);
+                }
+                case "indexOf(String)":
+                case "lastIndexOf(String)":
+                case "indexOf(int)":
+                case "lastIndexOf(int)":
+                case "indexOf(char)":
+                case "lastIndexOf(char)": {
+                    Eval x = a[0].eval;
+                    boolean last = c.name.startsWith("last"), string = sig.endsWith("(String)");
+                    return new X(Type.INT, f -> {
+                        String str = (String) s.eval(f);
+                        Object v = x.eval(f);
+                        if (string)
+                            return last ? str.lastIndexOf((String) v) : str.indexOf((String) v);
+                        return last ? str.lastIndexOf(toInt(v)) : str.indexOf(toInt(v));
+                    }, stringCall(target, c, string ? "(Ljava/lang/String;)I" : "(I)I", a), false);
+                }
+                case "contains(String)":
+                case "startsWith(String)":
+                case "endsWith(String)":
+                case "equalsIgnoreCase(String)": {
+                    Eval x = a[0].eval;
+                    String name = c.name;
+                    return new X(Type.BOOLEAN, f -> {
+                        String str = (String) s.eval(f), v = (String) x.eval(f);
+                        switch (name) {
+                            case "contains":
+                                return str.contains(v);
+                            case "startsWith":
+                                return str.startsWith(v);
+                            case "endsWith":
+                                return str.endsWith(v);
+                            default:
+                                return str.equalsIgnoreCase(v);
+                        }
+                    }, stringCall(target, c,
+                            name.equals("contains") ? "(Ljava/lang/CharSequence;)Z" : "(Ljava/lang/String;)Z", a),
+                            false);
+                }
+                case "compareTo(String)":
+                case "compareToIgnoreCase(String)": {
+                    Eval x = a[0].eval;
+                    boolean ignoreCase = c.name.endsWith("IgnoreCase");
+                    return new X(Type.INT, f -> ignoreCase ? ((String) s.eval(f)).compareToIgnoreCase((String) x.eval(f))
+                            : ((String) s.eval(f)).compareTo((String) x.eval(f)),
+                            stringCall(target, c, "(Ljava/lang/String;)I", a), false);
+                }
+                case "concat(String)": {
+                    Eval x = a[0].eval;
+                    return new X(Type.STRING, f -> ((String) s.eval(f)).concat((String) x.eval(f)),
+                            stringCall(target, c, "(Ljava/lang/String;)Ljava/lang/String;", a), false);
+                }
+                case "replace(String,String)": {
+                    Eval x = a[0].eval, y = a[1].eval;
+                    return new X(Type.STRING,
+                            f -> ((String) s.eval(f)).replace((String) x.eval(f), (String) y.eval(f)),
+                            stringCall(target, c,
+                                    "(Ljava/lang/CharSequence;Ljava/lang/CharSequence;)Ljava/lang/String;", a),
+                            false);
+                }
+                case "replace(char,char)": {
+                    Eval x = a[0].eval, y = a[1].eval;
+                    return new X(Type.STRING,
+                            f -> ((String) s.eval(f)).replace((Character) x.eval(f), (Character) y.eval(f)),
+                            stringCall(target, c, "(CC)Ljava/lang/String;", a), false);
+                }
+                default:
+            }
+            if (c.name.equals("equals") && args.size() == 1) {
+                X x = box(a[0]);
+                Eval e = x.eval;
+                return new X(Type.BOOLEAN, f -> ((String) s.eval(f)).equals(e.eval(f)),
+                        stringCall(target, c, "(Ljava/lang/Object;)Z", x), false);
+            }
+            throw unsupported("String." + c.name + "()");
+        }
+
+        private static Emit stringCall(X target, NovaAst.Call c, String descriptor, X... args) {
+            return call(target, INVOKEVIRTUAL, "java/lang/String", c.name, descriptor, args);
+        }
+
+        // A primitive passed where an Object is expected, boxed as javac would
+        private static X box(X x) {
+            if (!x.type.primitive())
+                return x;
+            String box = x.type == Type.INT ? "java/lang/Integer" : x.type == Type.LONG ? "java/lang/Long"
+                    : x.type == Type.DOUBLE ? "java/lang/Double" : x.type == Type.CHAR ? "java/lang/Character"
+                            : "java/lang/Boolean";
+            return new X(x.type, x.eval, then(x.code, g -> g.c.invoke(INVOKESTATIC, box, "valueOf",
+                    "(" + x.type.descriptor() + ")L" + box + ";")), x.constant);
+        }
+
+        // Static methods of Math, Integer, Long, Double, String and Character
+        private X library(Scope scope, String cls, NovaAst.Call c) throws Unsupported {
+            List<X> args = arguments(scope, c.args);
+            String sig = cls + "." + c.name + signature(args);
+            Eval a = args.isEmpty() ? null : args.get(0).eval;
+            Eval b = args.size() < 2 ? null : args.get(1).eval;
+            X[] all = args.toArray(new X[0]);
+            String owner = "java/lang/" + cls;
+            switch (sig) {
+                case "Integer.parseInt(String)":
+                    return new X(Type.INT, f -> Integer.parseInt((String) a.eval(f)),
+                            staticCall(owner, c, "(Ljava/lang/String;)I", all), false);
+                case "Long.parseLong(String)":
+                    return new X(Type.LONG, f -> Long.parseLong((String) a.eval(f)),
+                            staticCall(owner, c, "(Ljava/lang/String;)J", all), false);
+                case "Double.parseDouble(String)":
+                    return new X(Type.DOUBLE, f -> Double.parseDouble((String) a.eval(f)),
+                            staticCall(owner, c, "(Ljava/lang/String;)D", all), false);
+                case "Integer.toString(int)":
+                case "Long.toString(long)":
+                case "Double.toString(double)":
+                    return new X(Type.STRING, f -> String.valueOf(a.eval(f)),
+                            staticCall(owner, c, "(" + all[0].type.descriptor() + ")Ljava/lang/String;", all), false);
+                case "Math.round(double)":
+                    return new X(Type.LONG, f -> Math.round((Double) a.eval(f)), staticCall(owner, c, "(D)J", all),
+                            false);
+                case "Character.isDigit(char)":
+                    return new X(Type.BOOLEAN, f -> Character.isDigit((Character) a.eval(f)),
+                            staticCall(owner, c, "(C)Z", all), false);
+                case "Character.isLetter(char)":
+                    return new X(Type.BOOLEAN, f -> Character.isLetter((Character) a.eval(f)),
+                            staticCall(owner, c, "(C)Z", all), false);
+                case "Character.isLetterOrDigit(char)":
+                    return new X(Type.BOOLEAN, f -> Character.isLetterOrDigit((Character) a.eval(f)),
+                            staticCall(owner, c, "(C)Z", all), false);
+                case "Character.isWhitespace(char)":
+                    return new X(Type.BOOLEAN, f -> Character.isWhitespace((Character) a.eval(f)),
+                            staticCall(owner, c, "(C)Z", all), false);
+                case "Character.isUpperCase(char)":
+                    return new X(Type.BOOLEAN, f -> Character.isUpperCase((Character) a.eval(f)),
+                            staticCall(owner, c, "(C)Z", all), false);
+                case "Character.isLowerCase(char)":
+                    return new X(Type.BOOLEAN, f -> Character.isLowerCase((Character) a.eval(f)),
+                            staticCall(owner, c, "(C)Z", all), false);
+                case "Character.toUpperCase(char)":
+                    return new X(Type.CHAR, f -> Character.toUpperCase((Character) a.eval(f)),
+                            staticCall(owner, c, "(C)C", all), false);
+                case "Character.toLowerCase(char)":
+                    return new X(Type.CHAR, f -> Character.toLowerCase((Character) a.eval(f)),
+                            staticCall(owner, c, "(C)C", all), false);
+                default:
+            }
+            if (sig.startsWith("String.valueOf(") && args.size() == 1 && args.get(0).type != Type.NULL
+                    && printable(args.get(0).type)) {
+                Type t = args.get(0).type;
+                return new X(Type.STRING, f -> NovaInterpreter.toString(a.eval(f), f), staticCall(owner, c,
+                        "(" + (t.primitive() ? t.descriptor() : "Ljava/lang/Object;") + ")Ljava/lang/String;", all),
+                        false);
+            }
+            if (cls.equals("Math") && args.size() == 1 && args.get(0).type.numeric()) {
+                Type t = promote(args.get(0).type, Type.INT);
+                if (c.name.equals("abs")) {
+                    X x = convert(args.get(0), t, "Math.abs");
+                    Eval e = x.eval;
+                    Emit code = staticCall(owner, c, "(" + t.descriptor() + ")" + t.descriptor(), x);
+                    if (t == Type.INT)
+                        return new X(t, f -> Math.abs((Integer) e.eval(f)), code, false);
+                    if (t == Type.LONG)
+                        return new X(t, f -> Math.abs((Long) e.eval(f)), code, false);
+                    return new X(t, f -> Math.abs((Double) e.eval(f)), code, false);
+                }
+                java.util.function.DoubleUnaryOperator fn = MATH1.get(c.name);
+                if (fn != null)
+                    return new X(Type.DOUBLE, f -> fn.applyAsDouble(toDouble(a.eval(f))),
+                            staticCall(owner, c, "(D)D", convert(args.get(0), Type.DOUBLE, "Math." + c.name)),
+                            false);
+            }
+            if (cls.equals("Math") && args.size() == 2 && args.get(0).type.numeric() && args.get(1).type.numeric()) {
+                Type t = promote(args.get(0).type, args.get(1).type);
+                boolean max = c.name.equals("max");
+                if (max || c.name.equals("min")) {
+                    X x = convert(args.get(0), t, "Math." + c.name), y = convert(args.get(1), t, "Math." + c.name);
+                    Eval xe = x.eval, ye = y.eval;
+                    String d = t.descriptor();
+                    Emit code = staticCall(owner, c, "(" + d + d + ")" + d, x, y);
+                    if (t == Type.INT)
+                        return new X(t, f -> max ? Math.max((Integer) xe.eval(f), (Integer) ye.eval(f))
+                                : Math.min((Integer) xe.eval(f), (Integer) ye.eval(f)), code, false);
+                    if (t == Type.LONG)
+                        return new X(t, f -> max ? Math.max((Long) xe.eval(f), (Long) ye.eval(f))
+                                : Math.min((Long) xe.eval(f), (Long) ye.eval(f)), code, false);
+                    return new X(t, f -> max ? Math.max((Double) xe.eval(f), (Double) ye.eval(f))
+                            : Math.min((Double) xe.eval(f), (Double) ye.eval(f)), code, false);
+                }
+                java.util.function.DoubleBinaryOperator fn = MATH2.get(c.name);
+                if (fn != null)
+                    return new X(Type.DOUBLE, f -> fn.applyAsDouble(toDouble(a.eval(f)), toDouble(b.eval(f))),
+                            staticCall(owner, c, "(DD)D", convert(args.get(0), Type.DOUBLE, "Math." + c.name),
+                                    convert(args.get(1), Type.DOUBLE, "Math." + c.name)), false);
+            }
+            throw unsupported(sig);
+        }
+
+        private static Emit staticCall(String owner, NovaAst.Call c, String descriptor, X... args) {
+            return call(null, INVOKESTATIC, owner, c.name, descriptor, args);
+        }
+
+        // "(int,String)" for arguments of those types; null is taken for a String
+        private static String signature(List<X> args) {
+            StringBuilder s = new StringBuilder("(");
+            for (int i = 0; i < args.size(); i++) {
+                Type t = args.get(i).type;
+                s.append(i > 0 ? "," : "").append(t == Type.NULL ? "String" : t.name);
+            }
+            return s.append(')').toString();
+        }
+
+        // ---- names and types ----
+
+        private Type type(String name, ClassInfo c) throws Unsupported {
+            if (name.endsWith("[]"))
+                return type(name.substring(0, name.length() - 2), c).arrayOf();
+            switch (name) {
+                case "int":
+                    return Type.INT;
+                case "long":
+                    return Type.LONG;
+                case "double":
+                    return Type.DOUBLE;
+                case "boolean":
+                    return Type.BOOLEAN;
+                case "char":
+                    return Type.CHAR;
+                case "String":
+                    return Type.STRING;
+                default:
+            }
+            ClassInfo k = classes.get(name);
+            if (k == null)
+                throw unsupported("type " + name);
+            return k.type;
+        }
+
+        private void checkName(String name) throws Unsupported {
+            if (!SourceVersion.isName(name) || name.indexOf('.') >= 0)
+                throw unsupported(name + " is not a valid name");
+        }
+
+        private X convert(X x, Type to, String what) throws Unsupported {
+            if (!assignable(x.type, to))
+                throw unsupported(what + " is " + x.type.name + ", not " + to.name);
+            Eval e = x.eval;
+            if (x.type == to || !to.numeric())
+                return x;
+            Emit code = then(x.code, g -> numericCast(g, x.type, to));
+            if (to == Type.INT)
+                return new X(to, f -> toInt(e.eval(f)), code, x.constant);
+            if (to == Type.LONG)
+                return new X(to, f -> toLong(e.eval(f)), code, x.constant);
+            return new X(to, f -> toDouble(e.eval(f)), code, x.constant);
+        }
+
+        private Unsupported unsupported(String message) {
+            return new Unsupported(message, line);
+        }
+    }
+
+    // ---- operators ----
+
+    private static final Map<String, java.util.function.DoubleUnaryOperator> MATH1 = new HashMap<>();
+    private static final Map<String, java.util.function.DoubleBinaryOperator> MATH2 = new HashMap<>();
+    static {
+        MATH1.put("sqrt", Math::sqrt);
+        MATH1.put("cbrt", Math::cbrt);
+        MATH1.put("exp", Math::exp);
+        MATH1.put("log", Math::log);
+        MATH1.put("log10", Math::log10);
+        MATH1.put("sin", Math::sin);
+        MATH1.put("cos", Math::cos);
+        MATH1.put("tan", Math::tan);
+        MATH1.put("asin", Math::asin);
+        MATH1.put("acos", Math::acos);
+        MATH1.put("atan", Math::atan);
+        MATH1.put("floor", Math::floor);
+        MATH1.put("ceil", Math::ceil);
+        MATH1.put("rint", Math::rint);
+        MATH1.put("toRadians", Math::toRadians);
+        MATH1.put("toDegrees", Math::toDegrees);
+        MATH2.put("pow", Math::pow);
+        MATH2.put("atan2", Math::atan2);
+        MATH2.put("hypot", Math::hypot);
+    }
+
+    private interface Op2 {
+        Object apply(Frame f, Object a, Object b);
+    }
+
+    private static final class Operator {
+        final Type type;
+        final Op2 op;
+        final Type left, right; // what the operands are converted to; null for string concatenation
+        final Emit code; // with both operands on the stack
+
+        Operator(Type type, Op2 op, Type left, Type right, Emit code) {
+            this.type = type;
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.code = code;
+        }
+
+        Operator(Type type, Op2 op, Type operands, int opcode) {
+            this(type, op, operands, operands, g -> g.c.op(opcode));
+        }
+
+        // The bytecode of l op r
+        Emit emit(X l, Type rightType, Emit r) {
+            if (left == null)
+                return g -> {
+                    newBuilder(g);
+                    l.code.emit(g);
+                    append(g, l.type);
+                    r.emit(g);
+                    append(g, rightType);
+                    builderToString(g);
+                };
+            return g -> {
+                l.code.emit(g);
+                numericCast(g, l.type, left);
+                r.emit(g);
+                numericCast(g, rightType, right);
+                code.emit(g);
+            };
+        }
+    }
+
+    private static Emit then(Emit code, int opcode) {
+        return g -> {
+            code.emit(g);
+            g.c.op(opcode);
+        };
+    }
+
+    private static Emit then(Emit code, Emit more) {
+        return g -> {
+            code.emit(g);
+            more.emit(g);
+        };
+    }
+
+    // Converts the number on the stack to another numeric type, as a cast would
+    private static void numericCast(Gen g, Type from, Type to) {
+        if (from == to || !from.numeric() || !to.numeric())
+            return;
+        if (to == Type.DOUBLE)
+            g.c.op(from == Type.LONG ? L2D : I2D);
+        else if (to == Type.LONG)
+            g.c.op(from == Type.DOUBLE ? D2L : I2L);
+        else if (from == Type.LONG || from == Type.DOUBLE)
+            g.c.op(from == Type.LONG ? L2I : D2I);
+        if (to == Type.CHAR)
+            g.c.op(I2C);
+    }
+
+    // Leaves 1 if the jump would be taken on the operands, else 0
+    private static Emit test(int compare, int jump) {
+        return g -> {
+            ClassFileWriter.Label yes = new ClassFileWriter.Label(), end = new ClassFileWriter.Label();
+            if (compare != 0)
+                g.c.op(compare);
+            g.c.jump(jump, yes);
+            g.c.iconst(0);
+            g.c.jump(GOTO, end);
+            g.c.place(yes);
+            g.c.iconst(1);
+            g.c.place(end);
+        };
+    }
+
+    // String concatenation, the way javac did it before invokedynamic
+    private static void newBuilder(Gen g) {
+        g.c.type(NEW, "java/lang/StringBuilder");
+        g.c.op(DUP);
+        g.c.invoke(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V");
+    }
+
+    private static void append(Gen g, Type t) {
+        g.c.invoke(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                "(" + printed(t) + ")Ljava/lang/StringBuilder;");
+    }
+
+    private static void builderToString(Gen g) {
+        g.c.invoke(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;");
+    }
+
+    // The parameter of the print, append and valueOf overload javac picks for t
+    private static String printed(Type t) {
+        return t.primitive() || t == Type.STRING ? t.descriptor() : "Ljava/lang/Object;";
+    }
+
+    // A binary operator other than && and || on operands of these types; null if
+    // javac would not take it
+    private static Operator operator(String op, Type l, Type r) {
+        if (op.equals("+") && (l == Type.STRING || r == Type.STRING)) {
+            if (!Compiler.printable(l) || !Compiler.printable(r))
+                return null;
+            return new Operator(Type.STRING, (f, a, b) -> toString(a, f).concat(toString(b, f)), null, null, null);
+        }
+        if (op.equals("==") || op.equals("!=")) {
+            boolean eq = op.equals("==");
+            if (l.numeric() && r.numeric()) {
+                Type t = promote(l, r);
+                Op2 cmp = compare(t);
+                Emit test = t == Type.INT ? test(0, eq ? IF_ICMPEQ : IF_ICMPNE)
+                        : test(t == Type.LONG ? LCMP : DCMPL, eq ? IFEQ : IFNE);
+                return new Operator(Type.BOOLEAN, (f, a, b) -> ((Integer) cmp.apply(f, a, b) == 0) == eq, t, t, test);
+            }
+            boolean comparable = l == r && (l == Type.BOOLEAN || l.object()) || l == Type.NULL && r.object()
+                    || r == Type.NULL && (l.object() || l == Type.NULL) || l == Type.NULL && r == Type.STRING
+                    || r == Type.NULL && l == Type.STRING
+                    || l.cls != null && r.cls != null && (l.cls.extendsOrIs(r.cls) || r.cls.extendsOrIs(l.cls));
+            if (!comparable)
+                return null; // strings are left to equals(), the compiled program's == depends on interning
+            if (l == Type.BOOLEAN)
+                return new Operator(Type.BOOLEAN, (f, a, b) -> a.equals(b) == eq, l, r,
+                        test(0, eq ? IF_ICMPEQ : IF_ICMPNE));
+            return new Operator(Type.BOOLEAN, (f, a, b) -> (a == b) == eq, l, r, test(0, eq ? IF_ACMPEQ : IF_ACMPNE));
+        }
+        if (op.equals("&") || op.equals("|") || op.equals("^")) {
+            if (l == Type.BOOLEAN && r == Type.BOOLEAN) {
+                switch (op) {
+                    case "&":
+                        return new Operator(Type.BOOLEAN, (f, a, b) -> (Boolean) a & (Boolean) b, l, IAND);
+                    case "|":
+                        return new Operator(Type.BOOLEAN, (f, a, b) -> (Boolean) a | (Boolean) b, l, IOR);
+                    default:
+                        return new Operator(Type.BOOLEAN, (f, a, b) -> (Boolean) a ^ (Boolean) b, l, IXOR);
+                }
+            }
+        }
+        if (!l.numeric() || !r.numeric())
+            return null;
+        if (op.equals("<<") || op.equals(">>") || op.equals(">>>")) {
+            Type t = promote(l, Type.INT);
+            if (t == Type.DOUBLE || r == Type.DOUBLE)
+                return null;
+            int kind = op.length() == 3 ? 2 : op.equals(">>") ? 1 : 0;
+            int opcode = (kind == 0 ? ISHL : kind == 1 ? ISHR : IUSHR) + (t == Type.LONG ? 1 : 0);
+            if (t == Type.LONG)
+                return new Operator(t, (f, a, b) -> {
+                    long x = (Long) a;
+                    int n = (int) toLong(b);
+                    return kind == 0 ? x << n : kind == 1 ? x >> n : x >>> n;
+                }, t, Type.INT, g -> g.c.op(opcode));
+            return new Operator(t, (f, a, b) -> {
+                int x = toInt(a), n = (int) toLong(b);
+                return kind == 0 ? x << n : kind == 1 ? x >> n : x >>> n;
+            }, t, Type.INT, g -> g.c.op(opcode));
+        }
+        Type t = promote(l, r);
+        switch (op) {
+            case "<":
+            case ">":
+            case "<=":
+            case ">=": {
+                int k = "< > <= >=".indexOf(op);
+                // taken when the comparison holds: IFLT, IFGT, IFLE or IFGE after LCMP,
+                // DCMPG or DCMPL, or the matching IF_ICMP for ints. DCMPG and DCMPL are
+                // picked so that NaN fails the test.
+                int jump = k == 0 ? IFLT : k == 2 ? IFGT : k == 4 ? IFLE : IFGE;
+                if (t == Type.DOUBLE)
+                    return new Operator(Type.BOOLEAN, (f, a, b) -> {
+                        double x = toDouble(a), y = toDouble(b);
+                        return k == 0 ? x < y : k == 2 ? x > y : k == 4 ? x <= y : x >= y;
+                    }, t, t, test(k == 0 || k == 4 ? DCMPG : DCMPL, jump));
+                if (t == Type.LONG)
+                    return new Operator(Type.BOOLEAN, (f, a, b) -> {
+                        long x = toLong(a), y = toLong(b);
+                        return k == 0 ? x < y : k == 2 ? x > y : k == 4 ? x <= y : x >= y;
+                    }, t, t, test(LCMP, jump));
+                return new Operator(Type.BOOLEAN, (f, a, b) -> {
+                    int x = toInt(a), y = toInt(b);
+                    return k == 0 ? x < y : k == 2 ? x > y : k == 4 ? x <= y : x >= y;
+                }, t, t, test(0, jump - IFEQ + IF_ICMPEQ));
+            }
+            case "&":
+            case "|":
+            case "^":
+                if (t == Type.DOUBLE)
+                    return null;
+                // fall through
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+            case "%":
+                return new Operator(t, arithmetic(op.charAt(0), t), t, arithmeticOpcode(op.charAt(0), t));
+            default:
+                return null;
+        }
+    }
+
+    // IADD and the like; the long and double instructions follow the int ones
+    private static int arithmeticOpcode(char op, Type t) {
+        int opcode = op == '+' ? IADD : op == '-' ? ISUB : op == '*' ? IMUL : op == '/' ? IDIV : op == '%' ? IREM
+                : op == '&' ? IAND : op == '|' ? IOR : IXOR;
+        if (t == Type.LONG)
+            return opcode + 1;
+        return t == Type.DOUBLE ? opcode + 3 : opcode;
+    }
+
+    // 0 when equal; only used for == and !=, where NaN is never equal
+    private static Op2 compare(Type t) {
+        if (t == Type.DOUBLE)
+            return (f, a, b) -> toDouble(a) == toDouble(b) ? 0 : 1;
+        if (t == Type.LONG)
+            return (f, a, b) -> toLong(a) == toLong(b) ? 0 : 1;
+        return (f, a, b) -> toInt(a) == toInt(b) ? 0 : 1;
+    }
+
+    private static Op2 arithmetic(char op, Type t) {
+        if (t == Type.DOUBLE) {
+            switch (op) {
+                case '+':
+                    return (f, a, b) -> toDouble(a) + toDouble(b);
+                case '-':
+                    return (f, a, b) -> toDouble(a) - toDouble(b);
+                case '*':
+                    return (f, a, b) -> toDouble(a) * toDouble(b);
+                case '/':
+                    return (f, a, b) -> toDouble(a) / toDouble(b);
+                default:
+                    return (f, a, b) -> toDouble(a) % toDouble(b);
+            }
+        }
+        if (t == Type.LONG) {
+            switch (op) {
+                case '+':
+                    return (f, a, b) -> toLong(a) + toLong(b);
+                case '-':
+                    return (f, a, b) -> toLong(a) - toLong(b);
+                case '*':
+                    return (f, a, b) -> toLong(a) * toLong(b);
+                case '/':
+                    return (f, a, b) -> toLong(a) / toLong(b);
+                case '%':
+                    return (f, a, b) -> toLong(a) % toLong(b);
+                case '&':
+                    return (f, a, b) -> toLong(a) & toLong(b);
+                case '|':
+                    return (f, a, b) -> toLong(a) | toLong(b);
+                default:
+                    return (f, a, b) -> toLong(a) ^ toLong(b);
+            }
+        }
+        switch (op) {
+            case '+':
+                return (f, a, b) -> toInt(a) + toInt(b);
+            case '-':
+                return (f, a, b) -> toInt(a) - toInt(b);
+            case '*':
+                return (f, a, b) -> toInt(a) * toInt(b);
+            case '/':
+                return (f, a, b) -> toInt(a) / toInt(b);
+            case '%':
+                return (f, a, b) -> toInt(a) % toInt(b);
+            case '&':
+                return (f, a, b) -> toInt(a) & toInt(b);
+            case '|':
+                return (f, a, b) -> toInt(a) | toInt(b);
+            default:
+                return (f, a, b) -> toInt(a) ^ toInt(b);
+        }
+    }
+
+    // Binary numeric promotion; char and int become int
+    private static Type promote(Type a, Type b) {
+        if (a == Type.DOUBLE || b == Type.DOUBLE)
+            return Type.DOUBLE;
+        if (a == Type.LONG || b == Type.LONG)
+            return Type.LONG;
+        return Type.INT;
+    }
+
+    // Assignment and method invocation conversion: identity, primitive widening and
+    // widening to a superclass
+    private static boolean assignable(Type from, Type to) {
+        if (from == to)
+            return true;
+        if (to == Type.INT)
+            return from == Type.CHAR;
+        if (to == Type.LONG)
+            return from == Type.INT || from == Type.CHAR;
+        if (to == Type.DOUBLE)
+            return from == Type.INT || from == Type.CHAR || from == Type.LONG;
+        if (from == Type.NULL)
+            return to.reference();
+        return from.cls != null && to.cls != null && from.cls.extendsOrIs(to.cls);
+    }
+
+    // Values of a numeric type are always boxed as that type; these read one as wider
+    private static int toInt(Object v) {
+        return v instanceof Integer ? (Integer) v : (Character) v;
+    }
+
+    private static long toLong(Object v) {
+        return v instanceof Long ? (Long) v : toInt(v);
+    }
+
+    private static double toDouble(Object v) {
+        return v instanceof Double ? (Double) v : toLong(v);
+    }
+
+    // A numeric value converted to type t as a cast would
+    private static Object castTo(Type t, Object v) {
+        if (t == Type.DOUBLE)
+            return toDouble(v);
+        if (t == Type.LONG)
+            return v instanceof Double ? (long) (double) (Double) v : toLong(v);
+        int i = v instanceof Double ? (int) (double) (Double) v : v instanceof Long ? (int) (long) (Long) v : toInt(v);
+        return t == Type.CHAR ? (Object) (char) i : (Object) i;
+    }
+
+    // new T[n][m]...: nested arrays, the innermost filled with initial
+    private static Object[] array(int[] lengths, int level, Object initial) {
+        Object[] a = new Object[lengths[level]];
+        if (level + 1 < lengths.length)
+            for (int i = 0; i < a.length; i++)
+                a[i] = array(lengths, level + 1, initial);
+        else if (initial != null)
+            Arrays.fill(a, initial);
+        return a;
+    }
+
+    // ---- variables, fields and array elements ----
+
+    private interface Update {
+        Object apply(Frame f, Object old);
+    }
+
+    private abstract static class Place {
+        final Type type;
+
+        Place(Type type) {
+            this.type = type;
+        }
+
+        // = ; returns the value stored
+        abstract Object set(Frame f, Eval value);
+
+        // ++, --, +=, ...; returns the old value or the one stored
+        abstract Object update(Frame f, Update u, boolean old);
+
+        // Bytecode: pushes the object or the array and index the value goes into,
+        // taking the words returned
+        abstract int target(Gen g);
+
+        // With the target on the stack, loads or stores the value
+        abstract void load(Gen g);
+
+        abstract void store(Gen g);
+
+        // Stores the value of value, leaving a copy on the stack if keep
+        void emitSet(Gen g, Emit value, boolean keep) {
+            int words = target(g);
+            value.emit(g);
+            if (keep)
+                dupBelow(g, words);
+            store(g);
+        }
+
+        // Applies step, which finds the value on the stack and leaves the new one;
+        // leaves the old or the new value if keep
+        void emitUpdate(Gen g, Emit step, boolean keep, boolean old) {
+            int words = target(g);
+            if (words > 0)
+                g.c.op(words == 1 ? DUP : DUP2);
+            load(g);
+            if (keep && old)
+                dupBelow(g, words);
+            step.emit(g);
+            if (keep && !old)
+                dupBelow(g, words);
+            store(g);
+        }
+
+        // Copies the value on top of the stack to below the target words under it
+        private void dupBelow(Gen g, int words) {
+            if (words == 0)
+                g.c.op(type.wide() ? DUP2 : DUP);
+            else if (words == 1)
+                g.c.op(type.wide() ? DUP2_X1 : DUP_X1);
+            else
+                g.c.op(type.wide() ? DUP2_X2 : DUP_X2);
+        }
+    }
+
+    private static final class LocalPlace extends Place {
+        private final int slot;
+        final int index;
+
+        LocalPlace(Type type, int slot, int index) {
+            super(type);
+            this.slot = slot;
+            this.index = index;
+        }
+
+        @Override
+        Object set(Frame f, Eval value) {
+            Object v = value.eval(f);
+            f.locals[slot] = v;
+            return v;
+        }
+
+        @Override
+        Object update(Frame f, Update u, boolean old) {
+            Object o = f.locals[slot], v = u.apply(f, o);
+            f.locals[slot] = v;
+            return old ? o : v;
+        }
+
+        @Override
+        int target(Gen g) {
+            return 0;
+        }
+
+        @Override
+        void load(Gen g) {
+            g.c.local(type.load(), index);
+        }
+
+        @Override
+        void store(Gen g) {
+            g.c.local(type.store(), index);
+        }
+    }
+
+    private static final class FieldPlace extends Place {
+        private final Field field;
+        private final X object;
+        private final Eval target;
+        private final int slot;
+
+        FieldPlace(Field field, X object) {
+            super(field.type);
+            this.field = field;
+            this.object = object;
+            this.target = object.eval;
+            this.slot = field.slot;
+        }
+
+        @Override
+        Object set(Frame f, Eval value) {
+            Obj o = (Obj) target.eval(f);
+            Object v = value.eval(f);
+            o.fields[slot] = v;
+            return v;
+        }
+
+        @Override
+        Object update(Frame f, Update u, boolean old) {
+            Object[] fields = ((Obj) target.eval(f)).fields;
+            Object o = fields[slot], v = u.apply(f, o);
+            fields[slot] = v;
+            return old ? o : v;
+        }
+
+        @Override
+        int target(Gen g) {
+            object.code.emit(g);
+            return 1;
+        }
+
+        @Override
+        void load(Gen g) {
+            g.c.field(GETFIELD, field.owner.name, field.name, type.descriptor());
+        }
+
+        @Override
+        void store(Gen g) {
+            g.c.field(PUTFIELD, field.owner.name, field.name, type.descriptor());
+        }
+    }
+
+    private static final class IndexPlace extends Place {
+        private final X arrayX, indexX;
+        private final Eval array, index;
+
+        IndexPlace(Type type, X array, X index) {
+            super(type);
+            this.arrayX = array;
+            this.indexX = index;
+            this.array = array.eval;
+            this.index = index.eval;
+        }
+
+        @Override
+        Object set(Frame f, Eval value) {
+            Object[] a = (Object[]) array.eval(f);
+            int i = (Integer) index.eval(f);
+            Object v = value.eval(f);
+            a[i] = v;
+            return v;
+        }
+
+        @Override
+        Object update(Frame f, Update u, boolean old) {
+            Object[] a = (Object[]) array.eval(f);
+            int i = (Integer) index.eval(f);
+            Object o = a[i], v = u.apply(f, o);
+            a[i] = v;
+            return old ? o : v;
+        }
+
+        @Override
+        int target(Gen g) {
+            arrayX.code.emit(g);
+            indexX.code.emit(g);
+            return 2;
+        }
+
+        @Override
+        void load(Gen g) {
+            g.c.op(type.arrayLoad());
+        }
+
+        @Override
+        void store(Gen g) {
+            g.c.op(type.arrayStore());
+        }
+    }
+
+    private static Object defaultValue(Type t) {
+        if (t == Type.INT)
+            return 0;
+        if (t == Type.LONG)
+            return 0L;
+        if (t == Type.DOUBLE)
+            return 0.0;
+        if (t == Type.BOOLEAN)
+            return false;
+        if (t == Type.CHAR)
+            return '\0';
+        return null;
+    }
+}
@@ -0,0 +1,210 @@
+import java.util.*;
+
+// Tokenizer for one line of pseudo code, or a slice of one. Tokens are kept in
+// parallel arrays that are reused from line to line, so lexing allocates nothing
+// once the arrays have grown to the longest line.
+//
+// Whitespace is exactly the regex \s set, so a run of whitespace between two tokens
+// is what "\s+" would match there. A WORD is an identifier in the Java sense; it is
+// "plain" when it only has the characters of regex \w (ASCII letters, digits, '_'),
+// which is what the pseudo language's keywords and names are made of.
+final class NovaLexer {
+    static final int WORD = 0, NUMBER = 1, STRING = 2, CHAR = 3, OP = 4;
+
+    // Java operators and separators longer than one character, longest first
+    private static final String[] OPERATORS = { ">>>=", "<<=", ">>=", ">>>", "...", "->", "::", "++", "--", "&&",
+            "||", "==", "!=", "<=", ">=", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=", "<<", ">>" };
+
+    String text;
+    int count; // tokens in the arrays
+    int[] kind = new int[16], start = new int[16], end = new int[16];
+    boolean[] plain = new boolean[16];
+    boolean complete; // the whole slice was lexed, not just the first max tokens
+    boolean unterminated; // a string or char literal runs to the end of the slice
+
+    // Lexes text[from, to) into at most max tokens
+    NovaLexer scan(String text, int from, int to, int max) {
+        this.text = text;
+        count = 0;
+        unterminated = false;
+        int i = from;
+        while (true) {
+            while (i < to && isSpace(text.charAt(i)))
+                i++;
+            if (i == to) {
+                complete = true;
+                return this;
+            }
+            if (count == max) {
+                complete = false;
+                return this;
+            }
+            int s = i, k;
+            char c = text.charAt(i);
+            boolean p = false;
+            if (isDigit(c) || (c == '.' && i + 1 < to && isDigit(text.charAt(i + 1)))) {
+                k = NUMBER;
+                i = number(text, i, to);
+                p = isPlain(text, s, i);
+            } else if (isIdentifierPart(c)) {
+                k = WORD;
+                p = true;
+                while (i < to && isIdentifierPart(c = text.charAt(i))) {
+                    p &= isWordChar(c);
+                    i++;
+                }
+            } else if (c == '"' || c == '\'') {
+                k = c == '"' ? STRING : CHAR;
+                i = quoted(text, i, to, c);
+            } else {
+                k = OP;
+                i = operator(text, i, to);
+            }
+            add(k, s, i, p);
+        }
+    }
+
+    private void add(int k, int s, int e, boolean p) {
+        if (count == kind.length) {
+            int n = count * 2;
+            kind = Arrays.copyOf(kind, n);
+            start = Arrays.copyOf(start, n);
+            end = Arrays.copyOf(end, n);
+            plain = Arrays.copyOf(plain, n);
+        }
+        kind[count] = k;
+        start[count] = s;
+        end[count] = e;
+        plain[count] = p;
+        count++;
+    }
+
+    // Digits, letters, '_' and '.', plus a sign right after an exponent: 12, 3.5e-2,
+    // 0x1F, 10L. What is a valid number is left to the parser.
+    private static int number(String text, int i, int to) {
+        char prev = 0;
+        boolean hex = text.startsWith("0x", i) || text.startsWith("0X", i);
+        while (i < to) {
+            char c = text.charAt(i);
+            boolean exponent = !hex && (prev == 'e' || prev == 'E') || hex && (prev == 'p' || prev == 'P');
+            if (!(isWordChar(c) || c == '.' || ((c == '+' || c == '-') && exponent)))
+                break;
+            prev = c;
+            i++;
+        }
+        return i;
+    }
+
+    private int quoted(String text, int i, int to, char quote) {
+        i++;
+        while (i < to) {
+            char c = text.charAt(i++);
+            if (c == quote)
+                return i;
+            if (c == '\\' && i < to)
+                i++;
+        }
+        unterminated = true;
+        return to;
+    }
+
+    private static int operator(String text, int i, int to) {
+        for (String op : OPERATORS)
+            if (i + op.length() <= to && text.startsWith(op, i))
+                return i + op.length();
+        return i + 1;
+    }
+
+    String text(int t) {
+        return text.substring(start[t], end[t]);
+    }
+
+    boolean is(int t, String s) {
+        return end[t] - start[t] == s.length() && text.startsWith(s, start[t]);
+    }
+
+    // Case-insensitive in ASCII only, like a CASE_INSENSITIVE pattern
+    boolean isIgnoreCase(int t, String lower) {
+        return end[t] - start[t] == lower.length() && startsWithIgnoreCase(text, start[t], lower);
+    }
+
+    // A plain word, i.e. what regex \w+ matches on its own
+    boolean isWord(int t) {
+        return t < count && kind[t] != STRING && kind[t] != CHAR && kind[t] != OP && plain[t];
+    }
+
+    // Whitespace separates token t from the one before it
+    boolean spaceBefore(int t) {
+        return t > 0 && start[t] > end[t - 1];
+    }
+
+    // text.substring(from).startsWith(lower) with ASCII letters compared case-insensitively
+    static boolean startsWithIgnoreCase(String text, int from, String lower) {
+        if (from + lower.length() > text.length())
+            return false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = text.charAt(from + i);
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            if (c != lower.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    // s.split("\\s+")
+    static String[] words(String s) {
+        List<String> parts = new ArrayList<>(4);
+        int i = 0, n = s.length();
+        boolean matched = false;
+        while (i <= n) {
+            int e = i;
+            while (e < n && !isSpace(s.charAt(e)))
+                e++;
+            parts.add(s.substring(i, e));
+            if (e == n)
+                break;
+            matched = true;
+            i = e;
+            while (i < n && isSpace(s.charAt(i)))
+                i++;
+        }
+        if (!matched)
+            return new String[] { s };
+        int size = parts.size();
+        while (size > 0 && parts.get(size - 1).isEmpty())
+            size--;
+        return parts.subList(0, size).toArray(new String[0]);
+    }
+
+    // Regex \s: [ \t\n\x0B\f\r]
+    static boolean isSpace(char c) {
+        return c <= ' ' && (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r');
+    }
+
+    // Regex \w without UNICODE_CHARACTER_CLASS
+    static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return c < 128 ? isWordChar(c) || c == '$'
+                : Character.isJavaIdentifierPart(c) && !Character.isIdentifierIgnorable(c);
+    }
+
+    private static boolean isPlain(String text, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (!isWordChar(text.charAt(i)))
+                return false;
+        return true;
+    }
+
+    // Regex '.' does not match these
+    static boolean isLineTerminator(char c) {
+        return c <= '\r' ? c == '\n' || c == '\r' : c >= '\u0085' && (c == '\u0085' || c == '\u2028' || c == '\u2029');
+    }
+}
@@ -0,0 +1,1485 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.*;
+
+// Optional rewrites of a translated program, made between the parser and code
+// generation on the Java that each statement translates to. Every pass is one bit of
+// the mask given to NovaTranslator.optimized() and works on its own:
+//
+//   FOLD_CONSTANTS   expressions made of literals only are evaluated with Java's
+//                    rules, so "60 * 60 * 24" is written as 86400
+//   DEAD_BRANCHES    an if / else if chain loses the branches whose condition is a
+//                    constant false, and the ones after a constant true
+//   STRING_BUILDERS  "s = s + x" or "s += x" in a loop, for a local String s the
+//                    loop uses for nothing else, appends to one StringBuilder
+//   HOIST_BOUNDS     the bound of a counted for loop is computed once before the
+//                    loop when nothing in the loop can change it
+//
+// A rewrite is only made where it cannot change what a working program does; a line
+// of any shape the optimizer does not fully understand is left as it was. Statements
+// outside blocks pass straight through. A block is held back until it closes and is
+// then rewritten as a tree of chains (if / else if / else, try / catch, a loop), and
+// the output is still one statement per line.
+final class NovaOptimizer implements NovaTranslator.Nodes {
+    static final int FOLD_CONSTANTS = 1, DEAD_BRANCHES = 2, STRING_BUILDERS = 4, HOIST_BOUNDS = 8, ALL = 15;
+    private static final String[] NAMES = { "fold", "dead-branches", "string-builders", "hoist" };
+
+    private static final Pattern IF = Pattern.compile("if\\s*\\((.*)\\)\\s*\\{");
+    private static final Pattern ELSE_IF = Pattern.compile("\\}\\s*else\\s+if\\s*\\((.*)\\)\\s*\\{");
+    private static final Pattern ELSE = Pattern.compile("\\}\\s*else\\s*\\{");
+    private static final Pattern WHILE = Pattern.compile("while\\s*\\((.*)\\)\\s*\\{");
+    private static final Pattern FOR = Pattern.compile("for\\s*\\((.*)\\)\\s*\\{");
+    private static final Pattern JUMP = Pattern.compile("(?:return|throw)\\b\\s*(.*);");
+    private static final Set<String> ENDS_NORMALLY_NOT = new HashSet<>(Arrays.asList("return", "break",
+            "continue", "throw", "do"));
+    private static final Set<String> COMPARISONS = new HashSet<>(Arrays.asList("<", "<=", ">", ">=", "!="));
+    private static final Set<String> INTEGRAL = new HashSet<>(Arrays.asList("int", "short", "byte", "char"));
+    private static final Map<String, Integer> LEVELS = new HashMap<>();
+    static {
+        String[][] levels = { { "||" }, { "&&" }, { "|" }, { "^" }, { "&" }, { "==", "!=" },
+                { "<", ">", "<=", ">=", "instanceof" }, { "<<", ">>", ">>>" }, { "+", "-" }, { "*", "/", "%" } };
+        for (int i = 0; i < levels.length; i++)
+            for (String op : levels[i])
+                LEVELS.put(op, i + 2); // above assignment (0) and ?: (1)
+    }
+    private static final int PREFIX = 12, POSTFIX = 13; // unary operators and casts; primaries
+
+    private final NovaTranslator translator;
+    private final NovaTranslator.Nodes nodes;
+    private final int passes;
+    private final ArrayDeque<NovaAst.Node> ready = new ArrayDeque<>();
+    private final List<Line> pending = new ArrayList<>(); // an open block
+    private int depth;
+    private final Map<String, Scope> mains = new HashMap<>(); // class -> locals of its main
+    private String activeClass;
+    private Scope scope = mainScope();
+
+    NovaOptimizer(NovaTranslator translator, int passes, NovaTranslator.Nodes nodes) {
+        this.translator = translator;
+        this.passes = passes;
+        this.nodes = nodes;
+    }
+
+    // "all", "none", or pass names separated by commas, e.g. "fold,hoist"
+    static int passes(String list) {
+        int mask = 0;
+        for (String name : list.split(",")) {
+            name = name.trim();
+            int i = Arrays.asList(NAMES).indexOf(name);
+            if (name.equals("all"))
+                mask = ALL;
+            else if (i >= 0)
+                mask |= 1 << i;
+            else if (!name.equals("none"))
+                throw new IllegalArgumentException(
+                        "Unknown optimization '" + name + "', expected all, none or " + String.join(", ", NAMES));
+        }
+        return mask;
+    }
+
+    public NovaAst.Node next() throws IOException {
+        while (ready.isEmpty()) {
+            NovaAst.Node node = nodes.next();
+            if (node == null) {
+                flush();
+                break;
+            }
+            if (node instanceof NovaAst.Restart) {
+                pending.clear();
+                depth = 0;
+                return node;
+            }
+            if (node instanceof NovaAst.Statement) {
+                add((NovaAst.Statement) node);
+            } else {
+                flush();
+                enter(node);
+                ready.add(node);
+            }
+        }
+        return ready.poll();
+    }
+
+    private void add(NovaAst.Statement s) {
+        Line line = new Line(s, translator.java(s));
+        if (pending.isEmpty() && (!s.opens || s.closes)) {
+            if (on(FOLD_CONSTANTS))
+                fold(line);
+            if (on(STRING_BUILDERS | HOIST_BOUNDS))
+                declare(line, scope);
+            ready.add(line.node());
+            return;
+        }
+        pending.add(line);
+        if (s.closes)
+            depth--;
+        if (s.opens)
+            depth++;
+        if (depth == 0) {
+            List<Object> items = tree(pending);
+            pending.clear();
+            if (on(FOLD_CONSTANTS))
+                foldAll(items);
+            if (on(DEAD_BRANCHES))
+                items = branches(items);
+            if (on(STRING_BUILDERS | HOIST_BOUNDS))
+                loops(items, scope, false);
+            write(items);
+        }
+    }
+
+    // A block that never closed, before a method or class line or the end of input,
+    // goes out without the block rewrites
+    private void flush() {
+        for (Line line : pending) {
+            if (on(FOLD_CONSTANTS))
+                fold(line);
+            ready.add(line.node());
+        }
+        pending.clear();
+        depth = 0;
+    }
+
+    private boolean on(int pass) {
+        return (passes & pass) != 0;
+    }
+
+    // Keeps track of whose locals the statements that follow see
+    private void enter(NovaAst.Node node) {
+        if (node instanceof NovaAst.ClassDecl) {
+            activeClass = ((NovaAst.ClassDecl) node).name;
+            scope = mains.computeIfAbsent(activeClass, k -> mainScope());
+        } else if (node instanceof NovaAst.MethodDecl) {
+            scope = parameters(((NovaAst.MethodDecl) node).signature);
+        } else if (node instanceof NovaAst.EndMethod) {
+            scope = mains.computeIfAbsent(activeClass, k -> mainScope());
+        }
+    }
+
+    private static Scope mainScope() {
+        Scope s = new Scope(null);
+        s.types.put("args", "String[]");
+        s.types.put("sc", "Scanner");
+        return s;
+    }
+
+    // "public int f(int a, String[] b)"
+    private static Scope parameters(String signature) {
+        Scope s = new Scope(null);
+        int open = signature.indexOf('('), close = signature.lastIndexOf(')');
+        if (open < 0 || close < open)
+            return s;
+        for (String p : signature.substring(open + 1, close).split(",")) {
+            String[] words = NovaLexer.words(p.trim().replaceFirst("^final\\s+", ""));
+            if (words.length == 2)
+                s.types.put(words[1], words[0].replace("...", "[]"));
+        }
+        return s;
+    }
+
+    // One statement and the Java it translates to
+    private static final class Line {
+        final NovaAst.Statement statement; // null for a line the optimizer added
+        final int line, column;
+        String java;
+        boolean changed;
+
+        Line(NovaAst.Statement statement, String java) {
+            this.statement = statement;
+            this.line = statement.line;
+            this.column = statement.column;
+            this.java = java;
+        }
+
+        Line(Line at, String java) {
+            this.statement = null;
+            this.line = at.line;
+            this.column = at.column;
+            this.java = java;
+        }
+
+        void set(String java) {
+            if (!java.equals(this.java)) {
+                this.java = java;
+                changed = true;
+            }
+        }
+
+        NovaAst.Node node() {
+            if (statement != null && !changed)
+                return statement;
+            return new NovaAst.Statement(NovaAst.Statement.RAW, java, null, new int[] { 0, java.length() }, 0,
+                    java.endsWith("{"), java.startsWith("}"), line, column);
+        }
+    }
+
+    // A statement with blocks: heads.get(i) opens bodies.get(i), which the next head
+    // or end closes. The items of a body are Lines and Chains.
+    private static final class Chain {
+        final List<Line> heads = new ArrayList<>();
+        final List<List<Object>> bodies = new ArrayList<>();
+        Line end;
+
+        Line head() {
+            return heads.get(0);
+        }
+
+        void add(Line head, List<Object> body) {
+            heads.add(head);
+            bodies.add(body);
+        }
+    }
+
+    // Local variable types by name, with the enclosing blocks' as parent
+    private static final class Scope {
+        final Scope parent;
+        final Map<String, String> types = new HashMap<>();
+
+        Scope(Scope parent) {
+            this.parent = parent;
+        }
+
+        String type(String name) {
+            for (Scope s = this; s != null; s = s.parent) {
+                String t = s.types.get(name);
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
+    }
+
+    // The lines of a closed block as items
+    private static List<Object> tree(List<Line> lines) {
+        List<Object> root = new ArrayList<>();
+        ArrayDeque<Chain> open = new ArrayDeque<>();
+        for (Line line : lines) {
+            NovaAst.Statement s = line.statement;
+            if (s.closes && !open.isEmpty()) {
+                Chain c = open.peek();
+                if (s.opens) {
+                    c.add(line, new ArrayList<>());
+                } else {
+                    c.end = line;
+                    open.pop();
+                }
+            } else if (s.opens) {
+                Chain c = new Chain();
+                c.add(line, new ArrayList<>());
+                (open.isEmpty() ? root : last(open.peek().bodies)).add(c);
+                open.push(c);
+            } else {
+                (open.isEmpty() ? root : last(open.peek().bodies)).add(line);
+            }
+        }
+        return root;
+    }
+
+    private static <T> T last(List<T> list) {
+        return list.get(list.size() - 1);
+    }
+
+    private void write(List<Object> items) {
+        for (Object item : items) {
+            if (item instanceof Line) {
+                ready.add(((Line) item).node());
+            } else {
+                Chain c = (Chain) item;
+                for (int i = 0; i < c.heads.size(); i++) {
+                    ready.add(c.heads.get(i).node());
+                    write(c.bodies.get(i));
+                }
+                ready.add(c.end.node());
+            }
+        }
+    }
+
+    // ---- Where the expressions of a line are
+
+    // Start, end and kind (1 for a statement, which may declare a variable, 0 for an
+    // expression) of each expression in a line of Java; null if the line has none of
+    // the shapes the optimizer knows
+    static int[] spans(String java) {
+        if (java.indexOf('\n') >= 0 || java.indexOf('\r') >= 0)
+            return null;
+        Matcher m;
+        if ((m = IF.matcher(java)).matches() || (m = ELSE_IF.matcher(java)).matches()
+                || (m = WHILE.matcher(java)).matches())
+            return trim(java, new int[] { m.start(1), m.end(1), 0 });
+        if ((m = FOR.matcher(java)).matches()) {
+            int[] semis = separators(java, m.start(1), m.end(1), ';');
+            if (semis.length != 2)
+                return null;
+            return trim(java, new int[] { m.start(1), semis[0], 1, semis[0] + 1, semis[1], 0, semis[1] + 1,
+                    m.end(1), 0 });
+        }
+        if ((m = JUMP.matcher(java)).matches())
+            return trim(java, new int[] { m.start(1), m.end(1), 0 });
+        if (java.endsWith(";") && !java.startsWith("}") && separators(java, 0, java.length(), ';').length == 1)
+            return trim(java, new int[] { 0, java.length() - 1, 1 });
+        if (java.equals("}") || ELSE.matcher(java).matches())
+            return new int[0];
+        return null;
+    }
+
+    // Narrows each span to what is between its blanks; empty spans are dropped
+    private static int[] trim(String java, int[] spans) {
+        int n = 0;
+        for (int i = 0; i < spans.length; i += 3) {
+            int s = spans[i], e = spans[i + 1];
+            while (s < e && java.charAt(s) <= ' ')
+                s++;
+            while (e > s && java.charAt(e - 1) <= ' ')
+                e--;
+            if (s < e) {
+                spans[n++] = s;
+                spans[n++] = e;
+                spans[n++] = spans[i + 2];
+            }
+        }
+        return Arrays.copyOf(spans, n);
+    }
+
+    // Indexes of c in java[from, to) outside brackets and literals
+    private static int[] separators(String java, int from, int to, char c) {
+        int[] found = new int[4];
+        int n = 0, nesting = 0;
+        char quote = 0;
+        for (int i = from; i < to; i++) {
+            char ch = java.charAt(i);
+            if (quote != 0) {
+                if (ch == '\\')
+                    i++;
+                else if (ch == quote)
+                    quote = 0;
+            } else if (ch == '"' || ch == '\'') {
+                quote = ch;
+            } else if (ch == '(' || ch == '[' || ch == '{') {
+                nesting++;
+            } else if (ch == ')' || ch == ']' || ch == '}') {
+                nesting--;
+            } else if (ch == c && nesting == 0) {
+                if (n == found.length)
+                    found = Arrays.copyOf(found, 2 * n);
+                found[n++] = i;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    private static NovaAst.Expr parse(Line line, int[] spans, int i) {
+        return NovaParser.expression(line.java, spans[i], spans[i + 1], line.line, line.column, spans[i + 2] == 1);
+    }
+
+    // How often name occurs in java as a word outside literals
+    static int count(String java, String name) {
+        NovaLexer lex = new NovaLexer().scan(java, 0, java.length(), Integer.MAX_VALUE);
+        int n = 0;
+        for (int t = 0; t < lex.count; t++)
+            if (lex.kind[t] == NovaLexer.WORD && lex.is(t, name))
+                n++;
+        return n;
+    }
+
+    // Records a local variable that line declares
+    private static void declare(Line line, Scope scope) {
+        int[] spans = spans(line.java);
+        if (spans != null && spans.length > 0 && spans[2] == 1) {
+            NovaAst.Expr e = parse(line, spans, 0);
+            if (e instanceof NovaAst.Declaration)
+                scope.types.put(((NovaAst.Declaration) e).name, ((NovaAst.Declaration) e).type);
+            return;
+        }
+        Matcher m = FOR.matcher(line.java);
+        if (m.matches()) { // for (Type name : values)
+            int[] colons = separators(line.java, m.start(1), m.end(1), ':');
+            if (colons.length == 1) {
+                String[] words = NovaLexer.words(line.java.substring(m.start(1), colons[0]).trim()
+                        .replaceFirst("^final\\s+", ""));
+                if (words.length == 2)
+                    scope.types.put(words[1], words[0]);
+            }
+        }
+    }
+
+    // ---- FOLD_CONSTANTS
+
+    private static void foldAll(List<Object> items) {
+        for (Object item : items) {
+            if (item instanceof Line) {
+                fold((Line) item);
+            } else {
+                Chain c = (Chain) item;
+                for (int i = 0; i < c.heads.size(); i++) {
+                    fold(c.heads.get(i));
+                    foldAll(c.bodies.get(i));
+                }
+            }
+        }
+    }
+
+    private static void fold(Line line) {
+        int[] spans = spans(line.java);
+        if (spans == null)
+            return;
+        String java = line.java;
+        for (int i = spans.length - 3; i >= 0; i -= 3) { // from the right, so earlier spans stay put
+            NovaAst.Expr e = parse(line, spans, i);
+            NovaAst.Expr folded = fold(e);
+            if (folded != e)
+                java = java.substring(0, spans[i]) + print(folded) + java.substring(spans[i + 1]);
+        }
+        line.set(java);
+    }
+
+    // e with each largest constant part written as its value; e itself if there is
+    // nothing to fold
+    static NovaAst.Expr fold(NovaAst.Expr e) {
+        if (e instanceof NovaAst.Literal || e instanceof NovaAst.Name || e instanceof NovaAst.Invalid)
+            return e;
+        if (!isLiteral(e)) {
+            Object value = constant(e);
+            NovaAst.Expr literal = value == null ? null : literal(value, e.line, e.column);
+            if (literal != null)
+                return literal;
+        }
+        if (e instanceof NovaAst.Unary) {
+            NovaAst.Unary u = (NovaAst.Unary) e;
+            NovaAst.Expr operand = fold(u.operand);
+            return operand == u.operand ? e : new NovaAst.Unary(u.op, operand, u.postfix, e.line, e.column);
+        }
+        if (e instanceof NovaAst.Binary) {
+            NovaAst.Binary b = (NovaAst.Binary) e;
+            NovaAst.Expr left = fold(b.left), right = b.op.equals("instanceof") ? b.right : fold(b.right);
+            return left == b.left && right == b.right ? e : new NovaAst.Binary(b.op, left, right, e.line, e.column);
+        }
+        if (e instanceof NovaAst.Conditional) {
+            NovaAst.Conditional c = (NovaAst.Conditional) e;
+            NovaAst.Expr condition = fold(c.condition), ifTrue = fold(c.ifTrue), ifFalse = fold(c.ifFalse);
+            return condition == c.condition && ifTrue == c.ifTrue && ifFalse == c.ifFalse ? e
+                    : new NovaAst.Conditional(condition, ifTrue, ifFalse, e.line, e.column);
+        }
+        if (e instanceof NovaAst.Assign) {
+            NovaAst.Assign a = (NovaAst.Assign) e;
+            NovaAst.Expr target = fold(a.target), value = fold(a.value);
+            return target == a.target && value == a.value ? e
+                    : new NovaAst.Assign(a.op, target, value, e.line, e.column);
+        }
+        if (e instanceof NovaAst.Call) {
+            NovaAst.Call c = (NovaAst.Call) e;
+            NovaAst.Expr target = c.target == null ? null : fold(c.target);
+            List<NovaAst.Expr> args = foldEach(c.args);
+            return target == c.target && args == c.args ? e : new NovaAst.Call(target, c.name, args, e.line, e.column);
+        }
+        if (e instanceof NovaAst.Member) {
+            NovaAst.Member m = (NovaAst.Member) e;
+            NovaAst.Expr target = fold(m.target);
+            return target == m.target ? e : new NovaAst.Member(target, m.name, e.line, e.column);
+        }
+        if (e instanceof NovaAst.Index) {
+            NovaAst.Index x = (NovaAst.Index) e;
+            NovaAst.Expr array = fold(x.array), index = fold(x.index);
+            return array == x.array && index == x.index ? e : new NovaAst.Index(array, index, e.line, e.column);
+        }
+        if (e instanceof NovaAst.New) {
+            NovaAst.New n = (NovaAst.New) e;
+            List<NovaAst.Expr> args = foldEach(n.args), dims = foldEach(n.dimensions);
+            return args == n.args && dims == n.dimensions ? e : new NovaAst.New(n.type, args, dims, e.line, e.column);
+        }
+        if (e instanceof NovaAst.Cast) {
+            NovaAst.Cast c = (NovaAst.Cast) e;
+            NovaAst.Expr operand = fold(c.operand);
+            return operand == c.operand ? e : new NovaAst.Cast(c.type, operand, e.line, e.column);
+        }
+        if (e instanceof NovaAst.Declaration) {
+            NovaAst.Declaration d = (NovaAst.Declaration) e;
+            NovaAst.Expr value = d.value == null ? null : fold(d.value);
+            return value == d.value ? e : new NovaAst.Declaration(d.type, d.name, value, e.line, e.column);
+        }
+        return e;
+    }
+
+    private static List<NovaAst.Expr> foldEach(List<NovaAst.Expr> list) {
+        List<NovaAst.Expr> folded = null;
+        for (int i = 0; i < list.size(); i++) {
+            NovaAst.Expr f = fold(list.get(i));
+            if (f != list.get(i) && folded == null)
+                folded = new ArrayList<>(list);
+            if (folded != null)
+                folded.set(i, f);
+        }
+        return folded == null ? list : folded;
+    }
+
+    // A literal, or a signed number: already as short as it gets
+    private static boolean isLiteral(NovaAst.Expr e) {
+        if (e instanceof NovaAst.Unary) {
+            NovaAst.Unary u = (NovaAst.Unary) e;
+            return (u.op.equals("-") || u.op.equals("+")) && u.operand instanceof NovaAst.Literal;
+        }
+        return e instanceof NovaAst.Literal;
+    }
+
+    // The value of e if it is made of literals only, as an Integer, Long, Double,
+    // Boolean, Character or String. Null if it is not constant, and for what is not
+    // worth the care: float, byte and short values, and references compared with ==.
+    static Object constant(NovaAst.Expr e) {
+        if (e instanceof NovaAst.Literal)
+            return value((NovaAst.Literal) e);
+        if (e instanceof NovaAst.Unary) {
+            NovaAst.Unary u = (NovaAst.Unary) e;
+            if (u.op.equals("-") && u.operand instanceof NovaAst.Literal) { // the one place these may be written
+                String text = ((NovaAst.Literal) u.operand).text.replace("_", "");
+                if (text.equals("2147483648"))
+                    return Integer.MIN_VALUE;
+                if (text.equalsIgnoreCase("9223372036854775808L"))
+                    return Long.MIN_VALUE;
+            }
+            Object v = u.postfix ? null : constant(u.operand);
+            return v == null ? null : unary(u.op, v);
+        }
+        if (e instanceof NovaAst.Binary) {
+            NovaAst.Binary b = (NovaAst.Binary) e;
+            if (b.op.equals("instanceof"))
+                return null;
+            Object left = constant(b.left), right = left == null ? null : constant(b.right);
+            return right == null ? null : binary(b.op, left, right);
+        }
+        if (e instanceof NovaAst.Conditional) {
+            NovaAst.Conditional c = (NovaAst.Conditional) e;
+            Object condition = constant(c.condition), a = constant(c.ifTrue), b = constant(c.ifFalse);
+            if (!(condition instanceof Boolean) || a == null || b == null || a.getClass() != b.getClass())
+                return null;
+            return (Boolean) condition ? a : b;
+        }
+        if (e instanceof NovaAst.Cast) {
+            NovaAst.Cast c = (NovaAst.Cast) e;
+            Object v = constant(c.operand);
+            return v == null ? null : cast(c.type, v);
+        }
+        return null;
+    }
+
+    private static Object value(NovaAst.Literal l) {
+        String text = l.text.replace("_", "");
+        try {
+            switch (l.type) {
+                case NovaAst.Literal.INT:
+                    return (int) NovaAst.Literal.integer(l.text, false);
+                case NovaAst.Literal.LONG:
+                    return NovaAst.Literal.integer(l.text, true);
+                case NovaAst.Literal.DOUBLE:
+                    return Double.parseDouble(text);
+                case NovaAst.Literal.BOOLEAN:
+                    return Boolean.valueOf(text);
+                case NovaAst.Literal.CHAR: {
+                    String s = unquote(text);
+                    return s == null || s.length() != 1 ? null : s.charAt(0);
+                }
+                case NovaAst.Literal.STRING:
+                    return unquote(text);
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException | ArithmeticException ex) {
+            return null;
+        }
+    }
+
+    private static Object unary(String op, Object v) {
+        switch (op) {
+            case "-":
+                if (v instanceof Double)
+                    return -(Double) v;
+                if (v instanceof Long)
+                    return -(Long) v;
+                return isInt(v) ? -toInt(v) : null;
+            case "+":
+                if (v instanceof Double || v instanceof Long)
+                    return v;
+                return isInt(v) ? toInt(v) : null;
+            case "~":
+                if (v instanceof Long)
+                    return ~(Long) v;
+                return isInt(v) ? ~toInt(v) : null;
+            case "!":
+                return v instanceof Boolean ? !(Boolean) v : null;
+            default:
+                return null;
+        }
+    }
+
+    private static Object binary(String op, Object a, Object b) {
+        if (op.equals("+") && (a instanceof String || b instanceof String))
+            return String.valueOf(a) + b;
+        if (a instanceof Boolean && b instanceof Boolean) {
+            boolean x = (Boolean) a, y = (Boolean) b;
+            switch (op) {
+                case "&&": case "&": return x & y;
+                case "||": case "|": return x | y;
+                case "^": case "!=": return x ^ y;
+                case "==": return x == y;
+                default: return null;
+            }
+        }
+        if (!isNumber(a) || !isNumber(b))
+            return null;
+        if (op.equals("<<") || op.equals(">>") || op.equals(">>>")) { // the left operand alone decides the type
+            if (a instanceof Double || b instanceof Double)
+                return null;
+            int n = (int) toLong(b);
+            if (a instanceof Long) {
+                long x = (Long) a;
+                return op.equals("<<") ? x << n : op.equals(">>") ? x >> n : x >>> n;
+            }
+            int x = toInt(a);
+            return op.equals("<<") ? x << n : op.equals(">>") ? x >> n : x >>> n;
+        }
+        if (a instanceof Double || b instanceof Double) {
+            double x = toDouble(a), y = toDouble(b);
+            switch (op) {
+                case "+": return x + y;
+                case "-": return x - y;
+                case "*": return x * y;
+                case "/": return x / y;
+                case "%": return x % y;
+                default: return compare(op, Double.compare(x, y), x == y, x != x || y != y);
+            }
+        }
+        if (a instanceof Long || b instanceof Long) {
+            long x = toLong(a), y = toLong(b);
+            switch (op) {
+                case "+": return x + y;
+                case "-": return x - y;
+                case "*": return x * y;
+                case "/": return y == 0 ? null : x / y;
+                case "%": return y == 0 ? null : x % y;
+                case "&": return x & y;
+                case "|": return x | y;
+                case "^": return x ^ y;
+                default: return compare(op, Long.compare(x, y), x == y, false);
+            }
+        }
+        int x = toInt(a), y = toInt(b);
+        switch (op) {
+            case "+": return x + y;
+            case "-": return x - y;
+            case "*": return x * y;
+            case "/": return y == 0 ? null : x / y;
+            case "%": return y == 0 ? null : x % y;
+            case "&": return x & y;
+            case "|": return x | y;
+            case "^": return x ^ y;
+            default: return compare(op, Integer.compare(x, y), x == y, false);
+        }
+    }
+
+    // A comparison of two numbers whose order is signum; every one but != is false
+    // when one of them is NaN
+    private static Boolean compare(String op, int signum, boolean equal, boolean nan) {
+        switch (op) {
+            case "==": return equal;
+            case "!=": return !equal;
+            case "<": return !nan && signum < 0;
+            case "<=": return !nan && signum <= 0;
+            case ">": return !nan && signum > 0;
+            case ">=": return !nan && signum >= 0;
+            default: return null;
+        }
+    }
+
+    private static Object cast(String type, Object v) {
+        if (isNumber(v)) {
+            double d = toDouble(v);
+            long l = v instanceof Double ? (long) d : toLong(v);
+            switch (type) {
+                case "int": return v instanceof Double ? (int) d : (int) l;
+                case "long": return l;
+                case "double": return d;
+                case "char": return v instanceof Double ? (char) d : (char) l;
+                default: return null;
+            }
+        }
+        switch (type) {
+            case "boolean":
+                return v instanceof Boolean ? v : null;
+            case "String":
+                return v instanceof String ? v : null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isInt(Object v) {
+        return v instanceof Integer || v instanceof Character;
+    }
+
+    private static boolean isNumber(Object v) {
+        return isInt(v) || v instanceof Long || v instanceof Double;
+    }
+
+    private static int toInt(Object v) {
+        return v instanceof Character ? (Character) v : (Integer) v;
+    }
+
+    private static long toLong(Object v) {
+        return v instanceof Character ? (Character) v : ((Number) v).longValue();
+    }
+
+    private static double toDouble(Object v) {
+        return v instanceof Character ? (Character) v : ((Number) v).doubleValue();
+    }
+
+    // v written as a literal, or a negated one; null for NaN and the infinities
+    private static NovaAst.Expr literal(Object v, int line, int column) {
+        int type;
+        String text;
+        boolean negative = false;
+        if (v instanceof Integer) {
+            long i = (Integer) v;
+            negative = i < 0;
+            type = NovaAst.Literal.INT;
+            text = Long.toString(Math.abs(i));
+        } else if (v instanceof Long) {
+            long l = (Long) v;
+            negative = l < 0;
+            type = NovaAst.Literal.LONG;
+            text = (l == Long.MIN_VALUE ? "9223372036854775808" : Long.toString(Math.abs(l))) + "L";
+        } else if (v instanceof Double) {
+            double d = (Double) v;
+            if (Double.isNaN(d) || Double.isInfinite(d))
+                return null;
+            negative = Double.doubleToRawLongBits(d) < 0;
+            type = NovaAst.Literal.DOUBLE;
+            text = Double.toString(Math.abs(d));
+        } else if (v instanceof Boolean) {
+            type = NovaAst.Literal.BOOLEAN;
+            text = v.toString();
+        } else if (v instanceof Character) {
+            type = NovaAst.Literal.CHAR;
+            text = quote(v.toString(), '\'');
+        } else {
+            type = NovaAst.Literal.STRING;
+            text = quote((String) v, '"');
+        }
+        NovaAst.Expr literal = new NovaAst.Literal(type, text, line, column);
+        return negative ? new NovaAst.Unary("-", literal, false, line, column) : literal;
+    }
+
+    // The text of a string or char literal without its quotes and escapes; null for an
+    // escape that is not worth telling apart
+    private static String unquote(String literal) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 1; i < literal.length() - 1; i++) {
+            char c = literal.charAt(i);
+            if (c != '\\') {
+                s.append(c);
+                continue;
+            }
+            c = literal.charAt(++i);
+            switch (c) {
+                case 'b': s.append('\b'); break;
+                case 't': s.append('\t'); break;
+                case 'n': s.append('\n'); break;
+                case 'f': s.append('\f'); break;
+                case 'r': s.append('\r'); break;
+                case 's': s.append(' '); break;
+                case '"': case '\'': case '\\': s.append(c); break;
+                default:
+                    if (c < '0' || c > '7')
+                        return null; // \\u escapes are rare enough to leave alone
+                    int v = c - '0', max = c <= '3' ? 3 : 2, n = 1;
+                    while (n < max && i + 1 < literal.length() - 1 && literal.charAt(i + 1) >= '0'
+                            && literal.charAt(i + 1) <= '7') {
+                        v = v * 8 + literal.charAt(++i) - '0';
+                        n++;
+                    }
+                    s.append((char) v);
+            }
+        }
+        return s.toString();
+    }
+
+    // s as a literal in the given quotes. Control characters become octal escapes and
+    // anything past ASCII a \\u escape, which javac reads back as the same character.
+    private static String quote(String s, char quote) {
+        StringBuilder out = new StringBuilder(s.length() + 2).append(quote);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\b': out.append("\\b"); break;
+                case '\t': out.append("\\t"); break;
+                case '\n': out.append("\\n"); break;
+                case '\f': out.append("\\f"); break;
+                case '\r': out.append("\\r"); break;
+                case '\\': out.append("\\\\"); break;
+                default:
+                    if (c == quote)
+                        out.append('\\').append(c);
+                    else if (c < ' ' || c == 0x7F)
+                        out.append(String.format("\\%03o", (int) c));
+                    else if (c > 0x7F)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+        return out.append(quote).toString();
+    }
+
+    // ---- Printing expressions back, with only the parentheses they need
+
+    static String print(NovaAst.Expr e) {
+        StringBuilder out = new StringBuilder();
+        print(e, 0, out);
+        return out.toString();
+    }
+
+    private static int precedence(NovaAst.Expr e) {
+        if (e instanceof NovaAst.Assign || e instanceof NovaAst.Declaration)
+            return 0;
+        if (e instanceof NovaAst.Conditional)
+            return 1;
+        if (e instanceof NovaAst.Binary)
+            return LEVELS.get(((NovaAst.Binary) e).op);
+        if (e instanceof NovaAst.Unary && !((NovaAst.Unary) e).postfix || e instanceof NovaAst.Cast)
+            return PREFIX;
+        return POSTFIX;
+    }
+
+    // e, in parentheses if its operator binds less tightly than min
+    private static void print(NovaAst.Expr e, int min, StringBuilder out) {
+        if (precedence(e) < min) {
+            out.append('(');
+            print(e, 0, out);
+            out.append(')');
+        } else if (e instanceof NovaAst.Literal) {
+            out.append(((NovaAst.Literal) e).text);
+        } else if (e instanceof NovaAst.Name) {
+            out.append(((NovaAst.Name) e).name);
+        } else if (e instanceof NovaAst.Unary) {
+            NovaAst.Unary u = (NovaAst.Unary) e;
+            if (u.postfix) {
+                print(u.operand, POSTFIX, out);
+                out.append(u.op);
+            } else {
+                out.append(u.op);
+                int at = out.length();
+                print(u.operand, PREFIX, out);
+                if (at < out.length() && out.charAt(at) == u.op.charAt(u.op.length() - 1)) // not - -x as --x
+                    parenthesize(out, at);
+            }
+        } else if (e instanceof NovaAst.Binary) {
+            NovaAst.Binary b = (NovaAst.Binary) e;
+            int level = precedence(b);
+            print(b.left, level, out);
+            out.append(' ').append(b.op).append(' ');
+            print(b.right, level + 1, out); // left-associative
+        } else if (e instanceof NovaAst.Conditional) {
+            NovaAst.Conditional c = (NovaAst.Conditional) e;
+            print(c.condition, 2, out);
+            out.append(" ? ");
+            print(c.ifTrue, 0, out);
+            out.append(" : ");
+            print(c.ifFalse, 1, out);
+        } else if (e instanceof NovaAst.Assign) {
+            NovaAst.Assign a = (NovaAst.Assign) e;
+            print(a.target, POSTFIX, out);
+            out.append(' ').append(a.op).append(' ');
+            print(a.value, 0, out);
+        } else if (e instanceof NovaAst.Call) {
+            NovaAst.Call c = (NovaAst.Call) e;
+            if (c.target != null) {
+                target(c.target, out);
+                out.append('.');
+            }
+            out.append(c.name);
+            arguments(c.args, out);
+        } else if (e instanceof NovaAst.Member) {
+            target(((NovaAst.Member) e).target, out);
+            out.append('.').append(((NovaAst.Member) e).name);
+        } else if (e instanceof NovaAst.Index) {
+            target(((NovaAst.Index) e).array, out);
+            out.append('[');
+            print(((NovaAst.Index) e).index, 0, out);
+            out.append(']');
+        } else if (e instanceof NovaAst.New) {
+            NovaAst.New n = (NovaAst.New) e;
+            out.append("new ").append(n.type);
+            if (n.dimensions.isEmpty()) {
+                arguments(n.args, out);
+            } else {
+                for (NovaAst.Expr d : n.dimensions) {
+                    out.append('[');
+                    print(d, 0, out);
+                    out.append(']');
+                }
+            }
+        } else if (e instanceof NovaAst.Cast) {
+            NovaAst.Cast c = (NovaAst.Cast) e;
+            out.append('(').append(c.type).append(") ");
+            int at = out.length();
+            print(c.operand, PREFIX, out);
+            // (Type) -x would be read as a subtraction unless Type is primitive
+            if (!Character.isLowerCase(c.type.charAt(0)) && (out.charAt(at) == '-' || out.charAt(at) == '+'))
+                parenthesize(out, at);
+        } else if (e instanceof NovaAst.Declaration) {
+            NovaAst.Declaration d = (NovaAst.Declaration) e;
+            out.append(d.type).append(' ').append(d.name);
+            if (d.value != null) {
+                out.append(" = ");
+                print(d.value, 0, out);
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot print " + e.getClass().getSimpleName());
+        }
+    }
+
+    // What a call, member or index applies to; new int[n][0] would be a 2D array
+    private static void target(NovaAst.Expr e, StringBuilder out) {
+        if (e instanceof NovaAst.New && !((NovaAst.New) e).dimensions.isEmpty()) {
+            out.append('(');
+            print(e, 0, out);
+            out.append(')');
+        } else {
+            print(e, POSTFIX, out);
+        }
+    }
+
+    private static void arguments(List<NovaAst.Expr> args, StringBuilder out) {
+        out.append('(');
+        for (int i = 0; i < args.size(); i++) {
+            if (i > 0)
+                out.append(", ");
+            print(args.get(i), 0, out);
+        }
+        out.append(')');
+    }
+
+    private static void parenthesize(StringBuilder out, int from) {
+        out.insert(from, '(').append(')');
+    }
+
+    // ---- DEAD_BRANCHES
+
+    // items with their if chains pruned, innermost first
+    private static List<Object> branches(List<Object> items) {
+        List<Object> out = new ArrayList<>(items.size());
+        for (Object item : items) {
+            if (item instanceof Chain) {
+                Chain c = (Chain) item;
+                for (int i = 0; i < c.bodies.size(); i++)
+                    c.bodies.set(i, branches(c.bodies.get(i)));
+                item = prune(c);
+            }
+            if (item != null)
+                out.add(item);
+        }
+        return out;
+    }
+
+    // c without the branches that can never run; null if none can. The result must
+    // be able to complete normally whenever c could, or statements after it that javac
+    // accepted would become unreachable, so a chain that ends in an else needs a kept
+    // branch without jumps.
+    private static Chain prune(Chain c) {
+        int n = c.heads.size();
+        String[] conditions = new String[n]; // null for an else
+        Boolean[] values = new Boolean[n];
+        for (int i = 0; i < n; i++) {
+            String java = c.heads.get(i).java;
+            Matcher m = (i == 0 ? IF : ELSE_IF).matcher(java);
+            if (m.matches()) {
+                conditions[i] = m.group(1).trim();
+                Object v = constant(NovaParser.expression(conditions[i], 0, conditions[i].length(), 0, 0, false));
+                values[i] = v instanceof Boolean ? (Boolean) v : null;
+            } else if (i > 0 && i == n - 1 && ELSE.matcher(java).matches()) {
+                values[i] = Boolean.TRUE;
+            } else {
+                return c;
+            }
+        }
+        List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (Boolean.FALSE.equals(values[i]))
+                continue;
+            kept.add(i);
+            if (Boolean.TRUE.equals(values[i]))
+                break;
+        }
+        int lastKept = kept.isEmpty() ? -1 : last(kept);
+        boolean always = lastKept >= 0 && Boolean.TRUE.equals(values[lastKept]);
+        if (kept.size() == n && (!always || conditions[lastKept] == null))
+            return c; // nothing is constant
+        if (kept.isEmpty())
+            return null;
+        if (always) {
+            boolean completes = false;
+            for (int i : kept)
+                completes |= completesNormally(c.bodies.get(i));
+            if (!completes)
+                return c;
+        }
+        Chain pruned = new Chain();
+        for (int k = 0; k < kept.size(); k++) {
+            int i = kept.get(k);
+            Line head = c.heads.get(i);
+            if (kept.size() == 1 && always)
+                head.set("{");
+            else if (k == 0)
+                head.set("if (" + conditions[i] + ") {");
+            else if (values[i] != null)
+                head.set("} else {");
+            else
+                head.set("} else if (" + conditions[i] + ") {");
+            pruned.add(head, c.bodies.get(i));
+        }
+        pruned.end = c.end;
+        return pruned;
+    }
+
+    // Whether items surely complete normally: no jumps, and no loop that only a jump
+    // can end
+    private static boolean completesNormally(List<Object> items) {
+        for (Object item : items) {
+            if (item instanceof Line) {
+                if (jumps(((Line) item).java))
+                    return false;
+                continue;
+            }
+            Chain c = (Chain) item;
+            for (int i = 0; i < c.heads.size(); i++)
+                if (jumps(c.heads.get(i).java) || endless(c.heads.get(i).java) || !completesNormally(c.bodies.get(i)))
+                    return false;
+            if (jumps(c.end.java))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean jumps(String java) {
+        NovaLexer lex = new NovaLexer().scan(java, 0, java.length(), Integer.MAX_VALUE);
+        for (int t = 0; t < lex.count; t++)
+            if (lex.kind[t] == NovaLexer.WORD && ENDS_NORMALLY_NOT.contains(lex.text(t)))
+                return true;
+        return false;
+    }
+
+    // A while or for loop whose condition is missing or a constant true; false for
+    // other lines
+    private static boolean endless(String java) {
+        Matcher m;
+        String condition;
+        if ((m = WHILE.matcher(java)).matches()) {
+            condition = m.group(1);
+        } else if ((m = FOR.matcher(java)).matches()) {
+            int[] semis = separators(java, m.start(1), m.end(1), ';');
+            if (semis.length != 2)
+                return false;
+            condition = java.substring(semis[0] + 1, semis[1]);
+        } else {
+            return false;
+        }
+        return condition.isBlank()
+                || Boolean.TRUE.equals(constant(NovaParser.expression(condition, 0, condition.length(), 0, 0, false)));
+    }
+
+    // ---- STRING_BUILDERS and HOIST_BOUNDS
+
+    // Rewrites the loops among items, outermost first. scope has the locals declared
+    // before items; inTry is set inside a try statement, where a String that a loop
+    // was building must be up to date when an exception is caught.
+    private void loops(List<Object> items, Scope scope, boolean inTry) {
+        for (int i = 0; i < items.size(); i++) {
+            Object item = items.get(i);
+            if (item instanceof Line) {
+                declare((Line) item, scope);
+                continue;
+            }
+            Chain c = (Chain) item;
+            List<Line> before = new ArrayList<>(), after = new ArrayList<>();
+            if (on(STRING_BUILDERS) && !inTry)
+                builders(c, scope, before, after);
+            if (on(HOIST_BOUNDS))
+                hoist(c, scope, before);
+            if (!before.isEmpty()) { // in a block of their own, so the names can be used again
+                Chain block = new Chain();
+                List<Object> body = new ArrayList<>(before);
+                body.add(c);
+                body.addAll(after);
+                block.add(new Line(c.head(), "{"), body);
+                block.end = new Line(c.head(), "}");
+                items.set(i, block);
+            }
+            boolean tryChain = c.head().java.startsWith("try");
+            for (int b = 0; b < c.bodies.size(); b++) {
+                Scope inner = new Scope(scope);
+                declare(c.heads.get(b), inner);
+                loops(c.bodies.get(b), inner, inTry || tryChain);
+            }
+        }
+    }
+
+    // Whether c is a while or counted for loop that can end without a jump, so that
+    // code right after it is reachable
+    private static boolean isLoop(Chain c) {
+        if (c.heads.size() != 1 || endless(c.head().java))
+            return false;
+        Matcher m = FOR.matcher(c.head().java);
+        if (m.matches())
+            return separators(c.head().java, m.start(1), m.end(1), ';').length == 2;
+        return WHILE.matcher(c.head().java).matches();
+    }
+
+    // For each local String s that loop c builds with "s = s + x" or "s += x" and does
+    // not use otherwise, turns those lines into appends to a StringBuilder s$sb. The
+    // lines that create the builder and copy it back go into before and after. The
+    // copy is skipped when nothing was appended, so s stays the same object.
+    private void builders(Chain c, Scope scope, List<Line> before, List<Line> after) {
+        if (!isLoop(c))
+            return;
+        Map<String, List<Line>> lines = new LinkedHashMap<>();
+        Map<Line, String> appends = new HashMap<>();
+        Set<String> unsafe = new HashSet<>();
+        Scope inner = new Scope(scope);
+        declare(c.head(), inner);
+        if (!sums(c.bodies.get(0), inner, lines, appends, unsafe))
+            return;
+        for (Map.Entry<String, List<Line>> e : lines.entrySet()) {
+            String s = e.getKey();
+            if (unsafe.contains(s) || !"String".equals(scope.type(s)))
+                continue;
+            int own = 0;
+            for (Line line : e.getValue())
+                own += count(line.java, s);
+            if (uses(c, s) != own)
+                continue; // the loop reads s elsewhere
+            String sb = s + "$sb";
+            for (Line line : e.getValue())
+                line.set(sb + appends.get(line) + ";");
+            before.add(new Line(c.head(), "StringBuilder " + sb + " = new StringBuilder().append(" + s + ");"));
+            after.add(new Line(c.head(), "if (" + sb + ".length() != String.valueOf(" + s + ").length()) " + s
+                    + " = " + sb + ".toString();"));
+        }
+    }
+
+    // How often name occurs in c
+    private static int uses(Chain c, String name) {
+        int n = count(c.end.java, name);
+        for (int i = 0; i < c.heads.size(); i++)
+            n += count(c.heads.get(i).java, name) + uses(c.bodies.get(i), name);
+        return n;
+    }
+
+    private static int uses(List<Object> items, String name) {
+        int n = 0;
+        for (Object item : items)
+            n += item instanceof Line ? count(((Line) item).java, name) : uses((Chain) item, name);
+        return n;
+    }
+
+    // Collects the "s = s + x" and "s += x" lines in items by s, with the appends
+    // that replace each. Names whose lines also read s elsewhere, as in s = s + s,
+    // end up in unsafe. False if the items contain a try statement, where a partly
+    // built value could be seen after an exception.
+    private static boolean sums(List<Object> items, Scope scope, Map<String, List<Line>> lines,
+            Map<Line, String> appends, Set<String> unsafe) {
+        for (Object item : items) {
+            if (item instanceof Chain) {
+                Chain c = (Chain) item;
+                if (c.head().java.startsWith("try"))
+                    return false;
+                for (int i = 0; i < c.heads.size(); i++) {
+                    Scope inner = new Scope(scope);
+                    declare(c.heads.get(i), inner);
+                    if (!sums(c.bodies.get(i), inner, lines, appends, unsafe))
+                        return false;
+                }
+                continue;
+            }
+            Line line = (Line) item;
+            declare(line, scope);
+            int[] spans = spans(line.java);
+            if (spans == null || spans.length != 3 || spans[2] != 1)
+                continue;
+            NovaAst.Expr e = parse(line, spans, 0);
+            if (!(e instanceof NovaAst.Assign) || !(((NovaAst.Assign) e).target instanceof NovaAst.Name))
+                continue;
+            NovaAst.Assign a = (NovaAst.Assign) e;
+            String s = ((NovaAst.Name) a.target).name;
+            LinkedList<NovaAst.Expr> parts = new LinkedList<>();
+            if (a.op.equals("+=")) {
+                parts.add(a.value);
+            } else if (a.op.equals("=")) {
+                NovaAst.Expr x = a.value;
+                while (x instanceof NovaAst.Binary && ((NovaAst.Binary) x).op.equals("+")) {
+                    parts.addFirst(((NovaAst.Binary) x).right);
+                    x = ((NovaAst.Binary) x).left;
+                }
+                if (parts.isEmpty() || !(x instanceof NovaAst.Name) || !((NovaAst.Name) x).name.equals(s))
+                    continue;
+            } else {
+                continue;
+            }
+            if (count(line.java, s) != (a.op.equals("+=") ? 1 : 2))
+                unsafe.add(s);
+            StringBuilder java = new StringBuilder();
+            for (NovaAst.Expr x : parts)
+                java.append(".append(").append(appendsLikeConcat(x, scope) ? "" : "(Object) ").append(print(x))
+                        .append(')');
+            lines.computeIfAbsent(s, k -> new ArrayList<>()).add(line);
+            appends.put(line, java.toString());
+        }
+        return true;
+    }
+
+    // StringBuilder.append(x) adds what s + x would: x is known not to be a char[] or
+    // a bare null, for which append has overloads that print differently. Anything
+    // else is appended as an Object, which always prints like concatenation.
+    private static boolean appendsLikeConcat(NovaAst.Expr x, Scope scope) {
+        if (x instanceof NovaAst.Literal)
+            return ((NovaAst.Literal) x).type != NovaAst.Literal.NULL;
+        if (x instanceof NovaAst.Name) {
+            String type = scope.type(((NovaAst.Name) x).name);
+            return type != null && !type.equals("char[]");
+        }
+        if (x instanceof NovaAst.Index) {
+            NovaAst.Index i = (NovaAst.Index) x;
+            String type = i.array instanceof NovaAst.Name ? scope.type(((NovaAst.Name) i.array).name) : null;
+            return type != null && type.endsWith("[]") && !type.equals("char[][]");
+        }
+        if (x instanceof NovaAst.Binary || x instanceof NovaAst.Unary || x instanceof NovaAst.Cast)
+            return true;
+        if (x instanceof NovaAst.Conditional)
+            return appendsLikeConcat(((NovaAst.Conditional) x).ifTrue, scope)
+                    && appendsLikeConcat(((NovaAst.Conditional) x).ifFalse, scope);
+        if (x instanceof NovaAst.New)
+            return ((NovaAst.New) x).dimensions.isEmpty();
+        return false;
+    }
+
+    // Computes the bound of counted for loop c before it, as an "i$end" declaration in
+    // before, when the bound is more than a literal or a name and uses only locals
+    // that nothing in the loop assigns
+    private static void hoist(Chain c, Scope scope, List<Line> before) {
+        if (c.heads.size() != 1)
+            return;
+        Line head = c.head();
+        Matcher m = FOR.matcher(head.java);
+        if (!m.matches())
+            return;
+        int[] spans = spans(head.java);
+        if (spans == null || spans.length != 9)
+            return;
+        NovaAst.Expr init = parse(head, spans, 0), condition = parse(head, spans, 3), update = parse(head, spans, 6);
+        if (!(init instanceof NovaAst.Declaration) || !(condition instanceof NovaAst.Binary))
+            return;
+        NovaAst.Declaration d = (NovaAst.Declaration) init;
+        NovaAst.Binary b = (NovaAst.Binary) condition;
+        if (!(d.type.equals("int") || d.type.equals("long")) || !plain(d.value) || !COMPARISONS.contains(b.op)
+                || !(b.left instanceof NovaAst.Name) || !((NovaAst.Name) b.left).name.equals(d.name))
+            return;
+        NovaAst.Expr bound = b.right;
+        if (bound instanceof NovaAst.Literal || bound instanceof NovaAst.Name || isLiteral(bound))
+            return;
+        Set<String> names = new HashSet<>();
+        String type = boundType(bound, scope, d.name, names);
+        if (type == null || assigns(update, names) || assigns(c.bodies.get(0), names))
+            return;
+        String end = d.name + "$end";
+        head.set("for (" + head.java.substring(spans[0], spans[1]) + "; " + d.name + " " + b.op + " " + end + "; "
+                + head.java.substring(spans[6], spans[7]) + ") {");
+        before.add(new Line(head, type + " " + end + " = " + print(bound) + ";"));
+    }
+
+    // A loop start value that cannot throw or have side effects
+    private static boolean plain(NovaAst.Expr e) {
+        if (e instanceof NovaAst.Literal || e instanceof NovaAst.Name)
+            return true;
+        if (e instanceof NovaAst.Unary)
+            return !((NovaAst.Unary) e).op.equals("++") && !((NovaAst.Unary) e).op.equals("--")
+                    && plain(((NovaAst.Unary) e).operand);
+        if (e instanceof NovaAst.Binary) {
+            String op = ((NovaAst.Binary) e).op;
+            return (op.equals("+") || op.equals("-") || op.equals("*")) && plain(((NovaAst.Binary) e).left)
+                    && plain(((NovaAst.Binary) e).right);
+        }
+        return false;
+    }
+
+    // "int", "long" or "double" for a bound that only reads locals (added to names),
+    // array lengths, String lengths and Math functions of those; null for anything else
+    private static String boundType(NovaAst.Expr e, Scope scope, String loopVariable, Set<String> names) {
+        if (e instanceof NovaAst.Literal) {
+            int t = ((NovaAst.Literal) e).type;
+            return t == NovaAst.Literal.INT || t == NovaAst.Literal.CHAR ? "int"
+                    : t == NovaAst.Literal.LONG ? "long" : t == NovaAst.Literal.DOUBLE ? "double" : null;
+        }
+        if (e instanceof NovaAst.Name) {
+            String name = ((NovaAst.Name) e).name, type = scope.type(name);
+            if (name.equals(loopVariable) || type == null)
+                return null;
+            names.add(name);
+            return INTEGRAL.contains(type) ? "int" : type.equals("long") || type.equals("double") ? type : null;
+        }
+        if (e instanceof NovaAst.Member) {
+            NovaAst.Member m = (NovaAst.Member) e;
+            if (!m.name.equals("length") || !(m.target instanceof NovaAst.Name))
+                return null;
+            String name = ((NovaAst.Name) m.target).name, type = scope.type(name);
+            if (type == null || !type.endsWith("[]") || name.equals(loopVariable))
+                return null;
+            names.add(name);
+            return "int";
+        }
+        if (e instanceof NovaAst.Call) {
+            NovaAst.Call c = (NovaAst.Call) e;
+            if (!(c.target instanceof NovaAst.Name))
+                return null;
+            String name = ((NovaAst.Name) c.target).name;
+            if (c.name.equals("length") && c.args.isEmpty() && "String".equals(scope.type(name))) {
+                names.add(name);
+                return "int";
+            }
+            if (!name.equals("Math") || scope.type(name) != null)
+                return null;
+            String type = "int";
+            for (NovaAst.Expr arg : c.args)
+                type = promote(type, boundType(arg, scope, loopVariable, names));
+            switch (c.name) {
+                case "min": case "max":
+                    return c.args.size() == 2 ? type : null;
+                case "abs":
+                    return c.args.size() == 1 ? type : null;
+                case "sqrt": case "cbrt": case "floor": case "ceil":
+                    return c.args.size() == 1 && type != null ? "double" : null;
+                case "pow":
+                    return c.args.size() == 2 && type != null ? "double" : null;
+                default:
+                    return null;
+            }
+        }
+        if (e instanceof NovaAst.Unary) {
+            NovaAst.Unary u = (NovaAst.Unary) e;
+            if (u.op.equals("!") || u.op.equals("++") || u.op.equals("--"))
+                return null;
+            String type = boundType(u.operand, scope, loopVariable, names);
+            return u.op.equals("~") && "double".equals(type) ? null : type;
+        }
+        if (e instanceof NovaAst.Binary) {
+            NovaAst.Binary b = (NovaAst.Binary) e;
+            int level = LEVELS.get(b.op);
+            if (level < LEVELS.get("<<"))
+                return null;
+            String left = boundType(b.left, scope, loopVariable, names),
+                    right = boundType(b.right, scope, loopVariable, names);
+            if (level == LEVELS.get("<<"))
+                return "double".equals(left) || "double".equals(right) || right == null ? null : left;
+            return promote(left, right);
+        }
+        if (e instanceof NovaAst.Cast) {
+            NovaAst.Cast c = (NovaAst.Cast) e;
+            String type = boundType(c.operand, scope, loopVariable, names);
+            if (type == null)
+                return null;
+            return INTEGRAL.contains(c.type) ? "int"
+                    : c.type.equals("long") || c.type.equals("double") ? c.type : null;
+        }
+        return null;
+    }
+
+    private static String promote(String a, String b) {
+        if (a == null || b == null)
+            return null;
+        if (a.equals("double") || b.equals("double"))
+            return "double";
+        return a.equals("long") || b.equals("long") ? "long" : "int";
+    }
+
+    // Whether anything in items might assign one of names; lines the optimizer cannot
+    // read count as assigning whatever they mention
+    private static boolean assigns(List<Object> items, Set<String> names) {
+        for (Object item : items) {
+            if (item instanceof Line) {
+                if (assigns((Line) item, names))
+                    return true;
+                continue;
+            }
+            Chain c = (Chain) item;
+            for (int i = 0; i < c.heads.size(); i++)
+                if (assigns(c.heads.get(i), names) || assigns(c.bodies.get(i), names))
+                    return true;
+            if (assigns(c.end, names))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean assigns(Line line, Set<String> names) {
+        boolean mentioned = false;
+        for (String name : names)
+            mentioned |= count(line.java, name) > 0;
+        if (!mentioned)
+            return false;
+        int[] spans = spans(line.java);
+        if (spans == null)
+            return true;
+        for (int i = 0; i < spans.length; i += 3) {
+            NovaAst.Expr e = parse(line, spans, i);
+            if (e instanceof NovaAst.Invalid || assigns(e, names))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean assigns(NovaAst.Expr e, Set<String> names) {
+        if (e == null || e instanceof NovaAst.Literal || e instanceof NovaAst.Name)
+            return false;
+        if (e instanceof NovaAst.Invalid)
+            return true;
+        if (e instanceof NovaAst.Assign) {
+            NovaAst.Assign a = (NovaAst.Assign) e;
+            return a.target instanceof NovaAst.Name && names.contains(((NovaAst.Name) a.target).name)
+                    || assigns(a.target, names) || assigns(a.value, names);
+        }
+        if (e instanceof NovaAst.Unary) {
+            NovaAst.Unary u = (NovaAst.Unary) e;
+            return (u.op.equals("++") || u.op.equals("--")) && u.operand instanceof NovaAst.Name
+                    && names.contains(((NovaAst.Name) u.operand).name) || assigns(u.operand, names);
+        }
+        if (e instanceof NovaAst.Binary)
+            return assigns(((NovaAst.Binary) e).left, names) || assigns(((NovaAst.Binary) e).right, names);
+        if (e instanceof NovaAst.Conditional) {
+            NovaAst.Conditional c = (NovaAst.Conditional) e;
+            return assigns(c.condition, names) || assigns(c.ifTrue, names) || assigns(c.ifFalse, names);
+        }
+        if (e instanceof NovaAst.Call) {
+            NovaAst.Call c = (NovaAst.Call) e;
+            if (assigns(c.target, names))
+                return true;
+            for (NovaAst.Expr arg : c.args)
+                if (assigns(arg, names))
+                    return true;
+            return false;
+        }
+        if (e instanceof NovaAst.Member)
+            return assigns(((NovaAst.Member) e).target, names);
+        if (e instanceof NovaAst.Index)
+            return assigns(((NovaAst.Index) e).array, names) || assigns(((NovaAst.Index) e).index, names);
+        if (e instanceof NovaAst.New) {
+            NovaAst.New n = (NovaAst.New) e;
+            for (NovaAst.Expr x : n.args)
+                if (assigns(x, names))
+                    return true;
+            for (NovaAst.Expr x : n.dimensions)
+                if (assigns(x, names))
+                    return true;
+            return false;
+        }
+        if (e instanceof NovaAst.Cast)
+            return assigns(((NovaAst.Cast) e).operand, names);
+        if (e instanceof NovaAst.Declaration)
+            return names.contains(((NovaAst.Declaration) e).name) || assigns(((NovaAst.Declaration) e).value, names);
+        return true;
+    }
+}
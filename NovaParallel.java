@@ -0,0 +1,555 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.*;
+
+// Lowers "parallel for" loops to parallel streams, between the parser and the
+// optimizer. The loop is the rules.json rule with keyword "parallel for": group 1 is
+// the loop variable, 2 and 3 the bounds, and the optional 4 and 5 a reduction
+// (sum, min, max or count) and the local it goes into. Its template is the ordinary
+// for loop, which is what the statement becomes wherever it is not lowered: in Quick
+// Run, and when the body is not safe to run in parallel.
+//
+//   parallel for i = 1 to n reduce sum into total        total += IntStream.rangeClosed(1, n)
+//       total += i * i                                        .parallel().map(i -> {
+//   endfor                                                 int total$part = 0;
+//                                                          total$part += i * i;
+//                                                          return total$part;
+//                                                      }).sum();
+//
+// Each iteration updates its own total$part, starting from the reduction's identity,
+// and the stream combines the parts per thread. Outer locals the body reads are
+// copied into name$final first, so the lambda only captures effectively final
+// variables. A body is rejected, and the loop written as a sequential for loop after
+// an ERROR comment, when it reads input, prints, assigns a variable declared outside
+// the loop (other than the reduction's, with +=, ++ or Math.min/max as it calls
+// for), writes an element of an outer array at an index other than the loop
+// variable, calls a method other than those of Math and String, returns or breaks
+// out of the loop, or has a line that cannot be checked. continue becomes a return
+// from the lambda.
+final class NovaParallel implements NovaTranslator.Nodes {
+    static final String KEYWORD = "parallel for";
+    static final String IN_SEQUENCE = "parallel for runs in sequence"; // starts the ERROR comment of a rejected loop
+
+    private static final Pattern LOOP = Pattern.compile("(?:\\}\\s*)?(?:for|while)\\s*\\(.*\\{|do\\s*\\{");
+    private static final Pattern BLOCK = Pattern.compile("try\\s*\\{|\\}\\s*(?:catch\\s*\\(.*\\)|finally)\\s*\\{");
+    private static final Set<String> NOT_TYPES = new HashSet<>(Arrays.asList("return", "throw", "new", "case",
+            "yield", "else", "do", "assert", "break", "continue", "goto", "package", "import"));
+
+    private final NovaTranslator translator;
+    private final NovaTranslator.Nodes nodes;
+    private final ArrayDeque<NovaAst.Node> ready = new ArrayDeque<>();
+    private final List<NovaAst.Statement> pending = new ArrayList<>(); // an open parallel loop
+    private int depth;
+    private final NovaLexer lex = new NovaLexer();
+    private final Map<String, Locals> mains = new HashMap<>(); // class -> locals of its main
+    private String activeClass;
+    private Locals locals = mainLocals();
+
+    NovaParallel(NovaTranslator translator, NovaTranslator.Nodes nodes) {
+        this.translator = translator;
+        this.nodes = nodes;
+    }
+
+    static boolean isHeader(NovaAst.Statement s) {
+        return s.kind == NovaAst.Statement.RULE && KEYWORD.equalsIgnoreCase(s.rule.keyword);
+    }
+
+    public NovaAst.Node next() throws IOException {
+        while (ready.isEmpty()) {
+            NovaAst.Node node = nodes.next();
+            if (node == null) {
+                flush();
+                break;
+            }
+            if (node instanceof NovaAst.Restart) {
+                pending.clear();
+                depth = 0;
+                mains.clear();
+                activeClass = null;
+                locals = mainLocals();
+                return node;
+            }
+            if (node instanceof NovaAst.Statement) {
+                add((NovaAst.Statement) node);
+            } else {
+                flush();
+                enter(node);
+                ready.add(node);
+            }
+        }
+        return ready.poll();
+    }
+
+    private void add(NovaAst.Statement s) {
+        if (pending.isEmpty() && !isHeader(s)) {
+            track(s, translator.java(s), locals);
+            ready.add(s);
+            return;
+        }
+        pending.add(s);
+        if (s.closes)
+            depth--;
+        if (s.opens)
+            depth++;
+        if (depth == 0) {
+            lower();
+            pending.clear();
+        }
+    }
+
+    // A loop that never closed goes out as it is
+    private void flush() {
+        for (NovaAst.Statement s : pending) {
+            track(s, translator.java(s), locals);
+            ready.add(s);
+        }
+        pending.clear();
+        depth = 0;
+    }
+
+    // Keeps track of whose locals the statements that follow see
+    private void enter(NovaAst.Node node) {
+        if (node instanceof NovaAst.ClassDecl) {
+            activeClass = ((NovaAst.ClassDecl) node).name;
+            locals = mains.computeIfAbsent(activeClass, k -> mainLocals());
+        } else if (node instanceof NovaAst.MethodDecl) {
+            locals = parameters(((NovaAst.MethodDecl) node).signature);
+        } else if (node instanceof NovaAst.EndMethod) {
+            locals = mains.computeIfAbsent(activeClass, k -> mainLocals());
+        }
+    }
+
+    private static Locals mainLocals() {
+        Locals l = new Locals();
+        l.declare("args", "String[]");
+        l.declare("sc", "Scanner");
+        return l;
+    }
+
+    // "public int f(int a, String[] b)"
+    private static Locals parameters(String signature) {
+        Locals l = new Locals();
+        int open = signature.indexOf('('), close = signature.lastIndexOf(')');
+        if (open < 0 || close < open)
+            return l;
+        for (String p : signature.substring(open + 1, close).split(",")) {
+            String[] words = NovaLexer.words(p.trim().replaceFirst("^final\\s+", ""));
+            if (words.length == 2)
+                l.declare(words[1], words[0].replace("...", "[]"));
+        }
+        return l;
+    }
+
+    // Local variables by block depth, innermost last
+    private static final class Locals {
+        final List<String> names = new ArrayList<>(), types = new ArrayList<>();
+        final List<Integer> depths = new ArrayList<>();
+        int depth;
+
+        void declare(String name, String type) {
+            names.add(name);
+            types.add(type);
+            depths.add(depth);
+        }
+
+        String type(String name) {
+            int i = names.lastIndexOf(name);
+            return i < 0 ? null : types.get(i);
+        }
+
+        void close() {
+            if (depth > 0)
+                depth--;
+            int n = depths.size();
+            while (n > 0 && depths.get(n - 1) > depth)
+                n--;
+            names.subList(n, names.size()).clear();
+            types.subList(n, types.size()).clear();
+            depths.subList(n, depths.size()).clear();
+        }
+    }
+
+    // Follows the blocks a line closes and opens and the local it declares; a for
+    // loop's variable belongs to the block the line opens
+    private void track(NovaAst.Statement s, String java, Locals l) {
+        if (s.closes)
+            l.close();
+        if (s.opens)
+            l.depth++;
+        String[] declared = declaration(java);
+        if (declared != null)
+            l.declare(declared[1], declared[0]);
+    }
+
+    // Type and name of the local java declares: "Type name = ...;", "Type name;", or
+    // the variable of "for (Type name ...) {" or "} catch (Type name) {"; null otherwise
+    private String[] declaration(String java) {
+        lex.scan(java, 0, java.length(), 24);
+        int t = 0;
+        if (t < lex.count && lex.is(t, "}"))
+            t++;
+        if (t + 1 < lex.count && (lex.is(t, "for") || lex.is(t, "catch")) && lex.is(t + 1, "("))
+            t += 2;
+        if (t < lex.count && lex.is(t, "final"))
+            t++;
+        if (!isWord(t) || NOT_TYPES.contains(lex.text(t)))
+            return null;
+        int from = lex.start[t++];
+        while (t + 1 < lex.count && lex.is(t, ".") && isWord(t + 1))
+            t += 2;
+        if (t < lex.count && lex.is(t, "<")) {
+            int nesting = 0;
+            do {
+                if (lex.is(t, "<"))
+                    nesting++;
+                else if (lex.is(t, ">"))
+                    nesting--;
+                else if (lex.is(t, ">>"))
+                    nesting -= 2;
+                t++;
+            } while (t < lex.count && nesting > 0);
+        }
+        while (t + 1 < lex.count && lex.is(t, "[") && lex.is(t + 1, "]"))
+            t += 2;
+        if (t >= lex.count || !isWord(t))
+            return null;
+        int to = lex.end[t - 1];
+        String name = lex.text(t++);
+        if (t < lex.count && !(lex.is(t, "=") || lex.is(t, ";") || lex.is(t, ":") || lex.is(t, ",")
+                || lex.is(t, ")")))
+            return null;
+        return new String[] { java.substring(from, to).replaceAll("\\s+", ""), name };
+    }
+
+    private boolean isWord(int t) {
+        return t < lex.count && lex.kind[t] == NovaLexer.WORD;
+    }
+
+    // ---- Lowering a closed loop
+
+    private void lower() {
+        NovaAst.Statement header = pending.get(0);
+        Loop loop = new Loop(header);
+        String reason = loop.check(pending.subList(1, pending.size() - 1));
+        if (reason == null) {
+            loop.write(pending.get(pending.size() - 1));
+        } else {
+            // one statement, so that the comment needs no ';' and the loop still opens
+            String java = "// ERROR: " + IN_SEQUENCE + ", " + reason + "\n" + translator.java(header);
+            ready.add(new NovaAst.Statement(NovaAst.Statement.RAW, java, null, new int[] { 0, java.length() }, 0,
+                    true, false, header.line, header.column));
+            ready.addAll(pending.subList(1, pending.size()));
+        }
+        for (NovaAst.Statement s : pending)
+            track(s, translator.java(s), locals);
+    }
+
+    private static NovaAst.Statement raw(String java, NovaAst.Node at) {
+        return new NovaAst.Statement(NovaAst.Statement.RAW, java, null, new int[] { 0, java.length() }, 0,
+                java.endsWith("{"), java.startsWith("}"), at.line, at.column);
+    }
+
+    // One parallel loop and what its body needs
+    private final class Loop {
+        final NovaAst.Statement header;
+        final String variable, from, to, reduction, target;
+        String type; // of target
+        final Set<String> captured = new LinkedHashSet<>(); // outer locals the body reads
+        final List<NovaAst.Statement> body = new ArrayList<>(); // the body, renamed, at its own lines
+        final Locals inner = new Locals(); // the body's own locals
+        final ArrayDeque<Boolean> loops = new ArrayDeque<>(); // per open block of the body: is it a loop
+
+        Loop(NovaAst.Statement header) {
+            this.header = header;
+            variable = header.group(1);
+            from = header.group(2);
+            to = header.group(3);
+            reduction = header.groupCount >= 5 && header.group(4) != null
+                    ? header.group(4).toLowerCase(Locale.ROOT) : null;
+            target = reduction == null ? null : header.group(5);
+        }
+
+        // Why the loop cannot run in parallel; null if it can
+        String check(List<NovaAst.Statement> statements) {
+            if (variable == null || from == null || to == null)
+                return "the rule has no loop variable and bounds";
+            if (target != null) {
+                type = locals.type(target);
+                boolean integral = "int".equals(type) || "long".equals(type);
+                if (!(integral || "double".equals(type) && !reduction.equals("count")))
+                    return target + " is not a local " + (reduction.equals("count") ? "int or long"
+                            : "int, long or double") + " to " + reduction + " into";
+            }
+            for (NovaAst.Statement s : statements) {
+                String java = translator.java(s);
+                String reason = check(s, java);
+                if (reason != null)
+                    return reason + " (line " + s.line + ")";
+            }
+            return null;
+        }
+
+        private String check(NovaAst.Statement s, String java) {
+            if (isHeader(s))
+                return "it holds another parallel for";
+            if (s.kind == NovaAst.Statement.INPUT)
+                return "it reads input";
+            if (s.closes) {
+                inner.close();
+                loops.poll();
+            }
+            if (s.opens) {
+                inner.depth++;
+                loops.push(LOOP.matcher(java).matches());
+            }
+            String[] declared = declaration(java);
+            if (declared != null) {
+                if (declared[1].equals(target) || declared[1].equals(variable)
+                        || locals.type(declared[1]) != null)
+                    return "it declares " + declared[1] + " again";
+                inner.declare(declared[1], declared[0]);
+            }
+
+            lex.scan(java, 0, java.length(), Integer.MAX_VALUE);
+            if (lex.unterminated)
+                return "a literal is not closed";
+            StringBuilder out = new StringBuilder(java.length() + 16);
+            int copied = 0;
+            for (int t = 0; t < lex.count; t++) {
+                out.append(java, copied, lex.start[t]);
+                copied = lex.start[t];
+                if (!isName(t))
+                    continue;
+                String name = lex.text(t);
+                if (name.equals("sc"))
+                    return "it reads input";
+                if (name.equals("System")) {
+                    String member = t + 2 < lex.count && lex.is(t + 1, ".") ? lex.text(t + 2) : "";
+                    return member.equals("out") || member.equals("err") ? "it prints"
+                            : member.equals("in") ? "it reads input" : "it uses System." + member;
+                }
+                if (name.equals(target)) {
+                    out.append(name).append("$part");
+                    copied = lex.end[t];
+                } else if (!name.equals(variable) && inner.type(name) == null && locals.type(name) != null) {
+                    captured.add(name);
+                    out.append(name).append("$final");
+                    copied = lex.end[t];
+                }
+            }
+            out.append(java, copied, java.length());
+
+            if (lex.count == 2 && lex.is(0, "continue") && lex.is(1, ";") && !inLoop()) {
+                body.add(raw(target == null ? "return;" : "return " + target + "$part;", s));
+                return null;
+            }
+            if (lex.count > 0 && lex.is(0, "break") && !inLoop())
+                return "break cannot stop the other iterations";
+            if (lex.count > 0 && lex.is(0, "return"))
+                return "it returns from inside the loop";
+            int[] spans = NovaOptimizer.spans(java);
+            if (spans == null && !BLOCK.matcher(java).matches() && !java.isEmpty()
+                    && !(java.startsWith("//") && java.indexOf('\n') < 0))
+                return "the line " + java + " cannot be checked";
+            for (int i = 0; spans != null && i < spans.length; i += 3) {
+                NovaAst.Expr e = NovaParser.expression(java, spans[i], spans[i + 1], s.line, s.column,
+                        spans[i + 2] == 1);
+                if (e instanceof NovaAst.Invalid)
+                    return "the line " + java + " cannot be checked";
+                String reason = spans[i + 2] == 1 && isReduction(e) ? null : unsafe(e);
+                if (reason != null)
+                    return reason;
+            }
+            body.add(raw(out.toString(), s));
+            return null;
+        }
+
+        // A word that names a variable: not a member, a method or a type in a declaration
+        private boolean isName(int t) {
+            if (lex.kind[t] != NovaLexer.WORD)
+                return false;
+            if (t > 0 && lex.is(t - 1, "."))
+                return false;
+            return !(t + 1 < lex.count && lex.is(t + 1, "("));
+        }
+
+        private boolean inLoop() {
+            return loops.contains(Boolean.TRUE);
+        }
+
+        // Whether e, a whole statement, is an update of the target the reduction allows
+        private boolean isReduction(NovaAst.Expr e) {
+            if (target == null)
+                return false;
+            if (e instanceof NovaAst.Unary) {
+                NovaAst.Unary u = (NovaAst.Unary) e;
+                return isTarget(u.operand) && (u.op.equals("++") || u.op.equals("--") && reduction.equals("sum"));
+            }
+            if (!(e instanceof NovaAst.Assign) || !isTarget(((NovaAst.Assign) e).target))
+                return false;
+            NovaAst.Assign a = (NovaAst.Assign) e;
+            switch (reduction) {
+                case "count":
+                    return a.op.equals("+=") && a.value instanceof NovaAst.Literal
+                            && ((NovaAst.Literal) a.value).text.equals("1");
+                case "sum":
+                    if (a.op.equals("+=") || a.op.equals("-="))
+                        return unsafe(a.value) == null;
+                    if (a.op.equals("=") && a.value instanceof NovaAst.Binary) {
+                        NovaAst.Binary b = (NovaAst.Binary) a.value;
+                        return (b.op.equals("+") || b.op.equals("-")) && isTarget(b.left) && unsafe(b.right) == null;
+                    }
+                    return false;
+                default: // min, max
+                    if (!a.op.equals("=") || !(a.value instanceof NovaAst.Call))
+                        return false;
+                    NovaAst.Call c = (NovaAst.Call) a.value;
+                    if (!c.name.equals(reduction) || c.args.size() != 2 || !(c.target instanceof NovaAst.Name)
+                            || !((NovaAst.Name) c.target).name.equals("Math"))
+                        return false;
+                    NovaAst.Expr x = c.args.get(0), y = c.args.get(1);
+                    return isTarget(x) && unsafe(y) == null || isTarget(y) && unsafe(x) == null;
+            }
+        }
+
+        private boolean isTarget(NovaAst.Expr e) {
+            return e instanceof NovaAst.Name && ((NovaAst.Name) e).name.equals(target);
+        }
+
+        // What in e is unsafe to run from several threads at once; null if nothing
+        private String unsafe(NovaAst.Expr e) {
+            if (e == null || e instanceof NovaAst.Literal)
+                return null;
+            if (e instanceof NovaAst.Name)
+                return isTarget(e) ? "it uses " + target + " other than to " + reduction + " into it" : null;
+            if (e instanceof NovaAst.Assign) {
+                NovaAst.Assign a = (NovaAst.Assign) e;
+                String reason = written(a.target);
+                return reason != null ? reason : firstOf(unsafe(a.target), unsafe(a.value));
+            }
+            if (e instanceof NovaAst.Unary) {
+                NovaAst.Unary u = (NovaAst.Unary) e;
+                String reason = u.op.equals("++") || u.op.equals("--") ? written(u.operand) : null;
+                return reason != null ? reason : unsafe(u.operand);
+            }
+            if (e instanceof NovaAst.Binary)
+                return firstOf(unsafe(((NovaAst.Binary) e).left), unsafe(((NovaAst.Binary) e).right));
+            if (e instanceof NovaAst.Conditional) {
+                NovaAst.Conditional c = (NovaAst.Conditional) e;
+                return firstOf(unsafe(c.condition), firstOf(unsafe(c.ifTrue), unsafe(c.ifFalse)));
+            }
+            if (e instanceof NovaAst.Call) {
+                NovaAst.Call c = (NovaAst.Call) e;
+                if (!isPure(c))
+                    return "it calls " + (c.target instanceof NovaAst.Name ? ((NovaAst.Name) c.target).name + "." : "")
+                            + c.name + "(), which may print, read input or change what the iterations share";
+                String reason = unsafe(c.target);
+                for (NovaAst.Expr arg : c.args)
+                    reason = firstOf(reason, unsafe(arg));
+                return reason;
+            }
+            if (e instanceof NovaAst.Member)
+                return unsafe(((NovaAst.Member) e).target);
+            if (e instanceof NovaAst.Index)
+                return firstOf(unsafe(((NovaAst.Index) e).array), unsafe(((NovaAst.Index) e).index));
+            if (e instanceof NovaAst.New) {
+                String reason = null;
+                for (NovaAst.Expr x : ((NovaAst.New) e).args)
+                    reason = firstOf(reason, unsafe(x));
+                for (NovaAst.Expr x : ((NovaAst.New) e).dimensions)
+                    reason = firstOf(reason, unsafe(x));
+                return reason;
+            }
+            if (e instanceof NovaAst.Cast)
+                return unsafe(((NovaAst.Cast) e).operand);
+            if (e instanceof NovaAst.Declaration)
+                return unsafe(((NovaAst.Declaration) e).value);
+            return "the line cannot be checked";
+        }
+
+        // Whether a call cannot print, read input or change state: one of Math's or
+        // String's, or a method of a string
+        private boolean isPure(NovaAst.Call c) {
+            if (c.target instanceof NovaAst.Literal)
+                return ((NovaAst.Literal) c.target).type == NovaAst.Literal.STRING;
+            if (!(c.target instanceof NovaAst.Name))
+                return false;
+            String name = ((NovaAst.Name) c.target).name;
+            if (name.equals(variable))
+                return false;
+            String type = inner.type(name) != null ? inner.type(name) : locals.type(name);
+            return type == null ? name.equals("Math") || name.equals("String") : type.equals("String");
+        }
+
+        // Why assigning e is unsafe: a variable from outside the loop, a field, or an
+        // element of an outer array that another iteration may write too; only the
+        // element at the loop variable is the iteration's own
+        private String written(NovaAst.Expr e) {
+            if (e instanceof NovaAst.Name) {
+                String name = ((NovaAst.Name) e).name;
+                if (name.equals(target))
+                    return "it uses " + target + " other than to " + reduction + " into it";
+                if (name.equals(variable))
+                    return "it assigns the loop variable " + variable;
+                return inner.type(name) == null ? "it assigns " + name + ", which is shared by the iterations"
+                        : null;
+            }
+            if (e instanceof NovaAst.Member)
+                return "it assigns the field " + ((NovaAst.Member) e).name;
+            if (e instanceof NovaAst.Index) {
+                NovaAst.Index element = (NovaAst.Index) e;
+                while (element.array instanceof NovaAst.Index)
+                    element = (NovaAst.Index) element.array;
+                if (element.array instanceof NovaAst.Name && inner.type(((NovaAst.Name) element.array).name) != null)
+                    return null;
+                boolean own = element.index instanceof NovaAst.Name
+                        && ((NovaAst.Name) element.index).name.equals(variable);
+                return own && element.array instanceof NovaAst.Name ? null
+                        : "it writes an element of an array the iterations share at an index other than " + variable;
+            }
+            return null;
+        }
+
+        private String firstOf(String a, String b) {
+            return a != null ? a : b;
+        }
+
+        // The lowered loop, as statements at the header's position
+        void write(NovaAst.Statement end) {
+            String range = "java.util.stream.IntStream.rangeClosed(" + from + ", " + to + ").parallel()";
+            boolean block = !captured.isEmpty();
+            if (block)
+                ready.add(raw("{", header));
+            for (String name : captured)
+                ready.add(raw("var " + name + "$final = " + name + ";", header));
+            if (target == null) {
+                ready.add(raw(range + ".forEach(" + variable + " -> {", header));
+            } else {
+                String map = type.equals("int") ? "map" : type.equals("long") ? "mapToLong" : "mapToDouble";
+                String call = range + "." + map + "(" + variable + " -> {";
+                ready.add(raw(reduction.equals("sum") || reduction.equals("count") ? target + " += " + call
+                        : target + " = Math." + reduction + "(" + target + ", " + call, header));
+                ready.add(raw(type + " " + target + "$part = " + identity() + ";", header));
+            }
+            ready.addAll(body);
+            if (target == null) {
+                ready.add(raw("});", end));
+            } else {
+                ready.add(raw("return " + target + "$part;", end));
+                ready.add(raw(reduction.equals("sum") || reduction.equals("count") ? "}).sum();"
+                        : "})." + reduction + "().orElse(" + target + "));", end));
+            }
+            if (block)
+                ready.add(raw("}", end));
+        }
+
+        private String identity() {
+            if (reduction.equals("sum") || reduction.equals("count"))
+                return "0";
+            String box = type.equals("int") ? "Integer" : type.equals("long") ? "Long" : "Double";
+            if (type.equals("double"))
+                return reduction.equals("min") ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+            return box + (reduction.equals("min") ? ".MAX_VALUE" : ".MIN_VALUE");
+        }
+    }
+}
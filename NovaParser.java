@@ -0,0 +1,706 @@
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+// Recursive-descent parser for Nova pseudo code. It reads its source once, line by
+// line: next() hands out one node per line for streaming code generation, parse()
+// collects them into a Program. Statements are recognised with the rules the
+// translator was loaded with; expressions inside them are only parsed when asked for.
+class NovaParser {
+    static final int AUTO = 0, PROCEDURAL = 1, OOP = 2;
+
+    // Non-ASCII text may lower-case into \w (the Kelvin sign becomes 'k'), which the
+    // token test for fields does not model; such lines are checked as they always were
+    private static final Pattern FIELD_LINE = Pattern
+            .compile("^(public|private|protected)?\\s*(int|double|string|boolean|\\w+)\\s+\\w+;?");
+
+    private final NovaTranslator.RuleIndex rules;
+    private final PseudoSource in;
+    private int mode;
+    private final NovaLexer lexer = new NovaLexer();
+
+    // object-oriented state
+    private String activeClass;
+    private boolean inMethod;
+    private NovaAst.Node pending; // node of the line that opened the implicit Main class
+
+    NovaParser(NovaTranslator.RuleIndex rules, PseudoSource in, int mode) {
+        this.rules = rules;
+        this.in = in;
+        this.mode = mode;
+    }
+
+    // For callers that keep the lines themselves and hand them to line() one at a time
+    NovaParser(NovaTranslator.RuleIndex rules, boolean objectOriented) {
+        this(rules, null, objectOriented ? OOP : PROCEDURAL);
+    }
+
+    boolean objectOriented() {
+        return mode == OOP;
+    }
+
+    // The state an object-oriented line is read in: the class it belongs to (null
+    // before the first line) and whether it is inside a method. The nodes of a line
+    // depend only on its text and this state.
+    String activeClass() {
+        return activeClass;
+    }
+
+    boolean inMethod() {
+        return inMethod;
+    }
+
+    // Continues after a line whose nodes the caller already has, from the state that
+    // line left behind
+    void resume(String activeClass, boolean inMethod) {
+        this.activeClass = activeClass;
+        this.inMethod = inMethod;
+    }
+
+    // Adds the nodes of one line, as next() would return them, to out: none for a
+    // blank line of an object-oriented program, two for the line that opens the
+    // implicit Main class. There is no restart, the caller decides on the mode.
+    void line(String raw, int lineNo, List<NovaAst.Node> out) {
+        int from = trimStart(raw), to = trimEnd(raw, from);
+        if (mode != OOP) {
+            out.add(statement(rules, raw.substring(from, to), lineNo, from + 1));
+            return;
+        }
+        if (from == to)
+            return;
+        out.add(member(raw.substring(from, to), lineNo, from + 1));
+        if (pending != null) {
+            out.add(pending);
+            pending = null;
+        }
+    }
+
+    // The node for the next line, or null at the end. A procedural program yields one
+    // Statement per line, blank lines included. An object-oriented one yields class
+    // headers, methods, their ends, fields and statements, and skips blank lines.
+    NovaAst.Node next() throws IOException {
+        if (pending != null) {
+            NovaAst.Node n = pending;
+            pending = null;
+            return n;
+        }
+        if (mode != OOP) {
+            String raw = in.next();
+            if (raw == null)
+                return null;
+            int from = trimStart(raw), to = trimEnd(raw, from);
+            if (mode == AUTO && isOOPMarker(raw, from, to)) {
+                NovaAst.Restart restart = new NovaAst.Restart(in.lineCount(), from + 1);
+                mode = OOP;
+                in.rewind();
+                return restart;
+            }
+            return statement(rules, raw.substring(from, to), in.lineCount(), from + 1);
+        }
+        String raw;
+        while ((raw = in.next()) != null) {
+            int from = trimStart(raw), to = trimEnd(raw, from);
+            if (from < to)
+                return member(raw.substring(from, to), in.lineCount(), from + 1);
+        }
+        return null;
+    }
+
+    // Reads the rest of the source into a tree
+    NovaAst.Program parse() throws IOException {
+        Blocks main = new Blocks(new ArrayList<>());
+        NovaAst.Node n;
+        while (mode != OOP && (n = next()) != null) {
+            if (n instanceof NovaAst.Restart)
+                break;
+            main.add((NovaAst.Statement) n);
+        }
+        if (mode != OOP)
+            return new NovaAst.Program(main.root);
+
+        Map<String, NovaAst.ClassDecl> classes = new LinkedHashMap<>();
+        Map<String, Blocks> mains = new HashMap<>();
+        NovaAst.ClassDecl active = null;
+        NovaAst.MethodDecl method = null;
+        Blocks body = null;
+        while ((n = next()) != null) {
+            if (n instanceof NovaAst.ClassDecl) {
+                NovaAst.ClassDecl c = (NovaAst.ClassDecl) n;
+                active = classes.get(c.name);
+                if (active == null) {
+                    active = c;
+                    classes.put(c.name, c);
+                    mains.put(c.name, new Blocks(c.main));
+                } else if ((active.parent == null || active.parent.isEmpty()) && c.parent != null) {
+                    active.parent = c.parent;
+                }
+                method = null;
+            } else if (n instanceof NovaAst.MethodDecl) {
+                method = (NovaAst.MethodDecl) n;
+                active.methods.add(method);
+                body = new Blocks(method.body);
+            } else if (n instanceof NovaAst.EndMethod) {
+                method.end = (NovaAst.EndMethod) n;
+                method = null;
+            } else if (n instanceof NovaAst.FieldDecl) {
+                active.fields.add((NovaAst.FieldDecl) n);
+            } else if (method != null) {
+                body.add((NovaAst.Statement) n);
+            } else {
+                mains.get(active.name).add((NovaAst.Statement) n);
+            }
+        }
+        return new NovaAst.Program(classes.values());
+    }
+
+    // Nests statements into the blocks their rules open and close. A statement that
+    // closes and opens, like "} else {", becomes the end of one block and a sibling
+    // that owns the next; a closer with nothing open is an ordinary statement.
+    private static final class Blocks {
+        final List<NovaAst.Statement> root;
+        private final Deque<NovaAst.Statement> open = new ArrayDeque<>();
+
+        Blocks(List<NovaAst.Statement> root) {
+            this.root = root;
+        }
+
+        void add(NovaAst.Statement s) {
+            if (s.closes && !open.isEmpty()) {
+                open.pop().end = s;
+                if (!s.opens)
+                    return;
+            }
+            (open.isEmpty() ? root : open.peek().body).add(s);
+            if (s.opens) {
+                s.body = new ArrayList<>();
+                open.push(s);
+            }
+        }
+    }
+
+    // Classifies one non-blank line of an object-oriented program
+    private NovaAst.Node member(String line, int lineNo, int column) {
+        lexer.scan(line, 0, line.length(), 5);
+        if (lexer.isWord(0) && lexer.isIgnoreCase(0, "class") && lexer.isWord(1)
+                && (lexer.count == 2 && lexer.complete
+                        || lexer.count == 4 && lexer.complete && lexer.is(2, ",") && lexer.isWord(3))) {
+            activeClass = lexer.text(1);
+            inMethod = false;
+            return new NovaAst.ClassDecl(activeClass, lexer.count == 4 ? lexer.text(3) : null, false, lineNo,
+                    column);
+        }
+        if (activeClass == null) {
+            activeClass = "Main";
+            pending = member(line, lineNo, column);
+            return new NovaAst.ClassDecl("Main", null, true, lineNo, column);
+        }
+
+        if (NovaLexer.startsWithIgnoreCase(line, 0, "function ")) {
+            inMethod = true;
+            int from = trimStart(line, "function".length());
+            return method(line, from, lineNo, column);
+        } else if (!inMethod) {
+            NovaAst.MethodDecl m = method(line, 0, lineNo, column);
+            if (!m.signature.contains("unknownMethod")) {
+                inMethod = true;
+                return m;
+            }
+        }
+
+        if (inMethod && line.equalsIgnoreCase("endfunction")) {
+            inMethod = false;
+            return new NovaAst.EndMethod(lineNo, column);
+        }
+        if (inMethod)
+            return statement(rules, line, lineNo, column);
+        if (isField(line))
+            return new NovaAst.FieldDecl(fieldDeclaration(line), lineNo, column);
+        return statement(rules, line, lineNo, column);
+    }
+
+    // "[type] name(params)" from text[from, end); a stub that reports the error when it
+    // is anything else
+    private NovaAst.MethodDecl method(String text, int from, int lineNo, int column) {
+        int n = text.length();
+        lexer.scan(text, from, n, 3);
+        int open = -1;
+        String type = null, name = null;
+        if (lexer.isWord(0) && lexer.isWord(1) && lexer.count == 3 && lexer.is(2, "(")) {
+            type = lexer.text(0);
+            name = lexer.text(1);
+            open = lexer.end[2];
+        } else if (lexer.isWord(0) && lexer.count >= 2 && lexer.is(1, "(")) {
+            name = lexer.text(0);
+            open = lexer.end[1];
+        }
+        // the parameters are whatever lies between '(' and a ')' that ends the line
+        if (open >= 0 && (n - 1 < open || text.charAt(n - 1) != ')' || hasLineTerminator(text, open, n - 1)))
+            open = -1;
+        if (open < 0)
+            return new NovaAst.MethodDecl(null,
+                    "public void unknownMethod() { /* ERROR Parsing function signature: " + text.substring(from)
+                            + " */ }",
+                    lineNo, column);
+
+        String paramsRaw = text.substring(open, n - 1).trim();
+        List<String> paramList = new ArrayList<>();
+        if (!paramsRaw.isEmpty()) {
+            for (String param : paramsRaw.split(",")) {
+                param = param.trim();
+                String[] p = NovaLexer.words(param);
+                if (p.length == 2) {
+                    String t = p[0].equalsIgnoreCase("string") ? "String" : p[0];
+                    paramList.add(t + " " + p[1]);
+                } else
+                    paramList.add(param);
+            }
+        }
+        String params = "(" + String.join(", ", paramList) + ")";
+        if (name.equals(activeClass))
+            return new NovaAst.MethodDecl(name, "public " + activeClass + params, lineNo, column);
+        if (type == null)
+            type = "void";
+        else if (type.equalsIgnoreCase("string"))
+            type = "String";
+        return new NovaAst.MethodDecl(name, "public " + type + " " + name + params, lineNo, column);
+    }
+
+    // "[modifier] type name[;]"
+    private boolean isField(String line) {
+        if (!isAscii(line))
+            return FIELD_LINE.matcher(line.toLowerCase()).matches();
+        lexer.scan(line, 0, line.length(), 5);
+        return isField(0) || lexer.isWord(0) && (lexer.isIgnoreCase(0, "public") || lexer.isIgnoreCase(0, "private")
+                || lexer.isIgnoreCase(0, "protected")) && isField(1);
+    }
+
+    // Tokens from t on are "type name", optionally followed by a ';' without a space
+    private boolean isField(int t) {
+        if (!lexer.complete || !lexer.isWord(t) || !lexer.isWord(t + 1))
+            return false;
+        int rest = lexer.count - (t + 2);
+        return rest == 0 || rest == 1 && lexer.is(t + 2, ";") && !lexer.spaceBefore(t + 2);
+    }
+
+    private static String fieldDeclaration(String line) {
+        String[] parts = NovaLexer.words(line);
+        String modifier = "private";
+        int idx = 0;
+        if (parts.length > 0 && (parts[0].equalsIgnoreCase("public") ||
+                parts[0].equalsIgnoreCase("private") || parts[0].equalsIgnoreCase("protected"))) {
+            modifier = parts[0].toLowerCase();
+            idx = 1;
+        }
+        if (parts.length - idx < 2)
+            return "// ERROR: Invalid field declaration: " + line;
+        String type = parts[idx];
+        if (type.equalsIgnoreCase("string"))
+            type = "String";
+        String varName = parts[idx + 1];
+        return modifier + " " + type + " " + varName + ";";
+    }
+
+    // Recognises one trimmed line against the rules, which are tried in rules.json order
+    static NovaAst.Statement statement(NovaTranslator.RuleIndex rules, String text, int lineNo, int column) {
+        int[] groups = new int[2 * Math.max(rules.maxGroups, 1) + 2];
+        for (NovaTranslator.RuleIndex.Candidate c : rules.candidates(text)) {
+            int count;
+            if (c.matcher != null) {
+                if (!c.matcher.matches(text, groups))
+                    continue;
+                count = c.matcher.groupCount;
+            } else {
+                Matcher m = c.pattern.matcher(text);
+                if (!m.matches())
+                    continue;
+                count = m.groupCount();
+                if (2 * count + 2 > groups.length)
+                    groups = new int[2 * count + 2];
+                for (int g = 0; g <= count; g++) {
+                    groups[2 * g] = m.start(g);
+                    groups[2 * g + 1] = m.end(g);
+                }
+            }
+            NovaTranslator.Rule r = c.rule;
+            return new NovaAst.Statement(NovaAst.Statement.RULE, text, r, groups, count, r.opensBlock,
+                    r.closesBlock, lineNo, column);
+        }
+        groups[0] = 0;
+        groups[1] = text.length();
+        if (text.regionMatches(true, 0, "input", 0, 5))
+            return new NovaAst.Statement(NovaAst.Statement.INPUT, text, null, groups, 0, false, false, lineNo,
+                    column);
+        if (text.regionMatches(true, 0, "print", 0, 5)) {
+            int start = 5;
+            while (start < text.length() && text.charAt(start) <= ' ')
+                start++;
+            groups[2] = start;
+            groups[3] = text.length();
+            return new NovaAst.Statement(NovaAst.Statement.PRINT, text, null, groups, 1, false, false, lineNo,
+                    column);
+        }
+        return new NovaAst.Statement(NovaAst.Statement.RAW, text, null, groups, 0, text.endsWith("{"),
+                text.startsWith("}"), lineNo, column);
+    }
+
+    // A line that makes the program object oriented: "class ..." or "function ..."
+    static boolean isOOPMarker(String line) {
+        int from = trimStart(line);
+        return isOOPMarker(line, from, trimEnd(line, from));
+    }
+
+    private static boolean isOOPMarker(String line, int from, int to) {
+        // cheap test first: nothing else lower-cases to a 'c' or an 'f'
+        if (from == to)
+            return false;
+        char c = line.charAt(from);
+        if (c != 'c' && c != 'C' && c != 'f' && c != 'F')
+            return false;
+        // the space has to be followed by more text, since trailing blanks are trimmed
+        return from + 6 < to && NovaLexer.startsWithIgnoreCase(line, from, "class ")
+                || from + 9 < to && NovaLexer.startsWithIgnoreCase(line, from, "function ");
+    }
+
+    // Bounds of line.trim()
+    private static int trimStart(String line) {
+        return trimStart(line, 0);
+    }
+
+    private static int trimStart(String line, int from) {
+        while (from < line.length() && line.charAt(from) <= ' ')
+            from++;
+        return from;
+    }
+
+    private static int trimEnd(String line, int from) {
+        int to = line.length();
+        while (to > from && line.charAt(to - 1) <= ' ')
+            to--;
+        return to;
+    }
+
+    private static boolean hasLineTerminator(String s, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (NovaLexer.isLineTerminator(s.charAt(i)))
+                return true;
+        return false;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) >= 128)
+                return false;
+        return true;
+    }
+
+    // Parses text[from, to) as one Java expression, or as an expression statement or
+    // local variable declaration. column is that of text's first character, so node
+    // columns point into the source line.
+    static NovaAst.Expr expression(String text, int from, int to, int line, int column, boolean statement) {
+        try {
+            Expressions p = new Expressions(text, from, to, line, column, statement);
+            NovaAst.Expr e = statement ? p.declaration() : p.expression();
+            if (p.t < p.lex.count)
+                throw p.error(p.t, "Unexpected '" + p.lex.text(p.t) + "'");
+            return e;
+        } catch (SyntaxError ex) {
+            return new NovaAst.Invalid(ex.getMessage(), line, ex.column);
+        }
+    }
+
+    private static final class SyntaxError extends RuntimeException {
+        final int column;
+
+        SyntaxError(String message, int column) {
+            super(message, null, false, false);
+            this.column = column;
+        }
+    }
+
+    // Precedence climbing over the tokens of one expression
+    private static final class Expressions {
+        private static final Map<String, Integer> BINARY = new HashMap<>();
+        private static final Set<String> ASSIGN = new HashSet<>(Arrays.asList("=", "+=", "-=", "*=", "/=", "%=",
+                "&=", "|=", "^=", "<<=", ">>=", ">>>="));
+        private static final Set<String> PRIMITIVES = new HashSet<>(Arrays.asList("int", "long", "double", "float",
+                "boolean", "char", "byte", "short"));
+        private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList("abstract", "assert", "boolean",
+                "break", "byte", "case", "catch", "char", "class", "const", "continue", "default", "do", "double",
+                "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if", "implements", "import",
+                "instanceof", "int", "interface", "long", "native", "new", "package", "private", "protected",
+                "public", "return", "short", "static", "strictfp", "switch", "synchronized", "throw", "throws",
+                "transient", "try", "void", "volatile", "while"));
+        static {
+            String[][] levels = { { "||" }, { "&&" }, { "|" }, { "^" }, { "&" }, { "==", "!=" },
+                    { "<", ">", "<=", ">=", "instanceof" }, { "<<", ">>", ">>>" }, { "+", "-" }, { "*", "/", "%" } };
+            for (int i = 0; i < levels.length; i++)
+                for (String op : levels[i])
+                    BINARY.put(op, i + 1);
+        }
+
+        final NovaLexer lex = new NovaLexer();
+        final int line, column;
+        int t; // next token
+
+        Expressions(String text, int from, int to, int line, int column, boolean statement) {
+            lex.scan(text, from, to, Integer.MAX_VALUE);
+            this.line = line;
+            this.column = column;
+            if (lex.unterminated) // only the last token can be
+                throw error(lex.count - 1,
+                        "Unterminated " + (lex.kind[lex.count - 1] == NovaLexer.STRING ? "string" : "character"));
+            if (statement && lex.count > 0 && lex.kind[lex.count - 1] == NovaLexer.OP && lex.is(lex.count - 1, ";"))
+                lex.count--;
+            if (lex.count == 0)
+                throw new SyntaxError("Expression expected", column + to);
+        }
+
+        // "Type name [= value]", where Type may be an array type; anything else is an
+        // expression
+        NovaAst.Expr declaration() {
+            int k = t + 1;
+            while (k + 1 < lex.count && lex.is(k, "[") && lex.is(k + 1, "]"))
+                k += 2;
+            if (lex.kind[t] != NovaLexer.WORD || k >= lex.count || lex.kind[k] != NovaLexer.WORD
+                    || (isKeyword(lex.text(t)) && !PRIMITIVES.contains(lex.text(t))) || isKeyword(lex.text(k)) || (k + 1 < lex.count && !lex.is(k + 1, "=")))
+                return expression();
+            int at = t;
+            String type = lex.text.substring(lex.start[t], lex.end[k - 1]).replaceAll("\\s+", "");
+            String name = lex.text(k);
+            t = k + 1;
+            NovaAst.Expr value = accept("=") ? expression() : null;
+            return new NovaAst.Declaration(type, name, value, line, col(at));
+        }
+
+        NovaAst.Expr expression() {
+            NovaAst.Expr target = conditional();
+            if (t < lex.count && lex.kind[t] == NovaLexer.OP && ASSIGN.contains(lex.text(t))) {
+                int at = t++;
+                if (!(target instanceof NovaAst.Name || target instanceof NovaAst.Member
+                        || target instanceof NovaAst.Index))
+                    throw error(at, "Cannot assign to this expression");
+                return new NovaAst.Assign(lex.text(at), target, expression(), line, target.column);
+            }
+            return target;
+        }
+
+        private NovaAst.Expr conditional() {
+            NovaAst.Expr c = binary(1);
+            if (!accept("?"))
+                return c;
+            NovaAst.Expr a = expression();
+            expect(":");
+            return new NovaAst.Conditional(c, a, conditional(), line, c.column);
+        }
+
+        private NovaAst.Expr binary(int minLevel) {
+            NovaAst.Expr left = unary();
+            while (t < lex.count) {
+                Integer level = lex.kind[t] == NovaLexer.OP || lex.is(t, "instanceof") ? BINARY.get(lex.text(t))
+                        : null;
+                if (level == null || level < minLevel)
+                    return left;
+                String op = lex.text(t++);
+                NovaAst.Expr right = op.equals("instanceof") ? type() : binary(level + 1);
+                left = new NovaAst.Binary(op, left, right, line, left.column);
+            }
+            return left;
+        }
+
+        private NovaAst.Expr unary() {
+            int at = t;
+            if (at >= lex.count)
+                throw error(at, "Expression expected");
+            if (lex.kind[at] == NovaLexer.OP) {
+                String op = lex.text(at);
+                if (op.equals("+") || op.equals("-") || op.equals("!") || op.equals("~") || op.equals("++")
+                        || op.equals("--")) {
+                    t++;
+                    // right after a minus, a number may be 2147483648 or 9223372036854775808L
+                    if (op.equals("-") && t < lex.count && lex.kind[t] == NovaLexer.NUMBER) {
+                        int n = t++;
+                        return new NovaAst.Unary(op, postfix(number(lex.text(n), n, true)), false, line, col(at));
+                    }
+                    return new NovaAst.Unary(op, unary(), false, line, col(at));
+                }
+                // (type) operand
+                if (op.equals("(") && at + 3 < lex.count && lex.kind[at + 1] == NovaLexer.WORD && lex.is(at + 2, ")")
+                        && (PRIMITIVES.contains(lex.text(at + 1)) || startsOperand(at + 3))) {
+                    t = at + 3;
+                    return new NovaAst.Cast(lex.text(at + 1), unary(), line, col(at));
+                }
+            }
+            return postfix(primary());
+        }
+
+        // Java keywords that cannot stand for a value
+        private static boolean isKeyword(String s) {
+            return KEYWORDS.contains(s);
+        }
+
+        private boolean startsOperand(int i) {
+            int k = lex.kind[i];
+            return k != NovaLexer.OP || lex.is(i, "(") || lex.is(i, "!") || lex.is(i, "~");
+        }
+
+        private NovaAst.Expr postfix(NovaAst.Expr e) {
+            while (t < lex.count) {
+                int at = t;
+                if (accept(".")) {
+                    String name = identifier();
+                    e = at("(") ? new NovaAst.Call(e, name, arguments(), line, e.column)
+                            : new NovaAst.Member(e, name, line, e.column);
+                } else if (accept("[")) {
+                    NovaAst.Expr index = expression();
+                    expect("]");
+                    e = new NovaAst.Index(e, index, line, e.column);
+                } else if (at("(") && e instanceof NovaAst.Name) {
+                    e = new NovaAst.Call(null, ((NovaAst.Name) e).name, arguments(), line, e.column);
+                } else if (at("++") || at("--")) {
+                    t++;
+                    e = new NovaAst.Unary(lex.text(at), e, true, line, e.column);
+                } else {
+                    return e;
+                }
+            }
+            return e;
+        }
+
+        private NovaAst.Expr primary() {
+            int at = t;
+            int k = lex.kind[at];
+            String s = lex.text(at);
+            if (k == NovaLexer.NUMBER) {
+                t++;
+                return number(s, at, false);
+            }
+            if (k == NovaLexer.STRING || k == NovaLexer.CHAR) {
+                t++;
+                return new NovaAst.Literal(k == NovaLexer.STRING ? NovaAst.Literal.STRING : NovaAst.Literal.CHAR, s,
+                        line, col(at));
+            }
+            if (k == NovaLexer.WORD) {
+                t++;
+                if (s.equals("true") || s.equals("false"))
+                    return new NovaAst.Literal(NovaAst.Literal.BOOLEAN, s, line, col(at));
+                if (s.equals("null"))
+                    return new NovaAst.Literal(NovaAst.Literal.NULL, s, line, col(at));
+                if (s.equals("new"))
+                    return creation(at);
+                if (isKeyword(s))
+                    throw error(at, "Unexpected '" + s + "'");
+                return new NovaAst.Name(s, line, col(at));
+            }
+            if (accept("(")) {
+                NovaAst.Expr e = expression();
+                expect(")");
+                return e;
+            }
+            throw error(at, "Unexpected '" + s + "'");
+        }
+
+        // after "new": Type(args) or Type[size]...
+        private NovaAst.Expr creation(int at) {
+            String type = qualifiedName();
+            List<NovaAst.Expr> dims = new ArrayList<>();
+            while (accept("[")) {
+                dims.add(expression());
+                expect("]");
+            }
+            if (!dims.isEmpty())
+                return new NovaAst.New(type, Collections.emptyList(), dims, line, col(at));
+            if (!at("("))
+                throw error(t, "'(' or '[' expected");
+            return new NovaAst.New(type, arguments(), dims, line, col(at));
+        }
+
+        private NovaAst.Expr type() {
+            int at = t;
+            String name = qualifiedName();
+            while (accept("[")) {
+                expect("]");
+                name += "[]";
+            }
+            return new NovaAst.Name(name, line, col(at));
+        }
+
+        private String qualifiedName() {
+            StringBuilder name = new StringBuilder(identifier());
+            while (t + 1 < lex.count && lex.is(t, ".") && lex.kind[t + 1] == NovaLexer.WORD) {
+                t++;
+                name.append('.').append(identifier());
+            }
+            return name.toString();
+        }
+
+        private List<NovaAst.Expr> arguments() {
+            expect("(");
+            List<NovaAst.Expr> args = new ArrayList<>();
+            if (accept(")"))
+                return args;
+            do
+                args.add(expression());
+            while (accept(","));
+            expect(")");
+            return args;
+        }
+
+        // negated: right after a unary minus, which lets a decimal number be one past
+        // the largest int or long
+        private NovaAst.Expr number(String s, int at, boolean negated) {
+            char last = Character.toLowerCase(s.charAt(s.length() - 1));
+            boolean hex = s.length() > 1 && Character.toLowerCase(s.charAt(1)) == 'x';
+            int type;
+            try {
+                if (!hex && last != 'l' && (last == 'f' || last == 'd' || s.indexOf('.') >= 0
+                        || s.indexOf('e') >= 0 || s.indexOf('E') >= 0)) {
+                    type = last == 'f' ? NovaAst.Literal.FLOAT : NovaAst.Literal.DOUBLE;
+                    Double.parseDouble(s.replace("_", ""));
+                } else {
+                    type = last == 'l' ? NovaAst.Literal.LONG : NovaAst.Literal.INT;
+                    long v = NovaAst.Literal.integer(s, type == NovaAst.Literal.LONG);
+                    if (!negated && s.charAt(0) != '0' && v == (type == NovaAst.Literal.LONG ? Long.MIN_VALUE
+                            : Integer.MIN_VALUE))
+                        throw new ArithmeticException();
+                }
+            } catch (NumberFormatException ex) {
+                throw error(at, "Malformed number '" + s + "'");
+            } catch (ArithmeticException ex) {
+                throw error(at, "Integer number too large '" + s + "'");
+            }
+            return new NovaAst.Literal(type, s, line, col(at));
+        }
+
+        private String identifier() {
+            if (t >= lex.count || lex.kind[t] != NovaLexer.WORD)
+                throw error(t, "Name expected");
+            return lex.text(t++);
+        }
+
+        // The next token is the operator op
+        private boolean at(String op) {
+            return t < lex.count && lex.kind[t] == NovaLexer.OP && lex.is(t, op);
+        }
+
+        private boolean accept(String op) {
+            if (at(op)) {
+                t++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String op) {
+            if (!accept(op))
+                throw error(t, "'" + op + "' expected");
+        }
+
+        private int col(int token) {
+            return column + (token < lex.count ? lex.start[token] : lex.end[lex.count - 1]);
+        }
+
+        SyntaxError error(int token, String message) {
+            return new SyntaxError(message, col(token));
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import java.util.*;
+
+// Sources of the collection classes a translated program can use, written out with
+// the program by the translator when one of its statements needs them (a rule's
+// "runtime" list in rules.json). The lists and the map keep their elements in
+// primitive arrays, so int and double elements are never boxed; their methods are
+// named after ArrayList's and HashMap's, so that the same Java works on either.
+// Lists and maps of strings and objects use java.util's. The profiler of a profiled
+// program is written out the same way.
+final class NovaRuntime {
+    private NovaRuntime() {
+    }
+
+    // The source of a bundled class, or null if there is no such class
+    static String source(String className) {
+        return SOURCES.get(className);
+    }
+
+    // NovaProfile, for a program whose pseudo lines go up to lastLine
+    static String profiler(int lastLine) {
+        return PROFILER.replace("$lines", Integer.toString(lastLine));
+    }
+
+    // A growable array of one primitive type
+    private static String list(String name, String type, String box) {
+        return LIST.replace("$List", name).replace("$type", type).replace("$Box", box);
+    }
+
+    private static final String LIST = """
+            import java.util.*;
+
+            // A growable array of $type, like ArrayList<$Box> without the boxing
+            final class $List {
+                private $type[] elements;
+                private int size;
+
+                $List() {
+                    elements = new $type[10];
+                }
+
+                public int size() {
+                    return size;
+                }
+
+                public boolean isEmpty() {
+                    return size == 0;
+                }
+
+                public boolean add($type value) {
+                    if (size == elements.length)
+                        elements = Arrays.copyOf(elements, size + (size >> 1) + 1);
+                    elements[size++] = value;
+                    return true;
+                }
+
+                public $type get(int index) {
+                    Objects.checkIndex(index, size);
+                    return elements[index];
+                }
+
+                public $type set(int index, $type value) {
+                    Objects.checkIndex(index, size);
+                    $type old = elements[index];
+                    elements[index] = value;
+                    return old;
+                }
+
+                // Removes the element at index, like ArrayList.remove(int)
+                public $type remove(int index) {
+                    Objects.checkIndex(index, size);
+                    $type old = elements[index];
+                    System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+                    size--;
+                    return old;
+                }
+
+                public int indexOf($type value) {
+                    for (int i = 0; i < size; i++)
+                        if ($Box.compare(elements[i], value) == 0)
+                            return i;
+                    return -1;
+                }
+
+                public boolean contains($type value) {
+                    return indexOf(value) >= 0;
+                }
+
+                public void clear() {
+                    size = 0;
+                }
+
+                public void sort() {
+                    Arrays.sort(elements, 0, size);
+                }
+
+                public $type[] toArray() {
+                    return Arrays.copyOf(elements, size);
+                }
+
+                @Override
+                public String toString() {
+                    StringBuilder sb = new StringBuilder("[");
+                    for (int i = 0; i < size; i++) {
+                        if (i > 0)
+                            sb.append(", ");
+                        sb.append(elements[i]);
+                    }
+                    return sb.append(']').toString();
+                }
+            }
+            """;
+
+    private static final String INT_INT_MAP = """
+            import java.util.*;
+
+            // A map from int to int, like HashMap<Integer, Integer> without the boxing. Keys
+            // live in an open-addressing table with linear probing, kept at most half full;
+            // get() of a key that is not there is 0, as for an element of a new int array.
+            final class IntIntMap {
+                private int[] keys, values;
+                private boolean[] used;
+                private int size, mask;
+
+                IntIntMap() {
+                    keys = new int[16];
+                    values = new int[16];
+                    used = new boolean[16];
+                    mask = 15;
+                }
+
+                public int size() {
+                    return size;
+                }
+
+                public boolean isEmpty() {
+                    return size == 0;
+                }
+
+                // The previous value of key, or 0
+                public int put(int key, int value) {
+                    int slot = slot(key);
+                    if (used[slot]) {
+                        int old = values[slot];
+                        values[slot] = value;
+                        return old;
+                    }
+                    used[slot] = true;
+                    keys[slot] = key;
+                    values[slot] = value;
+                    if (++size > (mask + 1) >> 1)
+                        grow();
+                    return 0;
+                }
+
+                public int get(int key) {
+                    return getOrDefault(key, 0);
+                }
+
+                public int getOrDefault(int key, int otherwise) {
+                    int slot = slot(key);
+                    return used[slot] ? values[slot] : otherwise;
+                }
+
+                public boolean containsKey(int key) {
+                    return used[slot(key)];
+                }
+
+                // The value key had, or 0. The keys after it in its run move back into the
+                // gap, so that every key stays reachable from its home slot.
+                public int remove(int key) {
+                    int slot = slot(key);
+                    if (!used[slot])
+                        return 0;
+                    int old = values[slot];
+                    int gap = slot;
+                    for (int i = (gap + 1) & mask; used[i]; i = (i + 1) & mask) {
+                        int home = hash(keys[i]);
+                        if (((i - home) & mask) >= ((i - gap) & mask)) {
+                            keys[gap] = keys[i];
+                            values[gap] = values[i];
+                            gap = i;
+                        }
+                    }
+                    used[gap] = false;
+                    size--;
+                    return old;
+                }
+
+                public void clear() {
+                    Arrays.fill(used, false);
+                    size = 0;
+                }
+
+                // The keys in table order
+                public int[] keys() {
+                    int[] out = new int[size];
+                    int n = 0;
+                    for (int i = 0; i <= mask; i++)
+                        if (used[i])
+                            out[n++] = keys[i];
+                    return out;
+                }
+
+                @Override
+                public String toString() {
+                    StringBuilder sb = new StringBuilder("{");
+                    for (int i = 0; i <= mask; i++)
+                        if (used[i]) {
+                            if (sb.length() > 1)
+                                sb.append(", ");
+                            sb.append(keys[i]).append('=').append(values[i]);
+                        }
+                    return sb.append('}').toString();
+                }
+
+                // The slot that holds key, or the free one where it would go
+                private int slot(int key) {
+                    int i = hash(key);
+                    while (used[i] && keys[i] != key)
+                        i = (i + 1) & mask;
+                    return i;
+                }
+
+                private int hash(int key) {
+                    int h = key * 0x9E3779B9;
+                    return (h ^ (h >>> 16)) & mask;
+                }
+
+                private void grow() {
+                    int[] oldKeys = keys, oldValues = values;
+                    boolean[] oldUsed = used;
+                    keys = new int[oldKeys.length * 2];
+                    values = new int[oldKeys.length * 2];
+                    used = new boolean[oldKeys.length * 2];
+                    mask = keys.length - 1;
+                    for (int i = 0; i < oldKeys.length; i++)
+                        if (oldUsed[i]) {
+                            int slot = slot(oldKeys[i]);
+                            used[slot] = true;
+                            keys[slot] = oldKeys[i];
+                            values[slot] = oldValues[i];
+                        }
+                }
+            }
+            """;
+
+    private static final String PROFILER = """
+            import java.io.*;
+            import java.nio.charset.StandardCharsets;
+            import java.nio.file.*;
+            import java.util.concurrent.atomic.AtomicLongArray;
+
+            // Counts per pseudo line of a profiled program. Every statement calls at() with
+            // its line first, which is all the counting costs; time is sampled instead of
+            // measured: a daemon thread wakes about once a millisecond and charges the
+            // time since it last looked to the line that started last. Hits are counted
+            // atomically, so the threads of a parallel loop all count, but their time goes
+            // to whichever of their lines started last. With -Dnova.profile the profile is
+            // also written when the program calls System.exit, which skips main's finally.
+            public final class NovaProfile {
+                private static final AtomicLongArray hits = new AtomicLongArray($lines + 1);
+                private static final long[] nanos = new long[$lines + 1]; // the sampler's
+                private static volatile int line; // the last line to start; 0 before the first
+                private static long started, stopped;
+                private static Thread sampler;
+
+                private NovaProfile() {
+                }
+
+                public static void at(int line) {
+                    NovaProfile.line = line;
+                    hits.incrementAndGet(line);
+                }
+
+                public static synchronized void start() {
+                    if (sampler != null)
+                        return;
+                    started = System.nanoTime();
+                    sampler = new Thread(() -> {
+                        long last = System.nanoTime();
+                        while (true) {
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                break;
+                            }
+                            long now = System.nanoTime();
+                            nanos[line] += now - last;
+                            last = now;
+                        }
+                    }, "nova-profile");
+                    sampler.setDaemon(true);
+                    sampler.start();
+                    if (System.getProperty("nova.profile") != null)
+                        Runtime.getRuntime().addShutdownHook(new Thread(NovaProfile::stop));
+                }
+
+                // Stops sampling; with -Dnova.profile=<file> the profile is written there
+                public static synchronized void stop() {
+                    if (sampler == null || stopped != 0)
+                        return;
+                    stopped = System.nanoTime();
+                    sampler.interrupt();
+                    try {
+                        sampler.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    String file = System.getProperty("nova.profile");
+                    if (file != null)
+                        try {
+                            Files.write(Paths.get(file), json().getBytes(StandardCharsets.UTF_8));
+                        } catch (IOException e) {
+                            System.err.println("Could not write the profile: " + e);
+                        }
+                }
+
+                // {"totalMillis": t, "lines": [{"line": n, "hits": h, "millis": m}, ...]}
+                // for the lines that ran
+                public static synchronized String json() {
+                    long end = stopped != 0 ? stopped : System.nanoTime();
+                    StringBuilder sb = new StringBuilder("{\\\"totalMillis\\\": ")
+                            .append(started == 0 ? 0 : (end - started) / 1e6).append(", \\\"lines\\\": [");
+                    boolean first = true;
+                    for (int i = 1; i < hits.length(); i++) {
+                        long count = hits.get(i);
+                        if (count == 0 && nanos[i] == 0)
+                            continue;
+                        if (!first)
+                            sb.append(", ");
+                        first = false;
+                        sb.append("{\\\"line\\\": ").append(i).append(", \\\"hits\\\": ").append(count)
+                                .append(", \\\"millis\\\": ").append(nanos[i] / 1e6).append('}');
+                    }
+                    return sb.append("]}").toString();
+                }
+            }
+            """;
+
+    private static final Map<String, String> SOURCES = new HashMap<>();
+
+    static {
+        SOURCES.put("IntList", list("IntList", "int", "Integer"));
+        SOURCES.put("DoubleList", list("DoubleList", "double", "Double"));
+        SOURCES.put("IntIntMap", INT_INT_MAP);
+    }
+}
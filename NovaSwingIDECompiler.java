@@ -3,51 +3,50 @@
 import org.fife.ui.rsyntaxtextarea.*;
 import org.fife.ui.rtextarea.*;
 import org.fife.ui.autocomplete.*;
-import com.google.gson.*;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.filechooser.FileSystemView;
 import javax.swing.tree.*;
-import javax.tools.JavaCompiler;
-import javax.tools.ToolProvider;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.List;
-import java.util.regex.*;
+import java.util.function.Consumer;
 
 public class NovaSwingIDECompiler extends JFrame {
     private JTabbedPane tabbedPane;
-    private JTextArea outputArea;
+    private JPanel outputPanel; // holds the console of the selected tab
     private JTree projectExplorer;
-    private Process runningProcess;
-    private BufferedWriter processWriter;
     private Map<Component, EditorTab> editorTabs = new HashMap<>();
-    private List<Rule> rules;
-    private String lastGeneratedJava = "";
-    private String mainClassName = "Main";
-    private List<String> generatedJavaFiles = new ArrayList<>();
-
-    static class Rule {
-        String keyword;
-        List<String> patterns;
-        String template;
-        transient List<Pattern> compiledPatterns;
-
-        void compilePatterns() {
-            compiledPatterns = new ArrayList<>();
-            for (String p : patterns) {
-                compiledPatterns.add(Pattern.compile(p, Pattern.CASE_INSENSITIVE));
-            }
-        }
-    }
+    private NovaTranslator translator;
+    private CompletionIndex completions; // shared by all tabs
+    // of Build Project, by directory and translator mode
+    private final Map<Map.Entry<Path, String>, ProjectBuild> projects = new HashMap<>();
+    private boolean runInProcess = true;
+    private boolean compileWithoutJavac = false;
+
+    // Wall-clock limit for in-process runs, -Dnova.run.timeout=<seconds> (0 = none)
+    private static final long RUN_TIMEOUT_MILLIS = Long.getLong("nova.run.timeout", 60) * 1000;
+
+    // Limits per test case of Run Tests, -Dnova.test.timeout=<seconds> and
+    // -Dnova.test.heap=<MB>
+    private static final long TEST_TIMEOUT_MILLIS = Long.getLong("nova.test.timeout", 10) * 1000;
+    private static final int TEST_HEAP_MB = Integer.getInteger("nova.test.heap", 256);
+
+    // Console size caps, -Dnova.console.maxLines / -Dnova.console.maxChars
+    private static final int CONSOLE_MAX_LINES = Integer.getInteger("nova.console.maxLines", 10_000);
+    private static final int CONSOLE_MAX_CHARS = Integer.getInteger("nova.console.maxChars", 2_000_000);
 
     static class EditorTab {
         RSyntaxTextArea codeArea;
+        RTextScrollPane scroll;
         File file;
         String className = "Main";
+        LiveTranslation translation; // kept up to date as the code is edited
+        BuildSession session; // the tab's compiler, console and running program
+        DiagnosticsParser diagnostics; // squiggles from checking the code as it is typed
 
         EditorTab(RSyntaxTextArea area, File file) {
             this.codeArea = area;
@@ -59,9 +58,29 @@ public class NovaSwingIDECompiler extends JFrame {
         setTitle("🌌 Nova Compiler ");
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setSize(1200, 800);
+        // Build Project's threads and javac sessions end with the frame
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeProjects();
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                closeProjects();
+            }
+        });
+
+        // Tabs translate as they are edited, so the rules come first
+        try {
+            loadRules("rules.json");
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(this, "Error loading rules.json: " + ex.getMessage());
+            System.exit(1);
+        }
 
         // Project Explorer
-        projectExplorer = new JTree(createFileTree(new File(".")));
+        projectExplorer = new ProjectExplorer(new File("."));
         projectExplorer.setRootVisible(true);
         projectExplorer.addTreeSelectionListener(e -> {
             DefaultMutableTreeNode node = (DefaultMutableTreeNode) projectExplorer.getLastSelectedPathComponent();
@@ -74,50 +93,23 @@ public class NovaSwingIDECompiler extends JFrame {
         JScrollPane projectScroll = new JScrollPane(projectExplorer);
         projectScroll.setPreferredSize(new Dimension(220, 800));
 
+        // Output Area (Interactive Console): each tab has its own, shown while the tab
+        // is selected
+        outputPanel = new JPanel(new BorderLayout());
+
         // Tabbed Code Area
         tabbedPane = new JTabbedPane();
+        tabbedPane.addChangeListener(e -> showConsole());
         addNewTab(null);
 
-        // Output Area (Interactive Console)
-        outputArea = new JTextArea();
-        outputArea.setFont(new Font("Consolas", Font.PLAIN, 14));
-        outputArea.setBackground(new Color(20, 20, 20));
-        outputArea.setForeground(new Color(255, 200, 50));
-        outputArea.setLineWrap(true);
-        outputArea.setWrapStyleWord(true);
-        JScrollPane outputScroll = new JScrollPane(outputArea);
-
-        outputArea.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyPressed(KeyEvent e) {
-                if (e.getKeyCode() == KeyEvent.VK_ENTER && processWriter != null) {
-                    try {
-                        int lastLineStart = outputArea.getText().lastIndexOf('\n') + 1;
-                        String command = outputArea.getText().substring(lastLineStart).trim();
-                        processWriter.write(command + "\n");
-                        processWriter.flush();
-                    } catch (IOException ex) {
-                        outputArea.append("\n[Error sending input: " + ex.getMessage() + "]");
-                    }
-                }
-            }
-        });
-
         // Split Panes
         JSplitPane horizontalSplit = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, projectScroll, tabbedPane);
         horizontalSplit.setDividerLocation(240);
-        JSplitPane mainSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, horizontalSplit, outputScroll);
+        JSplitPane mainSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, horizontalSplit, outputPanel);
         mainSplit.setDividerLocation(530);
         getContentPane().add(mainSplit);
 
         setJMenuBar(createMenuBar());
-
-        try {
-            loadRules("rules.json");
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error loading rules.json: " + ex.getMessage());
-            System.exit(1);
-        }
     }
 
     private JMenuBar createMenuBar() {
@@ -153,11 +145,91 @@ public class NovaSwingIDECompiler extends JFrame {
 
         JMenu runMenu = new JMenu("Run");
         JMenuItem compileRun = new JMenuItem("Compile & Run");
-        compileRun.addActionListener(e -> compileAndRun());
+        compileRun.addActionListener(e -> compileAndRun(""));
         runMenu.add(compileRun);
 
+        JMenuItem quickRun = new JMenuItem("Quick Run");
+        quickRun.setToolTipText("Interpret the program without compiling it; falls back to Compile & Run");
+        quickRun.addActionListener(e -> quickRun());
+        runMenu.add(quickRun);
+
+        JMenuItem profileRun = new JMenuItem("Profile Run");
+        profileRun.setToolTipText("Compile with per-line counters and show where the time went in the gutter");
+        profileRun.addActionListener(e -> profileRun());
+        runMenu.add(profileRun);
+
+        JMenuItem runTests = new JMenuItem("Run Tests...");
+        runTests.setToolTipText("Compile once and run the program against every <case>.in of a directory");
+        runTests.addActionListener(e -> runTests());
+        runMenu.add(runTests);
+
+        JMenuItem buildProject = new JMenuItem("Build Project...");
+        buildProject.setToolTipText("Build the pseudo files of a directory as one program, only what changed, and run its Main");
+        buildProject.addActionListener(e -> buildProject());
+        runMenu.add(buildProject);
+
+        JMenuItem stop = new JMenuItem("Stop");
+        stop.addActionListener(e -> {
+            EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+            if (tab != null)
+                tab.session.stop();
+        });
+        runMenu.add(stop);
+
+        // follows the selected tab
+        JCheckBoxMenuItem fastIO = new JCheckBoxMenuItem("Fast I/O");
+        fastIO.setToolTipText("Generate buffered input and output for this tab, for input- or output-heavy programs");
+        fastIO.addActionListener(e -> {
+            EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+            if (tab != null)
+                tab.translation.setTranslator(tab.translation.translator().fastIO(fastIO.isSelected()));
+        });
+        tabbedPane.addChangeListener(e -> {
+            EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+            fastIO.setSelected(tab != null && tab.translation.translator().isFastIO());
+        });
+        runMenu.add(fastIO);
+
+        // one item per NovaOptimizer pass, also following the selected tab
+        JMenu optimize = new JMenu("Optimize");
+        String[] passNames = { "Fold Constants", "Drop Dead Branches", "StringBuilder in Loops", "Hoist Loop Bounds" };
+        int[] passes = { NovaOptimizer.FOLD_CONSTANTS, NovaOptimizer.DEAD_BRANCHES, NovaOptimizer.STRING_BUILDERS,
+                NovaOptimizer.HOIST_BOUNDS };
+        for (int i = 0; i < passes.length; i++) {
+            int pass = passes[i];
+            JCheckBoxMenuItem item = new JCheckBoxMenuItem(passNames[i]);
+            item.addActionListener(e -> {
+                EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+                if (tab == null)
+                    return;
+                NovaTranslator current = tab.translation.translator();
+                int mask = item.isSelected() ? current.optimizations() | pass : current.optimizations() & ~pass;
+                tab.translation.setTranslator(current.optimized(mask));
+            });
+            tabbedPane.addChangeListener(e -> {
+                EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+                item.setSelected(tab != null && (tab.translation.translator().optimizations() & pass) != 0);
+            });
+            optimize.add(item);
+        }
+        runMenu.add(optimize);
+
+        JCheckBoxMenuItem withoutJavac = new JCheckBoxMenuItem("Compile Without javac", compileWithoutJavac);
+        withoutJavac.setToolTipText("Compile & Run generates the class files itself; falls back to javac for programs it does not support");
+        withoutJavac.addActionListener(e -> compileWithoutJavac = withoutJavac.isSelected());
+        runMenu.add(withoutJavac);
+
+        JCheckBoxMenuItem inProcess = new JCheckBoxMenuItem("Run In-Process", runInProcess);
+        inProcess.setToolTipText("Run inside the IDE instead of starting a new JVM (not for programs that call System.exit)");
+        inProcess.addActionListener(e -> runInProcess = inProcess.isSelected());
+        runMenu.add(inProcess);
+
         JMenuItem clearOutput = new JMenuItem("Clear Output");
-        clearOutput.addActionListener(e -> outputArea.setText(""));
+        clearOutput.addActionListener(e -> {
+            EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+            if (tab != null)
+                tab.session.console.setText("");
+        });
         runMenu.add(clearOutput);
 
         menuBar.add(runMenu);
@@ -167,6 +239,18 @@ public class NovaSwingIDECompiler extends JFrame {
         showJava.addActionListener(e -> showGeneratedJava());
         viewMenu.add(showJava);
 
+        JMenuItem compilerStats = new JMenuItem("Compiler Statistics");
+        compilerStats.addActionListener(e -> {
+            EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+            if (tab != null)
+                JOptionPane.showMessageDialog(this, "javac " + tab.session.compiler.latencySummary());
+        });
+        viewMenu.add(compilerStats);
+
+        JMenuItem buildMetrics = new JMenuItem("Build Metrics");
+        buildMetrics.addActionListener(e -> showBuildMetrics());
+        viewMenu.add(buildMetrics);
+
         menuBar.add(viewMenu);
 
         return menuBar;
@@ -191,11 +275,26 @@ public class NovaSwingIDECompiler extends JFrame {
         String title = (file != null) ? file.getName() : "Untitled " + (tabbedPane.getTabCount() + 1);
         tabbedPane.addTab(title, scroll);
         EditorTab edtab = new EditorTab(codeArea, file);
+        edtab.scroll = scroll;
+        edtab.translation = new LiveTranslation(translator, codeArea.getDocument());
+        edtab.session = new BuildSession(CONSOLE_MAX_LINES, CONSOLE_MAX_CHARS);
+        edtab.diagnostics = new DiagnosticsParser(codeArea, edtab.translation::translator, edtab.session.compiler);
+        edtab.translation.addListener(t -> completions.update(edtab, edtab.translation.symbols()));
         editorTabs.put(scroll, edtab);
         tabbedPane.setSelectedComponent(scroll);
+        showConsole();
         addAutoCompletion(codeArea);
     }
 
+    private void showConsole() {
+        EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+        outputPanel.removeAll();
+        if (tab != null)
+            outputPanel.add(tab.session.panel, BorderLayout.CENTER);
+        outputPanel.revalidate();
+        outputPanel.repaint();
+    }
+
     private void openFileInTab(File file) {
         for (Map.Entry<Component, EditorTab> entry : editorTabs.entrySet())
             if (file.equals(entry.getValue().file)) {
@@ -214,7 +313,7 @@ public class NovaSwingIDECompiler extends JFrame {
             saveCurrentTabAs();
         } else {
             try (FileWriter fw = new FileWriter(tab.file)) {
-                fw.write(outputArea.getText());
+                fw.write(tab.codeArea.getText());
                 JOptionPane.showMessageDialog(this, "Saved: " + tab.file.getName());
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(this, "Save failed: " + ex.getMessage());
@@ -232,7 +331,7 @@ public class NovaSwingIDECompiler extends JFrame {
         if (ret == JFileChooser.APPROVE_OPTION) {
             File file = chooser.getSelectedFile();
             try (FileWriter fw = new FileWriter(file)) {
-                fw.write(outputArea.getText());
+                fw.write(tab.codeArea.getText());
                 tab.file = file;
                 tabbedPane.setTitleAt(tabbedPane.getSelectedIndex(), file.getName());
                 JOptionPane.showMessageDialog(this, "Saved as: " + file.getName());
@@ -247,28 +346,18 @@ public class NovaSwingIDECompiler extends JFrame {
         if (idx >= 0) {
             Component comp = tabbedPane.getComponentAt(idx);
             tabbedPane.remove(idx);
-            editorTabs.remove(comp);
+            EditorTab tab = editorTabs.remove(comp);
+            if (tab != null) {
+                tab.translation.close();
+                tab.diagnostics.close();
+                completions.remove(tab);
+                tab.session.close();
+            }
         }
         if (tabbedPane.getTabCount() == 0)
             addNewTab(null);
     }
 
-    private static DefaultMutableTreeNode createFileTree(File dir) {
-        DefaultMutableTreeNode node = new DefaultMutableTreeNode(dir);
-        File[] files = dir.listFiles();
-        if (files != null) {
-            Arrays.sort(files);
-            for (File f : files) {
-                if (f.isDirectory() &&
-                        (!f.getName().equals("node_modules") && !f.getName().startsWith(".")))
-                    node.add(createFileTree(f));
-                else if (f.isFile() && (f.getName().endsWith(".txt") || f.getName().endsWith(".java")))
-                    node.add(new DefaultMutableTreeNode(f));
-            }
-        }
-        return node;
-    }
-
     private RSyntaxTextArea createCodeArea() {
         RSyntaxTextArea area = new RSyntaxTextArea(28, 80);
         area.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_JAVA);
@@ -282,461 +371,511 @@ public class NovaSwingIDECompiler extends JFrame {
     }
 
     private void addAutoCompletion(RSyntaxTextArea area) {
-        CompletionProvider provider = new DefaultCompletionProvider();
-        for (String kw : new String[] { "public", "private", "protected", "class", "static", "void", "int", "double",
-                "boolean", "if", "else", "for", "while", "return", "new", "import", "String" }) {
-            ((DefaultCompletionProvider) provider).addCompletion(new BasicCompletion(provider, kw));
-        }
-        new AutoCompletion(provider).install(area);
+        new AutoCompletion(completions.provider()).install(area);
     }
 
     private void loadRules(String jsonFile) throws Exception {
-        String jsonStr = new String(Files.readAllBytes(Paths.get(jsonFile)));
-        Gson gson = new Gson();
-        Rule[] arr = gson.fromJson(jsonStr, Rule[].class);
-        rules = Arrays.asList(arr);
-        for (Rule r : rules)
-            r.compilePatterns();
+        translator = NovaTranslator.load(jsonFile);
+        completions = new CompletionIndex(translator);
     }
 
-    private void compileAndRun() {
+    // firstNote is shown above the compiler's messages
+    private void compileAndRun(String firstNote) {
         Component comp = tabbedPane.getSelectedComponent();
         EditorTab tab = editorTabs.get(comp);
         if (tab == null)
             return;
+        String name = tab.file != null ? tab.file.getName() : tabbedPane.getTitleAt(tabbedPane.getSelectedIndex());
+        compileAndRun(tab, name, tab.session.begin(), firstNote);
+    }
 
-        outputArea.setText("");
-
-        List<String> lines = Arrays.asList(tab.codeArea.getText().split("\\r?\\n"));
-        String javaCode = convertPseudoToJava(lines);
-        String className = mainClassName; // mainClassName set during conversion
-
-        try {
-            // If multiple .java files were generated, compile all of them
-            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-            ByteArrayOutputStream errStream = new ByteArrayOutputStream();
-
-            List<String> filesToCompile = new ArrayList<>();
-
-            // Use generatedJavaFiles from convertOOP() if available
-            if (generatedJavaFiles != null && !generatedJavaFiles.isEmpty()) {
-                filesToCompile.addAll(generatedJavaFiles);
-            } else {
-                // Fallback: write the single java file manually
-                try (FileWriter fw = new FileWriter(className + ".java")) {
-                    fw.write(javaCode);
-                }
-                filesToCompile.add(className + ".java");
-            }
-
-            // Compile all .java files together
-            String[] fileArray = filesToCompile.toArray(new String[0]);
-            int result = compiler.run(null, null, errStream, fileArray);
-
-            if (result == 0) {
-                // Run the main class
-                runningProcess = Runtime.getRuntime().exec("java " + className);
-                processWriter = new BufferedWriter(new OutputStreamWriter(runningProcess.getOutputStream()));
+    // The same for build of tab, which may no longer be the selected one
+    private void compileAndRun(EditorTab tab, String name, BuildSession.Build build, String firstNote) {
+        BuildMetrics metrics = new BuildMetrics(name);
+        if (compileWithoutJavac)
+            compileDirectly(tab, name, build, firstNote, metrics);
+        else
+            compileWithJavac(tab, build, firstNote, metrics);
+    }
 
-                new Thread(() -> readStream(runningProcess.getInputStream())).start();
-                new Thread(() -> readStream(runningProcess.getErrorStream())).start();
-            } else {
-                outputArea.setText("Compilation failed:\n" + errStream.toString());
+    private void compileWithJavac(EditorTab tab, BuildSession.Build build, String note, BuildMetrics metrics) {
+        // The translation is usually current already; if the last edit is still being
+        // translated, compiling starts when that is done
+        ConsoleSink console = tab.session.console;
+        console.setText(note + "[Compiling...]\n");
+        BuildSession.then(build, tab.translation.translation(), (t, error) -> {
+            if (error != null) {
+                console.setText("Error: " + error.getMessage());
+                return;
             }
-
-        } catch (Exception ex) {
-            outputArea.setText("Error: " + ex.getMessage());
-        }
+            if (t.metrics != null)
+                metrics.add(t.metrics);
+            compile(tab, build, t.mainClassName, t.sources, note, metrics);
+        });
     }
 
-    private void readStream(InputStream stream) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                final String msg = line;
-                SwingUtilities.invokeLater(() -> {
-                    outputArea.append(msg + "\n");
-                    outputArea.setCaretPosition(outputArea.getDocument().getLength());
-                });
+    // Compiles the tab with NovaInterpreter's bytecode generator instead of javac, on
+    // a build thread, and runs the program. Programs it does not support are compiled
+    // with javac instead.
+    private void compileDirectly(EditorTab tab, String name, BuildSession.Build build, String note,
+            BuildMetrics metrics) {
+        String code = tab.codeArea.getText();
+        ConsoleSink console = tab.session.console;
+        console.setText(note + "[Compiling...]\n");
+        // main class name -> class files
+        BuildSession.then(build, BuildSession.background(() -> {
+            long start = System.nanoTime();
+            try (PseudoSource in = PseudoSource.of(new StringReader(code))) {
+                NovaInterpreter.Program program = NovaInterpreter.compile(translator, in, name);
+                Map<String, byte[]> classes = program.classFiles();
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                return Map.entry(program.mainClass,
+                        new NovaCompiler.Result(true, Collections.emptyList(), classes, millis));
             }
-        } catch (IOException ignored) {
-        }
+        }), (compiled, error) -> {
+            if (error instanceof NovaInterpreter.Unsupported) {
+                NovaInterpreter.Unsupported ex = (NovaInterpreter.Unsupported) error;
+                compileWithJavac(tab, build, note + "[line " + ex.line + ": " + ex.getMessage()
+                        + "; compiling with javac]\n", metrics);
+            } else if (error != null) {
+                console.setText("Error: " + error.getMessage());
+            } else {
+                startRun(tab, build, compiled.getValue(), compiled.getKey(), Collections.emptyMap(), note, null,
+                        metrics);
+            }
+        });
     }
 
-    private void showGeneratedJava() {
+    // Runs the program in NovaInterpreter, which skips javac altogether. Programs it
+    // does not support go through Compile & Run instead.
+    private void quickRun() {
         Component comp = tabbedPane.getSelectedComponent();
         EditorTab tab = editorTabs.get(comp);
         if (tab == null)
             return;
-        List<String> lines = Arrays.asList(tab.codeArea.getText().split("\\r?\\n"));
-        String javaCode = convertPseudoToJava(lines);
-        JFrame frame = new JFrame("Generated Java Code");
-        JTextArea area = new JTextArea(javaCode);
-        area.setFont(new Font("Consolas", Font.PLAIN, 14));
-        frame.add(new JScrollPane(area));
-        frame.setSize(800, 600);
-        frame.setVisible(true);
+        String name = tab.file != null ? tab.file.getName() : tabbedPane.getTitleAt(tabbedPane.getSelectedIndex());
+        String code = tab.codeArea.getText();
+        BuildSession session = tab.session;
+        BuildSession.Build build = session.begin();
+        BuildSession.then(build, BuildSession.background(() -> {
+            try (PseudoSource in = PseudoSource.of(new StringReader(code))) {
+                return NovaInterpreter.compile(translator, in, name);
+            }
+        }), (program, error) -> {
+            if (error instanceof NovaInterpreter.Unsupported) {
+                NovaInterpreter.Unsupported ex = (NovaInterpreter.Unsupported) error;
+                compileAndRun(tab, name, build,
+                        "[Quick Run: line " + ex.line + ": " + ex.getMessage() + "; compiling instead]\n");
+                return;
+            }
+            if (error != null) {
+                session.console.setText("Error: " + error.getMessage());
+                return;
+            }
+            session.console.setText("[Quick Run]\n");
+            session.attach(build, InProcessProgram.start(program.mainClass, program.entry(), RUN_TIMEOUT_MILLIS));
+        });
     }
 
-    private boolean isValidJavaIdentifier(String s) {
-        if (s.isEmpty() || !Character.isJavaIdentifierStart(s.charAt(0)))
-            return false;
-        for (int i = 1; i < s.length(); i++)
-            if (!Character.isJavaIdentifierPart(s.charAt(i)))
-                return false;
-        return true;
+    private void compile(EditorTab tab, BuildSession.Build build, String className, Map<String, String> sources,
+            String note, BuildMetrics metrics) {
+        // Compile all generated classes together, in memory, on the javac session's thread
+        BuildSession.then(build, tab.session.compiler.submit(sources), (result, error) -> {
+            if (error != null)
+                tab.session.console.setText("Error: " + error.getMessage());
+            else
+                startRun(tab, build, result, className, sources, note, null, metrics);
+        });
     }
 
-    private String convertPseudoToJava(List<String> lines) {
-        if (hasOOPStructure(lines))
-            return convertOOP(lines);
-        else
-            return convertProcedural(lines);
+    // Compiles the tab with per-line counters (NovaTranslator.profiled) and runs it;
+    // when it ends, the editor shows how often each line ran and where the time went
+    private void profileRun() {
+        Component comp = tabbedPane.getSelectedComponent();
+        EditorTab tab = editorTabs.get(comp);
+        if (tab == null)
+            return;
+        BuildSession session = tab.session;
+        BuildSession.Build build = session.begin();
+        // translated afresh: the live translation's nodes may carry old line numbers
+        String code = tab.codeArea.getText();
+        NovaTranslator profiled = tab.translation.translator().profiled(true);
+        clearProfile(tab);
+        session.console.setText("[Compiling for Profile Run...]\n");
+        BuildSession.then(build, BuildSession.background(() -> {
+            try (PseudoSource in = PseudoSource.of(new StringReader(code))) {
+                return profiled.translate(in);
+            }
+        }), (t, error) -> {
+            if (error != null) {
+                session.console.setText("Error: " + error.getMessage());
+                return;
+            }
+            BuildSession.then(build, session.compiler.submit(t.sources), (result, compileError) -> {
+                if (compileError != null)
+                    session.console.setText("Error: " + compileError.getMessage());
+                else
+                    startRun(tab, build, result, t.mainClassName, t.sources, "[Profile Run]\n",
+                            profile -> SwingUtilities.invokeLater(() -> showProfile(tab, profile)), null);
+            });
+        });
     }
 
-    private boolean hasOOPStructure(List<String> lines) {
-        for (String line : lines) {
-            String l = line.trim().toLowerCase();
-            if (l.startsWith("class ") || l.startsWith("function "))
-                return true;
+    // Compiles the tab once, then runs it against each <case>.in of a chosen
+    // directory and compares with <case>.out; the verdicts fill a table as they come
+    private void runTests() {
+        Component comp = tabbedPane.getSelectedComponent();
+        EditorTab tab = editorTabs.get(comp);
+        if (tab == null)
+            return;
+        ConsoleSink console = tab.session.console;
+        JFileChooser chooser = new JFileChooser(tab.file != null ? tab.file.getParentFile() : new File("."));
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Directory of test cases");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        List<Path> cases;
+        try {
+            cases = TestRunner.cases(chooser.getSelectedFile().toPath());
+        } catch (IOException ex) {
+            console.setText("Error: " + ex.getMessage());
+            return;
         }
-        return false;
-    }
-
-    private String convertProcedural(List<String> lines) {
-        StringBuilder java = new StringBuilder();
-        java.append("import java.util.*;\n");
-        java.append("public class Main {\n");
-        java.append("    public static void main(String[] args) {\n");
-        java.append("        Scanner sc = new Scanner(System.in);\n");
-        for (String line : lines)
-            java.append("        ").append(convertLine(line.trim())).append("\n");
-        java.append("    }\n}");
-        mainClassName = "Main";
-        lastGeneratedJava = java.toString();
-        return java.toString();
-    }
-
-    // helper to hold one class contents
-    static class ClassDef {
-        String name;
-        String parent; // nullable
-        List<String> fields = new ArrayList<>();
-        List<String> methods = new ArrayList<>();
-        StringBuilder mainBody = new StringBuilder(); // for statements that go into this class's main, if any
-
-        ClassDef(String name, String parent) {
-            this.name = name;
-            this.parent = parent;
+        if (cases.isEmpty()) {
+            console.setText("[No .in files in " + chooser.getSelectedFile() + "]\n");
+            return;
         }
 
-        String buildSource(boolean includeImports) {
-            StringBuilder sb = new StringBuilder();
-            if (includeImports) {
-                sb.append("import java.util.*;\n\n");
+        String title = "Tests: " + chooser.getSelectedFile().getName();
+        javax.swing.table.DefaultTableModel verdicts = new javax.swing.table.DefaultTableModel(
+                new Object[] { "Case", "Verdict", "ms", "Detail" }, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
             }
+        };
+        Map<String, Integer> rows = new HashMap<>();
+        for (Path c : cases) {
+            String file = c.getFileName().toString();
+            String name = file.substring(0, file.length() - ".in".length());
+            rows.put(name, verdicts.getRowCount());
+            verdicts.addRow(new Object[] { name, "waiting", "", "" });
+        }
+        JFrame frame = new JFrame(title);
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        JTable table = new JTable(verdicts);
+        table.getColumnModel().getColumn(3).setPreferredWidth(420);
+        frame.add(new JScrollPane(table));
+        frame.setSize(720, 400);
+        frame.setLocationRelativeTo(this);
+        frame.setVisible(true);
 
-            // public for main class only when appropriate; safe to keep package-private
-            // except one main class if needed
-            sb.append("public class ").append(name);
-            if (parent != null && !parent.isEmpty())
-                sb.append(" extends ").append(parent);
-            sb.append(" {\n\n");
-
-            // fields
-            for (String f : fields) {
-                sb.append("    ").append(f).append("\n");
-            }
-            if (!fields.isEmpty())
-                sb.append("\n");
-
-            // methods
-            for (String m : methods) {
-                // methods already contain their braces (from parse)
-                String[] lines = m.split("\n");
-                for (String ln : lines)
-                    sb.append("    ").append(ln).append("\n");
-                sb.append("\n");
+        BuildSession.Build build = tab.session.begin();
+        console.setText("[Compiling for " + cases.size() + " test cases...]\n");
+        BuildSession.then(build, tab.translation.translation(), (t, error) -> {
+            if (error != null) {
+                console.setText("Error: " + error.getMessage());
+                return;
             }
-
-            // main (if has content)
-            if (mainBody.length() > 0) {
-                sb.append("    public static void main(String[] args) {\n");
-                sb.append("        Scanner sc = new Scanner(System.in);\n");
-                // indent existing mainBody lines by 8 spaces
-                String[] lines = mainBody.toString().split("\\r?\\n");
-                for (String ln : lines) {
-                    if (!ln.trim().isEmpty())
-                        sb.append("        ").append(ln).append("\n");
+            BuildSession.then(build, tab.session.compiler.submit(t.sources), (result, compileError) -> {
+                if (compileError != null) {
+                    console.setText("Error: " + compileError.getMessage());
+                    return;
                 }
-                sb.append("    }\n");
-            }
-
-            sb.append("}\n");
-            return sb.toString();
-        }
+                if (!result.success) {
+                    console.setText("Compilation failed:\n" + result.formatDiagnostics());
+                    return;
+                }
+                console.setText("[Compiled in " + result.millis + " ms; running " + cases.size() + " test cases]\n");
+                // the runner waits for the JVMs of the cases, on a build thread
+                TestRunner runner = new TestRunner(TEST_TIMEOUT_MILLIS, TEST_HEAP_MB,
+                        Runtime.getRuntime().availableProcessors());
+                BuildSession.then(build, BuildSession.background(() -> runner.run(result, t.mainClassName, cases,
+                        r -> SwingUtilities.invokeLater(() -> {
+                            int row = rows.get(r.name);
+                            verdicts.setValueAt(r.verdict, row, 1);
+                            verdicts.setValueAt(r.millis, row, 2);
+                            verdicts.setValueAt(r.detail, row, 3);
+                        }))), (results, runError) -> {
+                            if (runError != null) {
+                                console.setText("Error: " + runError.getMessage());
+                                return;
+                            }
+                            long passed = results.stream().filter(r -> r.verdict.equals(TestRunner.PASS)).count();
+                            frame.setTitle(title + " (" + passed + " of " + results.size() + " passed)");
+                            console.append(TestRunner.table(results));
+                        });
+            });
+        });
     }
 
-    // Replace your convertOOP(...) with this function
-    private String convertOOP(List<String> pseudoLines) {
-
-        // Map classname -> ClassDef
-        Map<String, ClassDef> classes = new LinkedHashMap<>();
-        ClassDef active = null;
-        boolean inMethod = false;
-        String currentMethodSignature = null;
-        StringBuilder currentMethodBody = new StringBuilder();
-
-        // regex for class line: "class X" or "class X, Y"
-        Pattern classPattern = Pattern.compile("^class\\s+(\\w+)(?:\\s*,\\s*(\\w+))?$", Pattern.CASE_INSENSITIVE);
-
-        for (String raw : pseudoLines) {
-            String line = raw.trim();
-            if (line.isEmpty())
-                continue;
-
-            Matcher clsM = classPattern.matcher(line);
-            if (clsM.matches()) {
-                // start new active class
-                String cname = clsM.group(1);
-                String parent = clsM.groupCount() >= 2 ? clsM.group(2) : null;
-                if (parent != null && parent.trim().isEmpty())
-                    parent = null;
-                active = classes.get(cname);
-                if (active == null) {
-                    active = new ClassDef(cname, parent);
-                    classes.put(cname, active);
-                } else {
-                    // update parent if previously unknown
-                    if ((active.parent == null || active.parent.isEmpty()) && parent != null)
-                        active.parent = parent;
-                }
-                // reset method state
-                inMethod = false;
-                currentMethodSignature = null;
-                currentMethodBody.setLength(0);
-                continue;
+    // Builds the .txt files of a chosen directory as one program (see ProjectBuild),
+    // with the text of open tabs in place of their files, and runs its Main in the
+    // current tab. The build graph stays with the directory, so the next build of it
+    // only translates and compiles what changed, as long as the tab's translator mode
+    // (fast I/O, optimizations) stays the same.
+    private void buildProject() {
+        EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+        if (tab == null)
+            return;
+        ConsoleSink console = tab.session.console;
+        JFileChooser chooser = new JFileChooser(tab.file != null ? tab.file.getParentFile() : new File("."));
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Project directory");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        Path dir = chooser.getSelectedFile().toPath().toAbsolutePath().normalize();
+        NovaTranslator generator = tab.translation.translator();
+        Map.Entry<Path, String> key = Map.entry(dir, ProjectBuild.mode(generator));
+        ProjectBuild project = projects.get(key);
+        if (project == null) {
+            // the build of the directory in another mode is replaced
+            projects.entrySet().removeIf(e -> {
+                if (!e.getKey().getKey().equals(dir))
+                    return false;
+                e.getValue().close();
+                return true;
+            });
+            try {
+                project = new ProjectBuild(generator, dir, null, Runtime.getRuntime().availableProcessors());
+            } catch (IOException ex) {
+                console.setText("Error: " + ex.getMessage());
+                return;
             }
+            projects.put(key, project);
+        }
+        Map<Path, String> edited = new HashMap<>();
+        for (EditorTab t : editorTabs.values()) {
+            Path file = t.file == null ? null : t.file.toPath().toAbsolutePath().normalize();
+            if (file != null && file.startsWith(dir) && file.toString().endsWith(".txt"))
+                edited.put(file, t.codeArea.getText());
+        }
 
-            // If we haven't seen any class yet, create a default Main class
-            if (active == null) {
-                active = classes.get("Main");
-                if (active == null) {
-                    active = new ClassDef("Main", null);
-                    classes.put("Main", active);
-                }
+        BuildSession.Build build = tab.session.begin();
+        console.setText("[Building " + dir.getFileName() + "...]\n");
+        ProjectBuild building = project;
+        BuildSession.then(build, BuildSession.background(() -> building.build(edited)), (report, error) -> {
+            if (error != null) {
+                console.setText("Error: " + error.getMessage());
+                return;
             }
-
-            // method start detection (explicit "function" or signature-like "name(...)" )
-            if (line.toLowerCase().startsWith("function ")) {
-                inMethod = true;
-                currentMethodBody.setLength(0);
-                currentMethodSignature = parseFunctionSignature(line.substring("function".length()).trim(),
-                        active.name);
-                continue;
-            } else if (!inMethod) {
-                // try method without function keyword
-                String sigTry = parseFunctionSignature(line, active.name);
-                if (!sigTry.contains("unknownMethod")) {
-                    inMethod = true;
-                    currentMethodSignature = sigTry;
-                    currentMethodBody.setLength(0);
-                    continue;
-                }
+            StringBuilder note = new StringBuilder("[" + dir.getFileName() + ": " + report.summary() + "]\n");
+            for (String problem : report.problems)
+                note.append("[").append(problem).append("]\n");
+            if (report.mainClass == null && report.result.success) {
+                console.setText(note + "[No Main class to run]\n");
+                return;
             }
+            startRun(tab, build, report.result, report.mainClass, report.sources, note.toString(), null, null);
+        });
+    }
 
-            // endfunction -> close method
-            if (line.equalsIgnoreCase("endfunction") && inMethod) {
-                // compose method text: signature + body + closing brace
-                StringBuilder methodText = new StringBuilder();
-                methodText.append(currentMethodSignature).append(" {\n");
-                methodText.append(currentMethodBody.toString());
-                methodText.append("    }\n"); // method closing
-                active.methods.add(methodText.toString());
-                inMethod = false;
-                currentMethodBody.setLength(0);
-                currentMethodSignature = null;
-                continue;
-            }
+    private void closeProjects() {
+        for (ProjectBuild project : projects.values())
+            project.close();
+        projects.clear();
+    }
 
-            if (inMethod) {
-                // add to current method body (already will be indented when emitted)
-                currentMethodBody.append("        ").append(convertLine(line)).append("\n");
+    // The profile as a heatmap: an icon in the gutter and a highlight per line that
+    // ran, redder the more of the time it took, with the counts as the icon's tooltip
+    private void showProfile(EditorTab tab, LineProfile profile) {
+        if (profile == null) {
+            tab.session.console.append("\n[No profile: the program did not get to the end of main]\n");
+            return;
+        }
+        clearProfile(tab);
+        tab.scroll.setIconRowHeaderEnabled(true);
+        Gutter gutter = tab.scroll.getGutter();
+        for (LineProfile.Line l : profile.lines) {
+            if (l.line > tab.codeArea.getLineCount())
                 continue;
+            double heat = profile.heat(l);
+            Color color = new Color(255, (int) (220 * (1 - heat)), 0);
+            String tip = String.format("line %d: %,d %s, %.1f ms", l.line, l.hits, l.hits == 1 ? "hit" : "hits",
+                    l.millis);
+            try {
+                gutter.addLineTrackingIcon(l.line - 1, new HeatIcon(color), tip);
+                if (heat > 0)
+                    tab.codeArea.addLineHighlight(l.line - 1,
+                            new Color(color.getRed(), color.getGreen(), 0, (int) (20 + 70 * heat)));
+            } catch (javax.swing.text.BadLocationException ignored) {
             }
+        }
+        StringBuilder summary = new StringBuilder(String.format("%n[Profile: %.1f ms; hottest", profile.totalMillis));
+        for (LineProfile.Line l : profile.hottest(3))
+            summary.append(String.format(" line %d (%.1f ms, %,d hits)", l.line, l.millis, l.hits));
+        tab.session.console.append(summary.append("]\n").toString());
+    }
 
-            // field detection
-            if (line.toLowerCase()
-                    .matches("^(public|private|protected)?\\s*(int|double|string|boolean|\\w+)\\s+\\w+;?")) {
-                String field = convertFieldDeclaration(line);
-                if (!active.fields.contains(field))
-                    active.fields.add(field);
-                continue;
-            }
+    private static void clearProfile(EditorTab tab) {
+        tab.scroll.getGutter().removeAllTrackingIcons();
+        tab.codeArea.removeAllLineHighlights();
+    }
+
+    // A gutter square in a heatmap color
+    private static class HeatIcon implements Icon {
+        private final Color color;
 
-            // else treat as class-level main body (statements that should go into main)
-            active.mainBody.append(convertLine(line)).append("\n");
+        HeatIcon(Color color) {
+            this.color = color;
         }
 
-        // If no Main class exists, create a simple empty main if required
-        if (!classes.containsKey("Main")) {
-            // nothing to do; user might not need a main
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            g.setColor(color);
+            g.fillRect(x + 2, y + 2, getIconWidth() - 4, getIconHeight() - 4);
         }
 
-        // Write each class to its own .java file and collect filenames for compilation
-        List<String> generatedFiles = new ArrayList<>();
-        for (Map.Entry<String, ClassDef> e : classes.entrySet()) {
-            String cname = e.getKey();
-            boolean includeImport = cname.equals(mainClassName);
-            String src = e.getValue().buildSource(includeImport);
-            try (FileWriter fw = new FileWriter(cname + ".java")) {
-                fw.write(src);
-                generatedFiles.add(cname + ".java");
-            } catch (IOException ex) {
-                // remember but continue
-                outputArea.append("Error writing " + cname + ".java: " + ex.getMessage() + "\n");
-            }
+        @Override
+        public int getIconWidth() {
+            return 14;
         }
 
-        // store lastGeneratedJava as concatenation for display
-        StringBuilder allClasses = new StringBuilder();
-        for (ClassDef d : classes.values()) {
-            boolean includeImport = d.name.equals(mainClassName);
-            allClasses.append(d.buildSource(includeImport)).append("\n\n");
+        @Override
+        public int getIconHeight() {
+            return 14;
         }
-        lastGeneratedJava = allClasses.toString();
-
-        // set mainClassName if Main exists, else pick first class
-        if (classes.containsKey("Main"))
-            mainClassName = "Main";
-        else if (!classes.isEmpty())
-            mainClassName = classes.keySet().iterator().next();
-
-        // store generated filenames somewhere accessible for compile step
-        // (we'll set a field generatedJavaFiles for compileAndRun to use)
-        this.generatedJavaFiles = generatedFiles;
-
-        return lastGeneratedJava;
-    }
-
-    private String parseFunctionSignature(String line, String currentClassName) {
-        String rest = line.trim();
-        Matcher mRet = Pattern.compile("^(\\w+)\\s+(\\w+)\\s*\\((.*)\\)$").matcher(rest);
-        if (mRet.matches()) {
-            String returnType = mRet.group(1);
-            if (returnType.equalsIgnoreCase("string"))
-                returnType = "String";
-            String methodName = mRet.group(2);
-            String paramsRaw = mRet.group(3).trim();
-            List<String> paramList = new ArrayList<>();
-            if (!paramsRaw.isEmpty()) {
-                for (String param : paramsRaw.split(",")) {
-                    param = param.trim();
-                    String[] p = param.split("\\s+");
-                    if (p.length == 2) {
-                        String type = p[0].equalsIgnoreCase("string") ? "String" : p[0];
-                        paramList.add(type + " " + p[1]);
-                    } else
-                        paramList.add(param);
-                }
-            }
-            if (methodName.equals(currentClassName)) {
-                return "public " + currentClassName + "(" + String.join(", ", paramList) + ")";
-            } else {
-                return "public " + returnType + " " + methodName + "(" + String.join(", ", paramList) + ")";
-            }
+    }
+
+    // profiled, if not null, gets the run's LineProfile when it ends, or null if the
+    // program left none. metrics, if not null, gets the compile, load and run phases
+    // and is what View > Build Metrics shows for the tab from now on.
+    private void startRun(EditorTab tab, BuildSession.Build build, NovaCompiler.Result result, String className,
+            Map<String, String> sources, String note, Consumer<LineProfile> profiled, BuildMetrics metrics) {
+        BuildSession session = tab.session;
+        if (metrics != null) {
+            metrics.phase(BuildMetrics.COMPILE, result.millis * 1_000_000, result.allocatedBytes);
+            session.lastMetrics = metrics;
         }
-        Matcher m = Pattern.compile("^(\\w+)\\s*\\((.*)\\)$").matcher(rest);
-        if (m.matches()) {
-            String methodName = m.group(1);
-            String paramsRaw = m.group(2).trim();
-            List<String> paramList = new ArrayList<>();
-            if (!paramsRaw.isEmpty()) {
-                for (String param : paramsRaw.split(",")) {
-                    param = param.trim();
-                    String[] p = param.split("\\s+");
-                    if (p.length == 2) {
-                        String type = p[0].equalsIgnoreCase("string") ? "String" : p[0];
-                        paramList.add(type + " " + p[1]);
-                    } else
-                        paramList.add(param);
-                }
-            }
-            if (methodName.equals(currentClassName)) {
-                return "public " + currentClassName + "(" + String.join(", ", paramList) + ")";
-            } else {
-                return "public void " + methodName + "(" + String.join(", ", paramList) + ")";
+        if (!result.success) {
+            session.console.setText(note + "Compilation failed:\n" + result.formatDiagnostics());
+            return;
+        }
+        session.console.setText(note + "[Compiled in " + result.millis + " ms]\n");
+        if (runInProcess && !callsSystemExit(sources) && !InProcessProgram.usesParallelStreams(result.classes)) {
+            try {
+                InProcessProgram run = InProcessProgram.start(result.classes, className, RUN_TIMEOUT_MILLIS, metrics);
+                if (profiled != null)
+                    run.onExit().thenRun(() -> profiled.accept(LineProfile.of(run)));
+                session.attach(build, run);
+            } catch (Exception ex) {
+                session.console.setText("Error: " + ex.getMessage());
             }
+            return;
         }
-        return "public void unknownMethod() { /* ERROR Parsing function signature: " + line + " */ }";
+        // The new JVM needs the classes on a class path; each run gets its own directory,
+        // written and started on a build thread. Loading is writing them there and
+        // starting the JVM; the JVM's own startup counts as running.
+        session.attach(build, BuildSession.background(() -> {
+            BuildMetrics.Span load = metrics == null ? null : metrics.begin(BuildMetrics.LOAD);
+            File classDir = Files.createTempDirectory("nova-run").toFile();
+            result.writeTo(classDir);
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            // a profiled program writes its profile there when main ends
+            File profileFile = new File(classDir, "profile.json");
+            List<String> command = new ArrayList<>(Arrays.asList(java, "-cp", classDir.getPath()));
+            if (profiled != null)
+                command.add("-Dnova.profile=" + profileFile.getPath());
+            command.add(className);
+            Process process = new ProcessBuilder(command).start();
+            if (load != null)
+                load.end();
+            long started = System.nanoTime();
+            process.onExit().thenRun(() -> {
+                if (metrics != null)
+                    metrics.phase(BuildMetrics.RUN, System.nanoTime() - started, -1);
+                if (profiled != null) {
+                    LineProfile profile = null;
+                    try {
+                        profile = LineProfile.read(profileFile.toPath());
+                    } catch (IOException | IllegalArgumentException ignored) {
+                    }
+                    profiled.accept(profile);
+                }
+                deleteRecursively(classDir);
+            });
+            return process;
+        }), error -> session.console.setText("Error: " + error.getMessage()));
+    }
+
+    // The runtime classes that add a shutdown hook, which they do only in a JVM of their own
+    private static final Set<String> RUNTIME_CLASSES = Set.of("FastIO", "NovaProfile");
+
+    // An in-process System.exit would take the IDE down with the program
+    private static boolean callsSystemExit(Map<String, String> sources) {
+        for (Map.Entry<String, String> e : sources.entrySet())
+            if (!RUNTIME_CLASSES.contains(e.getKey())
+                    && (e.getValue().contains("System.exit") || e.getValue().contains("Runtime.getRuntime()")))
+                return true;
+        return false;
     }
 
-    private String convertFieldDeclaration(String line) {
-        String[] parts = line.split("\\s+");
-        String modifier = "private";
-        int idx = 0;
-        if (parts.length > 0 && (parts[0].equalsIgnoreCase("public") ||
-                parts[0].equalsIgnoreCase("private") || parts[0].equalsIgnoreCase("protected"))) {
-            modifier = parts[0].toLowerCase();
-            idx = 1;
+    private static void deleteRecursively(File dir) {
+        try (java.util.stream.Stream<Path> walk = Files.walk(dir.toPath())) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException ignored) {
         }
-        if (parts.length - idx < 2)
-            return "// ERROR: Invalid field declaration: " + line;
-        String type = parts[idx];
-        if (type.equalsIgnoreCase("string"))
-            type = "String";
-        String varName = parts[idx + 1];
-        return modifier + " " + type + " " + varName + ";";
-    }
-
-    private String convertLine(String line) {
-        for (Rule r : rules) {
-            for (Pattern p : r.compiledPatterns) {
-                Matcher m = p.matcher(line);
-                if (m.matches()) {
-                    if ("for loop".equalsIgnoreCase(r.keyword) || "for".equalsIgnoreCase(r.keyword)) {
-                        return String.format(r.template,
-                                m.group(1),
-                                m.group(2),
-                                m.group(1),
-                                m.group(3),
-                                m.group(1));
-                    } else {
-                        String javaLine = r.template;
-                        for (int i = 1; i <= m.groupCount(); i++) {
-                            javaLine = javaLine.replaceFirst("%s", Matcher.quoteReplacement(m.group(i)));
-                        }
-                        return javaLine;
-                    }
-                }
+    }
+
+    // The phases, rule hits and cache hit rates of the tab's last Compile & Run; the
+    // run phase is there once the program has ended
+    private void showBuildMetrics() {
+        EditorTab tab = editorTabs.get(tabbedPane.getSelectedComponent());
+        BuildMetrics metrics = tab != null ? tab.session.lastMetrics : null;
+        JTextArea area = new JTextArea(metrics != null ? metrics.summary() : "Nothing built yet");
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        JScrollPane scroll = new JScrollPane(area);
+        scroll.setPreferredSize(new Dimension(560, 420));
+        JOptionPane.showMessageDialog(this, scroll, "Build Metrics", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private void showGeneratedJava() {
+        Component comp = tabbedPane.getSelectedComponent();
+        EditorTab tab = editorTabs.get(comp);
+        if (tab == null)
+            return;
+        // The window follows the tab's translation until it is closed
+        JFrame frame = new JFrame("Generated Java Code");
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        NovaTranslator.Translation current = tab.translation.current();
+        JTextArea area = new JTextArea(current != null ? current.javaCode() : "");
+        area.setFont(new Font("Consolas", Font.PLAIN, 14));
+        java.util.function.Consumer<NovaTranslator.Translation> update = t -> {
+            int caret = area.getCaretPosition();
+            area.setText(t.javaCode());
+            area.setCaretPosition(Math.min(caret, area.getDocument().getLength()));
+        };
+        tab.translation.addListener(update);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                tab.translation.removeListener(update);
             }
-        }
-        if (line.toLowerCase().startsWith("input")) {
-            String[] parts = line.split("\\s+");
-            if (parts.length >= 3) {
-                String type = parts[1].toLowerCase(), var = parts[2];
-                if (type.equals("int") || type.equals("double") || type.equals("boolean")) {
-                    return type + " " + var + " = sc.next" + type.substring(0, 1).toUpperCase() + type.substring(1)
-                            + "();";
-                } else if (type.equals("string")) {
-                    return "String " + var + " = sc.nextLine();";
-                } else
-                    return "// ERROR: Unsupported input type: " + type;
-            } else
-                return "// ERROR: Invalid input statement: " + line;
-        }
-        if (line.toLowerCase().startsWith("print")) {
-            String content = line.substring(5).trim();
-            if (!content.startsWith("("))
-                content = "(" + content + ")";
-            return "System.out.println" + content + ";";
-        }
-        if (line.matches(".*[^;{}]$"))
-            return line + ";";
-        return line;
+        });
+        tab.translation.translation().whenComplete((t, error) -> {
+            if (error != null)
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                        "Error: " + (error.getCause() != null ? error.getCause() : error).getMessage()));
+        });
+        frame.add(new JScrollPane(area));
+        frame.setSize(800, 600);
+        frame.setVisible(true);
+    }
+
+    private boolean isValidJavaIdentifier(String s) {
+        if (s.isEmpty() || !Character.isJavaIdentifierStart(s.charAt(0)))
+            return false;
+        for (int i = 1; i < s.length(); i++)
+            if (!Character.isJavaIdentifierPart(s.charAt(i)))
+                return false;
+        return true;
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(NovaBatch.run(args));
+        }
         SwingUtilities.invokeLater(() -> new NovaSwingIDECompiler().setVisible(true));
     }
 }
@@ -0,0 +1,1183 @@
+import com.google.gson.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+// Pseudo-code to Java translation, independent of the IDE. A translator only holds
+// the rules it was loaded with, which are never modified afterwards, so one instance
+// can translate any number of files concurrently.
+//
+// In fast I/O mode (fastIO(true)) the generated program reads and prints through
+// FastIO, a class written out with it: sc becomes a byte-level tokenizer with the
+// Scanner methods the rules use, and System.out in statements becomes a buffered
+// PrintWriter that is flushed when main ends and before input is read.
+//
+// optimized(passes) gives a translator that runs the statements through
+// NovaOptimizer on their way to code generation; see there for the passes. Loops of
+// the "parallel for" rule, if the rules have one, are lowered by NovaParallel before
+// that.
+//
+// profiled(true) gives a translator whose programs count how often each pseudo line
+// runs and how long it takes: every statement starts with a call to NovaProfile, a
+// class written out with the program (see NovaRuntime.profiler), and main starts
+// and stops its sampler.
+//
+// measured(metrics) gives a translator that counts the statements of each rule and
+// how many lines the rule index sent straight to their keyword's rules into the
+// given BuildMetrics; the translations it makes carry them.
+class NovaTranslator {
+
+    // Result of translating one pseudo program
+    static class Translation {
+        final String mainClassName;
+        final Map<String, String> sources; // class name -> source, in declaration order
+        final BuildMetrics metrics; // what was counted, if the translator was measured(); else null
+
+        Translation(String mainClassName, Map<String, String> sources) {
+            this(mainClassName, sources, null);
+        }
+
+        Translation(String mainClassName, Map<String, String> sources, BuildMetrics metrics) {
+            this.mainClassName = mainClassName;
+            this.sources = Collections.unmodifiableMap(sources);
+            this.metrics = metrics;
+        }
+
+        // All classes as one text, for display
+        String javaCode() {
+            return String.join("\n\n", sources.values());
+        }
+    }
+
+    static class Rule {
+        String keyword;
+        List<String> patterns;
+        String template;
+        List<Integer> groups; // optional: capture group for each %s, default 1, 2, 3, ...
+        List<String> runtime; // optional: NovaRuntime classes the template uses
+        List<Integer> boxed; // optional: groups that are element types, written boxed (int -> Integer)
+        transient List<Pattern> compiledPatterns;
+        transient String[] segments; // template text around the %s slots
+        transient int[] slots; // capture group filled into each slot
+        transient boolean[] boxedSlots; // null if the rule boxes nothing
+        transient boolean opensBlock, closesBlock; // template ends with '{' / starts with '}'
+
+        void compilePatterns() {
+            compiledPatterns = new ArrayList<>();
+            for (String p : patterns) {
+                compiledPatterns.add(Pattern.compile(p, Pattern.CASE_INSENSITIVE));
+            }
+        }
+
+        void compileTemplate() {
+            List<String> parts = new ArrayList<>();
+            int from = 0, at;
+            while ((at = template.indexOf("%s", from)) >= 0) {
+                parts.add(template.substring(from, at));
+                from = at + 2;
+            }
+            parts.add(template.substring(from));
+            segments = parts.toArray(new String[0]);
+            slots = new int[segments.length - 1];
+            for (int i = 0; i < slots.length; i++)
+                slots[i] = (groups != null && i < groups.size()) ? groups.get(i) : i + 1;
+            if (boxed != null) {
+                boxedSlots = new boolean[slots.length];
+                for (int i = 0; i < slots.length; i++)
+                    boxedSlots[i] = boxed.contains(slots[i]);
+            }
+            String t = template.trim();
+            opensBlock = t.endsWith("{");
+            closesBlock = t.startsWith("}");
+        }
+
+        // Appends the template with each slot replaced by its capture group in s, which
+        // must have matched one of this rule's patterns. Slots past the pattern's groups
+        // stay a literal %s.
+        void emit(NovaAst.Statement s, StringBuilder out) {
+            out.append(segments[0]);
+            for (int i = 0; i < slots.length; i++) {
+                int g = slots[i];
+                if (g > s.groupCount)
+                    out.append("%s");
+                else if (s.start(g) >= 0 && boxedSlots != null && boxedSlots[i])
+                    out.append(box(s.text.substring(s.start(g), s.end(g))));
+                else if (s.start(g) >= 0)
+                    out.append(s.text, s.start(g), s.end(g));
+                out.append(segments[i + 1]);
+            }
+        }
+
+        // The type a generic collection takes for an element type, e.g. Long for long
+        // and String for the pseudo type string; a class name stays as it is
+        static String box(String type) {
+            switch (type.toLowerCase(Locale.ROOT)) {
+                case "int":
+                    return "Integer";
+                case "char":
+                    return "Character";
+                case "long":
+                    return "Long";
+                case "double":
+                    return "Double";
+                case "float":
+                    return "Float";
+                case "boolean":
+                    return "Boolean";
+                case "short":
+                    return "Short";
+                case "byte":
+                    return "Byte";
+                case "string":
+                    return "String";
+                default:
+                    return type;
+            }
+        }
+    }
+
+    // Dispatch index over the loaded rules: maps the leading word of a line to the
+    // few (rule, pattern) pairs that can possibly match it. Patterns that don't start
+    // with a fixed word (e.g. "^(\w+)\[(.+)\]...") live in the wildcard bucket, which is
+    // merged into every keyword bucket so candidates keep their rules.json order.
+    static class RuleIndex {
+        static class Candidate {
+            final Rule rule;
+            final Pattern pattern;
+            final RuleMatcher matcher; // null if the pattern needs java.util.regex
+
+            Candidate(Rule rule, Pattern pattern) {
+                this.rule = rule;
+                this.pattern = pattern;
+                this.matcher = RuleMatcher.compile(pattern);
+            }
+        }
+
+        // keyword buckets by open addressing on the lower-cased keyword, so that looking
+        // up a line's first word needs no substring of it
+        private final String[] keys;
+        private final List<List<Candidate>> buckets;
+        private final List<Candidate> wildcard = new ArrayList<>();
+        final int maxGroups; // capture groups of the pattern with the most
+
+        RuleIndex(List<Rule> rules) {
+            List<Candidate> all = new ArrayList<>();
+            List<List<String>> keysOf = new ArrayList<>();
+            Set<String> keywords = new HashSet<>();
+            for (Rule r : rules) {
+                for (int i = 0; i < r.compiledPatterns.size(); i++) {
+                    List<String> keys = leadingWords(r.patterns.get(i));
+                    all.add(new Candidate(r, r.compiledPatterns.get(i)));
+                    keysOf.add(keys);
+                    if (keys != null)
+                        keywords.addAll(keys);
+                }
+            }
+            int groups = 0;
+            for (int i = 0; i < all.size(); i++) {
+                if (keysOf.get(i) == null)
+                    wildcard.add(all.get(i));
+                groups = Math.max(groups, all.get(i).pattern.matcher("").groupCount());
+            }
+            maxGroups = groups;
+            int size = Integer.highestOneBit(Math.max(keywords.size(), 1) * 4);
+            keys = new String[size];
+            buckets = new ArrayList<>(Collections.nCopies(size, null));
+            for (String kw : keywords) {
+                List<Candidate> bucket = new ArrayList<>();
+                for (int i = 0; i < all.size(); i++)
+                    if (keysOf.get(i) == null || keysOf.get(i).contains(kw))
+                        bucket.add(all.get(i));
+                int slot = slot(kw.hashCode());
+                while (keys[slot] != null)
+                    slot = (slot + 1) & (size - 1);
+                keys[slot] = kw;
+                buckets.set(slot, bucket);
+            }
+        }
+
+        // Whether the first word of line picks the rules of its keyword, rather than
+        // leaving every rule without a leading word to try
+        boolean indexed(String line) {
+            return candidates(line) != wildcard;
+        }
+
+        List<Candidate> candidates(String line) {
+            // the first word, hashed as its lower-cased String would be
+            int end = 0, hash = 0;
+            char c;
+            while (end < line.length() && NovaLexer.isWordChar(c = line.charAt(end))) {
+                hash = 31 * hash + (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+                end++;
+            }
+            if (end == 0)
+                return wildcard;
+            for (int slot = slot(hash); keys[slot] != null; slot = (slot + 1) & (keys.length - 1))
+                if (keys[slot].length() == end && NovaLexer.startsWithIgnoreCase(line, 0, keys[slot]))
+                    return buckets.get(slot);
+            return wildcard;
+        }
+
+        private int slot(int hash) {
+            return (hash ^ (hash >>> 16)) & (keys.length - 1);
+        }
+
+        // Returns the lower-cased words a pattern's match must start with, e.g. "print" for
+        // "^print\s+(.*)$" or [int, string] for "^(int|string)\s+...", or null when the
+        // pattern can start with an arbitrary word. Anything not understood is null, which
+        // only costs a few extra matches() calls.
+        static List<String> leadingWords(String regex) {
+            int n = regex.length();
+            int i = regex.startsWith("^") ? 1 : 0;
+            List<String> words = new ArrayList<>();
+            if (i < n && regex.charAt(i) == '(') {
+                i++;
+                if (regex.startsWith("?:", i))
+                    i += 2;
+                else if (i < n && regex.charAt(i) == '?')
+                    return null;
+                while (true) {
+                    int start = i;
+                    while (i < n && NovaLexer.isWordChar(regex.charAt(i)))
+                        i++;
+                    if (i == start || i >= n)
+                        return null;
+                    words.add(regex.substring(start, i).toLowerCase(Locale.ROOT));
+                    char c = regex.charAt(i++);
+                    if (c == ')')
+                        break;
+                    if (c != '|')
+                        return null;
+                }
+            } else {
+                int start = i;
+                while (i < n && NovaLexer.isWordChar(regex.charAt(i)))
+                    i++;
+                if (i == start)
+                    return null;
+                words.add(regex.substring(start, i).toLowerCase(Locale.ROOT));
+            }
+            if (!endsWord(regex, i) || hasTopLevelAlternation(regex))
+                return null;
+            return words;
+        }
+
+        // True if the atom at i can only match a non-word character (or the end of
+        // input), so the literal before it is the whole first word of the line.
+        private static boolean endsWord(String regex, int i) {
+            int n = regex.length();
+            if (i == n)
+                return true;
+            char c = regex.charAt(i);
+            int next;
+            if (c == '$') {
+                return true;
+            } else if (c == '\\') {
+                if (i + 1 >= n)
+                    return false;
+                char e = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(e) && e != 's' && e != 'W' && e != 'b')
+                    return false;
+                next = i + 2;
+            } else if (NovaLexer.isWordChar(c) || "()[].|?*+{^".indexOf(c) >= 0) {
+                return false;
+            } else {
+                next = i + 1;
+            }
+            // "print\s*" or "print,?" could still be followed by a word character
+            return next >= n || "?*{".indexOf(regex.charAt(next)) < 0;
+        }
+
+        private static boolean hasTopLevelAlternation(String regex) {
+            int depth = 0;
+            boolean inClass = false;
+            for (int i = 0; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (inClass) {
+                    if (c == ']')
+                        inClass = false;
+                } else if (c == '[') {
+                    inClass = true;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c == '|' && depth == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+
+    private final List<Rule> rules;
+    private final RuleIndex ruleIndex;
+    private final boolean fastIO;
+    private final int optimizations; // NovaOptimizer passes
+    private final boolean profiled;
+    private final BuildMetrics metrics; // null unless measured()
+    private final boolean lineMarked;
+    private final boolean parallelFor; // a rule has NovaParallel's keyword
+
+    NovaTranslator(List<Rule> rules) {
+        this.rules = rules;
+        for (Rule r : rules) {
+            r.compilePatterns();
+            r.compileTemplate();
+        }
+        this.ruleIndex = new RuleIndex(rules);
+        this.fastIO = false;
+        this.optimizations = 0;
+        this.profiled = false;
+        this.metrics = null;
+        this.lineMarked = false;
+        this.parallelFor = rules.stream().anyMatch(r -> NovaParallel.KEYWORD.equalsIgnoreCase(r.keyword));
+    }
+
+    private NovaTranslator(NovaTranslator base, boolean fastIO, int optimizations, boolean profiled,
+            BuildMetrics metrics, boolean lineMarked) {
+        this.rules = base.rules;
+        this.ruleIndex = base.ruleIndex;
+        this.fastIO = fastIO;
+        this.optimizations = optimizations;
+        this.profiled = profiled;
+        this.metrics = metrics;
+        this.lineMarked = lineMarked;
+        this.parallelFor = base.parallelFor;
+    }
+
+    // A translator with the same rules that generates fast I/O code, or standard code
+    NovaTranslator fastIO(boolean on) {
+        return on == fastIO ? this : new NovaTranslator(this, on, optimizations, profiled, metrics, lineMarked);
+    }
+
+    boolean isFastIO() {
+        return fastIO;
+    }
+
+    // A translator with the same rules and I/O mode that applies the given
+    // NovaOptimizer passes, a mask of its constants; 0 for none
+    NovaTranslator optimized(int passes) {
+        return passes == optimizations ? this : new NovaTranslator(this, fastIO, passes, profiled, metrics, lineMarked);
+    }
+
+    int optimizations() {
+        return optimizations;
+    }
+
+    // A translator with the same rules and modes whose programs profile themselves
+    NovaTranslator profiled(boolean on) {
+        return on == profiled ? this : new NovaTranslator(this, fastIO, optimizations, on, metrics, lineMarked);
+    }
+
+    boolean isProfiled() {
+        return profiled;
+    }
+
+    // A translator with the same rules and modes that counts into metrics; null for
+    // one that does not count
+    NovaTranslator measured(BuildMetrics metrics) {
+        return metrics == this.metrics ? this : new NovaTranslator(this, fastIO, optimizations, profiled, metrics, lineMarked);
+    }
+
+    // A translator with the same rules and modes that ends every line it generates for
+    // a pseudo line with a LINE_MARK comment giving that line's number, so that javac's
+    // diagnostics can be traced back to the pseudo source; see markedLine()
+    NovaTranslator lineMarked(boolean on) {
+        return on == lineMarked ? this : new NovaTranslator(this, fastIO, optimizations, profiled, metrics, on);
+    }
+
+    static final String LINE_MARK = " //@";
+
+    // The pseudo line a line of lineMarked() Java was generated for, or -1 if it has no mark
+    static int markedLine(String javaLine) {
+        int at = javaLine.lastIndexOf(LINE_MARK);
+        if (at < 0 || at + LINE_MARK.length() == javaLine.length())
+            return -1;
+        int line = 0;
+        for (int i = at + LINE_MARK.length(); i < javaLine.length(); i++) {
+            char c = javaLine.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            line = line * 10 + (c - '0');
+        }
+        return line;
+    }
+
+    static NovaTranslator load(String jsonFile) throws IOException {
+        String jsonStr = new String(Files.readAllBytes(Paths.get(jsonFile)));
+        Gson gson = new Gson();
+        Rule[] arr = gson.fromJson(jsonStr, Rule[].class);
+        return new NovaTranslator(Arrays.asList(arr));
+    }
+
+    List<Rule> getRules() {
+        return rules;
+    }
+
+    // In-memory translation, e.g. for the editor
+    Translation translate(List<String> lines) {
+        return translate(PseudoSource.of(lines), NovaParser.AUTO);
+    }
+
+    Translation translate(PseudoSource in) throws IOException {
+        JavaSink.Memory sink = new JavaSink.Memory();
+        String mainClass = translate(in, sink, NovaParser.AUTO);
+        return new Translation(mainClass, sink.sources(), metrics);
+    }
+
+    // Streams the translation of in to sink in one pass over the input and returns
+    // the main class name. Procedural output is written as the lines are read; a
+    // program that turns out to be object oriented is discarded from the sink and
+    // read again from the start.
+    String translate(PseudoSource in, JavaSink sink) throws IOException {
+        return translate(in, sink, NovaParser.AUTO);
+    }
+
+    Translation convertProcedural(List<String> lines) {
+        return translate(PseudoSource.of(lines), NovaParser.PROCEDURAL);
+    }
+
+    Translation convertOOP(List<String> lines) {
+        return translate(PseudoSource.of(lines), NovaParser.OOP);
+    }
+
+    // The syntax tree of a program
+    NovaAst.Program parse(List<String> lines) {
+        try {
+            return new NovaParser(ruleIndex, PseudoSource.of(lines), NovaParser.AUTO).parse();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // a list source cannot fail
+        }
+    }
+
+    NovaParser parser(PseudoSource in) {
+        return new NovaParser(ruleIndex, in, NovaParser.AUTO);
+    }
+
+    // A parser that is handed one line at a time, see NovaParser.line()
+    NovaParser lineParser(boolean objectOriented) {
+        return new NovaParser(ruleIndex, objectOriented);
+    }
+
+    private Translation translate(PseudoSource in, int mode) {
+        try {
+            JavaSink.Memory sink = new JavaSink.Memory();
+            String mainClass = translate(in, sink, mode);
+            return new Translation(mainClass, sink.sources(), metrics);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // only a spill file can fail here
+        }
+    }
+
+    boolean hasOOPStructure(List<String> lines) {
+        for (String line : lines)
+            if (NovaParser.isOOPMarker(line))
+                return true;
+        return false;
+    }
+
+    // Nodes in the order NovaParser.next() returns them, null at the end
+    interface Nodes {
+        NovaAst.Node next() throws IOException;
+    }
+
+    // Code for nodes that were parsed elsewhere, e.g. kept line by line by
+    // LiveTranslation. They must not contain a Restart.
+    Translation generate(boolean objectOriented, Nodes nodes) throws IOException {
+        JavaSink.Memory sink = new JavaSink.Memory();
+        String mainClass = "Main";
+        Needs needs = new Needs();
+        nodes = rewrite(nodes, needs);
+        if (!objectOriented)
+            convertProcedural(nodes, sink);
+        else
+            mainClass = convertOOP(nodes, sink);
+        writeRuntime(sink, needs);
+        count(needs);
+        return new Translation(mainClass, sink.sources(), metrics);
+    }
+
+    private String translate(PseudoSource in, JavaSink sink, int mode) throws IOException {
+        NovaParser parser = new NovaParser(ruleIndex, in, mode);
+        String mainClass = null;
+        Needs needs = new Needs();
+        if (!parser.objectOriented()) {
+            if (convertProcedural(rewrite(parser::next, needs), sink)) {
+                mainClass = "Main";
+            } else {
+                sink.reset();
+                needs = new Needs();
+            }
+        }
+        if (mainClass == null)
+            mainClass = convertOOP(rewrite(parser::next, needs), sink);
+        writeRuntime(sink, needs);
+        count(needs);
+        return mainClass;
+    }
+
+    // What a program needs besides its own classes: the NovaRuntime classes its rules
+    // use, and for profiling, its last line
+    private static final class Needs {
+        final Set<String> runtime = new LinkedHashSet<>();
+        int lastLine;
+        // for a measured translator: statements per rule keyword, and rule index lookups
+        final Map<String, Long> rules = new HashMap<>();
+        long indexed, unindexed;
+    }
+
+    // The nodes as code generation gets them: parallel loops lowered, then optimized.
+    // What the parsed nodes need is added to needs.
+    private Nodes rewrite(Nodes parsed, Needs needs) {
+        Nodes nodes = () -> {
+            NovaAst.Node node = parsed.next();
+            if (node != null)
+                needs.lastLine = Math.max(needs.lastLine, node.line);
+            if (metrics != null && node instanceof NovaAst.Statement) {
+                NovaAst.Statement s = (NovaAst.Statement) node;
+                String keyword = s.kind == NovaAst.Statement.RULE ? s.rule.keyword
+                        : s.kind == NovaAst.Statement.INPUT ? "(input)"
+                        : s.kind == NovaAst.Statement.PRINT ? "(print)" : "(java)";
+                needs.rules.merge(keyword, 1L, Long::sum);
+                if (ruleIndex.indexed(s.text))
+                    needs.indexed++;
+                else
+                    needs.unindexed++;
+            }
+            if (node instanceof NovaAst.Statement && ((NovaAst.Statement) node).rule != null
+                    && ((NovaAst.Statement) node).rule.runtime != null)
+                needs.runtime.addAll(((NovaAst.Statement) node).rule.runtime);
+            return node;
+        };
+        if (parallelFor)
+            nodes = new NovaParallel(this, nodes);
+        return optimizations == 0 ? nodes : new NovaOptimizer(this, optimizations, nodes);
+    }
+
+    // The classes a program needs besides its own
+    private void writeRuntime(JavaSink sink, Needs needs) throws IOException {
+        if (fastIO)
+            try (Writer out = sink.open("FastIO")) {
+                out.write(FAST_IO);
+            }
+        if (profiled)
+            try (Writer out = sink.open("NovaProfile")) {
+                out.write(NovaRuntime.profiler(needs.lastLine));
+            }
+        for (String name : needs.runtime) {
+            String source = NovaRuntime.source(name);
+            if (source != null)
+                try (Writer out = sink.open(name)) {
+                    out.write(source);
+                }
+        }
+    }
+
+    // Hands what a finished translation counted to metrics
+    private void count(Needs needs) {
+        if (metrics == null)
+            return;
+        needs.rules.forEach(metrics::rule);
+        metrics.cache("rule index", needs.indexed, needs.unindexed);
+    }
+
+    // The start of main up to its first statement, which is indented by bodyIndent()
+    private void openMain(Appendable out) throws IOException {
+        out.append("    public static void main(String[] args) {\n");
+        if (fastIO)
+            out.append("        FastIO sc = new FastIO(System.in);\n");
+        else
+            out.append("        Scanner sc = new Scanner(System.in);\n");
+        if (profiled)
+            out.append("        NovaProfile.start();\n");
+        if (fastIO || profiled)
+            out.append("        try {\n");
+    }
+
+    private void closeMain(Appendable out) throws IOException {
+        if (fastIO || profiled) {
+            out.append("        } finally {\n");
+            if (fastIO)
+                out.append("            FastIO.out.flush();\n");
+            if (profiled)
+                out.append("            NovaProfile.stop();\n");
+            out.append("        }\n");
+        }
+        out.append("    }\n");
+    }
+
+    private String bodyIndent() {
+        return fastIO || profiled ? "            " : "        ";
+    }
+
+    // Writes class Main; false if the nodes ran into a Restart, which leaves the class
+    // unfinished
+    private boolean convertProcedural(Nodes nodes, JavaSink sink) throws IOException {
+        boolean restarted = false;
+        StringBuilder java = new StringBuilder(128);
+        try (Writer out = sink.open("Main")) {
+            out.write("import java.util.*;\n");
+            out.write("public class Main {\n");
+            openMain(out);
+            String indent = bodyIndent();
+            NovaAst.Node node;
+            while ((node = nodes.next()) != null) {
+                if (node instanceof NovaAst.Restart) {
+                    restarted = true;
+                    break;
+                }
+                java.setLength(0);
+                java.append(indent);
+                emit((NovaAst.Statement) node, java);
+                // a translation of several lines is indented like the first
+                for (int at = java.indexOf("\n", indent.length()); at >= 0; at = java.indexOf("\n", at + 1))
+                    java.insert(at + 1, indent);
+                java.append('\n');
+                out.append(java);
+            }
+            if (!restarted) {
+                closeMain(out);
+                out.write("}");
+            }
+        }
+        return !restarted;
+    }
+
+    // One class of an object-oriented program. Classes may be reopened further down
+    // the input, so each is collected until the end; method and main bodies are
+    // kept in SpillBuffers, already indented as they will be written.
+    static class ClassDef implements Closeable {
+        String name;
+        String parent; // nullable
+        int line; // where the class is first declared, 0 if implicit
+        Set<String> fields = new LinkedHashSet<>();
+        Map<String, Integer> fieldLines = new HashMap<>(); // where each field is first declared
+        SpillBuffer methods = new SpillBuffer();
+        SpillBuffer mainBody = new SpillBuffer(); // for statements that go into this class's main, if any
+        boolean hasMain;
+
+        ClassDef(String name, String parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        void writeSource(Writer sb, boolean includeImports, NovaTranslator translator) throws IOException {
+            if (includeImports) {
+                sb.append("import java.util.*;\n\n");
+            }
+
+            // public for main class only when appropriate; safe to keep package-private
+            // except one main class if needed
+            sb.append("public class ").append(name);
+            if (parent != null && !parent.isEmpty())
+                sb.append(" extends ").append(parent);
+            sb.append(" {");
+            if (translator.lineMarked && line > 0)
+                sb.append(LINE_MARK).append(Integer.toString(line));
+            sb.append("\n\n");
+
+            // fields
+            for (String f : fields) {
+                sb.append("    ").append(f);
+                if (translator.lineMarked)
+                    sb.append(LINE_MARK).append(Integer.toString(fieldLines.get(f)));
+                sb.append("\n");
+            }
+            if (!fields.isEmpty())
+                sb.append("\n");
+
+            // methods
+            methods.writeTo(sb);
+
+            // main (if has content)
+            if (hasMain) {
+                translator.openMain(sb);
+                mainBody.writeTo(sb);
+                translator.closeMain(sb);
+            }
+
+            sb.append("}\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            methods.close();
+            mainBody.close();
+        }
+    }
+
+    private String convertOOP(Nodes nodes, JavaSink sink) throws IOException {
+
+        // Map classname -> ClassDef
+        Map<String, ClassDef> classes = new LinkedHashMap<>();
+        ClassDef active = null;
+        boolean inMethod = false;
+        String currentMethodSignature = null;
+        SpillBuffer currentMethodBody = new SpillBuffer();
+        StringBuilder converted = new StringBuilder(128);
+        String mainIndent = bodyIndent();
+
+        try {
+            NovaAst.Node node;
+            while ((node = nodes.next()) != null) {
+                if (node instanceof NovaAst.ClassDecl) {
+                    // start new active class, or reopen it; Main may be implicit
+                    NovaAst.ClassDecl c = (NovaAst.ClassDecl) node;
+                    active = classes.get(c.name);
+                    if (active == null) {
+                        active = new ClassDef(c.name, c.parent);
+                        active.line = c.implicit ? 0 : c.line;
+                        classes.put(c.name, active);
+                    } else {
+                        // update parent if previously unknown
+                        if ((active.parent == null || active.parent.isEmpty()) && c.parent != null)
+                            active.parent = c.parent;
+                    }
+                    // reset method state
+                    inMethod = false;
+                    currentMethodSignature = null;
+                    currentMethodBody.clear();
+                } else if (node instanceof NovaAst.MethodDecl) {
+                    inMethod = true;
+                    currentMethodBody.clear();
+                    currentMethodSignature = ((NovaAst.MethodDecl) node).signature;
+                    if (lineMarked)
+                        currentMethodSignature += " {" + LINE_MARK + node.line;
+                } else if (node instanceof NovaAst.EndMethod) {
+                    // close method: signature + body + closing brace, then a blank line
+                    active.methods.append("    ").append(currentMethodSignature).append(lineMarked ? "\n" : " {\n");
+                    currentMethodBody.writeTo(active.methods);
+                    active.methods.append("        }\n\n");
+                    inMethod = false;
+                    currentMethodBody.clear();
+                    currentMethodSignature = null;
+                } else if (node instanceof NovaAst.FieldDecl) {
+                    active.fields.add(((NovaAst.FieldDecl) node).declaration);
+                    active.fieldLines.putIfAbsent(((NovaAst.FieldDecl) node).declaration, node.line);
+                } else if (inMethod) {
+                    converted.setLength(0);
+                    emit((NovaAst.Statement) node, converted);
+                    // method lines sit 12 deep; a multi-line translation is indented by 4
+                    currentMethodBody.append("            ");
+                    appendIndented(currentMethodBody, converted);
+                    currentMethodBody.append('\n');
+                } else {
+                    // class-level main body (statements that should go into main);
+                    // blank lines of the translation are dropped
+                    active.hasMain = true;
+                    converted.setLength(0);
+                    emit((NovaAst.Statement) node, converted);
+                    int start = 0;
+                    while (start <= converted.length()) {
+                        int end = converted.indexOf("\n", start);
+                        if (end < 0)
+                            end = converted.length();
+                        int stop = end > start && converted.charAt(end - 1) == '\r' ? end - 1 : end;
+                        if (!isBlank(converted, start, stop))
+                            active.mainBody.append(mainIndent).append(converted, start, stop).append('\n');
+                        start = end + 1;
+                    }
+                }
+            }
+
+            // Main if it exists, else the first class; it is the one that gets the imports
+            String mainClassName = "Main";
+            if (!classes.containsKey("Main") && !classes.isEmpty())
+                mainClassName = classes.keySet().iterator().next();
+
+            // Write each class's source once
+            for (Map.Entry<String, ClassDef> e : classes.entrySet())
+                try (Writer out = sink.open(e.getKey())) {
+                    e.getValue().writeSource(out, e.getKey().equals(mainClassName), this);
+                }
+            return mainClassName;
+        } finally {
+            currentMethodBody.close();
+            for (ClassDef c : classes.values())
+                c.close();
+        }
+    }
+
+    private static void appendIndented(Appendable out, CharSequence text) throws IOException {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++)
+            if (text.charAt(i) == '\n') {
+                out.append(text, start, i + 1).append("    ");
+                start = i + 1;
+            }
+        out.append(text, start, text.length());
+    }
+
+    private static boolean isBlank(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++)
+            if (s.charAt(i) > ' ')
+                return false;
+        return true;
+    }
+
+    // One line outside any program
+    void convertLine(String line, StringBuilder out) {
+        emit(NovaParser.statement(ruleIndex, line, 1, 1), out);
+    }
+
+    void emit(NovaAst.Statement s, StringBuilder out) {
+        int from = out.length();
+        emitStatement(s, out);
+        if (fastIO)
+            bufferOutput(out, from);
+        if (profiled && countable(out, from))
+            out.insert(from, "NovaProfile.at(" + s.line + "); ");
+        if (lineMarked)
+            markLines(out, from, s.line);
+    }
+
+    // Ends each line from from on with the mark of pseudo line line
+    private static void markLines(StringBuilder java, int from, int line) {
+        String mark = LINE_MARK + line;
+        for (int at = java.indexOf("\n", from); at >= 0; at = java.indexOf("\n", at + mark.length() + 1)) {
+            int end = at > from && java.charAt(at - 1) == '\r' ? at - 1 : at;
+            java.insert(end, mark);
+        }
+        java.append(mark);
+    }
+
+    // Whether a statement can start with a call: not one that continues a block or a
+    // constructor call, which must come first
+    private static boolean countable(StringBuilder java, int from) {
+        int i = from;
+        while (i < java.length() && java.charAt(i) <= ' ')
+            i++;
+        if (i == java.length())
+            return false;
+        String start = java.substring(i, Math.min(java.length(), i + 8));
+        return java.charAt(i) != '}' && java.charAt(i) != '@' && !start.startsWith("super(")
+                && !start.startsWith("this(") && !start.matches("(else|catch|finally|case|default)\\b.*");
+    }
+
+    // The Java for s, as written before fast I/O changes it
+    String java(NovaAst.Statement s) {
+        StringBuilder out = new StringBuilder();
+        emitStatement(s, out);
+        return out.toString();
+    }
+
+    private void emitStatement(NovaAst.Statement s, StringBuilder out) {
+        String line = s.text;
+        switch (s.kind) {
+            case NovaAst.Statement.RULE:
+                s.rule.emit(s, out);
+                return;
+            case NovaAst.Statement.INPUT: {
+                String[] parts = NovaLexer.words(line);
+                if (parts.length >= 3) {
+                    String type = parts[1].toLowerCase(), var = parts[2];
+                    if (type.equals("int") || type.equals("double") || type.equals("boolean")) {
+                        out.append(type).append(' ').append(var).append(" = sc.next")
+                                .append(Character.toUpperCase(type.charAt(0))).append(type, 1, type.length())
+                                .append("();");
+                    } else if (type.equals("string")) {
+                        out.append("String ").append(var).append(" = sc.nextLine();");
+                    } else
+                        out.append("// ERROR: Unsupported input type: ").append(type);
+                } else
+                    out.append("// ERROR: Invalid input statement: ").append(line);
+                return;
+            }
+            case NovaAst.Statement.PRINT:
+                out.append("System.out.println");
+                if (s.start(1) < line.length() && line.charAt(s.start(1)) == '(')
+                    out.append(line, s.start(1), line.length());
+                else
+                    out.append('(').append(line, s.start(1), line.length()).append(')');
+                out.append(';');
+                return;
+            default:
+                out.append(line);
+                if (needsSemicolon(line))
+                    out.append(';');
+        }
+    }
+
+    // Points System.out outside string and char literals from index from on at FastIO.out
+    private static void bufferOutput(StringBuilder out, int from) {
+        char quote = 0;
+        for (int i = from; i < out.length(); i++) {
+            char c = out.charAt(i);
+            if (quote != 0) {
+                if (c == '\\')
+                    i++;
+                else if (c == quote)
+                    quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == 'S' && startsAt(out, i, "System.out.")
+                    && (i == 0 || !Character.isJavaIdentifierPart(out.charAt(i - 1)) && out.charAt(i - 1) != '.')) {
+                out.replace(i, i + "System".length(), "FastIO");
+                i += "FastIO.out".length();
+            }
+        }
+    }
+
+    private static boolean startsAt(CharSequence s, int i, String prefix) {
+        if (i + prefix.length() > s.length())
+            return false;
+        for (int j = 0; j < prefix.length(); j++)
+            if (s.charAt(i + j) != prefix.charAt(j))
+                return false;
+        return true;
+    }
+
+    // Regex ".*[^;{}]$": a last character other than ; { or }, and no line break before it
+    private static boolean needsSemicolon(String line) {
+        int n = line.length();
+        if (n == 0 || ";{}".indexOf(line.charAt(n - 1)) >= 0)
+            return false;
+        for (int i = 0; i < n - 1; i++)
+            if (NovaLexer.isLineTerminator(line.charAt(i)))
+                return false;
+        return true;
+    }
+
+    // Source of the class a fast I/O program reads and prints through
+    private static final String FAST_IO = """
+            import java.io.*;
+            import java.nio.charset.Charset;
+            import java.text.DecimalFormatSymbols;
+            import java.util.*;
+            import java.util.regex.Pattern;
+
+            // Console I/O for a program translated in fast I/O mode. Everything printed goes to
+            // out, which is flushed when main ends, when the JVM exits (System.exit skips main's
+            // finally) and whenever the program waits for input, so prompts still show. A run
+            // inside the IDE has a class loader of its own and never exits. sc reads whitespace-separated tokens and lines straight from
+            // the bytes of System.in. Like Scanner, the next methods skip the whitespace before
+            // a token even when it does not fit, and then leave it unread; hasNext and the like
+            // consume nothing.
+            final class FastIO {
+                static final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+
+                static {
+                    if (FastIO.class.getClassLoader() == ClassLoader.getSystemClassLoader())
+                        Runtime.getRuntime().addShutdownHook(new Thread(out::flush));
+                }
+
+                private static final Charset CHARSET = Charset.defaultCharset();
+                private static final DecimalFormatSymbols SYMBOLS =
+                        DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+                // What Scanner takes as a double: a decimal number with the locale's group and
+                // decimal separators, a hex float, NaN or Infinity
+                private static final Pattern DECIMAL = Pattern.compile(decimalSyntax());
+                private final InputStream in;
+                private byte[] buf = new byte[1 << 16];
+                private int pos, len;
+                private int start, end; // of the token token() found, relative to pos
+
+                FastIO(InputStream in) {
+                    this.in = in;
+                }
+
+                public String next() {
+                    need();
+                    String s = new String(buf, pos + start, end - start, CHARSET);
+                    pos += end;
+                    return s;
+                }
+
+                public int nextInt() {
+                    need();
+                    int v = (int) integer(Integer.MIN_VALUE, Integer.MAX_VALUE);
+                    pos += end;
+                    return v;
+                }
+
+                public long nextLong() {
+                    need();
+                    long v = integer(Long.MIN_VALUE, Long.MAX_VALUE);
+                    pos += end;
+                    return v;
+                }
+
+                public double nextDouble() {
+                    need();
+                    double v = decimal();
+                    pos += end;
+                    return v;
+                }
+
+                public boolean nextBoolean() {
+                    need();
+                    boolean v = bool();
+                    pos += end;
+                    return v;
+                }
+
+                public String nextLine() {
+                    int i = 0, c;
+                    while ((c = peek(i)) >= 0 && c != '\\n')
+                        i++;
+                    if (c < 0 && i == 0)
+                        throw new NoSuchElementException("No line found");
+                    int n = i > 0 && buf[pos + i - 1] == '\\r' ? i - 1 : i;
+                    String s = new String(buf, pos, n, CHARSET);
+                    pos += c < 0 ? i : i + 1;
+                    return s;
+                }
+
+                public boolean hasNext() {
+                    return token();
+                }
+
+                public boolean hasNextInt() {
+                    return fits(() -> integer(Integer.MIN_VALUE, Integer.MAX_VALUE));
+                }
+
+                public boolean hasNextLong() {
+                    return fits(() -> integer(Long.MIN_VALUE, Long.MAX_VALUE));
+                }
+
+                public boolean hasNextDouble() {
+                    return fits(this::decimal);
+                }
+
+                public boolean hasNextBoolean() {
+                    return fits(this::bool);
+                }
+
+                public boolean hasNextLine() {
+                    return peek(0) >= 0;
+                }
+
+                public void close() {
+                    out.flush();
+                }
+
+                private boolean fits(Runnable parse) {
+                    if (!token())
+                        return false;
+                    try {
+                        parse.run();
+                        return true;
+                    } catch (InputMismatchException ex) {
+                        return false;
+                    }
+                }
+
+                // Skips to the next token, which must exist
+                private void need() {
+                    boolean found = token();
+                    pos += start;
+                    end -= start;
+                    start = 0;
+                    if (!found)
+                        throw new NoSuchElementException();
+                }
+
+                // Finds the next token, if any, without consuming anything; start is where it
+                // starts or the input ends
+                private boolean token() {
+                    int i = 0, c;
+                    while ((c = peek(i)) >= 0 && space(c))
+                        i++;
+                    start = i;
+                    if (c < 0)
+                        return false;
+                    while ((c = peek(i)) >= 0 && !space(c))
+                        i++;
+                    end = i;
+                    return true;
+                }
+
+                private static boolean space(int c) {
+                    return c <= ' ' && Character.isWhitespace(c);
+                }
+
+                // The token as a whole number between min and max, accumulated negatively so
+                // that min itself fits
+                private long integer(long min, long max) {
+                    int i = pos + start, e = pos + end;
+                    boolean negative = buf[i] == '-';
+                    if (negative || buf[i] == '+')
+                        i++;
+                    if (i == e)
+                        throw new InputMismatchException();
+                    long limit = negative ? min : -max, v = 0;
+                    for (; i < e; i++) {
+                        int d = buf[i] - '0';
+                        if (d < 0 || d > 9 || v < limit / 10 || v * 10 < limit + d)
+                            throw new InputMismatchException();
+                        v = v * 10 - d;
+                    }
+                    return negative ? v : -v;
+                }
+
+                private static String decimalSyntax() {
+                    String group = Pattern.quote(String.valueOf(SYMBOLS.getGroupingSeparator()));
+                    String point = Pattern.quote(String.valueOf(SYMBOLS.getDecimalSeparator()));
+                    String numeral = "([1-9][0-9]?[0-9]?(" + group + "[0-9][0-9][0-9])+|[0-9]+)";
+                    return "[-+]?(" + numeral + "(" + point + "[0-9]*)?|" + point + "[0-9]+)([eE][-+]?[0-9]+)?"
+                            + "|[-+]?0[xX][0-9a-fA-F]*[.][0-9a-fA-F]+[pP][-+]?[0-9]+"
+                            + "|[-+]?(NaN|Infinity|" + Pattern.quote(SYMBOLS.getNaN()) + "|"
+                            + Pattern.quote(SYMBOLS.getInfinity()) + ")";
+                }
+
+                // The token as a double if Scanner would take it as one
+                private double decimal() {
+                    String s = new String(buf, pos + start, end - start, CHARSET);
+                    if (!DECIMAL.matcher(s).matches())
+                        throw new InputMismatchException();
+                    if (s.indexOf('x') < 0 && s.indexOf('X') < 0) // in the form parseDouble takes
+                        s = s.replace(String.valueOf(SYMBOLS.getGroupingSeparator()), "")
+                                .replace(SYMBOLS.getDecimalSeparator(), '.')
+                                .replace(SYMBOLS.getNaN(), "NaN").replace(SYMBOLS.getInfinity(), "Infinity");
+                    try {
+                        return Double.parseDouble(s);
+                    } catch (NumberFormatException ex) {
+                        throw new InputMismatchException();
+                    }
+                }
+
+                private boolean bool() {
+                    String s = new String(buf, pos + start, end - start, CHARSET);
+                    if (s.equalsIgnoreCase("true"))
+                        return true;
+                    if (s.equalsIgnoreCase("false"))
+                        return false;
+                    throw new InputMismatchException();
+                }
+
+                // The byte i places ahead, reading more input when needed; -1 past the end
+                private int peek(int i) {
+                    while (pos + i >= len)
+                        if (!fill())
+                            return -1;
+                    return buf[pos + i] & 0xFF;
+                }
+
+                private boolean fill() {
+                    out.flush(); // the program is about to wait for input
+                    if (pos > 0) {
+                        System.arraycopy(buf, pos, buf, 0, len - pos);
+                        len -= pos;
+                        pos = 0;
+                    }
+                    if (len == buf.length)
+                        buf = Arrays.copyOf(buf, len * 2);
+                    int n;
+                    try {
+                        n = in.read(buf, len, buf.length - len);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    if (n <= 0)
+                        return false;
+                    len += n;
+                    return true;
+                }
+            }
+            """;
+}
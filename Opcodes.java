@@ -0,0 +1,31 @@
+// The JVM instructions, access flags and array types ClassFileWriter knows; a class
+// that generates code implements this to use them by their names
+interface Opcodes {
+    int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008, ACC_SUPER = 0x0020;
+
+    int ACONST_NULL = 1, ICONST_M1 = 2, ICONST_0 = 3, ICONST_1 = 4, LCONST_0 = 9, DCONST_0 = 14,
+            BIPUSH = 16, SIPUSH = 17, LDC = 18, LDC_W = 19, LDC2_W = 20,
+            ILOAD = 21, LLOAD = 22, DLOAD = 24, ALOAD = 25,
+            IALOAD = 46, LALOAD = 47, DALOAD = 49, AALOAD = 50, BALOAD = 51, CALOAD = 52,
+            ISTORE = 54, LSTORE = 55, DSTORE = 57, ASTORE = 58,
+            IASTORE = 79, LASTORE = 80, DASTORE = 82, AASTORE = 83, BASTORE = 84, CASTORE = 85,
+            POP = 87, POP2 = 88, DUP = 89, DUP_X1 = 90, DUP_X2 = 91, DUP2 = 92, DUP2_X1 = 93, DUP2_X2 = 94,
+            SWAP = 95,
+            IADD = 96, LADD = 97, DADD = 99, ISUB = 100, LSUB = 101, DSUB = 103, IMUL = 104, LMUL = 105,
+            DMUL = 107, IDIV = 108, LDIV = 109, DDIV = 111, IREM = 112, LREM = 113, DREM = 115,
+            INEG = 116, LNEG = 117, DNEG = 119, ISHL = 120, LSHL = 121, ISHR = 122, LSHR = 123, IUSHR = 124,
+            LUSHR = 125, IAND = 126, LAND = 127, IOR = 128, LOR = 129, IXOR = 130, LXOR = 131, IINC = 132,
+            I2L = 133, I2D = 135, L2I = 136, L2D = 138, D2I = 142, D2L = 143, I2C = 146,
+            LCMP = 148, DCMPL = 151, DCMPG = 152,
+            IFEQ = 153, IFNE = 154, IFLT = 155, IFGE = 156, IFGT = 157, IFLE = 158,
+            IF_ICMPEQ = 159, IF_ICMPNE = 160, IF_ICMPLT = 161, IF_ICMPGE = 162, IF_ICMPGT = 163,
+            IF_ICMPLE = 164, IF_ACMPEQ = 165, IF_ACMPNE = 166, GOTO = 167,
+            IRETURN = 172, LRETURN = 173, DRETURN = 175, ARETURN = 176, RETURN = 177,
+            GETSTATIC = 178, GETFIELD = 180, PUTFIELD = 181,
+            INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184,
+            NEW = 187, NEWARRAY = 188, ANEWARRAY = 189, ARRAYLENGTH = 190, ATHROW = 191, CHECKCAST = 192,
+            INSTANCEOF = 193, MULTIANEWARRAY = 197, IFNULL = 198, IFNONNULL = 199;
+
+    // NEWARRAY element types
+    int T_BOOLEAN = 4, T_CHAR = 5, T_DOUBLE = 7, T_INT = 10, T_LONG = 11;
+}
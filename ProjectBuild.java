@@ -0,0 +1,428 @@
+import com.google.gson.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+import java.util.stream.*;
+
+// Incremental build of a project: a directory whose .txt pseudo files together make
+// one object-oriented program, e.g. a file per class and main.txt for Main. Every
+// file is translated on its own (NovaTranslator.convertOOP), and the classes of all
+// of them are compiled against each other.
+//
+// The build keeps a graph of the project: which file defines which class, and for
+// each class its parent and the other project classes its Java names. A rebuild
+// translates again only the files whose text has changed, and compiles only the
+// classes whose Java has changed or that did not compile last time, together with
+// everything that depends on them, directly or not. The other classes keep their
+// bytes from the last build, which javac gets as a class path. The classes to
+// compile fall apart into the connected components of the graph; each component is
+// one javac run, and the components compile side by side, each thread on a javac
+// session of its own.
+//
+// With a state directory, the graph (project.json), the .java files and the class
+// files are kept there, so the next build starts from them even in a new JVM.
+final class ProjectBuild implements Closeable {
+    static final String STATE_FILE = "project.json";
+
+    private static final Pattern PARENT = Pattern.compile("(?m)^public class \\w+ extends (\\w+)");
+
+    // What one build did
+    static final class Report {
+        final int files, translated; // pseudo files, and those translated again
+        final List<String> compiled; // the classes compiled this time, in name order
+        final int reused; // classes whose bytes were kept
+        final int components; // javac runs
+        final List<String> problems; // e.g. a class that two files define
+        final NovaCompiler.Result result; // every class of the project, with the diagnostics of this build
+        final Map<String, String> sources; // class -> Java, of every class
+        final String mainClass; // null if no file has Main
+        final long millis;
+
+        Report(int files, int translated, List<String> compiled, int reused, int components, List<String> problems,
+                NovaCompiler.Result result, Map<String, String> sources, String mainClass, long millis) {
+            this.files = files;
+            this.translated = translated;
+            this.compiled = compiled;
+            this.reused = reused;
+            this.components = components;
+            this.problems = problems;
+            this.result = result;
+            this.sources = sources;
+            this.mainClass = mainClass;
+            this.millis = millis;
+        }
+
+        // Every class compiled, now or before, and no file in another's way
+        boolean success() {
+            return result.success && problems.isEmpty();
+        }
+
+        // e.g. "4 files, 1 translated; 4 classes, 2 compiled in 1 component, 2 reused; 38 ms"
+        String summary() {
+            return String.format("%d %s, %d translated; %d %s, %d compiled in %d %s, %d reused; %d ms", files,
+                    files == 1 ? "file" : "files", translated, sources.size(),
+                    sources.size() == 1 ? "class" : "classes", compiled.size(), components,
+                    components == 1 ? "component" : "components", reused, millis);
+        }
+    }
+
+    // A pseudo file as last translated
+    private static final class FileState {
+        String hash; // of the text
+        Map<String, String> classes = new LinkedHashMap<>(); // name -> Java
+    }
+
+    // A class of the project and its edges
+    private static final class ClassState {
+        String file; // the first file that defines it
+        String parent; // null if none
+        List<String> uses = new ArrayList<>(); // the other project classes its Java names
+        boolean compiled; // its bytes are from the last build
+    }
+
+    // The graph as project.json holds it; files are named by their path below the project
+    private static final class State {
+        String mode; // of the translator; another mode translates everything again
+        Map<String, FileState> files = new TreeMap<>();
+        Map<String, ClassState> classes = new TreeMap<>();
+    }
+
+    private final NovaTranslator translator;
+    private final Path root;
+    private final Path stateDir; // null: kept in memory only
+    private final String mode;
+    private final ExecutorService pool;
+    // javac sessions are not thread-safe; each pool thread keeps its own
+    private final List<NovaCompiler> sessions = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<NovaCompiler> compilers = ThreadLocal.withInitial(() -> {
+        NovaCompiler c = new NovaCompiler();
+        sessions.add(c);
+        return c;
+    });
+    private State state = new State();
+    private final Map<String, byte[]> bytes = new HashMap<>(); // binary name -> class file, of the last build
+
+    ProjectBuild(NovaTranslator translator, Path root, Path stateDir, int threads) throws IOException {
+        this.translator = translator;
+        this.root = root.toAbsolutePath().normalize();
+        this.stateDir = stateDir == null ? null : stateDir.toAbsolutePath().normalize();
+        this.mode = mode(translator);
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "nova-project");
+            t.setDaemon(true);
+            return t;
+        });
+        if (this.stateDir != null)
+            load();
+    }
+
+    // What of the translator changes the generated code, besides the rules
+    static String mode(NovaTranslator translator) {
+        return "fastIO=" + translator.isFastIO() + " optimizations=" + translator.optimizations();
+    }
+
+    // Builds what changed since the last build. edited holds the text of files that
+    // differs from what is on disk, e.g. of an editor tab that is not saved.
+    synchronized Report build(Map<Path, String> edited) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Map<String, String> texts = new HashMap<>();
+        for (Map.Entry<Path, String> e : edited.entrySet())
+            texts.put(name(e.getKey().toAbsolutePath().normalize()), e.getValue());
+
+        // translate the files whose text has changed, side by side
+        State next = new State();
+        next.mode = mode;
+        Map<String, Future<Map<String, String>>> translating = new LinkedHashMap<>();
+        for (Path p : pseudoFiles()) {
+            String file = name(p);
+            String text = texts.containsKey(file) ? texts.get(file) : Files.readString(p);
+            FileState f = new FileState();
+            f.hash = hash(text);
+            FileState old = state.files.get(file);
+            if (old != null && old.hash.equals(f.hash))
+                f.classes = old.classes;
+            else
+                translating.put(file, pool.submit(() -> translator.convertOOP(lines(text)).sources));
+            next.files.put(file, f);
+        }
+        for (Map.Entry<String, Future<Map<String, String>>> e : translating.entrySet())
+            next.files.get(e.getKey()).classes = new LinkedHashMap<>(get(e.getValue()));
+
+        // which file defines which class; a bundled class that several files have is one
+        Map<String, String> sources = new TreeMap<>();
+        List<String> problems = new ArrayList<>();
+        for (Map.Entry<String, FileState> f : next.files.entrySet())
+            for (Map.Entry<String, String> c : f.getValue().classes.entrySet()) {
+                ClassState defined = next.classes.get(c.getKey());
+                if (defined == null) {
+                    defined = new ClassState();
+                    defined.file = f.getKey();
+                    next.classes.put(c.getKey(), defined);
+                    sources.put(c.getKey(), c.getValue());
+                } else if (!sources.get(c.getKey()).equals(c.getValue())) {
+                    problems.add("class " + c.getKey() + " is defined in both " + defined.file + " and "
+                            + f.getKey() + "; the one in " + f.getKey() + " is left out");
+                }
+            }
+
+        // the edges; a class that was there last time still counts, for what used it
+        Set<String> removed = new TreeSet<>(state.classes.keySet());
+        removed.removeAll(next.classes.keySet());
+        Set<String> names = new HashSet<>(next.classes.keySet());
+        names.addAll(removed);
+        boolean sameNames = removed.isEmpty() && state.classes.keySet().containsAll(next.classes.keySet());
+        Set<String> changed = new TreeSet<>(removed);
+        for (Map.Entry<String, ClassState> e : next.classes.entrySet()) {
+            String name = e.getKey(), source = sources.get(name);
+            ClassState c = e.getValue(), old = state.classes.get(name);
+            boolean same = old != null && source.equals(previousSource(name));
+            Matcher parent = PARENT.matcher(source);
+            c.parent = parent.find() ? parent.group(1) : null;
+            c.uses = same && sameNames ? old.uses : mentions(source, name, names);
+            c.compiled = same && old.compiled;
+            if (!c.compiled)
+                changed.add(name);
+        }
+
+        // what has to compile: the changed classes and whatever depends on them
+        Map<String, Set<String>> usedBy = new HashMap<>();
+        for (Map.Entry<String, ClassState> e : next.classes.entrySet())
+            for (String d : dependencies(e.getValue()))
+                usedBy.computeIfAbsent(d, k -> new HashSet<>()).add(e.getKey());
+        Set<String> dirty = new TreeSet<>();
+        Deque<String> work = new ArrayDeque<>(changed);
+        while (!work.isEmpty()) {
+            String name = work.pop();
+            if (next.classes.containsKey(name) && !dirty.add(name))
+                continue;
+            for (String user : usedBy.getOrDefault(name, Collections.emptySet()))
+                if (!dirty.contains(user))
+                    work.push(user);
+        }
+        for (String name : dirty)
+            next.classes.get(name).compiled = false;
+
+        // the bytes of the others are the class path
+        bytes.keySet().removeIf(binary -> !next.classes.containsKey(outer(binary)) || dirty.contains(outer(binary)));
+        Map<String, byte[]> classPath = Collections.unmodifiableMap(new HashMap<>(bytes));
+
+        // one javac run per component, side by side
+        List<List<String>> components = components(dirty, next.classes);
+        long compileStart = System.nanoTime();
+        List<Future<NovaCompiler.Result>> compiling = new ArrayList<>();
+        for (List<String> component : components) {
+            Map<String, String> unit = new LinkedHashMap<>();
+            for (String name : component)
+                unit.put(name, sources.get(name));
+            compiling.add(pool.submit(() -> compilers.get().compile(unit, classPath)));
+        }
+        List<javax.tools.Diagnostic<? extends javax.tools.JavaFileObject>> diagnostics = new ArrayList<>();
+        long allocated = 0;
+        for (int i = 0; i < components.size(); i++) {
+            NovaCompiler.Result r = get(compiling.get(i));
+            diagnostics.addAll(r.diagnostics);
+            allocated = r.allocatedBytes < 0 || allocated < 0 ? -1 : allocated + r.allocatedBytes;
+            if (!r.success)
+                continue;
+            bytes.putAll(r.classes);
+            for (String name : components.get(i))
+                next.classes.get(name).compiled = true;
+        }
+        long compileMillis = (System.nanoTime() - compileStart) / 1_000_000;
+
+        if (stateDir != null)
+            save(next, sources, dirty, removed);
+        state = next;
+        boolean compiled = next.classes.values().stream().allMatch(c -> c.compiled);
+        NovaCompiler.Result result = new NovaCompiler.Result(compiled, diagnostics, new TreeMap<>(bytes),
+                compileMillis, allocated);
+        return new Report(next.files.size(), translating.size(), new ArrayList<>(dirty),
+                next.classes.size() - dirty.size(), components.size(), problems, result, sources,
+                next.classes.containsKey("Main") ? "Main" : null, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // The Java the last build had for a class
+    private String previousSource(String name) {
+        ClassState old = state.classes.get(name);
+        return old == null ? null : state.files.get(old.file).classes.get(name);
+    }
+
+    private static Set<String> dependencies(ClassState c) {
+        Set<String> deps = new HashSet<>(c.uses);
+        if (c.parent != null)
+            deps.add(c.parent);
+        return deps;
+    }
+
+    // The classes of dirty that an edge connects, directly or not, each in name order
+    private static List<List<String>> components(Set<String> dirty, Map<String, ClassState> classes) {
+        Map<String, String> leader = new HashMap<>();
+        for (String name : dirty)
+            leader.put(name, name);
+        for (String name : dirty)
+            for (String d : dependencies(classes.get(name)))
+                if (dirty.contains(d))
+                    leader.put(find(leader, name), find(leader, d));
+        Map<String, List<String>> groups = new TreeMap<>();
+        for (String name : dirty)
+            groups.computeIfAbsent(find(leader, name), k -> new ArrayList<>()).add(name);
+        List<List<String>> found = new ArrayList<>(groups.values());
+        found.sort((a, b) -> b.size() - a.size()); // the biggest start first
+        return found;
+    }
+
+    private static String find(Map<String, String> leader, String name) {
+        while (!leader.get(name).equals(name)) {
+            leader.put(name, leader.get(leader.get(name)));
+            name = leader.get(name);
+        }
+        return name;
+    }
+
+    // The names other than self that the Java mentions outside strings and comments
+    private static List<String> mentions(String java, String self, Set<String> names) {
+        Set<String> found = new TreeSet<>();
+        int n = java.length();
+        for (int i = 0; i < n;) {
+            char c = java.charAt(i);
+            if (c == '"' || c == '\'') {
+                for (i++; i < n && java.charAt(i) != c; i++)
+                    if (java.charAt(i) == '\\')
+                        i++;
+                i++;
+            } else if (java.startsWith("//", i)) {
+                int end = java.indexOf('\n', i);
+                i = end < 0 ? n : end;
+            } else if (java.startsWith("/*", i)) {
+                int end = java.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int from = i;
+                while (i < n && Character.isJavaIdentifierPart(java.charAt(i)))
+                    i++;
+                String word = java.substring(from, i);
+                if (names.contains(word) && !word.equals(self))
+                    found.add(word);
+            } else {
+                i++;
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    // The class a binary name belongs to, e.g. Shape for Shape$1
+    private static String outer(String binary) {
+        int dollar = binary.indexOf('$');
+        return dollar < 0 ? binary : binary.substring(0, dollar);
+    }
+
+    private List<Path> pseudoFiles() throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".txt")
+                    && (stateDir == null || !p.startsWith(stateDir))).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private String name(Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static List<String> lines(String text) {
+        return new BufferedReader(new StringReader(text)).lines().collect(Collectors.toList());
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest)
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // every JVM has SHA-256
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private void load() throws IOException {
+        Path file = stateDir.resolve(STATE_FILE);
+        if (!Files.exists(file))
+            return;
+        State loaded;
+        try {
+            loaded = new Gson().fromJson(Files.readString(file), State.class);
+        } catch (JsonParseException ex) {
+            return; // built from scratch, and written again
+        }
+        if (loaded == null || !mode.equals(loaded.mode))
+            return;
+        for (Map.Entry<String, ClassState> e : loaded.classes.entrySet()) {
+            if (!e.getValue().compiled)
+                continue;
+            Map<String, byte[]> found = readClasses(e.getKey());
+            if (found.containsKey(e.getKey()))
+                bytes.putAll(found);
+            else
+                e.getValue().compiled = false;
+        }
+        state = loaded;
+    }
+
+    private Map<String, byte[]> readClasses(String name) throws IOException {
+        Map<String, byte[]> found = new HashMap<>();
+        for (Path p : classFiles(name)) {
+            String f = p.getFileName().toString();
+            found.put(f.substring(0, f.length() - ".class".length()), Files.readAllBytes(p));
+        }
+        return found;
+    }
+
+    // Name.class and its nested classes in the state directory
+    private List<Path> classFiles(String name) throws IOException {
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(stateDir, name + "{,$*}.class")) {
+            files.forEach(found::add);
+        }
+        return found;
+    }
+
+    private void save(State next, Map<String, String> sources, Set<String> dirty, Set<String> removed)
+            throws IOException {
+        Files.createDirectories(stateDir);
+        for (String name : removed)
+            Files.deleteIfExists(stateDir.resolve(name + ".java"));
+        Set<String> rewritten = new TreeSet<>(removed);
+        rewritten.addAll(dirty);
+        for (String name : rewritten)
+            for (Path p : classFiles(name))
+                Files.delete(p);
+        for (String name : dirty)
+            Files.write(stateDir.resolve(name + ".java"), sources.get(name).getBytes(StandardCharsets.UTF_8));
+        for (Map.Entry<String, byte[]> e : bytes.entrySet())
+            if (dirty.contains(outer(e.getKey())))
+                Files.write(stateDir.resolve(e.getKey() + ".class"), e.getValue());
+        Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+        Files.write(stateDir.resolve(STATE_FILE), gson.toJson(next).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Stops the build threads and their javac sessions
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        for (NovaCompiler c : sessions)
+            c.close();
+    }
+}
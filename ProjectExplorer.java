@@ -0,0 +1,228 @@
+import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.tree.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Project tree that only lists what the user opens. A directory's children are read
+// the first time it is expanded, with NIO on a background thread, and every listed
+// directory is then watched: files and folders created or deleted on disk are
+// inserted into or removed from the tree model one node at a time.
+class ProjectExplorer extends JTree {
+
+    // Directory node; its children exist once loaded, until then a placeholder
+    // child keeps the expand handle visible
+    private static class DirNode extends DefaultMutableTreeNode {
+        boolean loading, loaded;
+        WatchKey key;
+
+        DirNode(File dir) {
+            super(dir);
+            add(new DefaultMutableTreeNode("Loading..."));
+        }
+
+        File dir() {
+            return (File) getUserObject();
+        }
+    }
+
+    private final DefaultTreeModel model;
+    private final ExecutorService lister = Executors.newSingleThreadExecutor(r -> daemon(r, "nova-project-lister"));
+    private final Map<WatchKey, DirNode> watched = new ConcurrentHashMap<>();
+    private WatchService watcher; // null when the file system cannot be watched
+
+    ProjectExplorer(File root) {
+        DirNode rootNode = new DirNode(root);
+        model = new DefaultTreeModel(rootNode);
+        setModel(model);
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            Thread t = daemon(this::watch, "nova-project-watch");
+            t.start();
+        } catch (IOException | UnsupportedOperationException ex) {
+            watcher = null;
+        }
+        addTreeWillExpandListener(new TreeWillExpandListener() {
+            @Override
+            public void treeWillExpand(TreeExpansionEvent e) {
+                Object node = e.getPath().getLastPathComponent();
+                if (node instanceof DirNode)
+                    load((DirNode) node);
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent e) {
+            }
+        });
+        // setModel() shows the root expanded without a will-expand event
+        load(rootNode);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    // Folders other than hidden ones and node_modules, and the files the IDE opens
+    private static boolean shown(Path p, boolean isDir) {
+        String name = p.getFileName().toString();
+        if (isDir)
+            return !name.equals("node_modules") && !name.startsWith(".");
+        return name.endsWith(".txt") || name.endsWith(".java");
+    }
+
+    private static DefaultMutableTreeNode nodeFor(File f, boolean isDir) {
+        return isDir ? new DirNode(f) : new DefaultMutableTreeNode(f);
+    }
+
+    // EDT: starts listing the directory unless that is already done or under way
+    private void load(DirNode node) {
+        if (node.loaded || node.loading)
+            return;
+        node.loading = true;
+        File dir = node.dir();
+        lister.submit(() -> {
+            // watch first, so nothing created while listing is missed
+            WatchKey key = register(dir.toPath(), node);
+            List<File> children = new ArrayList<>();
+            Set<File> dirs = new HashSet<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+                for (Path p : stream) {
+                    boolean isDir = Files.isDirectory(p);
+                    if (isDir ? shown(p, true) : Files.isRegularFile(p) && shown(p, false)) {
+                        File f = new File(dir, p.getFileName().toString());
+                        children.add(f);
+                        if (isDir)
+                            dirs.add(f);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException ignored) {
+                // unreadable: shown as empty
+            }
+            Collections.sort(children);
+            SwingUtilities.invokeLater(() -> populate(node, key, children, dirs));
+        });
+    }
+
+    private WatchKey register(Path dir, DirNode node) {
+        if (watcher == null)
+            return null;
+        try {
+            WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            watched.put(key, node);
+            return key;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private void populate(DirNode node, WatchKey key, List<File> children, Set<File> dirs) {
+        node.loading = false;
+        node.loaded = true;
+        node.key = key;
+        if (node.getRoot() != model.getRoot()) {
+            unwatch(node); // removed from the tree while it was being listed
+            return;
+        }
+        node.removeAllChildren();
+        for (File f : children)
+            node.add(nodeFor(f, dirs.contains(f)));
+        model.nodeStructureChanged(node);
+    }
+
+    // Watch thread: turns file system events into tree updates on the EDT
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            DirNode node = watched.get(key);
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (node == null)
+                    continue;
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    SwingUtilities.invokeLater(() -> reload(node));
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    boolean isDir = Files.isDirectory(child);
+                    if (isDir ? shown(child, true) : Files.isRegularFile(child) && shown(child, false))
+                        SwingUtilities.invokeLater(() -> created(node, child.getFileName().toString(), isDir));
+                } else {
+                    SwingUtilities.invokeLater(() -> deleted(node, child.getFileName().toString()));
+                }
+            }
+            if (!key.reset())
+                watched.remove(key);
+        }
+    }
+
+    private void created(DirNode parent, String name, boolean isDir) {
+        if (!parent.loaded || parent.getRoot() != model.getRoot())
+            return;
+        File f = new File(parent.dir(), name);
+        int at = 0;
+        for (; at < parent.getChildCount(); at++) {
+            int cmp = ((File) ((DefaultMutableTreeNode) parent.getChildAt(at)).getUserObject()).compareTo(f);
+            if (cmp == 0)
+                return; // already listed
+            if (cmp > 0)
+                break;
+        }
+        model.insertNodeInto(nodeFor(f, isDir), parent, at);
+    }
+
+    private void deleted(DirNode parent, String name) {
+        if (!parent.loaded)
+            return;
+        File f = new File(parent.dir(), name);
+        for (int i = 0; i < parent.getChildCount(); i++) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode) parent.getChildAt(i);
+            if (f.equals(child.getUserObject())) {
+                model.removeNodeFromParent(child);
+                unwatch(child);
+                return;
+            }
+        }
+    }
+
+    // After an overflow the directory's events are lost; list it again and drop
+    // its subtree, which is reloaded on the next expand
+    private void reload(DirNode node) {
+        if (!node.loaded)
+            return;
+        for (int i = 0; i < node.getChildCount(); i++)
+            unwatch((DefaultMutableTreeNode) node.getChildAt(i));
+        if (node.key != null) {
+            node.key.cancel();
+            watched.remove(node.key);
+        }
+        node.loaded = false;
+        node.key = null;
+        node.removeAllChildren();
+        node.add(new DefaultMutableTreeNode("Loading..."));
+        model.nodeStructureChanged(node);
+        load(node);
+    }
+
+    // Stops watching a removed subtree
+    private void unwatch(DefaultMutableTreeNode node) {
+        Enumeration<?> all = node.breadthFirstEnumeration();
+        while (all.hasMoreElements()) {
+            Object n = all.nextElement();
+            if (n instanceof DirNode && ((DirNode) n).key != null) {
+                ((DirNode) n).key.cancel();
+                watched.remove(((DirNode) n).key);
+            }
+        }
+    }
+}
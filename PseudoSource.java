@@ -0,0 +1,273 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Pseudo program lines read one at a time. Text sources yield the same lines as
+// text.split("\\r?\\n") without ever holding the whole text. A source can be
+// rewound once, so the translator can start over when it finds out late that a
+// program is object oriented.
+abstract class PseudoSource implements Closeable {
+    private int count;
+
+    // Opens the text again for every pass, e.g. a Reader over an editor document
+    interface Opener {
+        Reader open() throws IOException;
+    }
+
+    static PseudoSource of(List<String> lines) {
+        return new PseudoSource() {
+            private int next;
+
+            @Override
+            String read() {
+                return next < lines.size() ? lines.get(next++) : null;
+            }
+
+            @Override
+            void restart() {
+                next = 0;
+            }
+        };
+    }
+
+    // A Reader cannot be rewound, so what has been read is kept in a SpillBuffer
+    // until the first rewind replays it
+    static PseudoSource of(Reader reader) {
+        return new Text() {
+            private final SpillBuffer seen = new SpillBuffer();
+            private boolean recording = true;
+            private Reader replay;
+
+            @Override
+            int fill(char[] buf) throws IOException {
+                if (replay != null) {
+                    int n = replay.read(buf, 0, buf.length);
+                    if (n > 0)
+                        return n;
+                    replay.close();
+                    replay = null;
+                    seen.close();
+                }
+                int n = reader.read(buf, 0, buf.length);
+                if (n > 0 && recording)
+                    seen.append(buf, 0, n);
+                return n;
+            }
+
+            @Override
+            void reopen() throws IOException {
+                if (!recording)
+                    throw new IOException("Reader source can only be rewound once");
+                recording = false;
+                replay = seen.reader();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (replay != null)
+                    replay.close();
+                seen.close();
+                reader.close();
+            }
+        };
+    }
+
+    static PseudoSource of(Opener opener) throws IOException {
+        return new Text() {
+            private Reader reader = opener.open();
+
+            @Override
+            int fill(char[] buf) throws IOException {
+                return reader.read(buf, 0, buf.length);
+            }
+
+            @Override
+            void reopen() throws IOException {
+                reader.close();
+                reader = opener.open();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    // Memory-maps the file a window at a time and decodes it with the platform
+    // charset, like new String(Files.readAllBytes(file))
+    static PseudoSource of(Path file) throws IOException {
+        return new Mapped(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    // The next line, or null at the end
+    String next() throws IOException {
+        String line = read();
+        if (line != null)
+            count++;
+        return line;
+    }
+
+    // Lines returned since the start or the last rewind
+    int lineCount() {
+        return count;
+    }
+
+    void rewind() throws IOException {
+        count = 0;
+        restart();
+    }
+
+    abstract String read() throws IOException;
+
+    abstract void restart() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    // Splits a stream of characters into lines with String.split semantics: a line
+    // ends at '\n' with one '\r' before it dropped, empty lines at the end are not
+    // lines at all, and an empty text is one empty line.
+    private abstract static class Text extends PseudoSource {
+        private final char[] buf = new char[8192];
+        private int pos, limit;
+        private boolean eof, started;
+        private int emptyLines; // empty lines read but not returned yet
+        private String held; // line read after them
+        private final StringBuilder line = new StringBuilder();
+
+        // Reads up to buf.length chars, -1 at the end
+        abstract int fill(char[] buf) throws IOException;
+
+        abstract void reopen() throws IOException;
+
+        @Override
+        String read() throws IOException {
+            if (emptyLines > 0 && held != null) {
+                emptyLines--;
+                return "";
+            }
+            if (held != null) {
+                String h = held;
+                held = null;
+                return h;
+            }
+            while (true) {
+                String raw = readRaw();
+                if (raw == null) {
+                    if (started)
+                        return null;
+                    started = true;
+                    return "";
+                }
+                started = true;
+                if (raw.isEmpty()) {
+                    emptyLines++;
+                } else if (emptyLines > 0) {
+                    held = raw;
+                    emptyLines--;
+                    return "";
+                } else {
+                    return raw;
+                }
+            }
+        }
+
+        private String readRaw() throws IOException {
+            line.setLength(0);
+            while (true) {
+                if (pos == limit) {
+                    if (eof)
+                        return line.length() > 0 ? line.toString() : null;
+                    int n = fill(buf);
+                    if (n < 0)
+                        eof = true;
+                    pos = 0;
+                    limit = Math.max(n, 0);
+                    continue;
+                }
+                int start = pos;
+                while (pos < limit && buf[pos] != '\n')
+                    pos++;
+                line.append(buf, start, pos - start);
+                if (pos < limit) {
+                    pos++;
+                    int len = line.length();
+                    if (len > 0 && line.charAt(len - 1) == '\r')
+                        line.setLength(len - 1);
+                    return line.toString();
+                }
+            }
+        }
+
+        @Override
+        void restart() throws IOException {
+            pos = limit = 0;
+            eof = started = false;
+            emptyLines = 0;
+            held = null;
+            reopen();
+        }
+    }
+
+    private static class Mapped extends Text {
+        private static final long WINDOW = 64L << 20;
+
+        private final FileChannel channel;
+        private final long size;
+        private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer window;
+        private long windowStart;
+        private boolean done;
+
+        Mapped(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        private void map(long from) throws IOException {
+            windowStart = from;
+            long len = Math.min(WINDOW, size - from);
+            window = len == 0 ? ByteBuffer.allocate(0) : channel.map(FileChannel.MapMode.READ_ONLY, from, len);
+        }
+
+        @Override
+        int fill(char[] buf) throws IOException {
+            if (done)
+                return -1;
+            CharBuffer out = CharBuffer.wrap(buf);
+            while (out.position() == 0) {
+                boolean last = windowStart + window.limit() >= size;
+                CoderResult r = decoder.decode(window, out, last);
+                if (r.isOverflow())
+                    break;
+                if (last) {
+                    decoder.flush(out);
+                    done = true;
+                    break;
+                }
+                // a character may straddle the window end: the next window starts at it
+                map(windowStart + window.position());
+            }
+            return out.position() == 0 ? -1 : out.position();
+        }
+
+        @Override
+        void reopen() throws IOException {
+            decoder.reset();
+            done = false;
+            map(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import java.util.*;
+import java.util.regex.*;
+
+// Direct matcher for the shape of regex that rules.json patterns use: literals,
+// \s \w \d and '.', greedy * + ? on those, capturing groups, and alternatives of
+// plain words such as (int|string). A pattern is compiled to a flat list of steps
+// that is matched by backtracking in the same order java.util.regex tries things,
+// so the groups come out identical, without the Matcher and its allocations.
+// compile() returns null for anything else, and the rule keeps using its Pattern.
+final class RuleMatcher {
+    private static final int TEXT = 0, ANY = 1, SPACE = 2, WORD = 3, DIGIT = 4, NOT_SPACE = 5, NOT_WORD = 6,
+            NOT_DIGIT = 7, OPEN = 8, CLOSE = 9, WORDS = 10, END = 11;
+
+    private final int[] op, arg, min, max; // one step each; max -1 = unbounded
+    private final char[][] lower, upper; // TEXT steps: each character in both cases
+    private final String[][] words; // WORDS steps: the alternatives
+    private final boolean ignoreCase;
+    final int groupCount;
+
+    private RuleMatcher(List<Object[]> steps, int groupCount, boolean ignoreCase) {
+        int n = steps.size();
+        op = new int[n];
+        arg = new int[n];
+        min = new int[n];
+        max = new int[n];
+        lower = new char[n][];
+        upper = new char[n][];
+        words = new String[n][];
+        for (int i = 0; i < n; i++) {
+            Object[] s = steps.get(i);
+            op[i] = (Integer) s[0];
+            arg[i] = (Integer) s[1];
+            min[i] = (Integer) s[2];
+            max[i] = (Integer) s[3];
+            if (op[i] == TEXT) {
+                String text = (String) s[4];
+                lower[i] = text.toCharArray();
+                upper[i] = text.toCharArray();
+                if (ignoreCase)
+                    for (int k = 0; k < text.length(); k++) {
+                        char c = text.charAt(k);
+                        if (c >= 'A' && c <= 'Z')
+                            lower[i][k] = (char) (c + ('a' - 'A'));
+                        else if (c >= 'a' && c <= 'z')
+                            upper[i][k] = (char) (c - ('a' - 'A'));
+                    }
+            } else if (op[i] == WORDS) {
+                words[i] = (String[]) s[4];
+            }
+        }
+        this.groupCount = groupCount;
+        this.ignoreCase = ignoreCase;
+    }
+
+    // Compiles p for matches() use, or returns null if it is outside the supported subset
+    static RuleMatcher compile(Pattern p) {
+        int flags = p.flags();
+        if ((flags & ~Pattern.CASE_INSENSITIVE) != 0)
+            return null;
+        String re = p.pattern();
+        List<Object[]> steps = new ArrayList<>();
+        StringBuilder text = new StringBuilder(); // literal characters not yet made a step
+        Deque<Integer> open = new ArrayDeque<>();
+        int groups = 0, i = 0, n = re.length();
+        if (re.startsWith("^"))
+            i++;
+        while (i < n) {
+            char c = re.charAt(i);
+            int atom, value = 0;
+            if (c == '$') {
+                if (i != n - 1)
+                    return null;
+                break;
+            } else if (c == '(') {
+                if (re.startsWith("?", i + 1))
+                    return null; // non-capturing, lookaround, flags
+                int close = re.indexOf(')', i);
+                String[] alts = close > 0 ? plainWords(re.substring(i + 1, close)) : null;
+                groups++;
+                flush(steps, text);
+                steps.add(step(OPEN, groups, 0, 0, null));
+                if (alts != null && (close + 1 >= n || "?*+{".indexOf(re.charAt(close + 1)) < 0)) {
+                    steps.add(step(WORDS, 0, 0, 0, alts));
+                    steps.add(step(CLOSE, groups, 0, 0, null));
+                    i = close + 1;
+                } else {
+                    open.push(groups);
+                    i++;
+                }
+                continue;
+            } else if (c == ')') {
+                if (open.isEmpty() || (i + 1 < n && "?*+{".indexOf(re.charAt(i + 1)) >= 0))
+                    return null; // quantified groups are not supported
+                flush(steps, text);
+                steps.add(step(CLOSE, open.pop(), 0, 0, null));
+                i++;
+                continue;
+            } else if (c == '.') {
+                atom = ANY;
+                i++;
+            } else if (c == '\\') {
+                if (i + 1 >= n)
+                    return null;
+                char e = re.charAt(i + 1);
+                i += 2;
+                if (e == 's')
+                    atom = SPACE;
+                else if (e == 'S')
+                    atom = NOT_SPACE;
+                else if (e == 'w')
+                    atom = WORD;
+                else if (e == 'W')
+                    atom = NOT_WORD;
+                else if (e == 'd')
+                    atom = DIGIT;
+                else if (e == 'D')
+                    atom = NOT_DIGIT;
+                else if (!Character.isLetterOrDigit(e) && e < 128) {
+                    atom = TEXT;
+                    value = e;
+                } else
+                    return null;
+            } else if ("[]{}|?*+^".indexOf(c) >= 0) {
+                return null;
+            } else {
+                atom = TEXT;
+                value = c;
+                i++;
+            }
+            int lo = 1, hi = 1;
+            if (i < n) {
+                char q = re.charAt(i);
+                if (q == '*' || q == '+' || q == '?') {
+                    lo = q == '+' ? 1 : 0;
+                    hi = q == '?' ? 1 : -1;
+                    i++;
+                    if (i < n && (re.charAt(i) == '?' || re.charAt(i) == '+'))
+                        return null; // lazy or possessive
+                } else if (q == '{') {
+                    return null;
+                }
+            }
+            if (atom == TEXT && lo == 1 && hi == 1) {
+                text.append((char) value);
+                continue;
+            }
+            flush(steps, text);
+            // a quantified literal is a run of a one-character class
+            steps.add(step(atom, value, lo, hi, atom == TEXT ? String.valueOf((char) value) : null));
+        }
+        if (!open.isEmpty())
+            return null;
+        flush(steps, text);
+        steps.add(step(END, 0, 0, 0, null));
+        return new RuleMatcher(steps, groups, (flags & Pattern.CASE_INSENSITIVE) != 0);
+    }
+
+    private static Object[] step(int op, int arg, int min, int max, Object data) {
+        return new Object[] { op, arg, min, max, data };
+    }
+
+    private static void flush(List<Object[]> steps, StringBuilder text) {
+        if (text.length() > 0)
+            steps.add(step(TEXT, 0, 1, 1, text.toString()));
+        text.setLength(0);
+    }
+
+    // "int|string" -> [int, string]; null unless every alternative is plain word characters
+    private static String[] plainWords(String body) {
+        String[] alts = body.split("\\|", -1);
+        for (String a : alts) {
+            if (a.isEmpty())
+                return null;
+            for (int k = 0; k < a.length(); k++)
+                if (!NovaLexer.isWordChar(a.charAt(k)))
+                    return null;
+        }
+        return alts;
+    }
+
+    // Matches the whole line; on success bounds[2g] and bounds[2g + 1] hold group g's
+    // start and end. Groups are never optional here, so every group takes part.
+    boolean matches(String line, int[] bounds) {
+        bounds[0] = 0;
+        bounds[1] = line.length();
+        return match(0, 0, line, bounds);
+    }
+
+    private boolean match(int step, int pos, String s, int[] bounds) {
+        int len = s.length();
+        while (true) {
+            switch (op[step]) {
+                case END:
+                    return pos == len;
+                case OPEN:
+                    // every way through the steps passes every group once, so bounds left
+                    // by a failed attempt are overwritten by the next one
+                    bounds[2 * arg[step]] = pos;
+                    step++;
+                    continue;
+                case CLOSE:
+                    bounds[2 * arg[step] + 1] = pos;
+                    step++;
+                    continue;
+                case WORDS:
+                    for (String w : words[step]) {
+                        if (s.regionMatches(ignoreCase, pos, w, 0, w.length()) && asciiRegion(s, pos, w.length())
+                                && match(step + 1, pos + w.length(), s, bounds))
+                            return true;
+                    }
+                    return false;
+                default:
+            }
+            if (op[step] == TEXT && min[step] == 1 && max[step] == 1) {
+                // literal text: no backtracking point
+                char[] lo = lower[step], up = upper[step];
+                if (pos + lo.length > len)
+                    return false;
+                for (int k = 0; k < lo.length; k++) {
+                    char c = s.charAt(pos + k);
+                    if (c != lo[k] && c != up[k])
+                        return false;
+                }
+                pos += lo.length;
+                step++;
+                continue;
+            }
+            int limit = max[step] < 0 ? len - pos : Math.min(max[step], len - pos);
+            int count = run(step, s, pos, limit);
+            if (count < min[step])
+                return false;
+            // greedy: longest run first, then give back one character at a time; tries
+            // that would fail on the very next step are skipped
+            int next = step + 1;
+            while (op[next] == CLOSE)
+                next++;
+            if (op[next] == END)
+                return pos + count == len && match(step + 1, len, s, bounds);
+            boolean literal = op[next] == TEXT && min[next] == 1;
+            char lo = literal ? lower[next][0] : 0, up = literal ? upper[next][0] : 0;
+            for (int k = count; k >= min[step]; k--) {
+                if (literal && (pos + k >= len || (s.charAt(pos + k) != lo && s.charAt(pos + k) != up)))
+                    continue;
+                if (match(step + 1, pos + k, s, bounds))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    // How many characters from pos, up to limit, the step's character class accepts
+    private int run(int step, String s, int pos, int limit) {
+        int k = 0;
+        switch (op[step]) {
+            case ANY:
+                while (k < limit && !NovaLexer.isLineTerminator(s.charAt(pos + k)))
+                    k++;
+                break;
+            case SPACE:
+                while (k < limit && NovaLexer.isSpace(s.charAt(pos + k)))
+                    k++;
+                break;
+            case NOT_SPACE:
+                while (k < limit && !NovaLexer.isSpace(s.charAt(pos + k)))
+                    k++;
+                break;
+            case WORD:
+                while (k < limit && NovaLexer.isWordChar(s.charAt(pos + k)))
+                    k++;
+                break;
+            case NOT_WORD:
+                while (k < limit && !NovaLexer.isWordChar(s.charAt(pos + k)))
+                    k++;
+                break;
+            case DIGIT:
+                while (k < limit && NovaLexer.isDigit(s.charAt(pos + k)))
+                    k++;
+                break;
+            case NOT_DIGIT:
+                while (k < limit && !NovaLexer.isDigit(s.charAt(pos + k)))
+                    k++;
+                break;
+            default: // TEXT: one character, repeated
+                char lo = lower[step][0], up = upper[step][0];
+                while (k < limit && (s.charAt(pos + k) == lo || s.charAt(pos + k) == up))
+                    k++;
+        }
+        return k;
+    }
+
+    // regionMatches(ignoreCase) also folds non-ASCII characters, CASE_INSENSITIVE does not
+    private boolean asciiRegion(String s, int from, int len) {
+        if (!ignoreCase)
+            return true;
+        for (int k = from; k < from + len; k++)
+            if (s.charAt(k) >= 128)
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.*;
+import java.nio.file.*;
+
+// Append-only text that is kept in memory up to a limit and moves to a temp file
+// beyond it, so translation state that grows with the input does not grow the heap.
+// Spilled characters are stored as raw UTF-16 units and read back unchanged, even
+// unpaired surrogates.
+class SpillBuffer implements Appendable, Closeable {
+    static final int DEFAULT_LIMIT = 256 * 1024; // chars held in memory before spilling
+
+    private final int limit;
+    private final StringBuilder memory = new StringBuilder();
+    private Path file;
+    private OutputStream out;
+    private byte[] bytes; // write buffer, once spilled
+    private int pending; // bytes not yet written to out
+    private long length;
+
+    SpillBuffer() {
+        this(DEFAULT_LIMIT);
+    }
+
+    SpillBuffer(int limit) {
+        this.limit = limit;
+    }
+
+    long length() {
+        return length;
+    }
+
+    boolean isEmpty() {
+        return length == 0;
+    }
+
+    @Override
+    public SpillBuffer append(CharSequence s) throws IOException {
+        return append(s, 0, s.length());
+    }
+
+    @Override
+    public SpillBuffer append(CharSequence s, int start, int end) throws IOException {
+        if (file == null && memory.length() + (end - start) > limit)
+            spill();
+        if (file == null) {
+            memory.append(s, start, end);
+        } else {
+            for (int i = start; i < end; i++)
+                put(s.charAt(i));
+        }
+        length += end - start;
+        return this;
+    }
+
+    @Override
+    public SpillBuffer append(char c) throws IOException {
+        if (file == null && memory.length() + 1 > limit)
+            spill();
+        if (file == null)
+            memory.append(c);
+        else
+            put(c);
+        length++;
+        return this;
+    }
+
+    SpillBuffer append(char[] chars, int off, int len) throws IOException {
+        return append(java.nio.CharBuffer.wrap(chars, off, len));
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile("nova-spill", ".tmp");
+        file.toFile().deleteOnExit();
+        out = new FileOutputStream(file.toFile());
+        bytes = new byte[16 * 1024];
+        for (int i = 0; i < memory.length(); i++)
+            put(memory.charAt(i));
+        memory.setLength(0);
+        memory.trimToSize();
+    }
+
+    private void put(char c) throws IOException {
+        if (pending == bytes.length) {
+            out.write(bytes, 0, pending);
+            pending = 0;
+        }
+        bytes[pending++] = (byte) (c >> 8);
+        bytes[pending++] = (byte) c;
+    }
+
+    // Everything appended so far; later appends are not seen by the reader
+    Reader reader() throws IOException {
+        if (file == null)
+            return new StringReader(memory.toString());
+        out.write(bytes, 0, pending);
+        pending = 0;
+        out.flush();
+        InputStream in = new FileInputStream(file.toFile());
+        long chars = length;
+        return new Reader() {
+            private final byte[] chunk = new byte[16 * 1024];
+            private long left = chars;
+
+            @Override
+            public int read(char[] b, int off, int len) throws IOException {
+                if (left == 0)
+                    return -1;
+                int n = (int) Math.min(Math.min(len, left), chunk.length / 2);
+                for (int got = 0, r; got < 2 * n; got += r)
+                    if ((r = in.read(chunk, got, 2 * n - got)) < 0)
+                        throw new EOFException("Spill file truncated");
+                for (int i = 0; i < n; i++)
+                    b[off + i] = (char) ((chunk[2 * i] & 0xff) << 8 | chunk[2 * i + 1] & 0xff);
+                left -= n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    void writeTo(Appendable target) throws IOException {
+        if (file == null) {
+            target.append(memory);
+            return;
+        }
+        char[] chunk = new char[8192];
+        try (Reader r = reader()) {
+            int n;
+            while ((n = r.read(chunk, 0, chunk.length)) > 0)
+                target.append(java.nio.CharBuffer.wrap(chunk, 0, n));
+        }
+    }
+
+    void clear() throws IOException {
+        memory.setLength(0);
+        length = 0;
+        pending = 0;
+        if (file != null) {
+            out.close();
+            Files.deleteIfExists(file);
+            file = null;
+            out = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        clear();
+    }
+}
@@ -0,0 +1,239 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.*;
+
+// Runs one compiled program against a directory of test cases, e.g. to grade a
+// submission. Each <case>.in in the directory is a case: it is piped into a fresh
+// JVM as standard input, and what the program prints is compared with <case>.out,
+// if there is one, line by line as it arrives, so neither side is held in memory.
+// Lines are equal if they are equal without trailing white space, and blank lines at
+// the end do not count. The class files are written to disk once for all cases.
+//
+// Every run gets a wall-clock limit and, as the JVM's -Xmx, a heap limit; the cases
+// run on a pool of a given number of workers, each waiting for its JVM.
+class TestRunner {
+    static final String PASS = "PASS", FAIL = "FAIL", TIMEOUT = "TIMEOUT", MEMORY = "MEMORY", ERROR = "ERROR",
+            RAN = "RAN"; // RAN: no .out to compare with
+
+    // The verdict on one case
+    static class CaseResult {
+        final String name; // the .in file's name without .in
+        final String verdict;
+        final long millis;
+        final String detail;
+
+        CaseResult(String name, String verdict, long millis, String detail) {
+            this.name = name;
+            this.verdict = verdict;
+            this.millis = millis;
+            this.detail = detail;
+        }
+    }
+
+    private final long timeoutMillis;
+    private final int heapMegabytes;
+    private final int workers;
+
+    TestRunner(long timeoutMillis, int heapMegabytes, int workers) {
+        this.timeoutMillis = timeoutMillis;
+        this.heapMegabytes = heapMegabytes;
+        this.workers = Math.max(1, workers);
+    }
+
+    // The cases in a directory, sorted by name
+    static List<Path> cases(Path dir) throws IOException {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.filter(p -> p.getFileName().toString().endsWith(".in") && Files.isRegularFile(p))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    // Runs mainClass against every case; each result also goes to done, from the
+    // worker that made it, as soon as it is known. The results are in case order.
+    List<CaseResult> run(NovaCompiler.Result compiled, String mainClass, List<Path> cases, Consumer<CaseResult> done)
+            throws IOException, InterruptedException {
+        File classDir = Files.createTempDirectory("nova-tests").toFile();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, Math.max(1, cases.size())),
+                r -> daemon(r, "nova-test-worker"));
+        // two readers per running case, which block on its pipes
+        ExecutorService readers = Executors.newCachedThreadPool(r -> daemon(r, "nova-test-reader"));
+        try {
+            compiled.writeTo(classDir);
+            List<Future<CaseResult>> futures = new ArrayList<>();
+            for (Path c : cases)
+                futures.add(pool.submit(() -> {
+                    CaseResult r = runCase(classDir, mainClass, c, readers);
+                    if (done != null)
+                        done.accept(r);
+                    return r;
+                }));
+            List<CaseResult> results = new ArrayList<>();
+            for (Future<CaseResult> f : futures)
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException ex) {
+                    throw new IOException(ex.getCause());
+                }
+            return results;
+        } finally {
+            pool.shutdownNow();
+            readers.shutdownNow();
+            deleteRecursively(classDir);
+        }
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private CaseResult runCase(File classDir, String mainClass, Path in, Executor readers)
+            throws IOException, InterruptedException {
+        String file = in.getFileName().toString();
+        String name = file.substring(0, file.length() - ".in".length());
+        Path expected = in.resolveSibling(name + ".out");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder pb = new ProcessBuilder(java, "-Xmx" + heapMegabytes + "m", "-XX:+UseSerialGC", "-cp",
+                classDir.getPath(), mainClass);
+        pb.redirectInput(in.toFile());
+        long start = System.nanoTime();
+        Process p = pb.start();
+
+        // stderr is only searched for an OutOfMemoryError; its last few KB are kept
+        CompletableFuture<String> errTail = CompletableFuture.supplyAsync(() -> tail(p.getErrorStream()), readers);
+        Comparison comparison = new Comparison(Files.exists(expected) ? expected : null);
+        CompletableFuture<Void> compared = CompletableFuture.runAsync(() -> comparison.consume(p.getInputStream()),
+                readers);
+
+        boolean finished = p.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (!finished) {
+            p.destroyForcibly();
+            p.waitFor();
+        }
+        compared.join();
+        String err = errTail.join();
+        if (!finished)
+            return new CaseResult(name, TIMEOUT, millis, "over " + timeoutMillis + " ms");
+        if (err.contains("java.lang.OutOfMemoryError"))
+            return new CaseResult(name, MEMORY, millis, "over " + heapMegabytes + " MB of heap");
+        if (p.exitValue() != 0)
+            return new CaseResult(name, ERROR, millis, "exit status " + p.exitValue() + firstLine(err));
+        if (comparison.problem != null)
+            return new CaseResult(name, comparison.expected == null ? ERROR : FAIL, millis, comparison.problem);
+        if (comparison.expected == null)
+            return new CaseResult(name, RAN, millis, comparison.lines + " lines, no " + name + ".out");
+        return new CaseResult(name, PASS, millis, comparison.lines + " lines");
+    }
+
+    // The program's output against the expected file, one line of each at a time
+    private static class Comparison {
+        final Path expected; // null: only count the lines
+        int lines;
+        String problem; // the first difference, or why the output could not be read
+
+        Comparison(Path expected) {
+            this.expected = expected;
+        }
+
+        void consume(InputStream output) {
+            try (BufferedReader actual = new BufferedReader(new InputStreamReader(output, StandardCharsets.UTF_8));
+                    BufferedReader wanted = expected == null ? null
+                            : Files.newBufferedReader(expected, StandardCharsets.UTF_8)) {
+                String got;
+                int blankRun = 0; // blank lines of the output not matched yet
+                while ((got = actual.readLine()) != null) {
+                    lines++;
+                    if (wanted == null || problem != null)
+                        continue; // keep draining, so the program does not block
+                    if (stripEnd(got).isEmpty()) {
+                        blankRun++;
+                        continue;
+                    }
+                    for (; blankRun > 0 && problem == null; blankRun--)
+                        expectLine(wanted, "", lines - blankRun);
+                    if (problem == null)
+                        expectLine(wanted, got, lines);
+                }
+                if (wanted != null && problem == null) {
+                    String rest;
+                    while ((rest = wanted.readLine()) != null)
+                        if (!stripEnd(rest).isEmpty()) {
+                            problem = "output ends at line " + (lines + 1) + ", expected \"" + rest + "\"";
+                            break;
+                        }
+                }
+            } catch (IOException ex) {
+                if (problem == null)
+                    problem = "could not read the output: " + ex.getMessage();
+            }
+        }
+
+        private void expectLine(BufferedReader wanted, String got, int line) throws IOException {
+            String want = wanted.readLine();
+            if (want == null)
+                problem = "line " + line + ": expected the end of the output, got \"" + got + "\"";
+            else if (!stripEnd(want).equals(stripEnd(got)))
+                problem = "line " + line + ": expected \"" + want + "\", got \"" + got + "\"";
+        }
+    }
+
+    private static String stripEnd(String s) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) <= ' ')
+            end--;
+        return s.substring(0, end);
+    }
+
+    private static final int TAIL_BYTES = 8192;
+
+    private static String tail(InputStream err) {
+        byte[] ring = new byte[TAIL_BYTES];
+        long total = 0;
+        byte[] buf = new byte[4096];
+        try (InputStream in = err) {
+            int n;
+            while ((n = in.read(buf)) > 0)
+                for (int i = 0; i < n; i++)
+                    ring[(int) (total++ % TAIL_BYTES)] = buf[i];
+        } catch (IOException ignored) {
+        }
+        int size = (int) Math.min(total, TAIL_BYTES);
+        byte[] out = new byte[size];
+        for (int i = 0; i < size; i++)
+            out[i] = ring[(int) ((total - size + i) % TAIL_BYTES)];
+        return new String(out, StandardCharsets.UTF_8);
+    }
+
+    private static String firstLine(String err) {
+        for (String line : err.split("\\r?\\n"))
+            if (!line.isBlank())
+                return ": " + line.trim();
+        return "";
+    }
+
+    private static void deleteRecursively(File dir) {
+        try (Stream<Path> walk = Files.walk(dir.toPath())) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException ignored) {
+        }
+    }
+
+    // One line per case, then how many passed
+    static String table(List<CaseResult> results) {
+        StringBuilder sb = new StringBuilder();
+        int passed = 0;
+        for (CaseResult r : results) {
+            sb.append(String.format("%-8s %-24s %7d ms  %s%n", r.verdict, r.name, r.millis, r.detail));
+            if (r.verdict.equals(PASS))
+                passed++;
+        }
+        sb.append(String.format("%d of %d passed%n", passed, results.size()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,163 @@
+package nova.bench;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.nio.file.*;
+import java.util.*;
+
+// The translator and compiler are package-private classes in the default package,
+// which JMH cannot generate benchmarks for and Java cannot import from. This bridge
+// resolves the methods the benchmarks need once, as constant method handles, so a
+// call through it costs the same as a direct call after JIT compilation.
+final class Nova {
+    static final Path ROOT = Paths.get(System.getProperty("nova.root", "."));
+
+    private static final MethodHandle LOAD = method("NovaTranslator", "load", String.class);
+    private static final MethodHandle TRANSLATE = method("NovaTranslator", "translate", List.class);
+    private static final MethodHandle HAS_OOP = method("NovaTranslator", "hasOOPStructure", List.class);
+    private static final MethodHandle PROCEDURAL = method("NovaTranslator", "convertProcedural", List.class);
+    private static final MethodHandle OOP = method("NovaTranslator", "convertOOP", List.class);
+    private static final MethodHandle PARSE = method("NovaTranslator", "parse", List.class);
+    private static final MethodHandle CONVERT_LINE = method("NovaTranslator", "convertLine", String.class,
+            StringBuilder.class);
+    private static final MethodHandle SOURCES = getter("NovaTranslator$Translation", "sources");
+    private static final MethodHandle NEW_COMPILER = constructor("NovaCompiler");
+    private static final MethodHandle COMPILE = method("NovaCompiler", "compile", Map.class);
+    private static final MethodHandle SUCCESS = getter("NovaCompiler$Result", "success");
+    private static final MethodHandle DIAGNOSTICS = method("NovaCompiler$Result", "formatDiagnostics");
+
+    private Nova() {
+    }
+
+    static Object translator() {
+        try {
+            return (Object) LOAD.invokeExact((Object) null, (Object) ROOT.resolve("rules.json").toString());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object translate(Object translator, List<String> lines) {
+        try {
+            return (Object) TRANSLATE.invokeExact(translator, (Object) lines);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean hasOOPStructure(Object translator, List<String> lines) {
+        try {
+            return (boolean) (Object) HAS_OOP.invokeExact(translator, (Object) lines);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object convertProcedural(Object translator, List<String> lines) {
+        try {
+            return (Object) PROCEDURAL.invokeExact(translator, (Object) lines);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object convertOOP(Object translator, List<String> lines) {
+        try {
+            return (Object) OOP.invokeExact(translator, (Object) lines);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object parse(Object translator, List<String> lines) {
+        try {
+            return (Object) PARSE.invokeExact(translator, (Object) lines);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void convertLine(Object translator, String line, StringBuilder out) {
+        try {
+            Object ignored = (Object) CONVERT_LINE.invokeExact(translator, (Object) line, (Object) out);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, String> sources(Object translation) {
+        try {
+            return (Map<String, String>) (Object) SOURCES.invokeExact(translation);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object compiler() {
+        try {
+            return (Object) NEW_COMPILER.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Compiles and fails loudly, so a broken corpus program cannot pass for a fast one
+    static Object compile(Object compiler, Map<String, String> sources) {
+        try {
+            Object result = (Object) COMPILE.invokeExact(compiler, (Object) sources);
+            if (!(boolean) (Object) SUCCESS.invokeExact(result))
+                throw new IllegalStateException("compile failed:\n" + (Object) DIAGNOSTICS.invokeExact(result));
+            return result;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Every handle is adapted to take and return Object, so the call sites above can
+    // use invokeExact without naming the default-package types
+    private static MethodHandle method(String owner, String name, Class<?>... params) {
+        try {
+            Method m = Class.forName(owner).getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            return generic(MethodHandles.lookup().unreflect(m), Modifier.isStatic(m.getModifiers()));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle getter(String owner, String name) {
+        try {
+            Field f = Class.forName(owner).getDeclaredField(name);
+            f.setAccessible(true);
+            return generic(MethodHandles.lookup().unreflectGetter(f), false);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(String owner) {
+        try {
+            Constructor<?> c = Class.forName(owner).getDeclaredConstructor();
+            c.setAccessible(true);
+            return generic(MethodHandles.lookup().unreflectConstructor(c), false);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Static methods get a leading ignored receiver so all methods share one shape
+    private static MethodHandle generic(MethodHandle mh, boolean isStatic) {
+        if (isStatic)
+            mh = MethodHandles.dropArguments(mh, 0, Object.class);
+        return mh.asType(mh.type().generic());
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException)
+            return (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        return new IllegalStateException(t);
+    }
+}
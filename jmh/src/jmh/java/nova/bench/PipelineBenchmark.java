@@ -0,0 +1,41 @@
+package nova.bench;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// End to end: translate a corpus program and compile it in memory with a warm javac
+// session, as Compile & Run does before the program starts. The translate-only
+// variant shows how much of that is ours.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5)
+public class PipelineBenchmark {
+
+    @Param({ "hello", "sum", "fizzbuzz", "primes", "arrays", "strings", "grades", "trycatch", "counter",
+            "shapes", "bank" })
+    public String program;
+
+    private Object translator, compiler;
+    private List<String> lines;
+
+    @Setup
+    public void setUp() throws IOException {
+        translator = Nova.translator();
+        compiler = Nova.compiler();
+        lines = Programs.corpus(program);
+    }
+
+    @Benchmark
+    public Object translateAndCompile() {
+        return Nova.compile(compiler, Nova.sources(Nova.translate(translator, lines)));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object translateOnly() {
+        return Nova.translate(translator, lines);
+    }
+}
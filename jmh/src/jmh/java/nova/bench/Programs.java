@@ -0,0 +1,90 @@
+package nova.bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Benchmark inputs: the checked-in corpus of representative programs, and synthetic
+// programs of any length built by repeating self-contained blocks in the corpus style.
+final class Programs {
+    static final Path CORPUS = Nova.ROOT.resolve("corpus");
+
+    // One procedural block, balanced so it can be repeated any number of times
+    private static final String[] PROCEDURAL_BLOCK = {
+            "input int n",
+            "int total = 0",
+            "int values[10]",
+            "for i = 1 to n",
+            "    values[i % 10] = i * 2",
+            "    if i % 3 == 0",
+            "        total = total + values[i % 10]",
+            "    else if i % 5 == 0",
+            "        print \"five \" + i",
+            "    else",
+            "        continue",
+            "    endif",
+            "endfor",
+            "string label = \"total\"",
+            "while total > 100",
+            "    total = total - 7",
+            "endwhile",
+            "print label + \": \" + total",
+            "",
+    };
+
+    // One class; %d is replaced with a sequence number to keep class names distinct
+    private static final String[] CLASS_BLOCK = {
+            "class Account%d",
+            "    public double balance",
+            "    public String owner",
+            "    function deposit(double amount)",
+            "        if amount <= 0",
+            "            print \"invalid amount\"",
+            "            return",
+            "        endif",
+            "        balance = balance + amount",
+            "    endfunction",
+            "    boolean withdraw(double amount)",
+            "        if amount > balance",
+            "            return false",
+            "        endif",
+            "        balance = balance - amount",
+            "        return true",
+            "    endfunction",
+    };
+
+    private static final String[] MAIN_BLOCK = {
+            "class Main",
+            "    Account0 a = new Account0()",
+            "    for i = 1 to 10",
+            "        a.deposit(i)",
+            "    endfor",
+            "    print a.balance",
+    };
+
+    private Programs() {
+    }
+
+    static List<String> procedural(int lines) {
+        List<String> out = new ArrayList<>(lines);
+        while (out.size() < lines)
+            for (String line : PROCEDURAL_BLOCK)
+                out.add(line);
+        return out;
+    }
+
+    // Classes of CLASS_BLOCK length followed by a Main class; always whole classes,
+    // so the program is at least the requested size
+    static List<String> oop(int lines) {
+        List<String> out = new ArrayList<>(lines + CLASS_BLOCK.length);
+        for (int n = 0; out.size() + MAIN_BLOCK.length < lines || n == 0; n++)
+            for (String line : CLASS_BLOCK)
+                out.add(line.replace("%d", String.valueOf(n)));
+        out.addAll(Arrays.asList(MAIN_BLOCK));
+        return out;
+    }
+
+    static List<String> corpus(String name) throws IOException {
+        return Arrays.asList(new String(Files.readAllBytes(CORPUS.resolve(name + ".txt"))).split("\\r?\\n"));
+    }
+}
@@ -0,0 +1,50 @@
+package nova.bench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Cost of translating a single statement, per kind of line: a keyword rule hit, a
+// rule that is only found after the keyword index, a fallback, and a raw Java line
+// that falls through every rule.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RuleMatchBenchmark {
+    private static final Map<String, String> LINES = new LinkedHashMap<>();
+    static {
+        LINES.put("print", "print \"total: \" + total");
+        LINES.put("input", "input int n");
+        LINES.put("if", "if i % 3 == 0");
+        LINES.put("elseif", "else if total > 10");
+        LINES.put("for", "for i = 1 to n");
+        LINES.put("while", "while total > 100");
+        LINES.put("end", "endfor");
+        LINES.put("declaration", "int total = 0");
+        LINES.put("array", "int values[10]");
+        LINES.put("object", "Account a()");
+        LINES.put("assignment", "total = total + values[i % 10]");
+        LINES.put("raw", "a.deposit(i)");
+    }
+
+    @Param({ "print", "input", "if", "elseif", "for", "while", "end", "declaration", "array", "object",
+            "assignment", "raw" })
+    public String kind;
+
+    private Object translator;
+    private String line;
+    private final StringBuilder out = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        translator = Nova.translator();
+        line = LINES.get(kind);
+    }
+
+    @Benchmark
+    public int convertLine() {
+        out.setLength(0);
+        Nova.convertLine(translator, line, out);
+        return out.length();
+    }
+}
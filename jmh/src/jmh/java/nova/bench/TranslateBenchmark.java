@@ -0,0 +1,59 @@
+package nova.bench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Whole-program translation of synthetic programs at 1k, 10k and 100k lines, for each
+// converter on its own, the structure scan that picks between them, and parsing into
+// a syntax tree without generating code. Run with
+// the gc profiler (the default for this module) to see bytes allocated per line.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TranslateBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int lines;
+
+    private Object translator;
+    private List<String> procedural, oop;
+
+    @Setup
+    public void setUp() {
+        translator = Nova.translator();
+        procedural = Programs.procedural(lines);
+        oop = Programs.oop(lines);
+    }
+
+    @Benchmark
+    public Object convertProcedural() {
+        return Nova.convertProcedural(translator, procedural);
+    }
+
+    @Benchmark
+    public Object convertOOP() {
+        return Nova.convertOOP(translator, oop);
+    }
+
+    @Benchmark
+    public Object parseProcedural() {
+        return Nova.parse(translator, procedural);
+    }
+
+    @Benchmark
+    public Object parseOOP() {
+        return Nova.parse(translator, oop);
+    }
+
+    // Worst case: a procedural program is scanned to the end
+    @Benchmark
+    public boolean hasOOPStructureProcedural() {
+        return Nova.hasOOPStructure(translator, procedural);
+    }
+
+    @Benchmark
+    public boolean hasOOPStructureOOP() {
+        return Nova.hasOOPStructure(translator, oop);
+    }
+}